@@ -0,0 +1,131 @@
+package plugin;
+
+import math.BulkLoader;
+import math.ExpressionParser;
+import math.JavaSourceGenerator;
+import math.Node;
+import math.Variable;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Goal generating a Java class for each file of definitions (*.expr) of the source directory, e.g. Pricing.expr gives
+ * the class Pricing with a static method for each line name = expression, see JavaSourceGenerator.
+ * The expressions are parsed and type checked with the declared variables: unknown identifiers, type errors and lines
+ * without an expression fail the build, with all the errors of all the files reported. Classes whose source is
+ * unchanged are not rewritten, so that the compiler doesn't rebuild them.
+ */
+@Mojo(name = "generate", defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = true)
+public class GenerateMojo extends AbstractMojo {
+    @Parameter(defaultValue = "${project.basedir}/src/main/expressions")
+    private File sourceDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/generated-sources/expressions")
+    private File outputDirectory;
+
+    @Parameter(required = true)
+    private String packageName;
+
+    @Parameter//variables of the expressions, in the order of the parameters of the generated methods
+    private List<String> variables = new ArrayList<>();
+
+    @Parameter(defaultValue = "false")
+    private boolean fastMath;
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (!sourceDirectory.isDirectory())
+            throw new MojoFailureException("missing directory of expressions: " + sourceDirectory);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(sourceDirectory.toPath())) {
+            files = list.filter(file -> file.getFileName().toString().endsWith(".expr")).sorted().collect(Collectors.toList());
+        } catch (IOException ex) {
+            throw new MojoExecutionException("can't list " + sourceDirectory, ex);
+        }
+        if (files.isEmpty())
+            throw new MojoFailureException("no *.expr files in " + sourceDirectory);
+
+        List<String> errors = new ArrayList<>();
+        int generated = 0;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            String className = name.substring(0, name.length() - ".expr".length());
+            ExpressionParser parser = new ExpressionParser();
+            parser.setTypeChecking(true);
+            parser.setFastMath(fastMath);
+            JavaSourceGenerator generator;
+            try {
+                Variable[] declared = new Variable[variables.size()];
+                for (int i = 0; i < declared.length; i++)
+                    declared[i] = parser.setVariable(variables.get(i), 0);
+                generator = new JavaSourceGenerator(packageName, className, declared);
+            } catch (IllegalArgumentException ex) {
+                errors.add(file + ": " + ex.getMessage());
+                continue;
+            }
+            generator.setSource(name);
+            BulkLoader.Result result;
+            try {
+                result = new BulkLoader(parser).load(file);
+            } catch (IOException ex) {
+                throw new MojoExecutionException("can't read " + file, ex);
+            }
+            for (BulkLoader.LineError error : result.getErrors())
+                errors.add(file + ":" + error.getLine() + ":" + (error.getColumn() + 1) + ": " + error.getException().getMessage());
+            for (Map.Entry<String, Node> entry : result.getExpressions().entrySet()) {
+                try {
+                    generator.add(entry.getKey(), entry.getValue());
+                } catch (ParseException | IllegalArgumentException ex) {
+                    errors.add(file + ": " + entry.getKey() + ": " + ex.getMessage());
+                }
+            }
+            if (generator.size() == 0 && result.getErrors().isEmpty())
+                errors.add(file + ": no expressions");
+            if (errors.isEmpty()) {
+                write(generator);
+                generated++;
+            }
+        }
+        if (!errors.isEmpty()) {
+            for (String error : errors)
+                getLog().error(error);
+            throw new MojoFailureException(errors.size() + " error(s) in the expressions, first: " + errors.get(0));
+        }
+        getLog().info("Generated " + generated + " class(es) in " + outputDirectory);
+        project.addCompileSourceRoot(outputDirectory.getPath());
+    }
+
+    private void write(JavaSourceGenerator generator) throws MojoExecutionException {
+        Path target = outputDirectory.toPath().resolve(generator.getClassName().replace('.', File.separatorChar) + ".java");
+        byte[] source = generator.generate().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (Files.exists(target) && Arrays.equals(Files.readAllBytes(target), source))
+                return;
+            Files.createDirectories(target.getParent());
+            Files.write(target, source);
+        } catch (IOException ex) {
+            throw new MojoExecutionException("can't write " + target, ex);
+        }
+    }
+}
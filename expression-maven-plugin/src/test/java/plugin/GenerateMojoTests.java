@@ -0,0 +1,98 @@
+package plugin;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the generate goal: the classes generated from the *.expr files must compile and give the values of their
+ * expressions, unchanged classes must not be rewritten, and the errors of all the lines must fail the build.
+ */
+public class GenerateMojoTests {
+    @TempDir
+    Path directory;
+
+    private GenerateMojo mojo(MavenProject project) throws ReflectiveOperationException {
+        GenerateMojo mojo = new GenerateMojo();
+        set(mojo, "sourceDirectory", directory.resolve("expressions").toFile());
+        set(mojo, "outputDirectory", directory.resolve("generated").toFile());
+        set(mojo, "packageName", "com.acme.formulas");
+        set(mojo, "variables", List.of("price", "volume"));
+        set(mojo, "project", project);
+        return mojo;
+    }
+
+    private static void set(GenerateMojo mojo, String name, Object value) throws ReflectiveOperationException {//as injected by Maven
+        Field field = GenerateMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+    private void write(String file, String content) throws Exception {
+        Files.createDirectories(directory.resolve("expressions"));
+        Files.write(directory.resolve("expressions").resolve(file), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void generatedClasses() throws Exception {
+        write("Pricing.expr", "discount = price > 100 ? price * 0.1 : 0\ntotal = price * volume\n");
+        write("Limits.expr", "expensive = price > 1000 or volume * price > 5000\n");
+        write("notes.txt", "ignored");
+        MavenProject project = new MavenProject();
+        mojo(project).execute();
+        Path generated = directory.resolve("generated");
+        assertTrue(project.getCompileSourceRoots().contains(generated.toString()));
+
+        Path pricing = generated.resolve("com/acme/formulas/Pricing.java");
+        Path limits = generated.resolve("com/acme/formulas/Limits.java");
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Path classes = directory.resolve("classes");
+        int status = compiler.run(null, null, errors, "-d", classes.toString(), "-classpath", System.getProperty("java.class.path"), pricing.toString(), limits.toString());
+        assertEquals(0, status, errors.toString());
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {classes.toUri().toURL()}, getClass().getClassLoader())) {
+            Class<?> pricingClass = loader.loadClass("com.acme.formulas.Pricing");
+            assertEquals(20.0, pricingClass.getMethod("discount", double.class).invoke(null, 200.0));
+            assertEquals(0.0, pricingClass.getMethod("discount", double.class).invoke(null, 50.0));
+            assertEquals(6.0, pricingClass.getMethod("total", double.class, double.class).invoke(null, 2.0, 3.0));
+            Class<?> limitsClass = loader.loadClass("com.acme.formulas.Limits");
+            assertEquals(true, limitsClass.getMethod("expensive", double.class, double.class).invoke(null, 100.0, 60.0));
+        }
+
+        FileTime old = FileTime.fromMillis(0);//unchanged sources are not rewritten
+        Files.setLastModifiedTime(pricing, old);
+        write("Limits.expr", "expensive = price > 2000\n");
+        mojo(new MavenProject()).execute();
+        assertEquals(old, Files.getLastModifiedTime(pricing));
+        assertTrue(new String(Files.readAllBytes(limits), StandardCharsets.UTF_8).contains("2000"));
+    }
+
+    @Test
+    void errors() throws Exception {
+        write("Good.expr", "total = price * volume\n");
+        write("Bad.expr", "a = price +\nb = unknown * 2\nc = price > true\nd = volume\n");
+        MojoFailureException failure = assertThrows(MojoFailureException.class, () -> mojo(new MavenProject()).execute());
+        assertTrue(failure.getMessage().startsWith("3 error(s)"), failure.getMessage());
+        assertTrue(failure.getMessage().contains("Bad.expr:1:"), failure.getMessage());
+        assertFalse(Files.exists(directory.resolve("generated/com/acme/formulas/Bad.java")));
+
+        GenerateMojo missing = mojo(new MavenProject());
+        set(missing, "sourceDirectory", directory.resolve("none").toFile());
+        assertThrows(MojoFailureException.class, missing::execute);
+    }
+}
@@ -4,23 +4,39 @@ Demo class for the math package. This demo shows a window with 3 sections:
 - top section: text editable math expression
 - center section: graph showing the expression tree
 - bottom section: the result of the math expression or syntax error
+
+The layout of the tree is computed once per expression (or when a subtree is collapsed/expanded) and cached,
+nodes are stored by depth in rows sorted by x, so that painting and hit-testing only touch the visible part of the tree.
+Mouse controls on the tree: wheel to zoom, drag to pan, left click to edit a node, right click to collapse/expand a subtree.
 */
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import math.*;
 
 class VisualNode {
     final Node node;
-    final Rectangle2D bounds;
-    VisualNode(Node node, Rectangle2D bounds) {
+    final int depth;
+    final boolean leaf;//true if the node has no children at all, even when expanded
+    final List<VisualNode> children = new ArrayList<>();//visible children, empty when collapsed
+    double x, y;
+    double spanMin, spanMax;//horizontal extent of the node and of the edges towards its visible children
+    VisualNode(Node node, int depth, boolean leaf) {
         this.node = node;
-        this.bounds = bounds;
+        this.depth = depth;
+        this.leaf = leaf;
     }
 }
 
@@ -30,15 +46,28 @@ public class ExpressionVisualizer extends JFrame {
 
 	private static final int NODE_SIZE = 35;
     private static final int ROW_HEIGHT = 70;
+    private static final int LEAF_SPACING = 45;
+    private static final int TOP_MARGIN = 50;
+
+    private static final double MIN_SCALE = 0.01;
+    private static final double MAX_SCALE = 8;
+    private static final double LABEL_SCALE = 0.4;//labels are not painted below this zoom level
+    private static final String TOO_DEEP = "Value = (too deep to evaluate)";//the evaluation and the text of the tree recurse
 
     private static final Stroke HOVER_STROKE = new BasicStroke(5);
     private static final Stroke LEAF_STROKE = new BasicStroke(2);
     private static final Stroke NORMAL_STROKE = new BasicStroke(1);
+    private static final Stroke COLLAPSED_STROKE = new BasicStroke(2, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10, new float[] {4, 4}, 0);
 
     private Node root;
     private Node hoveredNode = null;
-    private final List<VisualNode> visualNodes = new ArrayList<>();
-    
+    private final Set<Node> collapsedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private VisualNode[][] rows = new VisualNode[0][];//cached layout: visible nodes by depth, sorted by x
+    private double scale = 1;
+    private double offsetX, offsetY;//screen position of the world origin
+    private Point dragStart;
+
     private final JTextField topBar;
     private final JLabel helpLabel;
     private final JPanel renderPanel;
@@ -50,7 +79,7 @@ public class ExpressionVisualizer extends JFrame {
 
     public ExpressionVisualizer(String initialExpression) {
         super("Expression Visualizer");
-        
+
         topBar = new JTextField(initialExpression);
         topBar.setBorder(BorderFactory.createLineBorder(Color.GREEN, 1));
         helpLabel = new JLabel("Value = ...");
@@ -67,6 +96,7 @@ public class ExpressionVisualizer extends JFrame {
             }
         };
         renderPanel.setBackground(renderBackground);
+        renderPanel.setToolTipText("wheel: zoom, drag: pan, left click: edit, right click: collapse/expand");
 
         setLayout(new BorderLayout());
         add(topBar, BorderLayout.NORTH);
@@ -83,15 +113,22 @@ public class ExpressionVisualizer extends JFrame {
 
     private void setupParsingLogic(JPanel helpPanel) {
         ExpressionParser ep = new ExpressionParser();
-        
+
         DocumentListener dl = new DocumentListener() {
             public void update() {
                 try {
                     root = ep.parseExpression(topBar.getText());
+                    collapsedNodes.clear();
+                    layoutTree();
+                    fitView();
                     helpPanel.setBackground(helpInfoBackground);
-                    helpLabel.setText("Value = " + ep.evaluate(root));
+                    try {
+                        helpLabel.setText("Value = " + ep.evaluate(root));
+                    } catch (StackOverflowError ex) {//the evaluation recurses, unlike the layout: the tree is still shown
+                        helpLabel.setText(TOO_DEEP);
+                    }
                     renderPanel.repaint();
-                } catch (Exception ex) {
+                } catch (Exception | StackOverflowError ex) {
                     helpPanel.setBackground(helpErrorBackground);
                     helpLabel.setText("Error: " + ex.getMessage());
                 }
@@ -100,7 +137,7 @@ public class ExpressionVisualizer extends JFrame {
             public void removeUpdate(DocumentEvent e) { update(); }
             public void changedUpdate(DocumentEvent e) { update(); }
         };
-        
+
         topBar.getDocument().addDocumentListener(dl);
 
 		SwingUtilities.invokeLater(() -> dl.insertUpdate(null));
@@ -122,11 +159,44 @@ public class ExpressionVisualizer extends JFrame {
                 Node target = findNodeAt(e.getPoint());
                 if (target != null && SwingUtilities.isLeftMouseButton(e)) {
                     editNode(target);
+                } else if (target != null && SwingUtilities.isRightMouseButton(e)) {
+                    toggleCollapsed(target);
+                }
+            }
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragStart = e.getPoint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (dragStart != null) {
+                    offsetX += e.getX() - dragStart.x;
+                    offsetY += e.getY() - dragStart.y;
+                    dragStart = e.getPoint();
+                    renderPanel.repaint();
                 }
             }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                dragStart = null;
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * Math.pow(1.1, -e.getPreciseWheelRotation())));
+                //zoom around the mouse pointer
+                offsetX = e.getX() - (e.getX() - offsetX) * newScale / scale;
+                offsetY = e.getY() - (e.getY() - offsetY) * newScale / scale;
+                scale = newScale;
+                renderPanel.repaint();
+            }
         };
         renderPanel.addMouseListener(mouseHandler);
         renderPanel.addMouseMotionListener(mouseHandler);
+        renderPanel.addMouseWheelListener(mouseHandler);
     }
 
     private void editNode(Node t) {
@@ -134,8 +204,8 @@ public class ExpressionVisualizer extends JFrame {
             String v = JOptionPane.showInputDialog(this, "Edit value:", t.evaluate());
             if (v != null) {
                 try {
-                    ((NodeDouble) t).set(Double.parseDouble(v)); 
-                    sync(); 
+                    ((NodeDouble) t).set(Double.parseDouble(v));
+                    sync();
                 } catch (NumberFormatException ex) {
                     JOptionPane.showMessageDialog(this, "Invalid number", "Error", JOptionPane.ERROR_MESSAGE);
                 }
@@ -143,10 +213,10 @@ public class ExpressionVisualizer extends JFrame {
         } else if (t instanceof UnaryNodeIdentifier) {
             String currentOp = t.getNodeAsString();
 			String[] functions = UnaryNodeIdentifier.functionSet.toArray(new String[0]);
-            String choice = (String) JOptionPane.showInputDialog(this, 
+            String choice = (String) JOptionPane.showInputDialog(this,
                     "Change function:", "Edit function",
                     JOptionPane.QUESTION_MESSAGE, null, functions, currentOp);
-            
+
             if (choice != null && !choice.equals(currentOp)) {
                 ((UnaryNodeIdentifier) t).set(choice);
                 sync();
@@ -154,18 +224,140 @@ public class ExpressionVisualizer extends JFrame {
         }
     }
 
+    private void toggleCollapsed(Node t) {
+        if (childrenOf(t).isEmpty())
+            return;
+        if (!collapsedNodes.remove(t))
+            collapsedNodes.add(t);
+        layoutTree();
+        renderPanel.repaint();
+    }
+
     private void sync() {
         if (root != null) {
 			StringBuilder sb = new StringBuilder();
-			root.visit(sb);
+			try {
+				root.visit(sb);
+			} catch (StackOverflowError ex) {//the edited tree is kept, without its text
+				helpLabel.setText(TOO_DEEP);
+				renderPanel.repaint();
+				return;
+			}
 			topBar.setText(sb.toString());
 		}
     }
 
+    private static List<Node> childrenOf(Node node) {
+        List<Node> children = new ArrayList<>(3);
+        if (node instanceof UnaryNode)  {
+            children.add(((UnaryNode) node).getChild());
+        } else if (node instanceof UnaryNodeIdentifier) {
+            children.add(((UnaryNodeIdentifier) node).getChild());
+        } else if (node instanceof LambdaFunctionNode) {
+            children.addAll(((LambdaFunctionNode) node).getArguments());
+        } else if (node instanceof BinaryNode) {
+            children.add(((BinaryNode) node).getLeft());
+            children.add(((BinaryNode) node).getRight());
+        } else if (node instanceof TernaryNode) {
+            TernaryNode tn = (TernaryNode) node;
+            children.add(tn.getLeft()); children.add(tn.getCenter()); children.add(tn.getRight());
+        }
+        return children;
+    }
+
+    private static Color colorOf(Node node) {
+        if (node instanceof UnaryNode)
+            return Color.CYAN;
+        else if (node instanceof UnaryNodeIdentifier || node instanceof LambdaFunctionNode)
+            return Color.GREEN;
+        else if (node instanceof BinaryNode)
+            return Color.YELLOW;
+        else if (node instanceof TernaryNode)
+            return Color.PINK;
+        else return Color.ORANGE;
+    }
+
+/*computes the cached layout of the visible tree: leaves get consecutive slots from left to right,
+  parents are centered over their children; the walk is iterative to cope with very deep trees*/
+    private void layoutTree() {
+        List<List<VisualNode>> byDepth = new ArrayList<>();
+        Deque<VisualNode> stack = new ArrayDeque<>();
+        Deque<VisualNode> postOrder = new ArrayDeque<>();
+        stack.push(new VisualNode(root, 0, childrenOf(root).isEmpty()));
+        double nextLeafX = 0;
+        while (!stack.isEmpty()) {
+            VisualNode vn = stack.pop();
+            if (byDepth.size() == vn.depth)
+                byDepth.add(new ArrayList<>());
+            byDepth.get(vn.depth).add(vn);//preorder, left to right: each row ends up sorted by x
+            postOrder.push(vn);
+            if (!collapsedNodes.contains(vn.node)) {
+                for (Node child : childrenOf(vn.node))
+                    vn.children.add(new VisualNode(child, vn.depth + 1, childrenOf(child).isEmpty()));
+            }
+            if (vn.children.isEmpty()) {
+                vn.x = nextLeafX;
+                nextLeafX += LEAF_SPACING;
+            } else {
+                for (int i = vn.children.size() - 1; i >= 0; i--)
+                    stack.push(vn.children.get(i));
+            }
+            vn.y = TOP_MARGIN + (double) vn.depth * ROW_HEIGHT;
+        }
+        while (!postOrder.isEmpty()) {//children before parents
+            VisualNode vn = postOrder.pop();
+            if (!vn.children.isEmpty())
+                vn.x = (vn.children.get(0).x + vn.children.get(vn.children.size() - 1).x) / 2;
+            vn.spanMin = vn.x;
+            vn.spanMax = vn.x;
+            for (VisualNode child : vn.children) {
+                vn.spanMin = Math.min(vn.spanMin, child.x);
+                vn.spanMax = Math.max(vn.spanMax, child.x);
+            }
+        }
+        rows = new VisualNode[byDepth.size()][];
+        for (int d = 0; d < rows.length; d++)
+            rows[d] = byDepth.get(d).toArray(new VisualNode[0]);
+    }
+
+//initial view: the whole tree if it fits at a readable zoom level, otherwise the top of the tree around the root
+    private void fitView() {
+        if (rows.length == 0)
+            return;
+        VisualNode top = rows[0][0];
+        VisualNode[] lastRow = rows[rows.length - 1];
+        double treeWidth = LEAF_SPACING;
+        for (VisualNode[] row : rows)
+            treeWidth = Math.max(treeWidth, row[row.length - 1].x - row[0].x + LEAF_SPACING);
+        double treeHeight = lastRow[0].y + NODE_SIZE;
+        int width = Math.max(renderPanel.getWidth(), 1), height = Math.max(renderPanel.getHeight(), 1);
+        scale = Math.max(LABEL_SCALE, Math.min(1, Math.min(width / treeWidth, height / treeHeight)));
+        offsetX = width / 2.0 - top.x * scale;
+        offsetY = 0;
+    }
+
+//returns the index of the first node in the row whose span ends at or after x
+    private static int firstSpanningAt(VisualNode[] row, double x) {
+        int lo = 0, hi = row.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (row[mid].spanMax < x)
+                lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
     private Node findNodeAt(Point p) {
-        for (int i = visualNodes.size() - 1; i >= 0; i--) {
-            VisualNode vn = visualNodes.get(i);
-            if (vn.bounds.contains(p)) return vn.node;
+        double wx = (p.x - offsetX) / scale;
+        double wy = (p.y - offsetY) / scale;
+        int depth = (int) Math.round((wy - TOP_MARGIN) / ROW_HEIGHT);
+        if (depth < 0 || depth >= rows.length || Math.abs(wy - (TOP_MARGIN + (double) depth * ROW_HEIGHT)) > NODE_SIZE / 2.0)
+            return null;
+        VisualNode[] row = rows[depth];
+        for (int i = firstSpanningAt(row, wx - NODE_SIZE / 2.0); i < row.length && row[i].spanMin <= wx + NODE_SIZE / 2.0; i++) {
+            if (Math.abs(row[i].x - wx) <= NODE_SIZE / 2.0)
+                return row[i].node;
         }
         return null;
     }
@@ -173,54 +365,64 @@ public class ExpressionVisualizer extends JFrame {
     private void renderTree(Graphics2D g2) {
 		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 		g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-		
-		visualNodes.clear();
-		drawTree(g2, root, renderPanel.getWidth() / 2, 50, renderPanel.getWidth() / 4, 0);
-    }
-
-    private void drawTree(Graphics2D g2, Node node, int x, int y, int xOffset, int depth) {
-        Node left = null, center = null, right = null;
-		Color color;
-        
-        if (node instanceof UnaryNode)  {
-			center = ((UnaryNode) node).getChild();
-			color = Color.CYAN;
-        } else if (node instanceof UnaryNodeIdentifier) {
-			center = ((UnaryNodeIdentifier) node).getChild();
-			color = Color.GREEN;
-        } else if (node instanceof BinaryNode) {
-            left = ((BinaryNode) node).getLeft();
-            right = ((BinaryNode) node).getRight();
-			color = Color.YELLOW;
-        } else if (node instanceof TernaryNode) {
-            TernaryNode tn = (TernaryNode) node;
-            left = tn.getLeft(); center = tn.getCenter(); right = tn.getRight();
-			color = Color.PINK;
-        } else color = Color.ORANGE;
 
-        int nextY = y + ROW_HEIGHT;
-        int nextOffset = Math.max(xOffset / 2, 15);
-        g2.setColor(Color.LIGHT_GRAY);
+        Rectangle clip = g2.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(0, 0, renderPanel.getWidth(), renderPanel.getHeight());
+        //visible area in world coordinates, enlarged by half a node to include partially visible nodes
+        double left = (clip.x - offsetX) / scale - NODE_SIZE / 2.0;
+        double right = (clip.x + clip.width - offsetX) / scale + NODE_SIZE / 2.0;
+        double top = (clip.y - offsetY) / scale - NODE_SIZE / 2.0;
+        double bottom = (clip.y + clip.height - offsetY) / scale + NODE_SIZE / 2.0;
+        int firstRow = Math.max(0, (int) Math.floor((top - TOP_MARGIN) / ROW_HEIGHT) - 1);//includes the row above, for incoming edges
+        int lastRow = Math.min(rows.length - 1, (int) Math.ceil((bottom - TOP_MARGIN) / ROW_HEIGHT));
 
-        if (left != null) { g2.drawLine(x, y, x - xOffset, nextY); drawTree(g2, left, x - xOffset, nextY, nextOffset, depth + 1); }
-        if (center != null) { g2.drawLine(x, y, x, nextY); drawTree(g2, center, x, nextY, nextOffset, depth + 1); }
-        if (right != null) { g2.drawLine(x, y, x + xOffset, nextY); drawTree(g2, right, x + xOffset, nextY, nextOffset, depth + 1); }
+        AffineTransform saved = g2.getTransform();
+        g2.translate(offsetX, offsetY);
+        g2.scale(scale, scale);
 
-        Rectangle2D bounds = new Rectangle(x - NODE_SIZE / 2, y - NODE_SIZE / 2, NODE_SIZE, NODE_SIZE);
-        visualNodes.add(new VisualNode(node, bounds));
+        g2.setColor(Color.LIGHT_GRAY);
+        g2.setStroke(NORMAL_STROKE);
+        Line2D.Double line = new Line2D.Double();
+        for (int d = firstRow; d <= lastRow; d++) {
+            VisualNode[] row = rows[d];
+            for (int i = firstSpanningAt(row, left); i < row.length && row[i].spanMin <= right; i++) {
+                VisualNode vn = row[i];
+                for (VisualNode child : vn.children) {
+                    line.setLine(vn.x, vn.y, child.x, child.y);
+                    g2.draw(line);
+                }
+            }
+        }
 
-        g2.setColor(color);
-        g2.fill(bounds);
+        boolean labels = scale >= LABEL_SCALE;
+        FontMetrics fm = g2.getFontMetrics();
+        Rectangle2D.Double bounds = new Rectangle2D.Double();
+        for (int d = firstRow; d <= lastRow; d++) {
+            VisualNode[] row = rows[d];
+            if (row[0].y < top || row[0].y > bottom)
+                continue;
+            for (int i = firstSpanningAt(row, left); i < row.length && row[i].spanMin <= right; i++) {
+                VisualNode vn = row[i];
+                if (vn.x < left || vn.x > right)
+                    continue;//only its edges are visible
+                bounds.setRect(vn.x - NODE_SIZE / 2.0, vn.y - NODE_SIZE / 2.0, NODE_SIZE, NODE_SIZE);
+                g2.setColor(colorOf(vn.node));
+                g2.fill(bounds);
 
-        boolean isHovered = (node == hoveredNode);
-        g2.setColor(isHovered ? Color.YELLOW : Color.DARK_GRAY);
-        g2.setStroke(isHovered ? HOVER_STROKE : (left == null && right == null && center == null ? LEAF_STROKE : NORMAL_STROKE));
-        g2.draw(bounds);
+                boolean isHovered = (vn.node == hoveredNode);
+                g2.setColor(isHovered ? Color.YELLOW : Color.DARK_GRAY);
+                g2.setStroke(isHovered ? HOVER_STROKE : (vn.leaf ? LEAF_STROKE : (vn.children.isEmpty() ? COLLAPSED_STROKE : NORMAL_STROKE)));
+                g2.draw(bounds);
 
-        g2.setColor(Color.BLACK);
-        String val = node.getNodeAsString();
-        FontMetrics fm = g2.getFontMetrics();
-        g2.drawString(val, x - fm.stringWidth(val) / 2, y + fm.getAscent() / 2 - 2);
+                if (labels) {
+                    g2.setColor(Color.BLACK);
+                    String val = vn.node.getNodeAsString();
+                    g2.drawString(val, (float) (vn.x - fm.stringWidth(val) / 2.0), (float) (vn.y + fm.getAscent() / 2.0 - 2));
+                }
+            }
+        }
+        g2.setTransform(saved);
     }
 
     public static void main(String[] args) {
@@ -228,4 +430,4 @@ public class ExpressionVisualizer extends JFrame {
             new ExpressionVisualizer("(sin(PI/4)+cos(PI/4))*sqrt(exp((log(2)*tan(PI/4))))").setVisible(true);
         });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,236 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Node element holding a chain of "and" or "or" operands, evaluated in an order that adapts to the data:
+ * for each operand it tracks how often it decides the result (false for "and", true for "or") and, on a sample
+ * of the evaluations, its cost; periodically the operands are sorted by cost divided by probability to decide,
+ * which minimizes the expected cost of the chain. The statistics decay at each reordering, to follow changes in the data.
+ * Only chains whose operands are free of side effects and can't throw are made adaptive, so the result never changes.
+ */
+
+public class AdaptiveNode extends Node {
+	static final int SAMPLE_MASK = 15;//the cost is measured on one evaluation every 16
+	static final int REORDER_PERIOD = 1024;//evaluations between two reorderings
+
+	private static final class Operand {
+		final Node node;
+		long evaluations;
+		long decisions;
+		long sampledEvaluations;
+		long sampledNanos;
+
+		Operand(Node node) {
+			this.node = node;
+		}
+
+		double rank() {//expected cost to get a decision from this operand
+			double cost = sampledEvaluations == 0 ? 1 : (double) sampledNanos / sampledEvaluations;
+			double probability = evaluations == 0 ? 0.5 : (double) decisions / evaluations;
+			return probability == 0 ? Double.POSITIVE_INFINITY : cost / probability;
+		}
+	}
+
+	private final Node[] operands;//original order, used by visit()
+	private volatile Operand[] order;//current order, replaced as a whole when operands are reordered
+	private long evaluations;
+	private long reorderings;
+
+	AdaptiveNode(Type type, Node[] operands) {
+		super(type);
+		if (type != Type.and && type != Type.or)
+			throw new IllegalArgumentException("unexpected type: " + type);
+		this.operands = operands;
+		Operand[] order = new Operand[operands.length];
+		for (int i = 0; i < operands.length; i++)
+			order[i] = new Operand(operands[i]);
+		this.order = order;
+	}
+
+    @Override
+	public Object evaluate() {
+		return evaluateBoolean();
+	}
+
+    @Override
+	public boolean evaluateBoolean() {
+		boolean decisive = type == Type.or;//value deciding the result of the chain
+		boolean sample = (++evaluations & SAMPLE_MASK) == 0;
+		boolean result = !decisive;
+		for (Operand operand : order) {
+			boolean value;
+			if (sample) {
+				long start = System.nanoTime();
+				value = operand.node.evaluateBoolean();
+				operand.sampledNanos += System.nanoTime() - start;
+				operand.sampledEvaluations++;
+			} else value = operand.node.evaluateBoolean();
+			operand.evaluations++;
+			if (value == decisive) {
+				operand.decisions++;
+				result = decisive;
+				break;
+			}
+		}
+		if (evaluations % REORDER_PERIOD == 0)
+			reorder();
+		return result;
+	}
+
+	private void reorder() {
+		Operand[] sorted = order.clone();
+		Arrays.sort(sorted, Comparator.comparingDouble(Operand::rank));//stable: ties keep the current order
+		for (Operand operand : sorted) {
+			operand.evaluations >>= 1;
+			operand.decisions >>= 1;
+			operand.sampledEvaluations >>= 1;
+			operand.sampledNanos >>= 1;
+		}
+		order = sorted;
+		reorderings++;
+	}
+
+    @Override
+	public void visit(StringBuilder sb) {
+		sb.append('(');
+		for (int i = 0; i < operands.length; i++) {
+			if (i > 0)
+				sb.append(' ').append(getNodeAsString()).append(' ');
+			operands[i].visit(sb);
+		}
+		sb.append(')');
+	}
+
+	public List<Node> getOperands() {//operands in the original order
+		return Collections.unmodifiableList(Arrays.asList(operands));
+	}
+
+	public List<Node> getEvaluationOrder() {//operands in the current evaluation order
+		List<Node> nodes = new ArrayList<>();
+		for (Operand operand : order)
+			nodes.add(operand.node);
+		return nodes;
+	}
+
+	public long getReorderings() {
+		return reorderings;
+	}
+
+    @Override
+	public String getNodeAsString() {
+		return type == Type.and ? "and" : "or";
+	}
+
+//returns a copy of the tree where the and/or chains with safe operands are replaced by adaptive nodes
+	static Node rewrite(Node node) {
+		return adapt(Optimizer.fold(node));
+	}
+
+	private static Node adapt(Node node) {//modifies the copied tree in place
+		if (node instanceof BinaryNode && (node.type == Type.and || node.type == Type.or)) {
+			List<Node> chain = new ArrayList<>();
+			flatten(node, node.type, chain);
+			boolean safe = true;
+			for (int i = 0; i < chain.size(); i++) {
+				chain.set(i, adapt(chain.get(i)));
+				safe &= isSafe(chain.get(i), true);
+			}
+			if (safe && chain.size() > 1)
+				return new AdaptiveNode(node.type, chain.toArray(new Node[0]));
+			return rebuild(node.type, chain);
+		} else if (node instanceof UnaryNodeIdentifier) {
+			((UnaryNodeIdentifier) node).child = adapt(((UnaryNodeIdentifier) node).child);
+		} else if (node instanceof LambdaFunctionNode) {
+			Node[] arguments = ((LambdaFunctionNode) node).arguments;
+			for (int i = 0; i < arguments.length; i++)
+				arguments[i] = adapt(arguments[i]);
+		} else if (node instanceof UnaryNode) {
+			((UnaryNode) node).child = adapt(((UnaryNode) node).child);
+		} else if (node instanceof BinaryNode) {
+			((BinaryNode) node).left = adapt(((BinaryNode) node).left);
+			((BinaryNode) node).right = adapt(((BinaryNode) node).right);
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			p.left = adapt(p.left);
+			p.center = adapt(p.center);
+			p.right = adapt(p.right);
+		}
+		return node;
+	}
+
+	private static void flatten(Node node, Type type, List<Node> chain) {
+		if (node instanceof BinaryNode && node.type == type) {
+			flatten(((BinaryNode) node).left, type, chain);
+			flatten(((BinaryNode) node).right, type, chain);
+		} else chain.add(node);
+	}
+
+	static Node rebuild(Type type, List<Node> chain) {//left associative chain, as built by the parser
+		Node result = chain.get(0);
+		for (int i = 1; i < chain.size(); i++)
+			result = BinaryNode.create(type, result, chain.get(i));
+		return result;
+	}
+
+//true if the evaluation of node can't throw and has no side effects; 'bool' is the expected type of the result
+	private static boolean isSafe(Node node, boolean bool) {
+		if (node instanceof NodeDouble || node instanceof NodeVariable)
+			return !bool;
+		if (node instanceof UnaryNodeIdentifier)
+			return !bool && isSafe(((UnaryNodeIdentifier) node).child, false);
+		if (node instanceof LambdaFunctionNode) {
+			if (bool || !((LambdaFunctionNode) node).function.properties.isFoldable())
+				return false;
+			for (Node argument : ((LambdaFunctionNode) node).arguments) {
+				if (!isSafe(argument, false))
+					return false;
+			}
+			return true;
+		}
+		if (node instanceof NodeIdentifier) {
+			switch (((NodeIdentifier) node).identifier) {
+				case "PI":
+				case "E":
+					return !bool;
+				case "true":
+				case "false":
+					return bool;
+				default:
+					return false;//unknown identifier
+			}
+		}
+		if (node instanceof UnaryNode)
+			return bool == (node.type == Type.not) && isSafe(((UnaryNode) node).child, bool);
+		if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			switch (p.type) {
+				case add:
+				case subtract:
+				case multiply:
+				case divide:
+				case power:
+					return !bool && isSafe(p.left, false) && isSafe(p.right, false);
+				case and:
+				case or:
+					return bool && isSafe(p.left, true) && isSafe(p.right, true);
+				case equal:
+				case unequal://values of any type can be compared
+					return bool && (isSafe(p.left, false) || isSafe(p.left, true)) && (isSafe(p.right, false) || isSafe(p.right, true));
+				default:
+					return bool && isSafe(p.left, false) && isSafe(p.right, false);
+			}
+		}
+		if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			return isSafe(p.left, true) && isSafe(p.center, bool) && isSafe(p.right, bool);
+		}
+		if (node instanceof AdaptiveNode)
+			return bool;//its operands have been checked already
+		return false;
+	}
+}//end of class AdaptiveNode
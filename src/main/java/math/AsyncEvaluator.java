@@ -0,0 +1,167 @@
+package math;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Evaluates an expression asynchronously on a caller supplied Executor, for expressions calling slow or blocking user
+ * functions. Each running evaluation uses its own copy of the tree, with its own variables, so any number of evaluations
+ * can run at the same time; copies are made on demand and reused.
+ * At most maxInFlight evaluations are submitted or running at any time: evaluate() blocks the caller until an evaluation
+ * completes when the limit is reached (backpressure), so a flood of slow evaluations can't exhaust memory.
+ * virtualThreadExecutor() returns an executor of virtual threads when running on JDK 21 or later.
+ */
+
+public final class AsyncEvaluator {
+	private static final class Instance {//private copy of the tree
+		final Node node;
+		final Variable[] variables;
+
+		Instance(Node node, Variable[] variables) {
+			this.node = node;
+			this.variables = variables;
+		}
+	}
+
+	private final Node expression;
+	private final Variable[] variables;
+	private final Executor executor;
+	private final int maxInFlight;
+	private final Semaphore permits;
+	private final ConcurrentLinkedQueue<Instance> instances = new ConcurrentLinkedQueue<>();
+
+	public AsyncEvaluator(Node expression, Executor executor, int maxInFlight, Variable... variables) {
+		if (maxInFlight <= 0)
+			throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+		this.expression = expression;
+		this.variables = variables.clone();
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		this.permits = new Semaphore(maxInFlight);
+	}
+
+//returns an executor starting a virtual thread per task on JDK 21+, otherwise a pool of daemon threads created on demand
+	public static ExecutorService virtualThreadExecutor() {
+		try {//looked up at runtime, so that the library can be compiled for release 11
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			return Executors.newCachedThreadPool(task -> {
+				Thread thread = new Thread(task, "async-evaluator");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	public static boolean hasVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+
+//evaluates the expression with the given values of the variables, the result is Double or Boolean
+	public CompletableFuture<Object> evaluate(double... values) {
+		checkValues(values);
+		double[] row = values.clone();
+		return submit(instance -> {
+			setRow(instance, row);
+			return instance.node.evaluate();
+		});
+	}
+
+//evaluates the expression for each row of values in one task, the results are Double or Boolean
+	public CompletableFuture<Object[]> evaluateBatch(double[][] rows) {
+		for (double[] row : rows)
+			checkValues(row);
+		double[][] copy = new double[rows.length][];
+		for (int i = 0; i < rows.length; i++)
+			copy[i] = rows[i].clone();
+		return submit(instance -> {
+			Object[] results = new Object[copy.length];
+			for (int i = 0; i < copy.length; i++) {
+				setRow(instance, copy[i]);
+				results[i] = instance.node.evaluate();
+			}
+			return results;
+		});
+	}
+
+//returns the number of evaluations submitted and not completed yet
+	public int getInFlight() {
+		return maxInFlight - permits.availablePermits();
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	private interface Task<T> {
+		T run(Instance instance);
+	}
+
+	private <T> CompletableFuture<T> submit(Task<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			permits.acquire();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(ex);
+			return future;
+		}
+		try {
+			executor.execute(() -> {
+				Instance instance = instances.poll();
+				T result = null;
+				Throwable error = null;
+				try {
+					if (instance == null)
+						instance = newInstance();
+					result = task.run(instance);
+				} catch (Throwable ex) {
+					error = ex;
+				} finally {
+					if (instance != null)
+						instances.offer(instance);
+					permits.release();//before completing, so that the evaluation is no longer in flight for the callers
+				}
+				if (error != null)
+					future.completeExceptionally(error);
+				else future.complete(result);
+			});
+		} catch (RejectedExecutionException ex) {
+			permits.release();
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
+	private Instance newInstance() {
+		Map<Variable, Variable> copies = new HashMap<>();
+		Variable[] own = new Variable[variables.length];
+		for (int i = 0; i < variables.length; i++) {
+			own[i] = new Variable(variables[i].getName(), variables[i].get());
+			copies.put(variables[i], own[i]);
+		}
+		return new Instance(Optimizer.optimize(Optimizer.fold(expression, copies)), own);
+	}
+
+	private void checkValues(double[] values) {
+		if (values.length != variables.length)
+			throw new IllegalArgumentException("expected " + variables.length + " value(s), but got " + values.length);
+	}
+
+	private static void setRow(Instance instance, double[] values) {
+		for (int i = 0; i < values.length; i++)
+			instance.variables[i].set(values[i]);
+	}
+}//end of class AsyncEvaluator
@@ -0,0 +1,106 @@
+package math;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Evaluates an expression over many rows of values stored by column: columns[i][row] is the value of variables[i] in that row.
+ * Rows are evaluated by setting the variables, so the variables are modified and an instance must not be shared between threads.
+ * Boolean expressions can be evaluated block by block using the min/max statistics of each block of the columns (zone maps):
+ * blocks where the expression is definitely true or false are filled without reading their rows.
+ */
+
+public final class BatchEvaluator {
+	private final Node expression;
+	private final Variable[] variables;
+	private final IntervalEvaluator intervalEvaluator;
+	private long skippedBlocks;
+	private long evaluatedBlocks;
+
+	public BatchEvaluator(Node expression, Variable... variables) {
+		this.expression = expression;
+		this.variables = variables.clone();
+		this.intervalEvaluator = new IntervalEvaluator(expression);
+	}
+
+//evaluates a numeric expression for the rows in [from, to), storing the value of each row at the same index of results
+	public void evaluate(double[][] columns, int from, int to, double[] results) {
+		checkColumns(columns);
+		for (int row = from; row < to; row++) {
+			setRow(columns, row);
+			results[row] = expression.evaluateDouble();
+		}
+	}
+
+//evaluates a boolean expression for the rows in [from, to), storing the value of each row at the same index of results
+	public void filter(double[][] columns, int from, int to, boolean[] results) {
+		checkColumns(columns);
+		for (int row = from; row < to; row++) {
+			setRow(columns, row);
+			results[row] = expression.evaluateBoolean();
+		}
+	}
+
+/*evaluates a boolean expression for the first 'rows' rows, split in blocks of 'blockSize' rows;
+  statistics[i][block] is the range of the values of column i in the block, see statistics()*/
+	public void filter(double[][] columns, int rows, int blockSize, Interval[][] statistics, boolean[] results) {
+		checkColumns(columns);
+		Map<Variable, Interval> box = new HashMap<>();
+		for (int block = 0, from = 0; from < rows; block++, from += blockSize) {
+			int to = Math.min(rows, from + blockSize);
+			for (int i = 0; i < variables.length; i++)
+				box.put(variables[i], statistics[i][block]);
+			Tristate result = intervalEvaluator.evaluate(box);
+			if (result == Tristate.UNKNOWN) {
+				evaluatedBlocks++;
+				filter(columns, from, to, results);
+			} else {
+				skippedBlocks++;
+				boolean value = result == Tristate.TRUE;
+				for (int row = from; row < to; row++)
+					results[row] = value;
+			}
+		}
+	}
+
+//returns the min/max statistics of blocks of 'blockSize' rows, for each column
+	public static Interval[][] statistics(double[][] columns, int rows, int blockSize) {
+		int blocks = (rows + blockSize - 1) / blockSize;
+		Interval[][] statistics = new Interval[columns.length][blocks];
+		for (int i = 0; i < columns.length; i++) {
+			for (int block = 0; block < blocks; block++) {
+				double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+				boolean nan = false;
+				for (int row = block * blockSize, to = Math.min(rows, row + blockSize); row < to; row++) {
+					double value = columns[i][row];
+					if (Double.isNaN(value)) {
+						nan = true;
+					} else {
+						min = Math.min(min, value);
+						max = Math.max(max, value);
+					}
+				}
+				statistics[i][block] = min > max ? Interval.ALL : Interval.of(min, max, nan);
+			}
+		}
+		return statistics;
+	}
+
+	public long getSkippedBlocks() {//blocks decided by their statistics only
+		return skippedBlocks;
+	}
+
+	public long getEvaluatedBlocks() {//blocks evaluated row by row
+		return evaluatedBlocks;
+	}
+
+	private void checkColumns(double[][] columns) {
+		if (columns.length != variables.length)
+			throw new IllegalArgumentException("expected " + variables.length + " columns, got " + columns.length);
+	}
+
+	private void setRow(double[][] columns, int row) {
+		for (int i = 0; i < variables.length; i++)
+			variables[i].set(columns[i][row]);
+	}
+}//end of class BatchEvaluator
@@ -17,40 +17,82 @@ public class BinaryNode extends Node {
 	public Object evaluate() {
 		switch(type) {
 			case add:
-				return (Double)left.evaluate() + (Double)right.evaluate();
 			case subtract:
-				return (Double)left.evaluate() - (Double)right.evaluate();
 			case multiply:
-				return (Double)left.evaluate() * (Double)right.evaluate();
 			case divide:
-				return (Double)left.evaluate() / (Double)right.evaluate();
+			case power:
+				return evaluateDouble();
 			case or:
-				return (Boolean)left.evaluate() || (Boolean)right.evaluate();
 			case and:
-				return (Boolean)left.evaluate() && (Boolean)right.evaluate();
 			case equal:
-				return left.evaluate().equals(right.evaluate());
 			case unequal:
-				return !left.evaluate().equals(right.evaluate());
 			case lt:
-				return (Double)left.evaluate() < (Double)right.evaluate();
 			case lte:
-				return (Double)left.evaluate() <= (Double)right.evaluate();
 			case gt:
-				return (Double)left.evaluate() > (Double)right.evaluate();
 			case gte:
-				return (Double)left.evaluate() >= (Double)right.evaluate();
+				return evaluateBoolean();
 			default://will never happen
 				throw new RuntimeException("unexpected type: " + type);
 		}
 	}
 
+	@Override
+	public double evaluateDouble() {
+		switch(type) {
+			case add:
+				return left.evaluateDouble() + right.evaluateDouble();
+			case subtract:
+				return left.evaluateDouble() - right.evaluateDouble();
+			case multiply:
+				return left.evaluateDouble() * right.evaluateDouble();
+			case divide:
+				return left.evaluateDouble() / right.evaluateDouble();
+			case power:
+				return power(left.evaluateDouble(), right.evaluateDouble());
+			default:
+				return (Double) evaluate();
+		}
+	}
+
+	@Override
+	public boolean evaluateBoolean() {
+		switch(type) {
+			case or:
+				return left.evaluateBoolean() || right.evaluateBoolean();
+			case and:
+				return left.evaluateBoolean() && right.evaluateBoolean();
+			case equal:
+				return equal();
+			case unequal:
+				return !equal();
+			case lt:
+				return left.evaluateDouble() < right.evaluateDouble();
+			case lte:
+				return left.evaluateDouble() <= right.evaluateDouble();
+			case gt:
+				return left.evaluateDouble() > right.evaluateDouble();
+			case gte:
+				return left.evaluateDouble() >= right.evaluateDouble();
+			default:
+				return (Boolean) evaluate();
+		}
+	}
+
+	boolean equal() {//as Double.equals and Boolean.equals, without boxing the operands of type checked trees
+		if (left.resultType == ResultType.NUMBER && right.resultType == ResultType.NUMBER)
+			return Double.doubleToLongBits(left.evaluateDouble()) == Double.doubleToLongBits(right.evaluateDouble());
+		if (left.resultType == ResultType.BOOLEAN && right.resultType == ResultType.BOOLEAN)
+			return left.evaluateBoolean() == right.evaluateBoolean();
+		return left.evaluate().equals(right.evaluate());
+	}
+
 	public void visit(StringBuilder sb) {
 		switch(type) {
 			case add:
 			case subtract:
 			case multiply:
 			case divide:
+			case power:
 			case and:
 			case or:
 			case equal:
@@ -70,6 +112,380 @@ public class BinaryNode extends Node {
 		}
 	}
 
+/*x ^ y: integer exponents in [-MAX_INTEGER_EXPONENT, MAX_INTEGER_EXPONENT] by repeated squaring, in log2(|y|) steps,
+  the others by Math.pow; the result may differ from Math.pow in the last bits. Every evaluation path computes ^ here,
+  or with the same operations, so that they give the same results*/
+	static final int MAX_INTEGER_EXPONENT = 64;
+
+	static double power(double x, double y) {
+		int n = (int) y;
+		if (n != y || n < -MAX_INTEGER_EXPONENT || n > MAX_INTEGER_EXPONENT)//NaN included
+			return Math.pow(x, y);
+		return power(x, n);
+	}
+
+//x ^ -n is 1 / x ^ n, e.g. 10 ^ -2 is 0.01 as by Math.pow; Math.pow if x ^ n or its inverse isn't a finite normal double,
+//e.g. 1e160 ^ -2, where 1 / x ^ n overflows or underflows
+	static double power(double x, int n) {
+		double result = 1, base = x;
+		for (int m = n < 0 ? -n : n; m != 0; m >>>= 1) {
+			if ((m & 1) != 0)
+				result *= base;
+			base *= base;
+		}
+		if (n >= 0)
+			return result;
+		double inverse = 1 / result;
+		return isNormal(result) && isNormal(inverse) ? inverse : Math.pow(x, n);
+	}
+
+	private static boolean isNormal(double x) {
+		return Math.abs(x) >= Double.MIN_NORMAL && Math.abs(x) <= Double.MAX_VALUE;
+	}
+
+	static boolean isIntegerExponent(double y) {
+		return (int) y == y && Math.abs(y) <= MAX_INTEGER_EXPONENT;
+	}
+
+//returns the node of the operator specialized for its operands, see the classes below
+	static BinaryNode create(Type type, Node left, Node right) {
+		BinaryNode p = specialize(type, left, right);
+		p.left = left;
+		p.right = right;
+		return p;
+	}
+
+	private static BinaryNode specialize(Type type, Node left, Node right) {
+		boolean constantLeft = left instanceof NodeDouble, constantRight = right instanceof NodeDouble;
+		switch (type) {
+			case add:
+				if (constantRight)
+					return new AddConstant(type, true);
+				return constantLeft ? new AddConstant(type, false) : new Add();
+			case subtract:
+				return constantRight ? new SubtractConstant() : new Subtract();
+			case multiply:
+				if (constantRight)
+					return new MultiplyConstant(type, true);
+				return constantLeft ? new MultiplyConstant(type, false) : new Multiply();
+			case divide:
+				return constantRight ? new DivideConstant() : new Divide();
+			case power:
+				if (constantRight && isIntegerExponent(((NodeDouble) right).num))
+					return (int) ((NodeDouble) right).num == 2 ? new Square() : new IntegerPower((int) ((NodeDouble) right).num);
+				return new Power();
+			case and:
+				return new And();
+			case or:
+				return new Or();
+			case equal:
+				return new Equal();
+			case unequal:
+				return new Unequal();
+			case lt:
+				return constantRight ? new LessConstant() : new Less();
+			case lte:
+				return constantRight ? new LessEqualConstant() : new LessEqual();
+			case gt:
+				return constantRight ? new GreaterConstant() : new Greater();
+			case gte:
+				return constantRight ? new GreaterEqualConstant() : new GreaterEqual();
+			default:
+				throw new IllegalArgumentException("not a binary operator: " + type);
+		}
+	}
+
+	//one class per operator, plus variants with a constant operand: the JIT sees a single implementation at each call site
+	private abstract static class Arithmetic extends BinaryNode {
+		Arithmetic(Type type) {
+			super(type);
+		}
+
+		@Override
+		public Object evaluate() {
+			return evaluateDouble();
+		}
+	}
+
+	private abstract static class Logic extends BinaryNode {
+		Logic(Type type) {
+			super(type);
+		}
+
+		@Override
+		public Object evaluate() {
+			return evaluateBoolean();
+		}
+	}
+
+	private static final class Add extends Arithmetic {
+		Add() {
+			super(Type.add);
+		}
+
+		@Override
+		public double evaluateDouble() {
+			return left.evaluateDouble() + right.evaluateDouble();
+		}
+	}
+
+	private static final class Subtract extends Arithmetic {
+		Subtract() {
+			super(Type.subtract);
+		}
+
+		@Override
+		public double evaluateDouble() {
+			return left.evaluateDouble() - right.evaluateDouble();
+		}
+	}
+
+	private static final class Multiply extends Arithmetic {
+		Multiply() {
+			super(Type.multiply);
+		}
+
+		@Override
+		public double evaluateDouble() {
+			return left.evaluateDouble() * right.evaluateDouble();
+		}
+	}
+
+	private static final class Divide extends Arithmetic {
+		Divide() {
+			super(Type.divide);
+		}
+
+		@Override
+		public double evaluateDouble() {
+			return left.evaluateDouble() / right.evaluateDouble();
+		}
+	}
+
+	//the constant operand stays in the tree and its value is read from it, so that NodeDouble.set() is seen by the evaluation;
+	//+ and * are commutative, so the constant can be on either side
+	private static final class AddConstant extends Arithmetic {
+		private final boolean constantRight;
+
+		AddConstant(Type type, boolean constantRight) {
+			super(type);
+			this.constantRight = constantRight;
+		}
+
+		@Override
+		public double evaluateDouble() {
+			return constantRight ? left.evaluateDouble() + ((NodeDouble) right).num : right.evaluateDouble() + ((NodeDouble) left).num;
+		}
+	}
+
+	private static final class MultiplyConstant extends Arithmetic {
+		private final boolean constantRight;
+
+		MultiplyConstant(Type type, boolean constantRight) {
+			super(type);
+			this.constantRight = constantRight;
+		}
+
+		@Override
+		public double evaluateDouble() {
+			return constantRight ? left.evaluateDouble() * ((NodeDouble) right).num : right.evaluateDouble() * ((NodeDouble) left).num;
+		}
+	}
+
+	private static final class SubtractConstant extends Arithmetic {
+		SubtractConstant() {
+			super(Type.subtract);
+		}
+
+		@Override
+		public double evaluateDouble() {
+			return left.evaluateDouble() - ((NodeDouble) right).num;
+		}
+	}
+
+	private static final class DivideConstant extends Arithmetic {
+		DivideConstant() {
+			super(Type.divide);
+		}
+
+		@Override
+		public double evaluateDouble() {
+			return left.evaluateDouble() / ((NodeDouble) right).num;
+		}
+	}
+
+	private static final class Power extends Arithmetic {
+		Power() {
+			super(Type.power);
+		}
+
+		@Override
+		public double evaluateDouble() {
+			return power(left.evaluateDouble(), right.evaluateDouble());
+		}
+	}
+
+	//constant integer exponent: repeated squaring with the exponent of the node, x ^ 2 is x * x; a changed constant is
+	//computed as by Power
+	private static final class IntegerPower extends Arithmetic {
+		private final int exponent;
+
+		IntegerPower(int exponent) {
+			super(Type.power);
+			this.exponent = exponent;
+		}
+
+		@Override
+		public double evaluateDouble() {
+			double y = ((NodeDouble) right).num;
+			return y == exponent ? power(left.evaluateDouble(), exponent) : power(left.evaluateDouble(), y);
+		}
+	}
+
+	private static final class Square extends Arithmetic {
+		Square() {
+			super(Type.power);
+		}
+
+		@Override
+		public double evaluateDouble() {
+			double x = left.evaluateDouble(), y = ((NodeDouble) right).num;
+			return y == 2 ? x * x : power(x, y);
+		}
+	}
+
+	private static final class And extends Logic {
+		And() {
+			super(Type.and);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return left.evaluateBoolean() && right.evaluateBoolean();
+		}
+	}
+
+	private static final class Or extends Logic {
+		Or() {
+			super(Type.or);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return left.evaluateBoolean() || right.evaluateBoolean();
+		}
+	}
+
+	private static final class Equal extends Logic {
+		Equal() {
+			super(Type.equal);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return equal();
+		}
+	}
+
+	private static final class Unequal extends Logic {
+		Unequal() {
+			super(Type.unequal);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return !equal();
+		}
+	}
+
+	private static final class Less extends Logic {
+		Less() {
+			super(Type.lt);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return left.evaluateDouble() < right.evaluateDouble();
+		}
+	}
+
+	private static final class LessConstant extends Logic {
+		LessConstant() {
+			super(Type.lt);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return left.evaluateDouble() < ((NodeDouble) right).num;
+		}
+	}
+
+	private static final class LessEqual extends Logic {
+		LessEqual() {
+			super(Type.lte);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return left.evaluateDouble() <= right.evaluateDouble();
+		}
+	}
+
+	private static final class LessEqualConstant extends Logic {
+		LessEqualConstant() {
+			super(Type.lte);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return left.evaluateDouble() <= ((NodeDouble) right).num;
+		}
+	}
+
+	private static final class Greater extends Logic {
+		Greater() {
+			super(Type.gt);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return left.evaluateDouble() > right.evaluateDouble();
+		}
+	}
+
+	private static final class GreaterConstant extends Logic {
+		GreaterConstant() {
+			super(Type.gt);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return left.evaluateDouble() > ((NodeDouble) right).num;
+		}
+	}
+
+	private static final class GreaterEqual extends Logic {
+		GreaterEqual() {
+			super(Type.gte);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return left.evaluateDouble() >= right.evaluateDouble();
+		}
+	}
+
+	private static final class GreaterEqualConstant extends Logic {
+		GreaterEqualConstant() {
+			super(Type.gte);
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return left.evaluateDouble() >= ((NodeDouble) right).num;
+		}
+	}
+
 	public Node getLeft() {
 		return left;
 	}
@@ -88,6 +504,8 @@ public class BinaryNode extends Node {
 				return "*";
 			case divide:
 				return "/";
+			case power:
+				return "^";
 			case and:
 				return "and";
 			case or:
@@ -0,0 +1,346 @@
+package math;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a UTF-8 file of definitions, one per line in the form name = expression, parsing its chunks in parallel.
+ * Blank lines and lines starting with # are skipped. The file is memory-mapped and split in chunks at line boundaries;
+ * each thread parses with its own copy of the parser, sharing its variables, user functions, node pool and options,
+ * and with its own decoding buffers. The copies are taken at each load, so they see the changes made to the parser
+ * between two loads; the parser must not be changed while a file is loaded.
+ * Errors don't stop the loading: each wrong line is reported with its line, column and byte offset in the file,
+ * and the expressions of the other lines are returned in the order of the file. A name defined twice keeps its first
+ * definition, the second one is reported as an error.
+ */
+
+public final class BulkLoader {
+//error of a line of the file
+	public static final class LineError {
+		private final long line;
+		private final int column;
+		private final long fileOffset;
+		private final String name;
+		private final ParseException exception;
+
+		LineError(long line, int column, long fileOffset, String name, ParseException exception) {
+			this.line = line;
+			this.column = column;
+			this.fileOffset = fileOffset;
+			this.name = name;
+			this.exception = exception;
+		}
+
+		public long getLine() {//from 1
+			return line;
+		}
+
+		public int getColumn() {//offset of the error in the line, in characters from 0, -1 for a duplicate name
+			return column;
+		}
+
+		public long getFileOffset() {//offset of the error in the file, in bytes, the name for a duplicate name
+			return fileOffset;
+		}
+
+		public String getName() {//name of the definition, null if the line has no valid name
+			return name;
+		}
+
+		public ParseException getException() {//exception with the offset of the error in the expression
+			return exception;
+		}
+
+		@Override
+		public String toString() {
+			return "line " + line + ", column " + column + ": " + exception.getMessage();
+		}
+	}
+
+//expressions and errors of a loaded file
+	public static final class Result {
+		private final Map<String, Node> expressions;
+		private final List<LineError> errors;
+		private final long lines;
+
+		Result(Map<String, Node> expressions, List<LineError> errors, long lines) {
+			this.expressions = Collections.unmodifiableMap(expressions);
+			this.errors = Collections.unmodifiableList(errors);
+			this.lines = lines;
+		}
+
+		public Map<String, Node> getExpressions() {//in the order of the file
+			return expressions;
+		}
+
+		public List<LineError> getErrors() {//in the order of the file
+			return errors;
+		}
+
+		public long getLines() {
+			return lines;
+		}
+	}
+
+	private static final class Worker {//parser and buffers of a thread
+		final ExpressionParser parser;
+		final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer chars = CharBuffer.allocate(1024);
+
+		Worker(ExpressionParser parser) {
+			this.parser = parser;
+		}
+	}
+
+	private static final class Chunk {//definitions and errors of a chunk, with line numbers from 0 in the chunk
+		final List<String> names = new ArrayList<>();
+		final List<Node> nodes = new ArrayList<>();
+		final List<Long> nodeLines = new ArrayList<>();
+		final List<Long> nodeOffsets = new ArrayList<>();//byte offsets of the names, for the duplicates
+		final List<LineError> errors = new ArrayList<>();
+		long lines;
+	}
+
+	private final ExpressionParser parser;
+	private final ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<>();
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int chunkSize = 8 << 20;
+
+	public BulkLoader(ExpressionParser parser) {
+		this.parser = parser;
+	}
+
+	public void setThreads(int threads) {
+		if (threads <= 0)
+			throw new IllegalArgumentException("threads must be positive: " + threads);
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+//sets the size of the chunks parsed by a task, in bytes; chunks end at the end of a line, so they may be longer
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+		this.chunkSize = chunkSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public Result load(Path file) throws IOException {
+		workers.clear();//copies of the parser as it is now
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			List<Long> bounds = split(channel);
+			List<Chunk> chunks = new ArrayList<>();
+			if (threads == 1 || bounds.size() <= 2) {
+				for (int i = 0; i + 1 < bounds.size(); i++)
+					chunks.add(parse(channel, bounds.get(i), bounds.get(i + 1)));
+			} else {
+				ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, bounds.size() - 1), task -> {
+					Thread thread = new Thread(task, "bulk-loader");
+					thread.setDaemon(true);
+					return thread;
+				});
+				try {
+					List<Future<Chunk>> futures = new ArrayList<>();
+					for (int i = 0; i + 1 < bounds.size(); i++) {
+						long start = bounds.get(i), end = bounds.get(i + 1);
+						futures.add(executor.submit(() -> parse(channel, start, end)));
+					}
+					for (Future<Chunk> future : futures)
+						chunks.add(future.get());
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IOException("loading interrupted", ex);
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof IOException)
+						throw (IOException) ex.getCause();
+					if (ex.getCause() instanceof RuntimeException)
+						throw (RuntimeException) ex.getCause();
+					throw new IOException(ex.getCause());
+				} finally {
+					executor.shutdownNow();
+				}
+			}
+			return merge(chunks);
+		}
+	}
+
+//offsets of the chunks: the start of the file, the start of a line after each multiple of chunkSize, the end of the file
+	private List<Long> split(FileChannel channel) throws IOException {
+		long size = channel.size();
+		List<Long> bounds = new ArrayList<>();
+		bounds.add(0L);
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long position = chunkSize;
+		while (position < size) {
+			long lineEnd = -1;
+			while (lineEnd < 0 && position < size) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				for (int i = 0; i < read; i++) {
+					if (buffer.get(i) == '\n') {
+						lineEnd = position + i;
+						break;
+					}
+				}
+				if (lineEnd < 0)
+					position += Math.max(read, 0);
+			}
+			if (lineEnd < 0 || lineEnd + 1 >= size)
+				break;
+			bounds.add(lineEnd + 1);
+			position = lineEnd + 1 + chunkSize;
+		}
+		bounds.add(size);
+		return bounds;
+	}
+
+	private Chunk parse(FileChannel channel, long start, long end) throws IOException {
+		Worker worker = workers.poll();
+		if (worker == null)
+			worker = new Worker(parser.copy());
+		try {
+			Chunk chunk = new Chunk();
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			int length = bytes.limit();
+			int lineStart = 0;
+			while (lineStart < length) {
+				int lineEnd = lineStart;
+				while (lineEnd < length && bytes.get(lineEnd) != '\n')
+					lineEnd++;
+				int contentEnd = lineEnd > lineStart && bytes.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+				parseLine(worker, chunk, bytes, lineStart, contentEnd, start + lineStart);
+				chunk.lines++;
+				lineStart = lineEnd + 1;
+			}
+			return chunk;
+		} finally {
+			workers.offer(worker);
+		}
+	}
+
+	private static void parseLine(Worker worker, Chunk chunk, ByteBuffer bytes, int from, int to, long fileOffset) {
+		CharBuffer chars = decode(worker, bytes, from, to);
+		int length = chars.limit();
+		int i = skipSpaces(chars, 0);
+		if (i == length || chars.get(i) == '#')
+			return;
+		int nameStart = i;
+		while (i < length && Character.isLetterOrDigit(chars.get(i)))
+			i++;
+		String name = chars.subSequence(nameStart, i).toString();
+		if (name.isEmpty() || !Character.isLetter(name.charAt(0))) {
+			chunk.errors.add(error(chunk, chars, nameStart, fileOffset, null, new ParseException("Expected a name", 0)));
+			return;
+		}
+		i = skipSpaces(chars, i);
+		if (i == length || chars.get(i) != '=') {
+			chunk.errors.add(error(chunk, chars, i, fileOffset, name, new ParseException("Expected = after the name", 0)));
+			return;
+		}
+		int expressionStart = i + 1;
+		String expression = chars.subSequence(expressionStart, length).toString();
+		try {
+			Node node = worker.parser.parseExpression(expression);
+			chunk.names.add(name);
+			chunk.nodes.add(node);
+			chunk.nodeLines.add(chunk.lines);
+			chunk.nodeOffsets.add(fileOffset + utf8Length(chars, nameStart));
+		} catch (ParseException ex) {
+			chunk.errors.add(error(chunk, chars, expressionStart + ex.getErrorOffset(), fileOffset, name, ex));
+		}
+	}
+
+	private static CharBuffer decode(Worker worker, ByteBuffer bytes, int from, int to) {
+		ByteBuffer line = bytes.duplicate();
+		line.limit(to).position(from);
+		while (true) {
+			worker.decoder.reset();
+			worker.chars.clear();
+			CoderResult result = worker.decoder.decode(line, worker.chars, true);
+			if (!result.isOverflow())
+				result = worker.decoder.flush(worker.chars);
+			if (!result.isOverflow())
+				break;
+			worker.chars = CharBuffer.allocate(worker.chars.capacity() * 2);
+			line.position(from);
+		}
+		worker.chars.flip();
+		return worker.chars;
+	}
+
+	private static int skipSpaces(CharBuffer chars, int i) {
+		while (i < chars.limit() && Character.isWhitespace(chars.get(i)))
+			i++;
+		return i;
+	}
+
+	private static LineError error(Chunk chunk, CharBuffer chars, int column, long lineOffset, String name, ParseException ex) {
+		column = Math.min(Math.max(column, 0), chars.limit());
+		return new LineError(chunk.lines, column, lineOffset + utf8Length(chars, column), name, ex);
+	}
+
+	private static int utf8Length(CharBuffer chars, int end) {//bytes of the characters before 'end'
+		int bytes = 0;
+		for (int i = 0; i < end; i++) {
+			char c = chars.get(i);
+			bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+		}
+		return bytes;
+	}
+
+//numbers the lines of the chunks from the start of the file and collects their definitions in order
+	private static Result merge(List<Chunk> chunks) {
+		Map<String, Node> expressions = new LinkedHashMap<>();
+		Map<String, Long> definedAt = new LinkedHashMap<>();
+		List<LineError> errors = new ArrayList<>();
+		long firstLine = 1;
+		for (Chunk chunk : chunks) {
+			int next = 0;//merges the definitions and the errors of the chunk by line
+			for (int i = 0; i < chunk.names.size(); i++) {
+				long line = firstLine + chunk.nodeLines.get(i);
+				while (next < chunk.errors.size() && chunk.errors.get(next).line < chunk.nodeLines.get(i))
+					errors.add(renumber(chunk.errors.get(next++), firstLine));
+				String name = chunk.names.get(i);
+				Long first = definedAt.putIfAbsent(name, line);
+				if (first == null)
+					expressions.put(name, chunk.nodes.get(i));
+				else errors.add(new LineError(line, -1, chunk.nodeOffsets.get(i), name, new ParseException("Duplicate definition of '" + name + "', first defined at line " + first, 0)));
+			}
+			while (next < chunk.errors.size())
+				errors.add(renumber(chunk.errors.get(next++), firstLine));
+			firstLine += chunk.lines;
+		}
+		return new Result(expressions, errors, firstLine - 1);
+	}
+
+	private static LineError renumber(LineError error, long firstLine) {
+		return new LineError(firstLine + error.line, error.column, error.fileOffset, error.name, error.exception);
+	}
+}//end of class BulkLoader
@@ -0,0 +1,185 @@
+package math;
+
+/**
+ * Symbolic differentiation: builds the tree of the derivative of an expression with respect to a variable.
+ * Products and sums with the constants 0 and 1 are simplified while building the tree; the result can be
+ * further simplified with optimize().
+ */
+
+final class Differentiator {
+	private final Variable variable;
+
+	private Differentiator(Variable variable) {
+		this.variable = variable;
+	}
+
+	static Node differentiate(Node node, Variable variable) {
+		return new Differentiator(variable).derivative(node);
+	}
+
+	private Node derivative(Node node) {
+		if (node instanceof NodeVariable) {
+			return number(((NodeVariable) node).getVariable() == variable ? 1 : 0);
+		} else if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier p = (UnaryNodeIdentifier) node;
+			Node du = derivative(p.child);
+			if (isNumber(du, 0))
+				return du;
+			switch (p.identifier) {
+				case "sin":
+					return multiply(function("cos", copy(p.child), p.fastMath), du);
+				case "cos":
+					return multiply(negate(function("sin", copy(p.child), p.fastMath)), du);
+				case "tan": {
+					Node cos = function("cos", copy(p.child), p.fastMath);
+					return divide(du, multiply(cos, copy(cos)));
+				}
+				case "log":
+					return divide(du, copy(p.child));
+				case "exp":
+					return multiply(copy(p), du);
+				case "sqrt":
+					return divide(du, multiply(number(2), copy(p)));
+				default:
+					throw new RuntimeException("unknown identifier: " + p.identifier);
+			}
+		} else if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode p = (LambdaFunctionNode) node;
+			Node result = number(0);
+			for (int j = 0; j < p.arguments.length; j++) {
+				Node du = derivative(p.arguments[j]);
+				if (isNumber(du, 0))
+					continue;
+				UserFunction[] partials = p.function.partials;
+				if (partials == null)
+					throw new IllegalStateException("no derivative registered for function '" + p.identifier + "'");
+				Node[] arguments = new Node[p.arguments.length];
+				for (int i = 0; i < arguments.length; i++)
+					arguments[i] = copy(p.arguments[i]);
+				result = add(result, multiply(new LambdaFunctionNode(partials[j].name, arguments, partials[j]), du));
+			}
+			return result;
+		} else if (node instanceof NodeDouble || isNumericConstant(node)) {
+			return number(0);
+		} else if (node instanceof UnaryNode && node.type == Type.minus) {
+			return negate(derivative(((UnaryNode) node).child));
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			switch (p.type) {
+				case add:
+					return add(derivative(p.left), derivative(p.right));
+				case subtract:
+					return subtract(derivative(p.left), derivative(p.right));
+				case multiply:
+					return add(multiply(derivative(p.left), copy(p.right)), multiply(copy(p.left), derivative(p.right)));
+				case divide: {
+					Node dv = derivative(p.right);
+					if (isNumber(dv, 0))
+						return divide(derivative(p.left), copy(p.right));
+					Node numerator = subtract(multiply(derivative(p.left), copy(p.right)), multiply(copy(p.left), dv));
+					return divide(numerator, multiply(copy(p.right), copy(p.right)));
+				}
+				case power: {//d(u^v) = v * u^(v - 1) * du + u^v * log(u) * dv
+					Node du = derivative(p.left), dv = derivative(p.right);
+					Node result = number(0);
+					if (!isNumber(du, 0)) {
+						Node exponent = p.right instanceof NodeDouble ? number(((NodeDouble) p.right).num - 1) : subtract(copy(p.right), number(1));
+						result = multiply(multiply(copy(p.right), power(copy(p.left), exponent)), du);
+					}
+					if (!isNumber(dv, 0))
+						result = add(result, multiply(multiply(copy(p), function("log", copy(p.left), false)), dv));
+					return result;
+				}
+			}
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			Node dc = derivative(p.center), dr = derivative(p.right);
+			if (isNumber(dc, 0) && isNumber(dr, 0))
+				return dc;
+			TernaryNode result = new TernaryNode(Type.conditional_expression);
+			result.left = copy(p.left);
+			result.center = dc;
+			result.right = dr;
+			return result;
+		} else if (node instanceof SharedNode) {
+			return derivative(((SharedNode) node).getChild());
+		} else if (node instanceof ScopeNode) {
+			return derivative(((ScopeNode) node).body);
+		}
+		StringBuilder sb = new StringBuilder();
+		node.visit(sb);
+		throw new IllegalArgumentException("not a numeric expression: " + sb);
+	}
+
+	private static boolean isNumericConstant(Node node) {
+		return node.getClass() == NodeIdentifier.class && (((NodeIdentifier) node).identifier.equals("PI") || ((NodeIdentifier) node).identifier.equals("E"));
+	}
+
+	private static boolean isNumber(Node node, double value) {
+		return node instanceof NodeDouble && ((NodeDouble) node).num == value;
+	}
+
+	private static Node copy(Node node) {
+		return Optimizer.fold(node);
+	}
+
+	private static Node number(double value) {
+		return new NodeDouble(value);
+	}
+
+	private static Node function(String name, Node argument, boolean fastMath) {
+		return UnaryNodeIdentifier.create(name, argument, fastMath);
+	}
+
+	private static Node binary(Type type, Node left, Node right) {
+		return BinaryNode.create(type, left, right);
+	}
+
+	private static Node negate(Node node) {
+		if (node instanceof NodeDouble)
+			return number(-((NodeDouble) node).num);
+		return UnaryNode.create(Type.minus, node);
+	}
+
+	private static Node add(Node left, Node right) {
+		if (isNumber(left, 0))
+			return right;
+		if (isNumber(right, 0))
+			return left;
+		return binary(Type.add, left, right);
+	}
+
+	private static Node subtract(Node left, Node right) {
+		if (isNumber(right, 0))
+			return left;
+		if (isNumber(left, 0))
+			return negate(right);
+		return binary(Type.subtract, left, right);
+	}
+
+	private static Node multiply(Node left, Node right) {
+		if (isNumber(left, 0) || isNumber(right, 0))
+			return number(0);
+		if (isNumber(left, 1))
+			return right;
+		if (isNumber(right, 1))
+			return left;
+		return binary(Type.multiply, left, right);
+	}
+
+	private static Node divide(Node left, Node right) {
+		if (isNumber(left, 0))
+			return number(0);
+		if (isNumber(right, 1))
+			return left;
+		return binary(Type.divide, left, right);
+	}
+
+	private static Node power(Node left, Node right) {
+		if (isNumber(right, 0))
+			return number(1);
+		if (isNumber(right, 1))
+			return left;
+		return binary(Type.power, left, right);
+	}
+}//end of class Differentiator
@@ -0,0 +1,85 @@
+package math;
+
+/**
+ * Bounded map from double to double with open addressing: a key is searched in a small window of slots starting at its
+ * hash, and when the window is full one of its entries is evicted, giving a second chance to the entries used since
+ * the last eviction (clock algorithm). Keys are compared by their bits, so -0.0 and 0.0 are different keys and NaN is a
+ * valid key. Not thread safe.
+ */
+
+final class DoubleCache {
+	private static final int WINDOW = 4;//slots searched for each key
+	private static final byte EMPTY = 0, FILLED = 1, REFERENCED = 2;
+
+	private final long[] keys;
+	private final double[] values;
+	private final byte[] state;
+	private final int mask;
+
+	DoubleCache(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		int size = Integer.highestOneBit(Math.max(capacity, WINDOW) - 1) << 1;//power of two, at least capacity
+		keys = new long[size];
+		values = new double[size];
+		state = new byte[size];
+		mask = size - 1;
+	}
+
+	static long hash(long bits) {//the low bits of doubles are often zero, so the high bits are folded in before mixing
+		return (bits ^ (bits >>> 32)) * 0x9E3779B97F4A7C15L;
+	}
+
+	private int start(long bits) {
+		return (int) (hash(bits) >>> 32) & mask;
+	}
+
+//returns the slot holding the key, or -1 if the key is not in the cache
+	int find(long bits) {
+		int start = start(bits);
+		for (int j = 0; j < WINDOW; j++) {
+			int i = (start + j) & mask;
+			if (state[i] == EMPTY)
+				return -1;//entries are never removed, so the key can't be after an empty slot
+			if (keys[i] == bits) {
+				state[i] = REFERENCED;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	double value(int slot) {
+		return values[slot];
+	}
+
+//stores the value of a key, returns true if another entry has been evicted
+	boolean put(long bits, double value) {
+		int start = start(bits);
+		for (int j = 0; j < WINDOW; j++) {
+			int i = (start + j) & mask;
+			if (state[i] == EMPTY || keys[i] == bits) {
+				keys[i] = bits;
+				values[i] = value;
+				state[i] = FILLED;
+				return false;
+			}
+		}
+		int victim = start;
+		for (int j = 0; j < WINDOW; j++) {
+			int i = (start + j) & mask;
+			if (state[i] == FILLED) {
+				victim = i;
+				break;
+			}
+			state[i] = FILLED;//second chance
+		}
+		keys[victim] = bits;
+		values[victim] = value;
+		return true;
+	}
+
+	int capacity() {
+		return keys.length;
+	}
+}//end of class DoubleCache
@@ -0,0 +1,10 @@
+package math;
+
+/**
+ * Primitive function of a fixed number of double arguments, used to register user functions with more than two arguments
+ */
+
+@FunctionalInterface
+public interface DoubleNaryOperator {
+	double applyAsDouble(double[] args);//args.length is the arity declared at registration
+}//end of interface DoubleNaryOperator
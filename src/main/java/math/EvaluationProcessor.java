@@ -0,0 +1,347 @@
+package math;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stage of a java.util.concurrent.Flow pipeline evaluating an expression: each record is a row with the values of the
+ * variables, in the order given to the constructor, and gives a Result with the value of the expression, in the order
+ * of the records. Records are buffered in micro-batches evaluated together by a BatchEvaluator; a batch is evaluated
+ * when it reaches the batch size or when its first record has waited the maximum delay.
+ * Backpressure: results are emitted only on the demand of the subscriber, and at most two batches of records are
+ * requested from upstream and not yet emitted, so the buffers are bounded.
+ * Errors of the evaluation, e.g. an exception of a user function or a row with a wrong number of values, give a Result
+ * with the error and the stream goes on; errors of the upstream publisher are emitted after the pending results.
+ * The processor evaluates a private copy of the expression, with its own variables; it accepts one subscriber.
+ */
+
+public final class EvaluationProcessor implements Flow.Processor<double[], EvaluationProcessor.Result> {
+//value of the expression for a record, or the error of its evaluation
+	public static final class Result {
+		private final double[] values;
+		private final Object value;
+		private final Throwable error;
+
+		Result(double[] values, Object value, Throwable error) {
+			this.values = values;
+			this.value = value;
+			this.error = error;
+		}
+
+		public double[] getValues() {//the record
+			return values;
+		}
+
+		public Object getValue() {//Double or Boolean, null in case of error
+			return value;
+		}
+
+		public Throwable getError() {//null if the evaluation succeeded
+			return error;
+		}
+
+		public boolean isError() {
+			return error != null;
+		}
+
+		@Override
+		public String toString() {
+			return error != null ? "error: " + error : String.valueOf(value);
+		}
+	}
+
+	private static volatile ScheduledExecutorService defaultScheduler;
+
+	private final Variable[] variables;
+	private final BatchEvaluator evaluator;
+	private final Node expression;
+	private final boolean booleanResult;
+	private final Object lock = new Object();
+	private final AtomicInteger wip = new AtomicInteger();//drain() calls in progress, to serialize the signals downstream
+	private int batchSize = 256;
+	private long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+	private ScheduledExecutorService scheduler;
+
+	private final ArrayDeque<double[]> rows = new ArrayDeque<>();//records of the current batch
+	private final ArrayDeque<Result> results = new ArrayDeque<>();//results not yet emitted
+	private double[][] columns;
+	private Flow.Subscription upstream;
+	private Flow.Subscriber<? super Result> downstream;
+	private long demand;//results requested downstream and not yet emitted
+	private long requested;//records requested upstream and not yet received
+	private boolean upstreamDone;
+	private Throwable upstreamError;
+	private Throwable protocolError;//invalid request downstream
+	private boolean cancelled;
+	private boolean terminated;
+	private ScheduledFuture<?> timer;
+
+	public EvaluationProcessor(Node expression, Variable... variables) {
+		Map<Variable, Variable> copies = new HashMap<>();
+		this.variables = new Variable[variables.length];
+		for (int i = 0; i < variables.length; i++) {
+			this.variables[i] = new Variable(variables[i].getName(), variables[i].get());
+			copies.put(variables[i], this.variables[i]);
+		}
+		this.expression = Optimizer.optimize(Optimizer.fold(expression, copies));
+		this.evaluator = new BatchEvaluator(this.expression, this.variables);
+		this.booleanResult = IntervalEvaluator.isBoolean(this.expression);
+	}
+
+//sets the number of records evaluated together, to be called before subscribing
+	public void setBatchSize(int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+		this.batchSize = batchSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+//sets the maximum time a record waits for its batch to be complete, to be called before subscribing
+	public void setMaxDelay(long delay, TimeUnit unit) {
+		if (delay <= 0)
+			throw new IllegalArgumentException("delay must be positive: " + delay);
+		this.maxDelayNanos = unit.toNanos(delay);
+	}
+
+//sets the scheduler of the delayed evaluations, by default a shared daemon thread
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super Result> subscriber) {
+		synchronized (lock) {
+			if (downstream == null) {
+				downstream = subscriber;
+				subscriber = null;
+			}
+		}
+		if (subscriber != null) {//a second subscriber
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+				}
+
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("EvaluationProcessor accepts one subscriber"));
+			return;
+		}
+		downstream.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				synchronized (lock) {
+					if (n <= 0)
+						protocolError = new IllegalArgumentException("non-positive request: " + n);
+					else demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+				}
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				Flow.Subscription subscription;
+				synchronized (lock) {
+					cancelled = true;
+					rows.clear();
+					results.clear();
+					if (timer != null)
+						timer.cancel(false);
+					subscription = upstream;
+				}
+				if (subscription != null)
+					subscription.cancel();
+			}
+		});
+		drain();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		synchronized (lock) {
+			if (upstream != null || cancelled) {
+				subscription.cancel();
+				return;
+			}
+			upstream = subscription;
+		}
+		drain();
+	}
+
+	@Override
+	public void onNext(double[] row) {
+		synchronized (lock) {
+			if (cancelled || upstreamDone)
+				return;
+			requested--;
+			rows.add(row);
+			if (rows.size() >= batchSize)
+				flush();
+			else if (rows.size() == 1)
+				timer = scheduler().schedule(this::flushByTime, maxDelayNanos, TimeUnit.NANOSECONDS);
+		}
+		drain();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		synchronized (lock) {
+			upstreamDone = true;
+			upstreamError = throwable;
+			flush();
+		}
+		drain();
+	}
+
+	@Override
+	public void onComplete() {
+		synchronized (lock) {
+			upstreamDone = true;
+			flush();
+		}
+		drain();
+	}
+
+	private void flushByTime() {
+		synchronized (lock) {
+			if (!cancelled)
+				flush();
+		}
+		drain();
+	}
+
+//emits the results on demand, then requests the records allowed by the bounds; runs in one thread at a time
+	private void drain() {
+		if (wip.getAndIncrement() != 0)
+			return;
+		do {
+			Flow.Subscriber<? super Result> subscriber;
+			while (true) {
+				Result result;
+				synchronized (lock) {
+					subscriber = downstream;
+					if (subscriber == null || cancelled || terminated || demand == 0 || results.isEmpty())
+						break;
+					result = results.poll();
+					demand--;
+				}
+				subscriber.onNext(result);
+			}
+			Throwable error = null;
+			boolean complete = false, cancelUpstream = false;
+			long request = 0;
+			Flow.Subscription subscription;
+			synchronized (lock) {
+				subscription = upstream;
+				if (subscriber != null && !cancelled && !terminated) {
+					if (protocolError != null) {
+						error = protocolError;
+						cancelUpstream = subscription != null;
+						terminated = true;
+					} else if (upstreamDone && rows.isEmpty() && results.isEmpty()) {
+						error = upstreamError;
+						complete = error == null;
+						terminated = true;
+					} else if (!upstreamDone && subscription != null) {
+						request = 2L * batchSize - requested - rows.size() - results.size();
+						if (request > 0)
+							requested += request;
+					}
+				}
+			}
+			if (error != null) {
+				if (cancelUpstream)
+					subscription.cancel();
+				subscriber.onError(error);
+			} else if (complete) {
+				subscriber.onComplete();
+			} else if (request > 0) {
+				subscription.request(request);
+			}
+		} while (wip.decrementAndGet() != 0);
+	}
+
+//evaluates the current batch, adding its results; called holding the lock
+	private void flush() {
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+		int n = rows.size();
+		if (n == 0)
+			return;
+		if (columns == null || (columns.length > 0 && columns[0].length < n))
+			columns = new double[variables.length][Math.max(n, batchSize)];
+		double[][] batch = rows.toArray(new double[0][]);
+		rows.clear();
+		boolean valid = true;
+		for (int row = 0; row < n; row++) {
+			if (batch[row] == null || batch[row].length != variables.length) {
+				valid = false;
+				continue;
+			}
+			for (int i = 0; i < variables.length; i++)
+				columns[i][row] = batch[row][i];
+		}
+		if (valid) {
+			try {
+				if (booleanResult) {
+					boolean[] values = new boolean[n];
+					evaluator.filter(columns, 0, n, values);
+					for (int row = 0; row < n; row++)
+						results.add(new Result(batch[row], values[row], null));
+				} else {
+					double[] values = new double[n];
+					evaluator.evaluate(columns, 0, n, values);
+					for (int row = 0; row < n; row++)
+						results.add(new Result(batch[row], values[row], null));
+				}
+				return;
+			} catch (RuntimeException ex) {//evaluated again row by row, to find the rows in error
+			}
+		}
+		for (int row = 0; row < n; row++)
+			results.add(evaluate(batch[row]));
+	}
+
+	private Result evaluate(double[] row) {
+		if (row == null || row.length != variables.length)
+			return new Result(row, null, new IllegalArgumentException("expected " + variables.length + " value(s), but got " + (row == null ? "null" : row.length)));
+		for (int i = 0; i < variables.length; i++)
+			variables[i].set(row[i]);
+		try {
+			return new Result(row, expression.evaluate(), null);
+		} catch (RuntimeException ex) {
+			return new Result(row, null, ex);
+		}
+	}
+
+	private ScheduledExecutorService scheduler() {
+		if (scheduler != null)
+			return scheduler;
+		if (defaultScheduler == null) {
+			synchronized (EvaluationProcessor.class) {
+				if (defaultScheduler == null) {
+					ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, task -> {
+						Thread thread = new Thread(task, "evaluation-processor");
+						thread.setDaemon(true);
+						return thread;
+					});
+					executor.setRemoveOnCancelPolicy(true);
+					defaultScheduler = executor;
+				}
+			}
+		}
+		return defaultScheduler;
+	}
+}//end of class EvaluationProcessor
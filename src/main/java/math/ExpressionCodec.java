@@ -0,0 +1,185 @@
+package math;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Binary form of a parsed tree, to ship an expression to another JVM without parsing it again there.
+ * Nodes are written in prefix order: a tag, its fields, then its children; variables and user functions are written by
+ * name and resolved against a parser when the tree is read, so the reader must register the same user functions.
+ * Variables not declared in the reader's parser are declared with the value they had when the tree was written.
+ * Shared subexpressions, scopes and adaptive nodes are written as the plain tree they evaluate.
+ * Format: byte VERSION, node; node = NUMBER double | CONSTANT name | VARIABLE name double | FUNCTION name boolean node
+ *   | CALL name short count, count nodes | UNARY type node | BINARY type node node | TERNARY node node node
+ * Names are written as modified UTF-8 (DataOutput.writeUTF), types as the name of their constant in Type.
+ * Trees nested deeper than MAX_DEPTH are rejected when read, before they can overflow the stack of the reader.
+ */
+
+public final class ExpressionCodec {
+	private static final byte VERSION = 1;
+	static final int MAX_DEPTH = 1000;
+	private static final byte NUMBER = 1, CONSTANT = 2, VARIABLE = 3, FUNCTION = 4, CALL = 5, UNARY = 6, BINARY = 7, TERNARY = 8;
+
+	private ExpressionCodec() {
+	}
+
+//returns the binary form of the tree
+	public static byte[] encode(Node expression) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(VERSION);
+			write(expression, out);
+		} catch (IOException ex) {//never thrown by a ByteArrayOutputStream
+			throw new UncheckedIOException(ex);
+		}
+		return bytes.toByteArray();
+	}
+
+//returns the tree read from its binary form, with the variables and user functions of the parser; throws IllegalArgumentException for invalid data
+	public static Node decode(byte[] bytes, ExpressionParser parser) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			byte version = in.readByte();
+			if (version != VERSION)
+				throw new IllegalArgumentException("unsupported version: " + version);
+			Node expression = read(in, parser, 0);
+			if (in.available() > 0)
+				throw new IllegalArgumentException(in.available() + " byte(s) after the expression");
+			return expression;
+		} catch (IOException ex) {//EOFException for truncated data
+			throw new IllegalArgumentException("truncated expression", ex);
+		}
+	}
+
+	private static void write(Node node, DataOutputStream out) throws IOException {
+		if (node instanceof NodeDouble) {
+			out.writeByte(NUMBER);
+			out.writeDouble(((NodeDouble) node).num);
+		} else if (node instanceof NodeVariable) {
+			Variable variable = ((NodeVariable) node).getVariable();
+			out.writeByte(VARIABLE);
+			out.writeUTF(variable.getName());
+			out.writeDouble(variable.get());
+		} else if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier p = (UnaryNodeIdentifier) node;
+			out.writeByte(FUNCTION);
+			out.writeUTF(p.identifier);
+			out.writeBoolean(p.fastMath);
+			write(p.child, out);
+		} else if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode p = (LambdaFunctionNode) node;
+			out.writeByte(CALL);
+			out.writeUTF(p.function.name);
+			out.writeShort(p.arguments.length);
+			for (Node argument : p.arguments)
+				write(argument, out);
+		} else if (node instanceof NodeIdentifier) {
+			out.writeByte(CONSTANT);
+			out.writeUTF(((NodeIdentifier) node).identifier);
+		} else if (node instanceof UnaryNode) {
+			out.writeByte(UNARY);
+			out.writeUTF(node.type.name());
+			write(((UnaryNode) node).child, out);
+		} else if (node instanceof BinaryNode) {
+			out.writeByte(BINARY);
+			out.writeUTF(node.type.name());
+			write(((BinaryNode) node).left, out);
+			write(((BinaryNode) node).right, out);
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			out.writeByte(TERNARY);
+			write(p.left, out);
+			write(p.center, out);
+			write(p.right, out);
+		} else if (node instanceof SharedNode) {
+			write(((SharedNode) node).getChild(), out);
+		} else if (node instanceof ScopeNode) {
+			write(((ScopeNode) node).body, out);
+		} else if (node instanceof AdaptiveNode) {
+			write(AdaptiveNode.rebuild(node.type, ((AdaptiveNode) node).getOperands()), out);
+		} else {
+			throw new IllegalArgumentException("unexpected node: " + node.getClass().getSimpleName());
+		}
+	}
+
+	private static Node read(DataInputStream in, ExpressionParser parser, int depth) throws IOException {
+		if (depth > MAX_DEPTH)
+			throw new IllegalArgumentException("expression nested deeper than " + MAX_DEPTH + " levels");
+		byte tag = in.readByte();
+		switch (tag) {
+			case NUMBER:
+				return new NodeDouble(in.readDouble());
+			case CONSTANT:
+				return new NodeIdentifier(in.readUTF());
+			case VARIABLE: {
+				String name = in.readUTF();
+				double value = in.readDouble();
+				Variable variable = parser.getVariable(name);
+				return new NodeVariable(variable != null ? variable : parser.setVariable(name, value));
+			}
+			case FUNCTION: {
+				String name = in.readUTF();
+				boolean fastMath = in.readBoolean();
+				return UnaryNodeIdentifier.create(name, read(in, parser, depth + 1), fastMath);
+			}
+			case CALL: {
+				String name = in.readUTF();
+				UserFunction function = parser.getUserFunction(name);
+				if (function == null)
+					throw new IllegalArgumentException("unknown function: " + name);
+				Node[] arguments = new Node[in.readShort()];
+				if (arguments.length != function.arity)
+					throw new IllegalArgumentException("Function '" + name + "' expects " + function.arity + " argument(s), but got " + arguments.length);
+				for (int i = 0; i < arguments.length; i++)
+					arguments[i] = read(in, parser, depth + 1);
+				return new LambdaFunctionNode(name, arguments, function);
+			}
+			case UNARY:
+				return UnaryNode.create(type(in), read(in, parser, depth + 1));
+			case BINARY: {
+				Type type = type(in);
+				switch (type) {
+					case add:
+					case subtract:
+					case multiply:
+					case divide:
+					case power:
+					case and:
+					case or:
+					case equal:
+					case unequal:
+					case gte:
+					case lte:
+					case gt:
+					case lt:
+						break;
+					default:
+						throw new IllegalArgumentException("not a binary operator: " + type);
+				}
+				Node left = read(in, parser, depth + 1);
+				return BinaryNode.create(type, left, read(in, parser, depth + 1));
+			}
+			case TERNARY: {
+				TernaryNode p = new TernaryNode(Type.conditional_expression);
+				p.left = read(in, parser, depth + 1);
+				p.center = read(in, parser, depth + 1);
+				p.right = read(in, parser, depth + 1);
+				return p;
+			}
+			default:
+				throw new IllegalArgumentException("unknown node tag: " + tag);
+		}
+	}
+
+	private static Type type(DataInputStream in) throws IOException {
+		String name = in.readUTF();
+		try {
+			return Type.valueOf(name);
+		} catch (IllegalArgumentException ex) {
+			throw new IllegalArgumentException("unknown type: " + name);
+		}
+	}
+}//end of class ExpressionCodec
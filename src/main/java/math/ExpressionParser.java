@@ -1,7 +1,8 @@
 /* Class that implements expression parser. It supports parsing of expressions with numbers and booleans values.
 
-Numeric expressions may contain brackets ( ), operators *,-,/,+,"and" and "or" and numbers with optional decimal point and values "true" and "false".
-In addition it is possible to use constants "PI" and "E", functions sin(), cos(), tan(), log(), exp(), sqrt().
+Numeric expressions may contain brackets ( ), operators *,-,/,+,^,"and" and "or" and numbers with optional decimal point and values "true" and "false".
+In addition it is possible to use constants "PI" and "E", functions sin(), cos(), tan(), log(), exp(), sqrt(),
+user functions registered with registerFunction() and variables declared with setVariable().
 
 Rules for expressions:
 <expression> ::= <conditional or expr> [ "?" <expression> ":" <expression> ]
@@ -11,10 +12,12 @@ Rules for expressions:
 <relation expression> ::= <simple expression> "<" <simple expression> | <simple expression> "<=" <simple expression> | <simple expression> ">=" <simple expression> | <simple expression> ">" <simple expression>
 <simple expression> ::= <term> { ("+"|"-") <term> }*
 <term> ::= <factor> { ("*"|"/") <factor> }*
-<factor> ::= <boolean> | <constant> | <unary function> "(" <expression> ")" | "(" <expression> ")" | "!" <factor> | "-" <factor> | <number>
+<factor> ::= <primary> [ "^" <factor> ]
+<primary> ::= <boolean> | <constant> | <unary function> "(" <expression> ")" | <user function> "(" [ <expression> { "," <expression> }* ] ")" | "(" <expression> ")" | "!" <factor> | "-" <factor> | <number>
 <boolean> ::= "false" | "true"
-<constant> == "PI" | "E"
+<constant> == "PI" | "E" | <variable>
 <unary function> == "sin" | "cos" | "tan" | "log" | "exp" | "sqrt"
+<user function> == name of a function registered with registerFunction(), the number of arguments must match its arity
 <number> ::= { <digit> }+ [ "." { <digit> }* ]
 <digit> ::= "0" | "1" | "2" | "3" | "4" | "5" | "6" | "7" | "8" | "9"
 
@@ -22,15 +25,23 @@ Rules for expressions:
 package math;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 
 public class ExpressionParser {
     private List<Token> tokens;
     private int current = 0;
-    private final Map<String, Function<Double, Double>> userFunctionLambdas = new HashMap<>();
+    private final Map<String, UserFunction> userFunctions = new HashMap<>();
+    private final Map<String, Variable> variables = new HashMap<>();
+    private boolean fastMath = false;
+    private boolean typeChecking = false;
+    private boolean specializedNodes = true;
+    private boolean polynomialRewriting = false;
+    private NodePool nodePool = null;
 
 //public method that evaluates an expression stored in tree 'p', returns either Double or Boolean
 	public Object evaluate(Node p) {//@NonNull Node p
@@ -46,6 +57,33 @@ public class ExpressionParser {
         return sb.toString();
     }
 
+//public method that returns an optimized copy of tree 'p': constant subexpressions are folded and repeated calls to pure functions are evaluated once
+    public Node optimize(Node p) {
+        return Optimizer.optimize(p, polynomialRewriting);
+    }
+
+/*public method that returns the residual tree of 'p' for the variables in 'values' fixed to their value, e.g. parameters
+  fixed for a session: it is folded, simplified and optimized, and gives the results of 'p' evaluated with those values
+*/
+    public Node bind(Node p, Map<Variable, Double> values) {
+        return PartialEvaluator.residual(p, values, polynomialRewriting);
+    }
+
+//public method that returns a copy of tree 'p' where the and/or chains are evaluated in an order adapting to the data, see AdaptiveNode
+    public Node adaptive(Node p) {
+        return AdaptiveNode.rewrite(p);
+    }
+
+//public method that evaluates tree 'p' and its gradient with respect to 'variables' in one pass, returns the value and fills 'gradient'
+    public double gradient(Node p, double[] gradient, Variable... variables) {
+        return new GradientEvaluator(p, variables).evaluate(gradient);
+    }
+
+//public method that returns the tree of the derivative of 'p' with respect to 'variable'
+    public Node differentiate(Node p, Variable variable) {
+        return Differentiator.differentiate(p, variable);
+    }
+
 //public method that returns the parsed expression as a tree
     public Node parseExpression(String expression) throws ParseException {
         Tokenizer tokenizer = new Tokenizer(expression);
@@ -57,23 +95,203 @@ public class ExpressionParser {
             Token trailing = peek();
             throw new ParseException("Unexpected characters: " + trailing.value, trailing.position);
         }
+        if (typeChecking)
+            TypeChecker.check(result);
+        if (nodePool != null)
+            result = nodePool.intern(result);
         return result;
     }
 
+/*public method that assigns each node of tree 'p' its static result type, see Node.getResultType(), returns the type of 'p';
+  type errors such as true + 1 are reported as ParseException at the offset of the wrong operand
+*/
+    public ResultType typeCheck(Node p) throws ParseException {
+        return TypeChecker.check(p);
+    }
+
+/*public method to select type checking of the expressions parsed afterwards: parseExpression() reports type errors,
+  otherwise they are found by the evaluation as ClassCastException or RuntimeException
+*/
+    public void setTypeChecking(boolean typeChecking) {
+        this.typeChecking = typeChecking;
+    }
+
+    public boolean isTypeChecking() {
+        return typeChecking;
+    }
+
+/*public method to select the nodes built for the expressions parsed afterwards: specialized nodes (the default) have
+  a class for each operator and built-in function, with variants for a constant operand, e.g. x * 2 or x > 5;
+  generic nodes select the operation at each evaluation. Both give the same results, optimize() specializes the nodes
+*/
+    public void setSpecializedNodes(boolean specializedNodes) {
+        this.specializedNodes = specializedNodes;
+    }
+
+    public boolean isSpecializedNodes() {
+        return specializedNodes;
+    }
+
+/*public method to select the rewriting of polynomials in one variable into Horner form by optimize(), e.g. 3 * x^2 + 2 * x + 1
+  into (3 * x + 2) * x + 1; disabled by default, as the rewritten expression may differ in the last bits, see PolynomialRewriter
+*/
+    public void setPolynomialRewriting(boolean polynomialRewriting) {
+        this.polynomialRewriting = polynomialRewriting;
+    }
+
+    public boolean isPolynomialRewriting() {
+        return polynomialRewriting;
+    }
+
+/*public method to share the identical subtrees of the expressions parsed afterwards through 'pool', null to stop, e.g.:
+	NodePool pool = new NodePool();
+	parser.setNodePool(pool);
+  the same pool can be given to several parsers; the subtrees are kept in the pool only while some expression uses them;
+  pooled trees must not be edited: NodeDouble.set() and UnaryNodeIdentifier.set() throw IllegalStateException on them
+*/
+    public void setNodePool(NodePool nodePool) {
+        this.nodePool = nodePool;
+    }
+
+    public NodePool getNodePool() {
+        return nodePool;
+    }
+
 /*public method to register user functions using lambdas, e.g.:
 	registerFunction("cube", x -> x * x * x);
 	registerFunction("toDegrees", Math::toDegrees);
+  the function is assumed to be impure, so optimize() leaves every call in place
+*/
+    public void registerFunction(String name, DoubleUnaryOperator logic) {
+        registerFunction(name, logic, FunctionProperties.IMPURE);
+    }
+
+/*public method to register user functions with their properties, e.g.:
+	registerFunction("cube", x -> x * x * x, FunctionProperties.PURE);
+	registerFunction("atan", Math::atan, FunctionProperties.PURE.withCost(40));
 */
-    public void registerFunction(String name, Function<Double, Double> logic) {
-        userFunctionLambdas.put(name, logic);
+    public void registerFunction(String name, DoubleUnaryOperator logic, FunctionProperties properties) {
+        userFunctions.put(name, new UserFunction(name, logic, properties));
     }
 
-//Hic sunt leones	
+/*public method to register user functions with two arguments, e.g.:
+	registerFunction("max", Math::max);
+	registerFunction("hypot", Math::hypot);
+*/
+    public void registerFunction(String name, DoubleBinaryOperator logic) {
+        registerFunction(name, logic, FunctionProperties.IMPURE);
+    }
+
+    public void registerFunction(String name, DoubleBinaryOperator logic, FunctionProperties properties) {
+        userFunctions.put(name, new UserFunction(name, logic, properties));
+    }
+
+/*public method to register user functions with any fixed number of arguments, e.g.:
+	registerFunction("clamp", 3, args -> Math.max(args[1], Math.min(args[2], args[0])));
+*/
+    public void registerFunction(String name, int arity, DoubleNaryOperator logic) {
+        registerFunction(name, arity, logic, FunctionProperties.IMPURE);
+    }
+
+    public void registerFunction(String name, int arity, DoubleNaryOperator logic, FunctionProperties properties) {
+        userFunctions.put(name, new UserFunction(name, arity, logic, properties));
+    }
+
+/*public method to register the partial derivatives of a user function, as names of other registered functions with the same arity, e.g.:
+	registerFunction("cube", x -> x * x * x);
+	registerFunction("dcube", x -> 3 * x * x);
+	registerDerivative("cube", "dcube");
+  the partial derivatives are used by gradient() and differentiate()
+*/
+    public void registerDerivative(String name, String... partials) {
+        UserFunction function = userFunctions.get(name);
+        if (function == null)
+            throw new IllegalArgumentException("unknown function: " + name);
+        if (partials.length != function.arity)
+            throw new IllegalArgumentException("function '" + name + "' needs " + function.arity + " partial derivative(s), got " + partials.length);
+        UserFunction[] derivatives = new UserFunction[partials.length];
+        for (int i = 0; i < partials.length; i++) {
+            derivatives[i] = userFunctions.get(partials[i]);
+            if (derivatives[i] == null || derivatives[i].arity != function.arity)
+                throw new IllegalArgumentException("partial derivative '" + partials[i] + "' must be a registered function with " + function.arity + " argument(s)");
+        }
+        function.partials = derivatives;
+    }
+
+/*public method to memoize the results of a pure and deterministic user function with one argument, e.g.:
+	registerFunction("heavy", x -> ..., FunctionProperties.PURE);
+	FunctionCache cache = memoize("heavy", 4096, FunctionCache.Sharing.THREAD_LOCAL);
+  the cache keeps at most capacity results (per thread for THREAD_LOCAL), and applies also to the expressions already parsed
+*/
+    public FunctionCache memoize(String name, int capacity, FunctionCache.Sharing sharing) {
+        UserFunction function = userFunctions.get(name);
+        if (function == null)
+            throw new IllegalArgumentException("unknown function: " + name);
+        if (function.unary == null)
+            throw new IllegalArgumentException("only functions registered with one argument can be memoized: " + name);
+        if (!function.properties.isShareable())
+            throw new IllegalArgumentException("function '" + name + "' must be pure and deterministic to be memoized");
+        function.cache = new FunctionCache(function.unary, capacity, sharing);
+        return function.cache;
+    }
+
+/*public method to select fast math mode for the expressions parsed afterwards: sin, cos, tan, log and exp are evaluated
+  with the approximations of FastMath, whose error bounds are documented there
+*/
+    public void setFastMath(boolean fastMath) {
+        this.fastMath = fastMath;
+    }
+
+    public boolean isFastMath() {
+        return fastMath;
+    }
+
+/*public method to declare a variable or to change its value, e.g.:
+	setVariable("x", 2.5);
+  expressions parsed after the declaration refer to the variable by name and see any later change of its value
+*/
+    public Variable setVariable(String name, double value) {
+        Variable variable = variables.get(name);
+        if (variable == null) {
+            if (!isValidVariableName(name))
+                throw new IllegalArgumentException("invalid variable name: " + name);
+            variable = new Variable(name, value);
+            variables.put(name, variable);
+        } else variable.set(value);
+        return variable;
+    }
+
+//public method that returns the variable with the given name, or null if it has not been declared
+    public Variable getVariable(String name) {
+        return variables.get(name);
+    }
+
+//returns the user function registered with the given name, or null
+    UserFunction getUserFunction(String name) {
+        return userFunctions.get(name);
+    }
+
+//parser sharing the variables, user functions, node pool and options of this parser, to parse in another thread
+    ExpressionParser copy() {
+        ExpressionParser copy = new ExpressionParser();
+        copy.userFunctions.putAll(userFunctions);
+        copy.variables.putAll(variables);
+        copy.fastMath = fastMath;
+        copy.typeChecking = typeChecking;
+        copy.specializedNodes = specializedNodes;
+        copy.polynomialRewriting = polynomialRewriting;
+        copy.nodePool = nodePool;
+        return copy;
+    }
+
+//Hic sunt leones
 	private Node expression() throws ParseException {
+        int start = peek().position;
         Node pcoe = conditional_or_expr();
 
         if (match(Type.question)) {
             TernaryNode p = new TernaryNode(Type.conditional_expression);
+            p.position = start;
             p.left = pcoe;
             p.center = expression();
             consume(Type.colon, "Missing :");
@@ -84,86 +302,77 @@ public class ExpressionParser {
     }
 
     private Node conditional_or_expr() throws ParseException {
+        int start = peek().position;
         Node pbt = boolean_term();
         while (match(Type.or)) {
-            BinaryNode p = new BinaryNode(Type.or);
-            p.left = pbt;
-            p.right = boolean_term();
-            pbt = p;
+            pbt = binary(Type.or, pbt, boolean_term(), start);
         }
         return pbt;
     }
 
     private Node boolean_term() throws ParseException {
+        int start = peek().position;
         Node per = equality();
         while (match(Type.and)) {
-            BinaryNode p = new BinaryNode(Type.and);
-            p.left = per;
-            p.right = equality();
-            per = p;
+            per = binary(Type.and, per, equality(), start);
         }
         return per;
     }
 
     private Node equality() throws ParseException {
+        int start = peek().position;
         Node pre = relation_expression();
         while (peek().type == Type.equal || peek().type == Type.unequal) {
             Token op = advance();
-            BinaryNode p = new BinaryNode(op.type);
-            p.left = pre;
-            p.right = relation_expression();
-            pre = p;
+            pre = binary(op.type, pre, relation_expression(), start);
         }
         return pre;
     }
 
     private Node relation_expression() throws ParseException {
+        int start = peek().position;
         Node se = simple_expression();
         if (isRelational(peek().type)) {
             Token op = advance();
-            BinaryNode p = new BinaryNode(op.type);
-            p.left = se;
-            p.right = simple_expression();
-            return p;
+            return binary(op.type, se, simple_expression(), start);
         }
         return se;
     }
 
     private Node simple_expression() throws ParseException {
+        int start = peek().position;
         Node pt = term();
         while (peek().type == Type.add || peek().type == Type.subtract) {
             Token op = advance();
-            BinaryNode p = new BinaryNode(op.type);
-            p.left = pt;
-            p.right = term();
-            pt = p;
+            pt = binary(op.type, pt, term(), start);
         }
         return pt;
     }
 
     private Node term() throws ParseException {
+        int start = peek().position;
         Node pf = factor();
         while (peek().type == Type.multiply || peek().type == Type.divide) {
             Token op = advance();
-            BinaryNode p = new BinaryNode(op.type);
-            p.left = pf;
-            p.right = factor();
-            pf = p;
+            pf = binary(op.type, pf, factor(), start);
         }
         return pf;
     }
 
     private Node factor() throws ParseException {
-        if (match(Type.subtract) || match(Type.minus)) {
-            UnaryNode node = new UnaryNode(Type.minus);
-            node.child = factor();
-            return node;
-        }
-        if (match(Type.not)) {
-            UnaryNode node = new UnaryNode(Type.not);
-            node.child = factor();
-            return node;
-        }
+        int start = peek().position;
+        Node node = primary();
+        node.position = start;//a parenthesized expression starts at its bracket
+        if (match(Type.power))//right associative and binding tighter than a unary operator on its left: -x^2 is -(x^2)
+            return binary(Type.power, node, factor(), start);
+        return node;
+    }
+
+    private Node primary() throws ParseException {
+        if (match(Type.subtract) || match(Type.minus))
+            return unary(Type.minus, factor());
+        if (match(Type.not))
+            return unary(Type.not, factor());
         if (match(Type.lparen)) {
             Node node = expression();
             consume(Type.rparen, "Expected ')' after expression");
@@ -181,15 +390,29 @@ public class ExpressionParser {
             Token id = advance();
             if (UnaryNodeIdentifier.functionSet.contains(id.value)) {
                 consume(Type.lparen, "Missing ( bracket");
-                UnaryNodeIdentifier func = new UnaryNodeIdentifier(id.value);
-                func.child = expression();
+                Node argument = expression();
                 consume(Type.rparen, "Missing ) bracket");
+                if (specializedNodes)
+                    return UnaryNodeIdentifier.create(id.value, argument, fastMath);
+                UnaryNodeIdentifier func = new UnaryNodeIdentifier(id.value);
+                func.fastMath = fastMath;
+                func.child = argument;
                 return func;
-            } else if (userFunctionLambdas.containsKey(id.value)) {
+            } else if (userFunctions.containsKey(id.value)) {
+                UserFunction function = userFunctions.get(id.value);
                 consume(Type.lparen, "Missing ( bracket");
-				LambdaFunctionNode func = new LambdaFunctionNode(id.value, expression(), userFunctionLambdas.get(id.value));
+                List<Node> arguments = new ArrayList<>();
+                if (peek().type != Type.rparen) {
+                    do {
+                        arguments.add(expression());
+                    } while (match(Type.comma));
+                }
                 consume(Type.rparen, "Missing ) bracket");
-                return func;
+                if (arguments.size() != function.arity)
+                    throw new ParseException("Function '" + id.value + "' expects " + function.arity + " argument(s), but got " + arguments.size(), id.position);
+                return new LambdaFunctionNode(id.value, arguments.toArray(new Node[0]), function);
+            } else if (variables.containsKey(id.value)) {
+                return new NodeVariable(variables.get(id.value));
             }
             return new NodeIdentifier(id.value);
         }
@@ -201,6 +424,27 @@ public class ExpressionParser {
         throw new ParseException("Unexpected token: " + peek().value, peek().position);
     }
 
+    private Node binary(Type type, Node left, Node right, int start) {
+        BinaryNode p;
+        if (specializedNodes) {
+            p = BinaryNode.create(type, left, right);
+        } else {
+            p = new BinaryNode(type);
+            p.left = left;
+            p.right = right;
+        }
+        p.position = start;
+        return p;
+    }
+
+    private Node unary(Type type, Node child) {
+        if (specializedNodes)
+            return UnaryNode.create(type, child);
+        UnaryNode p = new UnaryNode(type);
+        p.child = child;
+        return p;
+    }
+
     private boolean match(Type type) {
         if (peek().type == type) {
             advance();
@@ -227,6 +471,19 @@ public class ExpressionParser {
         return peek().type == Type.eof;
     }
 
+    private static boolean isValidVariableName(String name) {
+        if (name.isEmpty() || !Character.isLetter(name.charAt(0)) || !name.chars().allMatch(Character::isLetterOrDigit))
+            return false;
+        switch (name.toLowerCase()) {
+            case "and":
+            case "or":
+            case "true":
+            case "false":
+                return false;
+        }
+        return !name.equals("PI") && !name.equals("E") && !UnaryNodeIdentifier.functionSet.contains(name);
+    }
+
     private boolean isRelational(Type type) {
         return type == Type.lt || type == Type.lte || type == Type.gt || type == Type.gte;
     }
@@ -0,0 +1,142 @@
+package math;
+
+/**
+ * Approximations of the transcendental functions, faster than java.lang.Math and accurate to about 1e-9, used by the
+ * expressions parsed in fast math mode (see ExpressionParser.setFastMath). Error bounds, checked by FastMathTests:
+ * - exp: relative error below EXP_ERROR; 2^(j/64) from a table times a polynomial of degree 3 on the remainder
+ * - log: absolute error below LOG_ERROR, relative near 1; the argument is reduced to [sqrt(1/2), sqrt(2)) and log(m) is
+ *   computed as 2 atanh((m - 1) / (m + 1)) with a series of degree 11
+ * - sin, cos: absolute error below TRIG_ERROR; the argument is reduced to [-PI/4, PI/4] with a three parts constant, and
+ *   the polynomials have degree 9 and 10; |x| > TRIG_MAX_ARGUMENT is handed to java.lang.Math
+ * - tan: relative error below TAN_ERROR, as the quotient of the polynomials of sin and cos
+ * - sqrt: java.lang.Math.sqrt is a single hardware instruction, it is used as it is
+ * Special values (NaN, infinities, zeros, overflow and underflow) give the same results as java.lang.Math.
+ * Polynomials are evaluated with Math.fma, one rounding per term. The gain is largest for exp and log, as the JIT already
+ * has fast intrinsics for sin and cos.
+ */
+
+public final class FastMath {
+	public static final double EXP_ERROR = 1e-10;
+	public static final double LOG_ERROR = 1e-10;
+	public static final double TRIG_ERROR = 2.5e-9;
+	public static final double TAN_ERROR = 5e-9;
+	public static final double TRIG_MAX_ARGUMENT = 1 << 20;
+
+	private static final double[] EXP_TABLE = new double[64];//2^(j/64)
+	private static final double LN2_64 = Math.log(2) / 64;
+	private static final double INV_LN2_64 = 64 / Math.log(2);
+	private static final double LN2 = Math.log(2);
+	private static final double SQRT2 = Math.sqrt(2);
+	//PI/2 split in three parts of 33, 33 and 53 bits (as in fdlibm), so that k * PI/2 is reduced exactly for |k| < 2^20
+	private static final double PIO2_1 = 1.57079632673412561417e+00;
+	private static final double PIO2_2 = 6.07710050630396597660e-11;
+	private static final double PIO2_3 = 2.02226624871116645580e-21;
+	private static final double TWO_OVER_PI = 2 / Math.PI;
+	private static final double TINY = 0x1p-27;//sin(x) and tan(x) round to x, cos(x) rounds to 1
+
+	static {
+		for (int j = 0; j < 64; j++)
+			EXP_TABLE[j] = Math.pow(2, j / 64.0);
+	}
+
+	private FastMath() {
+	}
+
+	public static double exp(double x) {
+		if (!(x > -708 && x < 709))//overflow, underflow to subnormal numbers, NaN
+			return Math.exp(x);
+		double n = Math.rint(x * INV_LN2_64);
+		double r = Math.fma(-n, LN2_64, x);//|r| <= ln(2)/128
+		int i = (int) n;
+		int j = i & 63;
+		int k = i >> 6;
+		double p = Math.fma(Math.fma(Math.fma(1.0 / 6, r, 0.5), r, 1), r, 1);
+		return EXP_TABLE[j] * p * Double.longBitsToDouble((long) (k + 1023) << 52);
+	}
+
+	public static double log(double x) {
+		if (!(x > 0 && x < Double.POSITIVE_INFINITY) || x < Double.MIN_NORMAL)//zero, negative, subnormal, infinite or NaN
+			return Math.log(x);
+		long bits = Double.doubleToRawLongBits(x);
+		int e = (int) (bits >>> 52) - 1023;
+		double m = Double.longBitsToDouble((bits & 0x000FFFFFFFFFFFFFL) | 0x3FF0000000000000L);//m in [1, 2)
+		if (m > SQRT2) {
+			m *= 0.5;
+			e++;
+		}
+		double f = (m - 1) / (m + 1);//|f| <= 0.1716
+		double f2 = f * f;
+		double s = Math.fma(Math.fma(Math.fma(Math.fma(Math.fma(1.0 / 11, f2, 1.0 / 9), f2, 1.0 / 7), f2, 1.0 / 5), f2, 1.0 / 3), f2, 1);
+		return Math.fma(e, LN2, 2 * f * s);
+	}
+
+	public static double sin(double x) {
+		if (!(Math.abs(x) <= TRIG_MAX_ARGUMENT))
+			return Math.sin(x);
+		if (Math.abs(x) < TINY)
+			return x;//keeps the sign of -0.0
+		double k = Math.rint(x * TWO_OVER_PI);
+		double r = reduce(x, k);
+		switch ((int) k & 3) {
+			case 0:
+				return sinPolynomial(r);
+			case 1:
+				return cosPolynomial(r);
+			case 2:
+				return -sinPolynomial(r);
+			default:
+				return -cosPolynomial(r);
+		}
+	}
+
+	public static double cos(double x) {
+		if (!(Math.abs(x) <= TRIG_MAX_ARGUMENT))
+			return Math.cos(x);
+		if (Math.abs(x) < TINY)
+			return 1;
+		double k = Math.rint(x * TWO_OVER_PI);
+		double r = reduce(x, k);
+		switch ((int) k & 3) {
+			case 0:
+				return cosPolynomial(r);
+			case 1:
+				return -sinPolynomial(r);
+			case 2:
+				return -cosPolynomial(r);
+			default:
+				return sinPolynomial(r);
+		}
+	}
+
+	public static double tan(double x) {
+		if (!(Math.abs(x) <= TRIG_MAX_ARGUMENT))
+			return Math.tan(x);
+		if (Math.abs(x) < TINY)
+			return x;//keeps the sign of -0.0
+		double k = Math.rint(x * TWO_OVER_PI);
+		double r = reduce(x, k);
+		if (((int) k & 1) == 0)
+			return sinPolynomial(r) / cosPolynomial(r);
+		return -cosPolynomial(r) / sinPolynomial(r);
+	}
+
+	public static double sqrt(double x) {
+		return Math.sqrt(x);
+	}
+
+	private static double reduce(double x, double k) {//x - k * PI/2, |result| <= PI/4
+		return Math.fma(-k, PIO2_3, Math.fma(-k, PIO2_2, Math.fma(-k, PIO2_1, x)));
+	}
+
+	private static double sinPolynomial(double r) {//sin(r) for |r| <= PI/4
+		double r2 = r * r;
+		double p = r2 * Math.fma(Math.fma(Math.fma(1.0 / 362880, r2, -1.0 / 5040), r2, 1.0 / 120), r2, -1.0 / 6);
+		return Math.fma(r, p, r);
+	}
+
+	private static double cosPolynomial(double r) {//cos(r) for |r| <= PI/4
+		double r2 = r * r;
+		double p = Math.fma(Math.fma(Math.fma(Math.fma(-1.0 / 3628800, r2, 1.0 / 40320), r2, -1.0 / 720), r2, 1.0 / 24), r2, -0.5);
+		return Math.fma(r2, p, 1);
+	}
+}//end of class FastMath
@@ -0,0 +1,318 @@
+package math;
+
+import java.nio.FloatBuffer;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * Evaluates an expression over many rows of single precision values stored by column, as BatchEvaluator does for double
+ * columns: columns[i][row] is the value of variables[i] in that row. Columns can also be FloatBuffers, such as views of
+ * memory mapped files. Half the bytes of double columns are read, which matters when the columns don't fit in the caches;
+ * double columns are also accepted, their values are rounded to float when read.
+ * The tree is compiled once into float operations: arithmetic and comparisons are computed in float, constants are
+ * rounded to float, built-in and user functions are called with the arguments widened to double and their result is
+ * rounded to float. The subtrees selected by the 'precise' predicate (precision sensitive operations, such as differences
+ * of large values) are evaluated in double with the tree nodes, and only their result is rounded to float.
+ * Evaluating a precise subtree sets the variables, so an instance must not be shared between threads.
+ */
+
+public final class FloatBatchEvaluator {
+	private interface FloatOperation {
+		float evaluate();
+	}
+
+	private interface BooleanOperation {
+		boolean evaluate();
+	}
+
+	private final Variable[] variables;
+	private final Predicate<Node> precise;
+	private final float[] row;//values of the current row, read by the compiled operations
+	private final FloatOperation numeric;
+	private final BooleanOperation condition;
+	private int widened;//subtrees evaluated in double
+	private final boolean setVariables;
+
+	public FloatBatchEvaluator(Node expression, Variable... variables) {
+		this(expression, node -> false, variables);
+	}
+
+	public FloatBatchEvaluator(Node expression, Predicate<Node> precise, Variable... variables) {
+		this.variables = variables.clone();
+		this.precise = precise;
+		this.row = new float[variables.length];
+		if (IntervalEvaluator.isBoolean(expression)) {
+			condition = compileBoolean(expression);
+			numeric = () -> (float) expression.evaluateDouble();//throws ClassCastException, as for the other evaluators
+		} else {
+			numeric = compileFloat(expression);
+			condition = expression::evaluateBoolean;
+		}
+		setVariables = widened > 0;
+	}
+
+//selects the calls of the given built-in or user functions, to be evaluated in double
+	public static Predicate<Node> functions(String... names) {
+		Set<String> set = Set.of(names);
+		return node -> (node instanceof UnaryNodeIdentifier || node instanceof LambdaFunctionNode) && set.contains(((NodeIdentifier) node).identifier);
+	}
+
+//evaluates a numeric expression for the rows in [from, to), storing the value of each row at the same index of results
+	public void evaluate(float[][] columns, int from, int to, float[] results) {
+		checkColumns(columns.length);
+		for (int r = from; r < to; r++) {
+			for (int i = 0; i < row.length; i++)
+				row[i] = columns[i][r];
+			results[r] = evaluateRow();
+		}
+	}
+
+//as evaluate(float[][], ...), reading the values with the absolute get of the buffers
+	public void evaluate(FloatBuffer[] columns, int from, int to, float[] results) {
+		checkColumns(columns.length);
+		for (int r = from; r < to; r++) {
+			for (int i = 0; i < row.length; i++)
+				row[i] = columns[i].get(r);
+			results[r] = evaluateRow();
+		}
+	}
+
+//as evaluate(float[][], ...), for values stored in double and rounded to float when read
+	public void evaluate(double[][] columns, int from, int to, float[] results) {
+		checkColumns(columns.length);
+		for (int r = from; r < to; r++) {
+			for (int i = 0; i < row.length; i++)
+				row[i] = (float) columns[i][r];
+			results[r] = evaluateRow();
+		}
+	}
+
+//evaluates a boolean expression for the rows in [from, to), storing the value of each row at the same index of results
+	public void filter(float[][] columns, int from, int to, boolean[] results) {
+		checkColumns(columns.length);
+		for (int r = from; r < to; r++) {
+			for (int i = 0; i < row.length; i++)
+				row[i] = columns[i][r];
+			results[r] = filterRow();
+		}
+	}
+
+//as filter(float[][], ...), reading the values with the absolute get of the buffers
+	public void filter(FloatBuffer[] columns, int from, int to, boolean[] results) {
+		checkColumns(columns.length);
+		for (int r = from; r < to; r++) {
+			for (int i = 0; i < row.length; i++)
+				row[i] = columns[i].get(r);
+			results[r] = filterRow();
+		}
+	}
+
+//as filter(float[][], ...), for values stored in double and rounded to float when read
+	public void filter(double[][] columns, int from, int to, boolean[] results) {
+		checkColumns(columns.length);
+		for (int r = from; r < to; r++) {
+			for (int i = 0; i < row.length; i++)
+				row[i] = (float) columns[i][r];
+			results[r] = filterRow();
+		}
+	}
+
+	public int getWidenedSubtrees() {//number of subtrees evaluated in double
+		return widened;
+	}
+
+	private float evaluateRow() {
+		if (setVariables)
+			copyRow();
+		return numeric.evaluate();
+	}
+
+	private boolean filterRow() {
+		if (setVariables)
+			copyRow();
+		return condition.evaluate();
+	}
+
+	private void copyRow() {
+		for (int i = 0; i < row.length; i++)
+			variables[i].set(row[i]);
+	}
+
+	private void checkColumns(int length) {
+		if (length != variables.length)
+			throw new IllegalArgumentException("expected " + variables.length + " columns, got " + length);
+	}
+
+	private FloatOperation compileFloat(Node node) {
+		if (precise.test(node) || IntervalEvaluator.isBoolean(node))//a boolean node throws ClassCastException
+			return widenFloat(node);
+		if (node instanceof NodeDouble) {
+			float value = (float) ((NodeDouble) node).num;
+			return () -> value;
+		}
+		if (node instanceof NodeVariable) {
+			Variable variable = ((NodeVariable) node).getVariable();
+			for (int i = 0; i < variables.length; i++) {
+				if (variables[i] == variable) {
+					int index = i;
+					return () -> row[index];
+				}
+			}
+			return () -> (float) variable.get();//not a column, its value can change between batches
+		}
+		if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier function = (UnaryNodeIdentifier) node;
+			DoubleUnaryOperator operator = operator(function.identifier, function.fastMath);
+			if (operator == null)
+				return widenFloat(node);
+			FloatOperation child = compileFloat(function.child);
+			return () -> (float) operator.applyAsDouble(child.evaluate());
+		}
+		if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode call = (LambdaFunctionNode) node;
+			FloatOperation[] arguments = new FloatOperation[call.arguments.length];
+			for (int i = 0; i < arguments.length; i++) {
+				if (IntervalEvaluator.isBoolean(call.arguments[i]))//reported by the tree node
+					return widenFloat(node);
+				arguments[i] = compileFloat(call.arguments[i]);
+			}
+			UserFunction function = call.function;
+			double[] values = new double[arguments.length];//reused, an instance is used by one thread
+			return () -> {
+				for (int i = 0; i < values.length; i++)
+					values[i] = arguments[i].evaluate();
+				return (float) function.apply(values);
+			};
+		}
+		if (node.getClass() == NodeIdentifier.class) {
+			switch (((NodeIdentifier) node).identifier) {
+				case "PI":
+					return () -> (float) Math.PI;
+				case "E":
+					return () -> (float) Math.E;
+				default:
+					return widenFloat(node);//unknown identifier, throws when evaluated
+			}
+		}
+		if (node instanceof UnaryNode && node.type == Type.minus) {
+			FloatOperation child = compileFloat(((UnaryNode) node).child);
+			return () -> -child.evaluate();
+		}
+		if (node instanceof BinaryNode) {
+			FloatOperation left = compileFloat(((BinaryNode) node).left);
+			FloatOperation right = compileFloat(((BinaryNode) node).right);
+			switch (node.type) {
+				case add:
+					return () -> left.evaluate() + right.evaluate();
+				case subtract:
+					return () -> left.evaluate() - right.evaluate();
+				case multiply:
+					return () -> left.evaluate() * right.evaluate();
+				case divide:
+					return () -> left.evaluate() / right.evaluate();
+				case power:
+					return () -> (float) BinaryNode.power(left.evaluate(), right.evaluate());
+				default://will never happen, boolean nodes are widened
+					throw new RuntimeException("unexpected type: " + node.type);
+			}
+		}
+		if (node instanceof TernaryNode) {
+			BooleanOperation test = compileBoolean(((TernaryNode) node).left);
+			FloatOperation center = compileFloat(((TernaryNode) node).center);
+			FloatOperation right = compileFloat(((TernaryNode) node).right);
+			return () -> test.evaluate() ? center.evaluate() : right.evaluate();
+		}
+		return widenFloat(node);//shared, scope and adaptive nodes
+	}
+
+	private BooleanOperation compileBoolean(Node node) {
+		if (precise.test(node) || !IntervalEvaluator.isBoolean(node))//a numeric node throws ClassCastException
+			return widenBoolean(node);
+		if (node.getClass() == NodeIdentifier.class) {
+			boolean value = ((NodeIdentifier) node).identifier.equals("true");
+			return () -> value;
+		}
+		if (node instanceof UnaryNode) {
+			BooleanOperation child = compileBoolean(((UnaryNode) node).child);
+			return () -> !child.evaluate();
+		}
+		if (node instanceof BinaryNode) {
+			Node left = ((BinaryNode) node).left, right = ((BinaryNode) node).right;
+			switch (node.type) {
+				case or: {
+					BooleanOperation a = compileBoolean(left), b = compileBoolean(right);
+					return () -> a.evaluate() || b.evaluate();
+				}
+				case and: {
+					BooleanOperation a = compileBoolean(left), b = compileBoolean(right);
+					return () -> a.evaluate() && b.evaluate();
+				}
+				case equal:
+				case unequal: {
+					boolean unequal = node.type == Type.unequal;
+					boolean bool = IntervalEvaluator.isBoolean(left);
+					if (bool != IntervalEvaluator.isBoolean(right))
+						return widenBoolean(node);
+					if (bool) {
+						BooleanOperation a = compileBoolean(left), b = compileBoolean(right);
+						return () -> (a.evaluate() == b.evaluate()) != unequal;
+					}
+					FloatOperation a = compileFloat(left), b = compileFloat(right);//same semantics as Double.equals
+					return () -> (Float.floatToIntBits(a.evaluate()) == Float.floatToIntBits(b.evaluate())) != unequal;
+				}
+				default:
+					break;
+			}
+			FloatOperation a = compileFloat(left), b = compileFloat(right);
+			switch (node.type) {
+				case lt:
+					return () -> a.evaluate() < b.evaluate();
+				case lte:
+					return () -> a.evaluate() <= b.evaluate();
+				case gt:
+					return () -> a.evaluate() > b.evaluate();
+				case gte:
+					return () -> a.evaluate() >= b.evaluate();
+				default://will never happen
+					throw new RuntimeException("unexpected type: " + node.type);
+			}
+		}
+		if (node instanceof TernaryNode) {
+			BooleanOperation test = compileBoolean(((TernaryNode) node).left);
+			BooleanOperation center = compileBoolean(((TernaryNode) node).center);
+			BooleanOperation right = compileBoolean(((TernaryNode) node).right);
+			return () -> test.evaluate() ? center.evaluate() : right.evaluate();
+		}
+		return widenBoolean(node);//shared, scope and adaptive nodes
+	}
+
+	private FloatOperation widenFloat(Node node) {
+		widened++;
+		return () -> (float) node.evaluateDouble();
+	}
+
+	private BooleanOperation widenBoolean(Node node) {
+		widened++;
+		return node::evaluateBoolean;
+	}
+
+	private static DoubleUnaryOperator operator(String name, boolean fastMath) {
+		switch (name) {
+			case "sin":
+				return fastMath ? FastMath::sin : Math::sin;
+			case "cos":
+				return fastMath ? FastMath::cos : Math::cos;
+			case "tan":
+				return fastMath ? FastMath::tan : Math::tan;
+			case "log":
+				return fastMath ? FastMath::log : Math::log;
+			case "exp":
+				return fastMath ? FastMath::exp : Math::exp;
+			case "sqrt":
+				return Math::sqrt;
+			default:
+				return null;
+		}
+	}
+}//end of class FloatBatchEvaluator
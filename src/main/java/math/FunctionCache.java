@@ -0,0 +1,107 @@
+package math;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Memoized results of a user function with one argument, created by ExpressionParser.memoize(): the results are kept
+ * in bounded primitive caches, either one per thread or one shared by all threads, and the cache counts its hits,
+ * misses and evictions.
+ */
+
+public final class FunctionCache {
+	public enum Sharing {
+		THREAD_LOCAL,//each thread has its own cache, lookups need no synchronization
+		SHARED//one cache for all threads, split in segments locked independently
+	}
+
+	private static final int SEGMENTS = 16;//segments of a shared cache, chosen by the top 4 bits of the hash
+
+	private final DoubleUnaryOperator function;
+	private final Sharing sharing;
+	private final int capacity;
+	private final ThreadLocal<DoubleCache> local;
+	private final DoubleCache[] segments;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	FunctionCache(DoubleUnaryOperator function, int capacity, Sharing sharing) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		this.function = function;
+		this.sharing = sharing;
+		this.capacity = capacity;
+		if (sharing == Sharing.THREAD_LOCAL) {
+			local = ThreadLocal.withInitial(() -> new DoubleCache(capacity));
+			segments = null;
+		} else {
+			local = null;
+			segments = new DoubleCache[SEGMENTS];
+			for (int i = 0; i < SEGMENTS; i++)
+				segments[i] = new DoubleCache((capacity + SEGMENTS - 1) / SEGMENTS);
+		}
+	}
+
+	double apply(double x) {
+		long bits = Double.doubleToRawLongBits(x);
+		if (local != null) {
+			DoubleCache cache = local.get();
+			int slot = cache.find(bits);
+			if (slot >= 0) {
+				hits.increment();
+				return cache.value(slot);
+			}
+			double value = function.applyAsDouble(x);
+			misses.increment();
+			if (cache.put(bits, value))
+				evictions.increment();
+			return value;
+		}
+		DoubleCache segment = segments[(int) (DoubleCache.hash(bits) >>> 60)];
+		synchronized (segment) {
+			int slot = segment.find(bits);
+			if (slot >= 0) {
+				hits.increment();
+				return segment.value(slot);
+			}
+		}
+		double value = function.applyAsDouble(x);//the lock is not held while the function is running
+		misses.increment();
+		synchronized (segment) {
+			if (segment.put(bits, value))
+				evictions.increment();
+		}
+		return value;
+	}
+
+	public Sharing getSharing() {
+		return sharing;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public double getHitRate() {//fraction of the calls answered by the cache, 0 if there are no calls
+		long h = hits.sum(), total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+    @Override
+	public String toString() {
+		return "FunctionCache(" + sharing + ", capacity=" + capacity + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ")";
+	}
+}//end of class FunctionCache
@@ -0,0 +1,61 @@
+package math;
+
+/**
+ * Properties of a registered user function, used by optimize() to decide which calls can be folded or shared
+ */
+
+public final class FunctionProperties {
+	public static final int DEFAULT_COST = 10;//estimated cost of a call, in units of one arithmetic operation
+
+	//no assumption on the function: every call is evaluated every time, as written
+	public static final FunctionProperties IMPURE = new FunctionProperties(false, false, DEFAULT_COST, true);
+	//function without side effects, returning always the same result for the same arguments and never throwing
+	public static final FunctionProperties PURE = new FunctionProperties(true, true, DEFAULT_COST, false);
+
+	private final boolean pure;
+	private final boolean deterministic;
+	private final int cost;
+	private final boolean mayThrow;
+
+	public FunctionProperties(boolean pure, boolean deterministic, int cost, boolean mayThrow) {
+		if (cost < 0)
+			throw new IllegalArgumentException("negative cost: " + cost);
+		this.pure = pure;
+		this.deterministic = deterministic;
+		this.cost = cost;
+		this.mayThrow = mayThrow;
+	}
+
+	public FunctionProperties withCost(int cost) {
+		return new FunctionProperties(pure, deterministic, cost, mayThrow);
+	}
+
+	public boolean isPure() {//true if the function has no side effects
+		return pure;
+	}
+
+	public boolean isDeterministic() {//true if the function returns always the same result for the same arguments
+		return deterministic;
+	}
+
+	public int getCost() {
+		return cost;
+	}
+
+	public boolean mayThrow() {
+		return mayThrow;
+	}
+
+	boolean isFoldable() {//a call with constant arguments can be replaced by its result
+		return pure && deterministic && !mayThrow;
+	}
+
+	boolean isShareable() {//repeated calls with the same arguments can be evaluated once
+		return pure && deterministic;
+	}
+
+    @Override
+	public String toString() {
+		return "FunctionProperties(pure=" + pure + ", deterministic=" + deterministic + ", cost=" + cost + ", mayThrow=" + mayThrow + ")";
+	}
+}//end of class FunctionProperties
@@ -0,0 +1,158 @@
+package math;
+
+/**
+ * Forward mode automatic differentiation: evaluates an expression together with its gradient with respect to a list of variables,
+ * in a single pass over the tree and without boxing. The gradients of the subexpressions are kept in a reusable work buffer,
+ * so an instance should be reused across evaluations, e.g. inside an optimization loop; instances are not thread safe.
+ */
+
+public final class GradientEvaluator {
+	private final Node expression;
+	private final Variable[] variables;
+	private final int n;
+	private double[] buffer;
+
+	public GradientEvaluator(Node expression, Variable... variables) {
+		this.expression = expression;
+		this.variables = variables.clone();
+		this.n = variables.length;
+		this.buffer = new double[Math.max(n, 1) * 16];
+	}
+
+//returns the value of the expression and stores in gradient[i] its partial derivative with respect to variables[i]
+	public double evaluate(double[] gradient) {
+		if (gradient.length < n)
+			throw new IllegalArgumentException("gradient array too short: " + gradient.length + " < " + n);
+		double value = eval(expression, 0);
+		System.arraycopy(buffer, 0, gradient, 0, n);
+		return value;
+	}
+
+//evaluates node, storing its gradient in buffer[at, at + n); the children use the buffer after it
+	private double eval(Node node, int at) {
+		if (at + 4 * n > buffer.length) {//room for the node and for up to three children
+			double[] larger = new double[Math.max(2 * buffer.length, at + 4 * n)];
+			System.arraycopy(buffer, 0, larger, 0, buffer.length);
+			buffer = larger;
+		}
+		if (node instanceof NodeVariable) {
+			Variable variable = ((NodeVariable) node).getVariable();
+			for (int i = 0; i < n; i++)
+				buffer[at + i] = variables[i] == variable ? 1 : 0;
+			return variable.get();
+		} else if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier p = (UnaryNodeIdentifier) node;
+			double u = eval(p.child, at);
+			double value, derivative;
+			switch (p.identifier) {
+				case "sin":
+					value = (p.fastMath ? FastMath.sin(u) : Math.sin(u));
+					derivative = (p.fastMath ? FastMath.cos(u) : Math.cos(u));
+					break;
+				case "cos":
+					value = (p.fastMath ? FastMath.cos(u) : Math.cos(u));
+					derivative = -(p.fastMath ? FastMath.sin(u) : Math.sin(u));
+					break;
+				case "tan":
+					value = (p.fastMath ? FastMath.tan(u) : Math.tan(u));
+					derivative = 1 + value * value;
+					break;
+				case "log":
+					value = (p.fastMath ? FastMath.log(u) : Math.log(u));
+					derivative = 1 / u;
+					break;
+				case "exp":
+					value = (p.fastMath ? FastMath.exp(u) : Math.exp(u));
+					derivative = value;
+					break;
+				case "sqrt":
+					value = (p.fastMath ? FastMath.sqrt(u) : Math.sqrt(u));
+					derivative = 0.5 / value;
+					break;
+				default:
+					throw new RuntimeException("unknown identifier: " + p.identifier);
+			}
+			scale(at, derivative);
+			return value;
+		} else if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode p = (LambdaFunctionNode) node;
+			UserFunction[] partials = p.function.partials;
+			if (partials == null)
+				throw new IllegalStateException("no derivative registered for function '" + p.identifier + "'");
+			int k = p.arguments.length;
+			double[] values = new double[k];
+			for (int j = 0; j < k; j++)
+				values[j] = eval(p.arguments[j], at + (j + 1) * n);
+			zero(at);
+			for (int j = 0; j < k; j++) {
+				double derivative = partials[j].apply(values);
+				for (int i = 0; i < n; i++)
+					buffer[at + i] += derivative * buffer[at + (j + 1) * n + i];
+			}
+			return p.function.apply(values);
+		} else if (node instanceof NodeIdentifier || node instanceof NodeDouble) {
+			zero(at);
+			return node.evaluateDouble();
+		} else if (node instanceof UnaryNode && node.type == Type.minus) {
+			double u = eval(((UnaryNode) node).child, at);
+			scale(at, -1);
+			return -u;
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			int l = at, r = at + n;
+			switch (p.type) {
+				case add: {
+					double u = eval(p.left, l), v = eval(p.right, r);
+					for (int i = 0; i < n; i++)
+						buffer[at + i] = buffer[l + i] + buffer[r + i];
+					return u + v;
+				}
+				case subtract: {
+					double u = eval(p.left, l), v = eval(p.right, r);
+					for (int i = 0; i < n; i++)
+						buffer[at + i] = buffer[l + i] - buffer[r + i];
+					return u - v;
+				}
+				case multiply: {
+					double u = eval(p.left, l), v = eval(p.right, r);
+					for (int i = 0; i < n; i++)
+						buffer[at + i] = buffer[l + i] * v + u * buffer[r + i];
+					return u * v;
+				}
+				case divide: {
+					double u = eval(p.left, l), v = eval(p.right, r);
+					for (int i = 0; i < n; i++)
+						buffer[at + i] = (buffer[l + i] * v - u * buffer[r + i]) / (v * v);
+					return u / v;
+				}
+				case power: {//the terms with a zero derivative are skipped: log(u) is NaN for a negative base
+					double u = eval(p.left, l), v = eval(p.right, r), w = BinaryNode.power(u, v);
+					double du = v * BinaryNode.power(u, v - 1), dv = w * Math.log(u);
+					for (int i = 0; i < n; i++)
+						buffer[at + i] = (buffer[l + i] != 0 ? du * buffer[l + i] : 0) + (buffer[r + i] != 0 ? dv * buffer[r + i] : 0);
+					return w;
+				}
+				default:
+					return node.evaluateDouble();//not numeric: throws ClassCastException
+			}
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			return eval(p.left.evaluateBoolean() ? p.center : p.right, at);
+		} else if (node instanceof SharedNode) {
+			return eval(((SharedNode) node).getChild(), at);
+		} else if (node instanceof ScopeNode) {
+			return eval(((ScopeNode) node).body, at);
+		}
+		return node.evaluateDouble();//not numeric: throws ClassCastException
+	}
+
+	private void zero(int at) {
+		for (int i = 0; i < n; i++)
+			buffer[at + i] = 0;
+	}
+
+	private void scale(int at, double factor) {
+		for (int i = 0; i < n; i++)
+			buffer[at + i] *= factor;
+	}
+}//end of class GradientEvaluator
@@ -0,0 +1,189 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reactive evaluation of expressions whose variables change a few at a time: each subexpression caches its last value
+ * and knows the subexpressions and variables it depends on. Changing a variable with set() marks dirty the path from
+ * the variable to the roots, and the next evaluation recomputes only the dirty subexpressions.
+ * Equal subexpressions free of impure calls are shared among all the expressions added to the evaluator, so an input
+ * shared by many formulas is recomputed once; several variables can be set before evaluating, and the changes are
+ * propagated once. Subexpressions containing calls to impure functions are never cached.
+ * Variables must be changed with set(), changes made directly to a Variable are not seen by the cached values.
+ * The evaluator is not thread safe.
+ */
+
+public final class IncrementalEvaluator {
+	private final class Cell extends Node {//subexpression with its cached value
+		private final Node node;//subexpression, whose children are cells or leaves
+		private final boolean cacheable;
+		private final boolean bool;
+		private final List<Cell> parents = new ArrayList<>();
+		private boolean valid = false;
+		private double value;
+		private boolean booleanValue;
+
+		Cell(Node node, boolean cacheable, boolean bool) {
+			super(Type.shared);
+			this.node = node;
+			this.cacheable = cacheable;
+			this.bool = bool;
+		}
+
+        @Override
+		public Object evaluate() {
+			if (bool)
+				return evaluateBoolean();
+			return evaluateDouble();
+		}
+
+        @Override
+		public double evaluateDouble() {
+			if (bool)
+				return (Double) evaluate();
+			if (!valid) {
+				value = node.evaluateDouble();
+				computations++;
+				valid = cacheable;
+			}
+			return value;
+		}
+
+        @Override
+		public boolean evaluateBoolean() {
+			if (!bool)
+				return (Boolean) evaluate();
+			if (!valid) {
+				booleanValue = node.evaluateBoolean();
+				computations++;
+				valid = cacheable;
+			}
+			return booleanValue;
+		}
+
+//a cell that is not valid has no valid parent depending on it, so the propagation stops there
+		void invalidate() {
+			if (valid) {
+				valid = false;
+				for (Cell parent : parents)
+					parent.invalidate();
+			}
+		}
+
+        @Override
+		public void visit(StringBuilder sb) {
+			node.visit(sb);
+		}
+
+        @Override
+		public String getNodeAsString() {
+			return node.getNodeAsString();
+		}
+	}
+
+	private final Map<String, Cell> cells = new HashMap<>();//cacheable cells by structural key
+	private final Map<Variable, List<Cell>> dependents = new HashMap<>();//cells reading each variable directly
+	private final List<Cell> roots = new ArrayList<>();
+	private long computations = 0;
+
+//adds an expression, returns its index
+	public int add(Node expression) {
+		Node root = link(Optimizer.fold(expression));
+		roots.add(root instanceof Cell ? (Cell) root : newCell(root, Optimizer.isFreeOfImpureCalls(root), IntervalEvaluator.isBoolean(root)));
+		return roots.size() - 1;
+	}
+
+//changes the value of a variable and marks dirty the subexpressions depending on it
+	public void set(Variable variable, double value) {
+		if (Double.compare(variable.get(), value) == 0)
+			return;
+		variable.set(value);
+		List<Cell> list = dependents.get(variable);
+		if (list != null) {
+			for (Cell cell : list)
+				cell.invalidate();
+		}
+	}
+
+	public Object evaluate(int expression) {
+		return roots.get(expression).evaluate();
+	}
+
+	public double evaluateDouble(int expression) {
+		return roots.get(expression).evaluateDouble();
+	}
+
+	public boolean evaluateBoolean(int expression) {
+		return roots.get(expression).evaluateBoolean();
+	}
+
+	public int size() {
+		return roots.size();
+	}
+
+//returns the number of subexpressions computed so far
+	public long getComputations() {
+		return computations;
+	}
+
+//replaces, bottom up, the subexpressions with cells; the copy of the expression is modified in place
+	private Node link(Node node) {
+		if (Optimizer.children(node).length == 0)
+			return node;
+		boolean cacheable = Optimizer.isFreeOfImpureCalls(node);
+		String key = null;
+		if (cacheable) {
+			key = Optimizer.key(node);
+			Cell cell = cells.get(key);
+			if (cell != null)
+				return cell;
+		}
+		boolean bool = IntervalEvaluator.isBoolean(node);
+		if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier p = (UnaryNodeIdentifier) node;
+			p.child = link(p.child);
+		} else if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode p = (LambdaFunctionNode) node;
+			for (int i = 0; i < p.arguments.length; i++)
+				p.arguments[i] = link(p.arguments[i]);
+		} else if (node instanceof UnaryNode) {
+			UnaryNode p = (UnaryNode) node;
+			p.child = link(p.child);
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			p.left = link(p.left);
+			p.right = link(p.right);
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			p.left = link(p.left);
+			p.center = link(p.center);
+			p.right = link(p.right);
+		}
+		Cell cell = newCell(node, cacheable, bool);
+		if (cacheable)
+			cells.put(key, cell);
+		return cell;
+	}
+
+	private Cell newCell(Node node, boolean cacheable, boolean bool) {
+		Cell cell = new Cell(node, cacheable, bool);
+		Node[] children = Optimizer.children(node);
+		if (children.length == 0)
+			children = new Node[] {node};//expression made of a single leaf
+		for (Node child : children) {
+			List<Cell> list;
+			if (child instanceof Cell)
+				list = ((Cell) child).parents;
+			else if (child instanceof NodeVariable)
+				list = dependents.computeIfAbsent(((NodeVariable) child).getVariable(), k -> new ArrayList<>());
+			else
+				continue;
+			if (list.isEmpty() || list.get(list.size() - 1) != cell)
+				list.add(cell);
+		}
+		return cell;
+	}
+}//end of class IncrementalEvaluator
@@ -0,0 +1,53 @@
+package math;
+
+/**
+ * Closed range of double values [lo, hi], used to evaluate an expression over ranges of variable values.
+ * The flag maybeNaN is set when some value of the range may be NaN, e.g. after log() of a range including negative values.
+ */
+
+public final class Interval {
+	public static final Interval ALL = new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+
+	public final double lo;
+	public final double hi;
+	public final boolean maybeNaN;
+
+	private Interval(double lo, double hi, boolean maybeNaN) {
+		this.lo = lo;
+		this.hi = hi;
+		this.maybeNaN = maybeNaN;
+	}
+
+	public static Interval of(double lo, double hi) {
+		return of(lo, hi, false);
+	}
+
+	public static Interval of(double lo, double hi, boolean maybeNaN) {
+		if (Double.isNaN(lo) || Double.isNaN(hi))
+			return ALL;
+		if (lo > hi)
+			throw new IllegalArgumentException("empty interval: [" + lo + ", " + hi + "]");
+		return new Interval(lo, hi, maybeNaN);
+	}
+
+	public static Interval point(double value) {
+		return Double.isNaN(value) ? ALL : new Interval(value, value, false);
+	}
+
+	public boolean isPoint() {
+		return lo == hi && !maybeNaN;
+	}
+
+	public boolean contains(double value) {
+		return Double.isNaN(value) ? maybeNaN : lo <= value && value <= hi;
+	}
+
+	public Interval hull(Interval other) {
+		return new Interval(Math.min(lo, other.lo), Math.max(hi, other.hi), maybeNaN || other.maybeNaN);
+	}
+
+    @Override
+	public String toString() {
+		return "[" + lo + ", " + hi + "]" + (maybeNaN ? " or NaN" : "");
+	}
+}//end of class Interval
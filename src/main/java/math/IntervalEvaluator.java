@@ -0,0 +1,315 @@
+package math;
+
+import java.util.Map;
+
+/**
+ * Evaluates an expression over a box of variable ranges, i.e. for all the combinations of values of the variables in their ranges.
+ * Numeric expressions give an Interval including every possible value, boolean expressions give TRUE or FALSE when the
+ * result is the same for all the values in the box, UNKNOWN otherwise. The results are conservative: ranges may be wider
+ * than the exact ones, but never narrower. Variables missing from the box may take any value.
+ * Only built-in functions have known ranges, user functions may return any value.
+ */
+
+public final class IntervalEvaluator {
+	private static final double TWO_PI = 2 * Math.PI;
+
+	private final Node expression;
+	private Map<Variable, Interval> box;
+
+	public IntervalEvaluator(Node expression) {
+		this.expression = expression;
+	}
+
+//returns the result of a boolean expression over the box
+	public Tristate evaluate(Map<Variable, Interval> box) {
+		this.box = box;
+		return truth(expression);
+	}
+
+//returns the range of a numeric expression over the box
+	public Interval evaluateRange(Map<Variable, Interval> box) {
+		this.box = box;
+		return range(expression);
+	}
+
+	private Tristate truth(Node node) {
+		if (node.getClass() == NodeIdentifier.class) {
+			switch (((NodeIdentifier) node).identifier) {
+				case "true":
+					return Tristate.TRUE;
+				case "false":
+					return Tristate.FALSE;
+			}
+		} else if (node instanceof UnaryNode && node.type == Type.not) {
+			return truth(((UnaryNode) node).child).not();
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			switch (p.type) {
+				case and:
+					return truth(p.left).and(truth(p.right));
+				case or:
+					return truth(p.left).or(truth(p.right));
+				case lt:
+					return lessThan(range(p.left), range(p.right));
+				case lte:
+					return lessOrEqual(range(p.left), range(p.right));
+				case gt:
+					return lessThan(range(p.right), range(p.left));
+				case gte:
+					return lessOrEqual(range(p.right), range(p.left));
+				case equal:
+					return equal(p.left, p.right);
+				case unequal:
+					return equal(p.left, p.right).not();
+			}
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			Tristate condition = truth(p.left);
+			if (condition == Tristate.TRUE)
+				return truth(p.center);
+			if (condition == Tristate.FALSE)
+				return truth(p.right);
+			return truth(p.center).merge(truth(p.right));
+		} else if (node instanceof ScopeNode) {
+			return truth(((ScopeNode) node).body);
+		} else if (node instanceof SharedNode) {
+			return truth(((SharedNode) node).getChild());
+		} else if (node instanceof AdaptiveNode) {
+			Tristate result = node.type == Type.and ? Tristate.TRUE : Tristate.FALSE;
+			for (Node operand : ((AdaptiveNode) node).getOperands())
+				result = node.type == Type.and ? result.and(truth(operand)) : result.or(truth(operand));
+			return result;
+		}
+		return Tristate.UNKNOWN;
+	}
+
+	private Interval range(Node node) {
+		if (node instanceof NodeDouble) {
+			return Interval.point(((NodeDouble) node).num);
+		} else if (node instanceof NodeVariable) {
+			Interval range = box.get(((NodeVariable) node).getVariable());
+			return range == null ? Interval.ALL : range;
+		} else if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier p = (UnaryNodeIdentifier) node;
+			Interval result = function(p.identifier, range(p.child));
+			return p.fastMath ? widen(p.identifier, result) : result;
+		} else if (node instanceof LambdaFunctionNode) {
+			return Interval.ALL;
+		} else if (node.getClass() == NodeIdentifier.class) {
+			switch (((NodeIdentifier) node).identifier) {
+				case "PI":
+					return Interval.point(Math.PI);
+				case "E":
+					return Interval.point(Math.E);
+			}
+		} else if (node instanceof UnaryNode && node.type == Type.minus) {
+			Interval a = range(((UnaryNode) node).child);
+			return Interval.of(-a.hi, -a.lo, a.maybeNaN);
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			switch (p.type) {
+				case add:
+					return add(range(p.left), range(p.right));
+				case subtract: {
+					Interval b = range(p.right);
+					return add(range(p.left), Interval.of(-b.hi, -b.lo, b.maybeNaN));
+				}
+				case multiply:
+					return multiply(range(p.left), range(p.right));
+				case divide:
+					return divide(range(p.left), range(p.right));
+				case power:
+					return power(range(p.left), range(p.right));
+			}
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			Tristate condition = truth(p.left);
+			if (condition == Tristate.TRUE)
+				return range(p.center);
+			if (condition == Tristate.FALSE)
+				return range(p.right);
+			return range(p.center).hull(range(p.right));
+		} else if (node instanceof SharedNode) {
+			return range(((SharedNode) node).getChild());
+		} else if (node instanceof ScopeNode) {
+			return range(((ScopeNode) node).body);
+		}
+		return Interval.ALL;
+	}
+
+/*the bounds are computed with the same floating point operations used by evaluation: since rounding is monotonic,
+  the results of evaluation can't fall outside them*/
+	private static Interval add(Interval a, Interval b) {
+		boolean nan = a.maybeNaN || b.maybeNaN || (a.lo == Double.NEGATIVE_INFINITY && b.hi == Double.POSITIVE_INFINITY)
+				|| (a.hi == Double.POSITIVE_INFINITY && b.lo == Double.NEGATIVE_INFINITY);//inf - inf
+		return Interval.of(a.lo + b.lo, a.hi + b.hi, nan);
+	}
+
+	private static Interval multiply(Interval a, Interval b) {
+		boolean nan = a.maybeNaN || b.maybeNaN || (a.contains(0) && isUnbounded(b)) || (b.contains(0) && isUnbounded(a));//0 * inf
+		double p1 = a.lo * b.lo, p2 = a.lo * b.hi, p3 = a.hi * b.lo, p4 = a.hi * b.hi;
+		return Interval.of(Math.min(Math.min(p1, p2), Math.min(p3, p4)), Math.max(Math.max(p1, p2), Math.max(p3, p4)), nan);
+	}
+
+	private static Interval divide(Interval a, Interval b) {
+		if (b.contains(0))
+			return Interval.ALL;
+		boolean nan = a.maybeNaN || b.maybeNaN || (isUnbounded(a) && isUnbounded(b));//inf / inf
+		double q1 = a.lo / b.lo, q2 = a.lo / b.hi, q3 = a.hi / b.lo, q4 = a.hi / b.hi;
+		return Interval.of(Math.min(Math.min(q1, q2), Math.min(q3, q4)), Math.max(Math.max(q1, q2), Math.max(q3, q4)), nan);
+	}
+
+/*only constant exponents are bounded: the rounded products of repeated squaring are monotonic in a base of constant sign,
+  and Math.pow is semi-monotonic in its first argument*/
+	private static Interval power(Interval a, Interval b) {
+		if (!b.isPoint())
+			return Interval.ALL;
+		double y = b.lo;
+		if (!BinaryNode.isIntegerExponent(y)) {
+			if (a.lo < 0)//negative base: NaN
+				return Interval.ALL;
+			double p1 = Math.pow(a.lo, y), p2 = Math.pow(a.hi, y);
+			return Interval.of(Math.min(p1, p2), Math.max(p1, p2), a.maybeNaN);
+		}
+		int n = (int) y;
+		if (n == 0)
+			return Interval.of(1, 1, a.maybeNaN);
+		double p1 = BinaryNode.power(a.lo, n), p2 = BinaryNode.power(a.hi, n);
+		if (a.contains(0)) {
+			if (n < 0)//pole at 0, with the sign of a signed zero
+				return Interval.ALL;
+			if ((n & 1) == 0)
+				return Interval.of(0, Math.max(p1, p2), a.maybeNaN);
+		}
+		return Interval.of(Math.min(p1, p2), Math.max(p1, p2), a.maybeNaN);
+	}
+
+	private static boolean isUnbounded(Interval a) {
+		return Double.isInfinite(a.lo) || Double.isInfinite(a.hi);
+	}
+
+//Math.exp, log, sqrt, sin, cos and tan are semi-monotonic, so the values at the bounds of a monotonic piece bound the values inside
+	private static Interval function(String name, Interval a) {
+		switch (name) {
+			case "exp":
+				return Interval.of(Math.exp(a.lo), Math.exp(a.hi), a.maybeNaN);
+			case "log":
+				if (a.hi < 0)
+					return Interval.ALL;
+				return Interval.of(a.lo < 0 ? Double.NEGATIVE_INFINITY : Math.log(a.lo), Math.log(a.hi), a.maybeNaN || a.lo < 0);
+			case "sqrt":
+				if (a.hi < 0)
+					return Interval.ALL;
+				return Interval.of(a.lo < 0 ? 0 : Math.sqrt(a.lo), Math.sqrt(a.hi), a.maybeNaN || a.lo < 0);
+			case "sin":
+				return periodic(a, Math.sin(a.lo), Math.sin(a.hi), Math.PI / 2);
+			case "cos":
+				return periodic(a, Math.cos(a.lo), Math.cos(a.hi), 0);
+			case "tan":
+				if (isUnbounded(a) || containsPhase(a, Math.PI / 2, Math.PI))
+					return Interval.ALL;
+				return Interval.of(Math.tan(a.lo), Math.tan(a.hi), a.maybeNaN);
+			default:
+				return Interval.ALL;
+		}
+	}
+
+//widens the range of a function by the error bound of its approximation in fast math mode
+	private static Interval widen(String name, Interval a) {
+		switch (name) {
+			case "exp":
+				return Interval.of(a.lo * (1 - FastMath.EXP_ERROR), a.hi * (1 + FastMath.EXP_ERROR), a.maybeNaN);
+			case "log":
+				return Interval.of(a.lo - FastMath.LOG_ERROR, a.hi + FastMath.LOG_ERROR, a.maybeNaN);
+			case "sin":
+			case "cos":
+				return Interval.of(a.lo - FastMath.TRIG_ERROR, a.hi + FastMath.TRIG_ERROR, a.maybeNaN);
+			case "tan":
+				return Interval.of(a.lo - Math.abs(a.lo) * FastMath.TAN_ERROR, a.hi + Math.abs(a.hi) * FastMath.TAN_ERROR, a.maybeNaN);
+			default:
+				return a;
+		}
+	}
+
+//range of sin or cos, given the values at the bounds and the phase of the maximum
+	private static Interval periodic(Interval a, double atLo, double atHi, double maximumPhase) {
+		if (isUnbounded(a))
+			return Interval.of(-1, 1, true);
+		double lo = Math.min(atLo, atHi), hi = Math.max(atLo, atHi);
+		if (containsPhase(a, maximumPhase, TWO_PI))
+			hi = 1;
+		if (containsPhase(a, maximumPhase + Math.PI, TWO_PI))
+			lo = -1;
+		return Interval.of(lo, hi, a.maybeNaN);
+	}
+
+//true if a includes phase + k * period for some integer k; the tolerance makes up for the rounding of phase + k * period
+	private static boolean containsPhase(Interval a, double phase, double period) {
+		double tolerance = 1e-12 * Math.max(1, Math.max(Math.abs(a.lo), Math.abs(a.hi)));
+		if (a.hi - a.lo + 2 * tolerance >= period)
+			return true;
+		double k = Math.ceil((a.lo - tolerance - phase) / period);
+		return phase + k * period <= a.hi + tolerance;
+	}
+
+	private static Tristate lessThan(Interval a, Interval b) {
+		if (a.hi < b.lo && !a.maybeNaN && !b.maybeNaN)
+			return Tristate.TRUE;
+		if (a.lo >= b.hi)//comparisons with NaN are false as well
+			return Tristate.FALSE;
+		return Tristate.UNKNOWN;
+	}
+
+	private static Tristate lessOrEqual(Interval a, Interval b) {
+		if (a.hi <= b.lo && !a.maybeNaN && !b.maybeNaN)
+			return Tristate.TRUE;
+		if (a.lo > b.hi)
+			return Tristate.FALSE;
+		return Tristate.UNKNOWN;
+	}
+
+//equality follows BinaryNode: Double.equals() for numbers (NaN equals NaN, 0.0 differs from -0.0), values of different type are unequal
+	private Tristate equal(Node left, Node right) {
+		boolean leftBoolean = isBoolean(left), rightBoolean = isBoolean(right);
+		if (leftBoolean != rightBoolean)
+			return Tristate.FALSE;
+		if (leftBoolean) {
+			Tristate a = truth(left), b = truth(right);
+			return a == Tristate.UNKNOWN || b == Tristate.UNKNOWN ? Tristate.UNKNOWN : Tristate.of(a == b);
+		}
+		Interval a = range(left), b = range(right);
+		if (a.isPoint() && b.isPoint() && a.lo == b.lo && a.lo != 0)
+			return Tristate.TRUE;
+		if ((a.hi < b.lo || b.hi < a.lo) && !(a.maybeNaN && b.maybeNaN))
+			return Tristate.FALSE;
+		return Tristate.UNKNOWN;
+	}
+
+	static boolean isBoolean(Node node) {
+		if (node.resultType != null)//type checked tree
+			return node.resultType == ResultType.BOOLEAN;
+		if (node.getClass() == NodeIdentifier.class)
+			return ((NodeIdentifier) node).identifier.equals("true") || ((NodeIdentifier) node).identifier.equals("false");
+		if (node instanceof UnaryNode)
+			return node.type == Type.not;
+		if (node instanceof BinaryNode) {
+			switch (node.type) {
+				case add:
+				case subtract:
+				case multiply:
+				case divide:
+				case power:
+					return false;
+				default:
+					return true;
+			}
+		}
+		if (node instanceof TernaryNode)
+			return isBoolean(((TernaryNode) node).center);
+		if (node instanceof ScopeNode)
+			return isBoolean(((ScopeNode) node).body);
+		if (node instanceof SharedNode)
+			return isBoolean(((SharedNode) node).getChild());
+		return node instanceof AdaptiveNode;
+	}
+}//end of class IntervalEvaluator
@@ -0,0 +1,255 @@
+package math;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the Java source of a class with a static method for each added expression, for formulas known at build
+ * time: the method computes the expression with plain double and boolean arithmetic, without parsing or evaluating
+ * a tree at runtime. The parameters of a method are the variables used by its expression, in the order given to the
+ * constructor; the method returns double or boolean, as found by the type checker.
+ * The generated code gives the same results as the evaluation of the tree: == and != compare numbers as Double.equals,
+ * and, or and ?: evaluate only the operands needed. Expressions with fast math call math.FastMath, so the generated
+ * class needs the library only in that case. User functions can't be generated, as their code is known only at runtime.
+ * The power operator calls a private method pow of the generated class, with the same repeated squaring of BinaryNode.
+ */
+
+public final class JavaSourceGenerator {
+	private static final Set<String> KEYWORDS = Set.of("abstract", "assert", "boolean", "break", "byte", "case", "catch",
+		"char", "class", "const", "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally",
+		"float", "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native", "new",
+		"package", "private", "protected", "public", "return", "short", "static", "strictfp", "super", "switch",
+		"synchronized", "this", "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false",
+		"null", "var", "record", "yield", "sealed", "permits", "_");
+	private static final Set<String> RESERVED = Set.of("Math", "Double", "math", "java", "pow");//names used by the generated code
+
+	private final String packageName;
+	private final String className;
+	private final List<Variable> variables;
+	private final Map<String, String> methods = new LinkedHashMap<>();
+	private final Map<String, List<Variable>> parameters = new HashMap<>();
+	private String source;
+	private boolean power;//true if a method uses the power operator
+
+	public JavaSourceGenerator(String packageName, String className, Variable... variables) {
+		if (packageName != null && !packageName.isEmpty()) {
+			for (String part : packageName.split("\\.", -1))
+				checkName(part, "package name");
+		}
+		checkName(className, "class name");
+		for (Variable variable : variables)
+			checkName(variable.getName(), "variable name");
+		this.packageName = packageName;
+		this.className = className;
+		this.variables = List.of(variables);
+	}
+
+//sets the description of the origin of the expressions, e.g. a file name, written in the comment of the class
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+/*adds a method named 'name' computing 'expression'; type errors are reported as ParseException,
+  invalid or duplicate names, user functions and variables not given to the constructor as IllegalArgumentException
+*/
+	public void add(String name, Node expression) throws ParseException {
+		checkName(name, "method name");
+		if (methods.containsKey(name))
+			throw new IllegalArgumentException("duplicate method: " + name);
+		ResultType type = TypeChecker.check(expression);
+		boolean[] uses = new boolean[variables.size()];
+		StringBuilder code = new StringBuilder();
+		emit(expression, code, uses);
+		StringBuilder method = new StringBuilder();
+		method.append("    /** ").append(name).append(" = ").append(describe(expression)).append(" */\n");
+		method.append("    public static ").append(type == ResultType.BOOLEAN ? "boolean" : "double").append(' ').append(name).append('(');
+		List<Variable> used = new ArrayList<>();
+		for (int i = 0; i < uses.length; i++) {
+			if (uses[i]) {
+				method.append(used.isEmpty() ? "" : ", ").append("double ").append(variables.get(i).getName());
+				used.add(variables.get(i));
+			}
+		}
+		method.append(") {\n        return ").append(code).append(";\n    }\n");
+		methods.put(name, method.toString());
+		parameters.put(name, used);
+	}
+
+	public int size() {
+		return methods.size();
+	}
+
+	List<Variable> getParameters(String name) {//variables of the parameters of a method, in order
+		return parameters.get(name);
+	}
+
+	public String getClassName() {//qualified name of the generated class
+		return packageName == null || packageName.isEmpty() ? className : packageName + "." + className;
+	}
+
+	public String generate() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("// Generated by math.JavaSourceGenerator");
+		if (source != null)
+			sb.append(" from ").append(source.replace('\n', ' ').replace('\r', ' '));
+		sb.append(", do not edit\n");
+		if (packageName != null && !packageName.isEmpty())
+			sb.append("package ").append(packageName).append(";\n\n");
+		sb.append("public final class ").append(className).append(" {\n");
+		sb.append("    private ").append(className).append("() {\n    }\n");
+		for (String method : methods.values())
+			sb.append('\n').append(method);
+		if (power) {
+			sb.append("\n    private static double pow(double x, double y) {//x^y: repeated squaring for integer exponents up to ")
+				.append(BinaryNode.MAX_INTEGER_EXPONENT).append('\n');
+			sb.append("        int n = (int) y;\n");
+			sb.append("        if (n != y || n < -").append(BinaryNode.MAX_INTEGER_EXPONENT).append(" || n > ").append(BinaryNode.MAX_INTEGER_EXPONENT).append(")\n");
+			sb.append("            return Math.pow(x, y);\n");
+			sb.append("        double result = 1, base = x;\n");
+			sb.append("        for (int m = n < 0 ? -n : n; m != 0; m >>>= 1) {\n");
+			sb.append("            if ((m & 1) != 0)\n                result *= base;\n");
+			sb.append("            base *= base;\n        }\n");
+			sb.append("        if (n >= 0)\n            return result;\n");
+			sb.append("        double inverse = 1 / result;//as BinaryNode.power(): Math.pow if x^-n or its inverse isn't a finite normal double\n");
+			sb.append("        double r = Math.abs(result), i = Math.abs(inverse);\n");
+			sb.append("        return r >= Double.MIN_NORMAL && r <= Double.MAX_VALUE && i >= Double.MIN_NORMAL && i <= Double.MAX_VALUE ? inverse : Math.pow(x, n);\n    }\n");
+		}
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private void emit(Node node, StringBuilder sb, boolean[] used) {
+		if (node instanceof NodeDouble) {
+			literal(((NodeDouble) node).num, sb);
+		} else if (node instanceof NodeVariable) {
+			Variable variable = ((NodeVariable) node).getVariable();
+			int index = variables.indexOf(variable);
+			if (index < 0)
+				throw new IllegalArgumentException("variable not given to the generator: " + variable.getName());
+			used[index] = true;
+			sb.append(variable.getName());
+		} else if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier p = (UnaryNodeIdentifier) node;
+			boolean fast = p.fastMath && !p.identifier.equals("sqrt");
+			sb.append(fast ? "math.FastMath." : "Math.").append(p.identifier).append('(');
+			emit(p.child, sb, used);
+			sb.append(')');
+		} else if (node instanceof LambdaFunctionNode) {
+			throw new IllegalArgumentException("user function can't be generated: " + ((LambdaFunctionNode) node).identifier);
+		} else if (node instanceof NodeIdentifier) {
+			switch (((NodeIdentifier) node).identifier) {
+				case "PI":
+					sb.append("Math.PI");
+					break;
+				case "E":
+					sb.append("Math.E");
+					break;
+				default:
+					sb.append(node.evaluate());//true or false
+			}
+		} else if (node instanceof UnaryNode) {
+			sb.append(node.type == Type.minus ? "(-" : "(!");
+			emit(((UnaryNode) node).child, sb, used);
+			sb.append(')');
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			boolean numbers = p.left.resultType == ResultType.NUMBER;
+			if ((p.type == Type.equal || p.type == Type.unequal) && numbers) {//as Double.equals: NaN == NaN, 0.0 != -0.0
+				sb.append("(Double.doubleToLongBits(");
+				emit(p.left, sb, used);
+				sb.append(p.type == Type.equal ? ") == Double.doubleToLongBits(" : ") != Double.doubleToLongBits(");
+				emit(p.right, sb, used);
+				sb.append("))");
+			} else if (p.type == Type.power) {
+				power = true;
+				sb.append("pow(");
+				emit(p.left, sb, used);
+				sb.append(", ");
+				emit(p.right, sb, used);
+				sb.append(')');
+			} else {
+				sb.append('(');
+				emit(p.left, sb, used);
+				sb.append(' ').append(operator(p.type)).append(' ');
+				emit(p.right, sb, used);
+				sb.append(')');
+			}
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			sb.append('(');
+			emit(p.left, sb, used);
+			sb.append(" ? ");
+			emit(p.center, sb, used);
+			sb.append(" : ");
+			emit(p.right, sb, used);
+			sb.append(')');
+		} else if (node instanceof SharedNode) {
+			emit(((SharedNode) node).getChild(), sb, used);
+		} else if (node instanceof ScopeNode) {
+			emit(((ScopeNode) node).body, sb, used);
+		} else if (node instanceof AdaptiveNode) {
+			emit(AdaptiveNode.rebuild(node.type, ((AdaptiveNode) node).getOperands()), sb, used);
+		} else {
+			throw new IllegalArgumentException("unexpected node: " + node.getClass().getSimpleName());
+		}
+	}
+
+	private static void literal(double value, StringBuilder sb) {
+		if (Double.isNaN(value))
+			sb.append("Double.NaN");
+		else if (Double.isInfinite(value))
+			sb.append(value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY");
+		else if (value < 0 || (value == 0 && 1 / value < 0))
+			sb.append('(').append(value).append(')');
+		else sb.append(value);
+	}
+
+	private static String operator(Type type) {
+		switch (type) {
+			case add:
+				return "+";
+			case subtract:
+				return "-";
+			case multiply:
+				return "*";
+			case divide:
+				return "/";
+			case and:
+				return "&&";
+			case or:
+				return "||";
+			case equal:
+				return "==";
+			case unequal:
+				return "!=";
+			case lt:
+				return "<";
+			case lte:
+				return "<=";
+			case gt:
+				return ">";
+			case gte:
+				return ">=";
+			default:
+				throw new IllegalArgumentException("unexpected operator: " + type);
+		}
+	}
+
+	private static String describe(Node expression) {//source of the expression for the comment of the method
+		StringBuilder sb = new StringBuilder();
+		expression.visit(sb);
+		return sb.toString().replace("*/", "* /").replace('\n', ' ');
+	}
+
+	private static void checkName(String name, String kind) {
+		boolean valid = name != null && !name.isEmpty() && Character.isJavaIdentifierStart(name.charAt(0))
+			&& name.chars().allMatch(Character::isJavaIdentifierPart) && !KEYWORDS.contains(name);
+		if (!valid || (!kind.equals("package name") && RESERVED.contains(name)))
+			throw new IllegalArgumentException("invalid " + kind + ": " + name);
+	}
+}//end of class JavaSourceGenerator
@@ -1,39 +1,77 @@
 package math;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Function;
 /**
  * Node element holding user defined lambda function
  */
 
 public class LambdaFunctionNode extends NodeIdentifier {
-	private Node child;
-	private final Function<Double, Double> lambda;
+	protected final Node[] arguments;
+	protected final UserFunction function;
 
-    public LambdaFunctionNode(String identifier, Node argument, Function<Double, Double> lambda) {
+    LambdaFunctionNode(String identifier, Node[] arguments, UserFunction function) {
         super(identifier);
-        this.child = argument;
-        this.lambda = lambda;
+        this.arguments = arguments;
+        this.function = function;
+    }
+
+    @Deprecated//node of a call with one argument to a function not registered in a parser, not pure: use registerFunction()
+    public LambdaFunctionNode(String identifier, Node argument, Function<Double, Double> lambda) {
+        this(identifier, new Node[] {argument}, new UserFunction(identifier, x -> lambda.apply(x), FunctionProperties.IMPURE));
     }
 
     @Override
     public Object evaluate() {
-        Object val = child.evaluate();
-        if (!(val instanceof Double)) {
-            throw new RuntimeException("Function '" + identifier + "' expects a numeric argument, but got: " + 
-                                       (val == null ? "null" : val.getClass().getSimpleName()));
+        return evaluateDouble();
+    }
+
+    @Override
+    public double evaluateDouble() {//arity has been checked by the parser, arguments are passed without boxing
+        if (function.unary != null) {
+            FunctionCache cache = function.cache;
+            return cache != null ? cache.apply(argument(0)) : function.unary.applyAsDouble(argument(0));
+        }
+        if (function.binary != null)
+            return function.binary.applyAsDouble(argument(0), argument(1));
+        double[] values = new double[arguments.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = argument(i);
+        return function.nary.applyAsDouble(values);
+    }
+
+    private double argument(int i) {
+        try {
+            return arguments[i].evaluateDouble();
+        } catch (ClassCastException ex) {
+            throw new RuntimeException("Function '" + identifier + "' expects numeric arguments, but argument " + (i + 1) + " is not numeric");
         }
-        return lambda.apply((Double) val);
     }
 
     @Override
 	public void visit(StringBuilder sb) {
 		sb.append(identifier);
 		sb.append('(');
-		child.visit(sb);
+		for (int i = 0; i < arguments.length; i++) {
+			if (i > 0)
+				sb.append(", ");
+			arguments[i].visit(sb);
+		}
 		sb.append(')');
 	}
 
+	@Deprecated//first argument, null for a function without arguments: use getArguments()
 	public Node getChild() {
-		return child;
+		return arguments.length > 0 ? arguments[0] : null;
+	}
+
+	public List<Node> getArguments() {
+		return Collections.unmodifiableList(Arrays.asList(arguments));
+	}
+
+	public FunctionProperties getProperties() {
+		return function.properties;
 	}
 }//end of class LambdaFunctionNode
@@ -6,6 +6,8 @@ package math;
 
 abstract public class Node {
 	protected final Type type;
+	int position = -1;//offset in the parsed expression where the subexpression of the node starts, -1 if not parsed
+	ResultType resultType;//static type assigned by the type checker, null if the tree has not been checked
 
 	Node(Type type) {
 		this.type = type;
@@ -13,7 +15,23 @@ abstract public class Node {
 
 	abstract public Object evaluate();//Note: shall return either Double or Boolean
 
+	public double evaluateDouble() {//primitive evaluation of numeric nodes, subclasses override it to avoid boxing
+		return (Double) evaluate();
+	}
+
+	public boolean evaluateBoolean() {//primitive evaluation of boolean nodes, subclasses override it to avoid boxing
+		return (Boolean) evaluate();
+	}
+
 	abstract public void visit(StringBuilder sb);
 
 	abstract public String getNodeAsString();//returns a string related only to node itself, not to children
+
+	public int getPosition() {
+		return position;
+	}
+
+	public ResultType getResultType() {//null if the tree has not been type checked
+		return resultType;
+	}
 }//end of class Node
@@ -6,6 +6,7 @@ package math;
 
 public class NodeDouble extends Node {
 	protected double num;
+	boolean pooled;//shared by the expressions of a NodePool: set() is not allowed
 
 	NodeDouble(double num) {
 		super(Type.number);
@@ -17,12 +18,19 @@ public class NodeDouble extends Node {
 		return num;
 	}
 
+    @Override
+	public double evaluateDouble() {
+		return num;
+	}
+
     @Override
 	public void visit(StringBuilder sb) {
 		sb.append(num);
 	}
 
 	public void set(Double val) {
+		if (pooled)
+			throw new IllegalStateException("the number is shared by the expressions of a node pool");
 		num = val;
 	}
 
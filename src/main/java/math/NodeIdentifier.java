@@ -6,14 +6,15 @@ package math;
 
 public class NodeIdentifier extends Node {
 	protected String identifier;
+	private final Object constant;//value of PI, E, true and false, resolved once; null for the other identifiers
 
 	NodeIdentifier(String identifier) {
 		super(Type.identifier);
 		this.identifier = identifier;
+		this.constant = constant(identifier);
 	}
 
-    @Override
-	public Object evaluate() {
+	private static Object constant(String identifier) {
         switch (identifier) {
             case "PI":
                 return Math.PI;
@@ -24,10 +25,27 @@ public class NodeIdentifier extends Node {
             case "true":
                 return true;
             default:
-                throw new RuntimeException("unknown identifier: " + identifier);
+                return null;
         }
 	}
 
+    @Override
+	public Object evaluate() {
+        if (constant == null)
+            throw new RuntimeException("unknown identifier: " + identifier);
+        return constant;
+	}
+
+    @Override
+	public double evaluateDouble() {
+        return (Double) evaluate();
+	}
+
+    @Override
+	public boolean evaluateBoolean() {
+        return (Boolean) evaluate();
+	}
+
     @Override
 	public void visit(StringBuilder sb) {
 		sb.append(identifier);
@@ -0,0 +1,233 @@
+package math;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Pool of parsed subtrees shared by all the expressions interned in it (hash-consing): structurally identical subtrees,
+ * e.g. the same normalization factor or threshold in many expressions, are kept once. Subtrees are compared bottom-up,
+ * by their own content and the identity of their already pooled children, so interning costs one lookup per node.
+ * The pool holds its nodes with weak references: subtrees no longer used by any expression are garbage collected,
+ * and their entries are removed by the next operation on the pool.
+ * Pooled trees are read-only: NodeDouble.set() and UnaryNodeIdentifier.set() throw IllegalStateException on a pooled
+ * node, which is shared by other expressions; parse without a pool the expressions to be edited.
+ * A pooled node keeps the position of its first occurrence: typeCheck() of a pooled tree may report an error at the
+ * offset of the same subtree in another expression, type checking by parseExpression() is done before pooling.
+ * Nodes with an evaluation state (shared, scope and adaptive nodes, made by optimize() and adaptive()) are
+ * not pooled. A pool can be used by several parsers and threads at the same time.
+ */
+
+public final class NodePool {
+	private static final class Key {
+		final Class<?> nodeClass;
+		final Type type;
+		final Object content;//number, identifier, variable or function of the node
+		final Node[] children;//pooled children, compared by identity
+		final int hash;
+
+		Key(Node node, Object content, Node[] children) {
+			this.nodeClass = node.getClass();
+			this.type = node.type;
+			this.content = content;
+			this.children = children;
+			int h = nodeClass.hashCode() * 31 + type.hashCode();
+			h = h * 31 + Objects.hashCode(content);
+			for (Node child : children)
+				h = h * 31 + System.identityHashCode(child);
+			this.hash = h;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			if (hash != other.hash || nodeClass != other.nodeClass || type != other.type || !Objects.equals(content, other.content) || children.length != other.children.length)
+				return false;
+			for (int i = 0; i < children.length; i++) {
+				if (children[i] != other.children[i])
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final class Entry extends WeakReference<Node> {
+		final Key key;//holds the children, so that they live as long as the entry
+		final long bytes;
+
+		Entry(Node node, Key key, long bytes, ReferenceQueue<Node> queue) {
+			super(node, queue);
+			this.key = key;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final int HEADER = 12, REFERENCE = 4, ARRAY_HEADER = 16;//64-bit JVM with compressed references
+	private static final Map<Class<?>, Long> shallowSizes = new HashMap<>();
+
+	private final Map<Key, Entry> entries = new HashMap<>();
+	private final ReferenceQueue<Node> queue = new ReferenceQueue<>();
+	private long requested;//nodes passed to intern()
+	private long created;//nodes added to the pool
+	private long savedBytes;//estimated size of the nodes replaced by pooled ones
+	private long retainedBytes;//estimated size of the live pooled nodes
+
+/*returns the pooled tree equal to 'root': the subtrees of 'root' already in the pool are replaced by the pooled ones,
+  the others are added to the pool; 'root' must not be used afterwards, only the returned tree*/
+	public synchronized Node intern(Node root) {
+		expunge();
+		return internNode(root);
+	}
+
+	public synchronized int size() {//number of live pooled nodes
+		expunge();
+		return entries.size();
+	}
+
+	public synchronized long getRequestedNodes() {
+		return requested;
+	}
+
+	public synchronized long getCreatedNodes() {
+		return created;
+	}
+
+	public synchronized double getDeduplicationRatio() {//nodes requested for each node added to the pool
+		return created == 0 ? 1 : (double) requested / created;
+	}
+
+	public synchronized long getRetainedBytes() {//estimated heap retained by the live pooled nodes, not counting the pool itself
+		expunge();
+		return retainedBytes;
+	}
+
+	public synchronized long getSavedBytes() {//estimated heap of the nodes not kept thanks to the pool
+		return savedBytes;
+	}
+
+	private Node internNode(Node node) {
+		Object content;
+		Node[] children;
+		if (node instanceof NodeDouble) {
+			content = Double.doubleToRawLongBits(((NodeDouble) node).num);
+			children = new Node[0];
+		} else if (node instanceof NodeVariable) {
+			content = ((NodeVariable) node).getVariable();
+			children = new Node[0];
+		} else if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier p = (UnaryNodeIdentifier) node;
+			p.child = internNode(p.child);
+			content = p.identifier + (p.fastMath ? "/fast" : "");
+			children = new Node[] {p.child};
+		} else if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode p = (LambdaFunctionNode) node;
+			for (int i = 0; i < p.arguments.length; i++)
+				p.arguments[i] = internNode(p.arguments[i]);
+			content = p.function;
+			children = p.arguments.clone();
+		} else if (node instanceof NodeIdentifier) {
+			content = ((NodeIdentifier) node).identifier;
+			children = new Node[0];
+		} else if (node instanceof UnaryNode) {
+			UnaryNode p = (UnaryNode) node;
+			p.child = internNode(p.child);
+			content = null;
+			children = new Node[] {p.child};
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			p.left = internNode(p.left);
+			p.right = internNode(p.right);
+			content = null;
+			children = new Node[] {p.left, p.right};
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			p.left = internNode(p.left);
+			p.center = internNode(p.center);
+			p.right = internNode(p.right);
+			content = null;
+			children = new Node[] {p.left, p.center, p.right};
+		} else {
+			return node;//shared, scope and adaptive nodes have an evaluation state
+		}
+		requested++;
+		Key key = new Key(node, content, children);
+		long bytes = estimateSize(node);
+		Entry entry = entries.get(key);
+		Node pooled = entry == null ? null : entry.get();
+		if (pooled != null) {
+			savedBytes += bytes;
+			return pooled;
+		}
+		if (entry != null)//collected but not yet expunged
+			retainedBytes -= entry.bytes;
+		entries.put(key, new Entry(node, key, bytes, queue));
+		if (node instanceof NodeDouble)//read-only from now on
+			((NodeDouble) node).pooled = true;
+		else if (node instanceof UnaryNodeIdentifier)
+			((UnaryNodeIdentifier) node).pooled = true;
+		created++;
+		retainedBytes += bytes;
+		return node;
+	}
+
+	private void expunge() {
+		Entry entry;
+		while ((entry = (Entry) queue.poll()) != null) {
+			if (entries.remove(entry.key, entry))
+				retainedBytes -= entry.bytes;
+		}
+	}
+
+//shallow size of the node, computed from its fields as laid out by a 64-bit JVM with compressed references
+	private static long estimateSize(Node node) {
+		long size = shallowSize(node.getClass());
+		if (node instanceof LambdaFunctionNode)//the array of the arguments belongs to the node
+			size += align(ARRAY_HEADER + (long) REFERENCE * ((LambdaFunctionNode) node).arguments.length);
+		return size;
+	}
+
+	private static long shallowSize(Class<?> nodeClass) {
+		synchronized (shallowSizes) {
+			Long size = shallowSizes.get(nodeClass);
+			if (size == null) {
+				long bytes = HEADER;
+				for (Class<?> c = nodeClass; c != Object.class; c = c.getSuperclass()) {
+					for (Field field : c.getDeclaredFields()) {
+						if (!Modifier.isStatic(field.getModifiers()))
+							bytes += fieldSize(field.getType());
+					}
+				}
+				size = align(bytes);
+				shallowSizes.put(nodeClass, size);
+			}
+			return size;
+		}
+	}
+
+	private static int fieldSize(Class<?> type) {
+		if (type == long.class || type == double.class)
+			return 8;
+		if (type == int.class || type == float.class)
+			return 4;
+		if (type == short.class || type == char.class)
+			return 2;
+		if (type == byte.class || type == boolean.class)
+			return 1;
+		return REFERENCE;
+	}
+
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+}//end of class NodePool
@@ -0,0 +1,28 @@
+package math;
+
+/**
+ * Node element holding a variable
+ */
+
+public class NodeVariable extends NodeIdentifier {
+	private final Variable variable;
+
+	NodeVariable(Variable variable) {
+		super(variable.getName());
+		this.variable = variable;
+	}
+
+    @Override
+	public Object evaluate() {
+		return variable.get();
+	}
+
+    @Override
+	public double evaluateDouble() {
+		return variable.get();
+	}
+
+	public Variable getVariable() {
+		return variable;
+	}
+}//end of class NodeVariable
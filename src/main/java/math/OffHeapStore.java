@@ -0,0 +1,492 @@
+package math;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store of millions of expressions kept outside the Java heap: each expression is lowered to a postfix code, written in
+ * a direct ByteBuffer (the arena) and addressed by a long handle; evaluation interprets the code directly from the
+ * arena. The slots of the handles are also in a direct buffer, so the heap used by the store doesn't depend on the
+ * number of expressions: only the variables and the user functions called are kept on the heap.
+ * Expressions can be replaced and removed; the space they used is reclaimed by compaction, run automatically when
+ * the arena is full and at least half of it is dead, or with compact(). Handles of removed expressions are invalid.
+ * Values of the variables are given to each evaluation, in the order of the variables of the constructor.
+ * Evaluation uses a stack owned by the store, so an instance must not be shared between threads.
+ * Code format, jumps are relative to the start of the code so that the code can be moved:
+ *   header: result type (byte), maximum stack depth (short), length of the code (int)
+ *   CONST double | VARIABLE short | FUNCTION byte | CALL short byte | operators | AND/OR/JUMP_FALSE/JUMP int
+ */
+
+public final class OffHeapStore {
+	private static final byte CONST = 1, VARIABLE = 2, FUNCTION = 3, CALL = 4, NEGATE = 5, NOT = 6;
+	private static final byte ADD = 7, SUBTRACT = 8, MULTIPLY = 9, DIVIDE = 10;
+	private static final byte EQUAL = 11, UNEQUAL = 12, LT = 13, LTE = 14, GT = 15, GTE = 16;
+	private static final byte AND = 17, OR = 18, JUMP_FALSE = 19, JUMP = 20, POWER = 21;
+	private static final int HEADER = 7;
+	private static final int SLOT_SIZE = 16;//offset, length (-1 if free), generation, next free slot
+	private static final int FAST_MATH = 8;//added to the id of a built-in function evaluated with FastMath
+	private static final List<String> BUILT_INS = List.of("sin", "cos", "tan", "log", "exp", "sqrt");
+
+	private final Map<Variable, Integer> variables = new HashMap<>();
+	private final List<UserFunction> functions = new ArrayList<>();
+	private final Map<UserFunction, Integer> functionIds = new HashMap<>();
+	private ByteBuffer arena;
+	private ByteBuffer slots;
+	private int top;//end of the used part of the arena
+	private int slotCount;//slots used at least once
+	private int freeSlot = -1;//head of the list of free slots
+	private int size;
+	private long deadBytes;
+	private double[] stack = new double[16];
+
+	public OffHeapStore(int initialBytes, Variable... variables) {
+		if (variables.length > Short.MAX_VALUE)
+			throw new IllegalArgumentException("too many variables: " + variables.length);
+		for (int i = 0; i < variables.length; i++)
+			this.variables.put(variables[i], i);
+		arena = ByteBuffer.allocateDirect(Math.max(initialBytes, 64)).order(ByteOrder.nativeOrder());
+		slots = ByteBuffer.allocateDirect(SLOT_SIZE * 64).order(ByteOrder.nativeOrder());
+	}
+
+//lowers the expression and stores it, returns its handle; throws IllegalArgumentException for type errors or unknown variables
+	public long add(Node expression) {
+		byte[] code = lower(expression);
+		int slot;
+		if (freeSlot >= 0) {
+			slot = freeSlot;
+			freeSlot = slots.getInt(slot * SLOT_SIZE + 12);
+		} else {
+			slot = slotCount++;
+			if (slotCount * SLOT_SIZE > slots.capacity())
+				slots = grow(slots, slots.capacity() * 2, slots.capacity());
+			slots.putInt(slot * SLOT_SIZE + 8, 0);
+		}
+		write(slot, code);
+		size++;
+		return handle(slot);
+	}
+
+//replaces the expression of a handle, which stays valid
+	public void replace(long handle, Node expression) {
+		int slot = slot(handle);
+		byte[] code = lower(expression);
+		deadBytes += slots.getInt(slot * SLOT_SIZE + 4);
+		slots.putInt(slot * SLOT_SIZE + 4, -1);//not moved by a compaction run by write()
+		write(slot, code);
+	}
+
+	public boolean remove(long handle) {
+		if (!contains(handle))
+			return false;
+		int slot = (int) handle;
+		int base = slot * SLOT_SIZE;
+		deadBytes += slots.getInt(base + 4);
+		slots.putInt(base + 4, -1);
+		slots.putInt(base + 8, slots.getInt(base + 8) + 1);//invalidates the handle
+		slots.putInt(base + 12, freeSlot);
+		freeSlot = slot;
+		size--;
+		return true;
+	}
+
+	public boolean contains(long handle) {
+		int slot = (int) handle;
+		return slot >= 0 && slot < slotCount && slots.getInt(slot * SLOT_SIZE + 4) >= 0 && slots.getInt(slot * SLOT_SIZE + 8) == (int) (handle >>> 32);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getUsedBytes() {//bytes of the arena used by live expressions
+		return top - deadBytes;
+	}
+
+	public long getDeadBytes() {//bytes of removed or replaced expressions, reclaimed by the next compaction
+		return deadBytes;
+	}
+
+	public long getCapacityBytes() {//off-heap bytes allocated for the arena and the slots
+		return (long) arena.capacity() + slots.capacity();
+	}
+
+//moves the live expressions to a new arena without gaps
+	public void compact() {
+		compact(0);
+	}
+
+	public Object evaluate(long handle, double... values) {
+		int start = start(handle);
+		double result = run(start, values);
+		if (arena.get(start) == 1)
+			return result != 0;
+		return result;
+	}
+
+	public double evaluateDouble(long handle, double... values) {
+		int start = start(handle);
+		if (arena.get(start) == 1)
+			throw new ClassCastException("boolean expression");
+		return run(start, values);
+	}
+
+	public boolean evaluateBoolean(long handle, double... values) {
+		int start = start(handle);
+		if (arena.get(start) == 0)
+			throw new ClassCastException("numeric expression");
+		return run(start, values) != 0;
+	}
+
+	private int start(long handle) {
+		return slots.getInt(slot(handle) * SLOT_SIZE);
+	}
+
+	private int slot(long handle) {
+		if (!contains(handle))
+			throw new IllegalArgumentException("unknown handle: " + handle);
+		return (int) handle;
+	}
+
+	private long handle(int slot) {
+		return ((long) slots.getInt(slot * SLOT_SIZE + 8) << 32) | slot;
+	}
+
+	private void write(int slot, byte[] code) {
+		if (top + code.length > arena.capacity()) {
+			if (deadBytes >= top / 2)
+				compact(code.length);
+			if (top + code.length > arena.capacity())
+				arena = grow(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(2L * arena.capacity(), (long) top + code.length)), top);
+		}
+		arena.position(top);
+		arena.put(code);
+		slots.putInt(slot * SLOT_SIZE, top);
+		slots.putInt(slot * SLOT_SIZE + 4, code.length);
+		top += code.length;
+	}
+
+	private void compact(int extra) {
+		long live = top - deadBytes;
+		ByteBuffer target = ByteBuffer.allocateDirect((int) Math.min(Integer.MAX_VALUE - 8, Math.max(64, (live + extra) * 3 / 2))).order(ByteOrder.nativeOrder());
+		for (int slot = 0; slot < slotCount; slot++) {
+			int base = slot * SLOT_SIZE;
+			int length = slots.getInt(base + 4);
+			if (length < 0)
+				continue;
+			int offset = slots.getInt(base);
+			slots.putInt(base, target.position());
+			ByteBuffer code = arena.duplicate();
+			code.limit(offset + length).position(offset);
+			target.put(code);
+		}
+		top = target.position();
+		arena = target;
+		deadBytes = 0;
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer, int capacity, int used) {
+		ByteBuffer bigger = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+		ByteBuffer content = buffer.duplicate();
+		content.limit(used).position(0);
+		bigger.put(content);
+		return bigger;
+	}
+
+	private double run(int start, double[] values) {
+		if (values.length != variables.size())
+			throw new IllegalArgumentException("expected " + variables.size() + " value(s), but got " + values.length);
+		ByteBuffer code = arena;
+		int depth = code.getShort(start + 1);
+		if (stack.length < depth)
+			stack = new double[depth];
+		double[] stack = this.stack;
+		int sp = -1;
+		int pc = start + HEADER;
+		int end = start + code.getInt(start + 3);
+		while (pc < end) {
+			byte op = code.get(pc++);
+			switch (op) {
+				case CONST:
+					stack[++sp] = code.getDouble(pc);
+					pc += 8;
+					break;
+				case VARIABLE:
+					stack[++sp] = values[code.getShort(pc)];
+					pc += 2;
+					break;
+				case FUNCTION:
+					stack[sp] = builtIn(code.get(pc++), stack[sp]);
+					break;
+				case CALL: {
+					UserFunction function = functions.get(code.getShort(pc));
+					int arity = code.get(pc + 2);
+					pc += 3;
+					sp -= arity - 1;
+					stack[sp] = call(function, stack, sp, arity);
+					break;
+				}
+				case NEGATE:
+					stack[sp] = -stack[sp];
+					break;
+				case NOT:
+					stack[sp] = stack[sp] != 0 ? 0 : 1;
+					break;
+				case ADD:
+					sp--;
+					stack[sp] += stack[sp + 1];
+					break;
+				case SUBTRACT:
+					sp--;
+					stack[sp] -= stack[sp + 1];
+					break;
+				case MULTIPLY:
+					sp--;
+					stack[sp] *= stack[sp + 1];
+					break;
+				case DIVIDE:
+					sp--;
+					stack[sp] /= stack[sp + 1];
+					break;
+				case POWER:
+					sp--;
+					stack[sp] = BinaryNode.power(stack[sp], stack[sp + 1]);
+					break;
+				case EQUAL:
+					sp--;
+					stack[sp] = Double.doubleToLongBits(stack[sp]) == Double.doubleToLongBits(stack[sp + 1]) ? 1 : 0;
+					break;
+				case UNEQUAL:
+					sp--;
+					stack[sp] = Double.doubleToLongBits(stack[sp]) != Double.doubleToLongBits(stack[sp + 1]) ? 1 : 0;
+					break;
+				case LT:
+					sp--;
+					stack[sp] = stack[sp] < stack[sp + 1] ? 1 : 0;
+					break;
+				case LTE:
+					sp--;
+					stack[sp] = stack[sp] <= stack[sp + 1] ? 1 : 0;
+					break;
+				case GT:
+					sp--;
+					stack[sp] = stack[sp] > stack[sp + 1] ? 1 : 0;
+					break;
+				case GTE:
+					sp--;
+					stack[sp] = stack[sp] >= stack[sp + 1] ? 1 : 0;
+					break;
+				case AND://the left operand decides when false, otherwise the right operand is the result
+					if (stack[sp] == 0)
+						pc = start + code.getInt(pc);
+					else {
+						sp--;
+						pc += 4;
+					}
+					break;
+				case OR:
+					if (stack[sp] != 0)
+						pc = start + code.getInt(pc);
+					else {
+						sp--;
+						pc += 4;
+					}
+					break;
+				case JUMP_FALSE:
+					pc = stack[sp--] == 0 ? start + code.getInt(pc) : pc + 4;
+					break;
+				case JUMP:
+					pc = start + code.getInt(pc);
+					break;
+				default:
+					throw new IllegalStateException("corrupted code at " + (pc - 1));
+			}
+		}
+		return stack[0];
+	}
+
+	private static double builtIn(int id, double x) {
+		boolean fast = id >= FAST_MATH;
+		switch (id & (FAST_MATH - 1)) {
+			case 0:
+				return fast ? FastMath.sin(x) : Math.sin(x);
+			case 1:
+				return fast ? FastMath.cos(x) : Math.cos(x);
+			case 2:
+				return fast ? FastMath.tan(x) : Math.tan(x);
+			case 3:
+				return fast ? FastMath.log(x) : Math.log(x);
+			case 4:
+				return fast ? FastMath.exp(x) : Math.exp(x);
+			default:
+				return Math.sqrt(x);//a hardware instruction, also in fast math mode
+		}
+	}
+
+	private static double call(UserFunction function, double[] stack, int first, int arity) {
+		if (function.unary != null) {
+			FunctionCache cache = function.cache;
+			return cache != null ? cache.apply(stack[first]) : function.unary.applyAsDouble(stack[first]);
+		}
+		if (function.binary != null)
+			return function.binary.applyAsDouble(stack[first], stack[first + 1]);
+		double[] arguments = new double[arity];
+		System.arraycopy(stack, first, arguments, 0, arity);
+		return function.nary.applyAsDouble(arguments);
+	}
+
+//lowering of a tree to the postfix code
+	private byte[] lower(Node expression) {
+		ResultType type;
+		try {
+			type = TypeChecker.check(expression);
+		} catch (ParseException ex) {
+			throw new IllegalArgumentException(ex.getMessage() + " at offset " + ex.getErrorOffset());
+		}
+		ByteBuffer code = ByteBuffer.allocate(256).order(ByteOrder.nativeOrder());
+		int[] depth = new int[2];//current and maximum depth of the stack
+		code.put(type == ResultType.BOOLEAN ? (byte) 1 : 0).putShort((short) 0).putInt(0);
+		code = emit(expression, code, depth);
+		if (depth[1] > Short.MAX_VALUE)
+			throw new IllegalArgumentException("expression too deep");
+		code.putShort(1, (short) depth[1]).putInt(3, code.position());
+		byte[] bytes = new byte[code.position()];
+		code.flip();
+		code.get(bytes);
+		return bytes;
+	}
+
+	private ByteBuffer emit(Node node, ByteBuffer code, int[] depth) {
+		code = ensure(code, 16);
+		if (node instanceof NodeDouble || (node.getClass() == NodeIdentifier.class)) {
+			code.put(CONST).putDouble(constant(node));
+			push(depth);
+		} else if (node instanceof NodeVariable) {
+			Integer index = variables.get(((NodeVariable) node).getVariable());
+			if (index == null)
+				throw new IllegalArgumentException("variable not declared in the store: " + ((NodeVariable) node).identifier);
+			code.put(VARIABLE).putShort((short) (int) index);
+			push(depth);
+		} else if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier p = (UnaryNodeIdentifier) node;
+			code = emit(p.child, code, depth);
+			code = ensure(code, 2);
+			code.put(FUNCTION).put((byte) (BUILT_INS.indexOf(p.identifier) + (p.fastMath ? FAST_MATH : 0)));
+		} else if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode p = (LambdaFunctionNode) node;
+			for (Node argument : p.arguments)
+				code = emit(argument, code, depth);
+			Integer id = functionIds.get(p.function);
+			if (id == null) {
+				if (functions.size() > Short.MAX_VALUE)
+					throw new IllegalArgumentException("too many user functions");
+				id = functions.size();
+				functions.add(p.function);
+				functionIds.put(p.function, id);
+			}
+			code = ensure(code, 4);
+			code.put(CALL).putShort((short) (int) id).put((byte) p.arguments.length);
+			if (p.arguments.length == 0)
+				push(depth);
+			else depth[0] -= p.arguments.length - 1;
+		} else if (node instanceof UnaryNode) {
+			code = emit(((UnaryNode) node).child, code, depth);
+			code = ensure(code, 1);
+			code.put(node.type == Type.minus ? NEGATE : NOT);
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			code = emit(p.left, code, depth);
+			if (p.type == Type.and || p.type == Type.or) {
+				code = ensure(code, 5);
+				code.put(p.type == Type.and ? AND : OR);
+				int jump = code.position();
+				code.putInt(0);
+				depth[0]--;
+				code = emit(p.right, code, depth);
+				code.putInt(jump, code.position());
+			} else {
+				code = emit(p.right, code, depth);
+				code = ensure(code, 1);
+				code.put(operator(p.type));
+				depth[0]--;
+			}
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			code = emit(p.left, code, depth);
+			code = ensure(code, 5);
+			code.put(JUMP_FALSE);
+			int jumpFalse = code.position();
+			code.putInt(0);
+			depth[0]--;
+			code = emit(p.center, code, depth);
+			code = ensure(code, 5);
+			code.put(JUMP);
+			int jump = code.position();
+			code.putInt(0);
+			code.putInt(jumpFalse, code.position());
+			depth[0]--;
+			code = emit(p.right, code, depth);
+			code.putInt(jump, code.position());
+		} else if (node instanceof SharedNode) {
+			code = emit(((SharedNode) node).getChild(), code, depth);
+		} else if (node instanceof ScopeNode) {
+			code = emit(((ScopeNode) node).body, code, depth);
+		} else if (node instanceof AdaptiveNode) {
+			code = emit(AdaptiveNode.rebuild(node.type, ((AdaptiveNode) node).getOperands()), code, depth);
+		} else {
+			throw new IllegalArgumentException("unexpected node: " + node.getClass().getSimpleName());
+		}
+		return code;
+	}
+
+	private static double constant(Node node) {
+		Object value = node.evaluate();
+		return value instanceof Boolean ? ((Boolean) value ? 1 : 0) : (Double) value;
+	}
+
+	private static byte operator(Type type) {
+		switch (type) {
+			case add:
+				return ADD;
+			case subtract:
+				return SUBTRACT;
+			case multiply:
+				return MULTIPLY;
+			case divide:
+				return DIVIDE;
+			case power:
+				return POWER;
+			case equal:
+				return EQUAL;
+			case unequal:
+				return UNEQUAL;
+			case lt:
+				return LT;
+			case lte:
+				return LTE;
+			case gt:
+				return GT;
+			case gte:
+				return GTE;
+			default:
+				throw new IllegalArgumentException("unexpected operator: " + type);
+		}
+	}
+
+	private static void push(int[] depth) {
+		depth[0]++;
+		depth[1] = Math.max(depth[1], depth[0]);
+	}
+
+	private static ByteBuffer ensure(ByteBuffer code, int bytes) {
+		if (code.remaining() >= bytes)
+			return code;
+		ByteBuffer bigger = ByteBuffer.allocate(code.capacity() * 2 + bytes).order(ByteOrder.nativeOrder());
+		code.flip();
+		return bigger.put(code);
+	}
+}//end of class OffHeapStore
@@ -0,0 +1,224 @@
+package math;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rewrites a tree into an equivalent tree that is cheaper to evaluate:
+ * - constant subexpressions are folded, including calls to pure, deterministic and non throwing user functions
+ * - repeated calls to pure and deterministic user functions are shared, so that they are evaluated once per evaluation
+ * - optionally, polynomials in one variable are rewritten into Horner form, see PolynomialRewriter
+ * Calls to impure functions are left as they are, so they are still evaluated every time.
+ * The input tree is not modified.
+ */
+
+final class Optimizer {
+	private static final int SHARING_MIN_SAVING = 2;//minimum estimated saving, in arithmetic operations, to share a repeated call
+
+	private Optimizer() {
+	}
+
+	static Node optimize(Node node) {
+		return optimize(node, false);
+	}
+
+	static Node optimize(Node node, boolean polynomialRewriting) {
+		Node folded = fold(node);
+		if (polynomialRewriting)
+			folded = PolynomialRewriter.rewrite(folded);
+		Map<String, Integer> counts = new HashMap<>();
+		countShareableCalls(folded, counts);
+		Map<String, SharedNode> sharedNodes = new HashMap<>();
+		ScopeNode scope = new ScopeNode();
+		Node result = share(folded, counts, sharedNodes, scope);
+		if (sharedNodes.isEmpty())
+			return result;
+		scope.body = result;
+		scope.resultType = result.resultType;
+		return scope;
+	}
+
+//returns a copy of the tree with constant subexpressions replaced by their value
+	static Node fold(Node node) {
+		return fold(node, Collections.emptyMap());
+	}
+
+//as fold(node), replacing the variables found in the map: used to make copies of a tree having their own variables
+	static Node fold(Node node, Map<Variable, Variable> variables) {
+		Node p = copy(node, variables);
+		if (p.position < 0)//a copy or a constant replacing the node, keeps its position and its type
+			p.position = node.position;
+		if (p.resultType == null)
+			p.resultType = node.resultType;
+		return p;
+	}
+
+	private static Node copy(Node node, Map<Variable, Variable> variables) {
+		if (node instanceof NodeDouble) {
+			return new NodeDouble(((NodeDouble) node).num);
+		} else if (node instanceof NodeVariable) {
+			Variable variable = ((NodeVariable) node).getVariable();
+			return new NodeVariable(variables.getOrDefault(variable, variable));
+		} else if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier src = (UnaryNodeIdentifier) node;
+			UnaryNodeIdentifier p = UnaryNodeIdentifier.create(src.identifier, fold(src.child, variables), src.fastMath);
+			return isConstant(p.child) ? constant(p) : p;
+		} else if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode src = (LambdaFunctionNode) node;
+			Node[] arguments = new Node[src.arguments.length];
+			boolean constantArguments = true;
+			for (int i = 0; i < arguments.length; i++) {
+				arguments[i] = fold(src.arguments[i], variables);
+				constantArguments &= isConstant(arguments[i]);
+			}
+			LambdaFunctionNode p = new LambdaFunctionNode(src.identifier, arguments, src.function);
+			return constantArguments && src.function.properties.isFoldable() ? constant(p) : p;
+		} else if (node instanceof NodeIdentifier) {
+			return new NodeIdentifier(((NodeIdentifier) node).identifier);
+		} else if (node instanceof UnaryNode) {
+			UnaryNode p = UnaryNode.create(node.type, fold(((UnaryNode) node).child, variables));
+			return isConstant(p.child) ? constant(p) : p;
+		} else if (node instanceof BinaryNode) {
+			Node left = fold(((BinaryNode) node).left, variables);
+			if ((node.type == Type.and && isLiteral(left, "false")) || (node.type == Type.or && isLiteral(left, "true")))
+				return left;//short circuit, right operand is never evaluated
+			BinaryNode p = BinaryNode.create(node.type, left, fold(((BinaryNode) node).right, variables));
+			return isConstant(p.left) && isConstant(p.right) ? constant(p) : p;
+		} else if (node instanceof TernaryNode) {
+			TernaryNode src = (TernaryNode) node;
+			Node condition = fold(src.left, variables);
+			if (isLiteral(condition, "true"))
+				return fold(src.center, variables);
+			if (isLiteral(condition, "false"))
+				return fold(src.right, variables);
+			TernaryNode p = new TernaryNode(node.type);
+			p.left = condition;
+			p.center = fold(src.center, variables);
+			p.right = fold(src.right, variables);
+			return p;
+		} else if (node instanceof SharedNode) {
+			return fold(((SharedNode) node).getChild(), variables);
+		} else if (node instanceof ScopeNode) {
+			return fold(((ScopeNode) node).body, variables);
+		} else if (node instanceof AdaptiveNode) {
+			return fold(AdaptiveNode.rebuild(node.type, ((AdaptiveNode) node).getOperands()), variables);
+		}
+		throw new IllegalArgumentException("unexpected node: " + node.getClass().getSimpleName());
+	}
+
+	static boolean isConstant(Node node) {
+		if (node instanceof NodeDouble)
+			return true;
+		if (node.getClass() == NodeIdentifier.class) {
+			switch (((NodeIdentifier) node).identifier) {
+				case "PI":
+				case "E":
+				case "true":
+				case "false":
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isLiteral(Node node, String literal) {
+		return node.getClass() == NodeIdentifier.class && ((NodeIdentifier) node).identifier.equals(literal);
+	}
+
+//replaces a node having constant children with its value; errors are left to evaluation time
+	static Node constant(Node node) {
+		try {
+			Object value = node.evaluate();
+			if (value instanceof Boolean)
+				return new NodeIdentifier(value.toString());
+			return new NodeDouble((Double) value);
+		} catch (RuntimeException ex) {
+			return node;
+		}
+	}
+
+	private static boolean isShareable(Node node) {
+		if (!(node instanceof LambdaFunctionNode) || !((LambdaFunctionNode) node).function.properties.isShareable())
+			return false;
+		for (Node argument : ((LambdaFunctionNode) node).arguments) {
+			if (!isFreeOfImpureCalls(argument))
+				return false;
+		}
+		return true;
+	}
+
+	static boolean isFreeOfImpureCalls(Node node) {
+		if (node instanceof LambdaFunctionNode)
+			return isShareable(node);
+		for (Node child : children(node)) {
+			if (!isFreeOfImpureCalls(child))
+				return false;
+		}
+		return true;
+	}
+
+	private static void countShareableCalls(Node node, Map<String, Integer> counts) {
+		if (isShareable(node))
+			counts.merge(key(node), 1, Integer::sum);
+		for (Node child : children(node))
+			countShareableCalls(child, counts);
+	}
+
+//replaces, bottom up, the repeated shareable calls with a single SharedNode; the folded tree is modified in place
+	private static Node share(Node node, Map<String, Integer> counts, Map<String, SharedNode> sharedNodes, ScopeNode scope) {
+		if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier p = (UnaryNodeIdentifier) node;
+			p.child = share(p.child, counts, sharedNodes, scope);
+		} else if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode p = (LambdaFunctionNode) node;
+			for (int i = 0; i < p.arguments.length; i++)
+				p.arguments[i] = share(p.arguments[i], counts, sharedNodes, scope);
+			if (isShareable(p)) {
+				String key = key(p);
+				int count = counts.getOrDefault(key, 1);
+				if (count > 1 && p.function.properties.getCost() * (count - 1) >= SHARING_MIN_SAVING)
+					return sharedNodes.computeIfAbsent(key, k -> new SharedNode(p, scope));
+			}
+		} else if (node instanceof UnaryNode) {
+			UnaryNode p = (UnaryNode) node;
+			p.child = share(p.child, counts, sharedNodes, scope);
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			p.left = share(p.left, counts, sharedNodes, scope);
+			p.right = share(p.right, counts, sharedNodes, scope);
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			p.left = share(p.left, counts, sharedNodes, scope);
+			p.center = share(p.center, counts, sharedNodes, scope);
+			p.right = share(p.right, counts, sharedNodes, scope);
+		}
+		return node;
+	}
+
+	static String key(Node node) {//structural key: equal subtrees have the same representation
+		StringBuilder sb = new StringBuilder();
+		node.visit(sb);
+		return sb.toString();
+	}
+
+	static Node[] children(Node node) {
+		if (node instanceof UnaryNodeIdentifier)
+			return new Node[] {((UnaryNodeIdentifier) node).child};
+		if (node instanceof LambdaFunctionNode)
+			return ((LambdaFunctionNode) node).arguments.clone();
+		if (node instanceof UnaryNode)
+			return new Node[] {((UnaryNode) node).child};
+		if (node instanceof BinaryNode)
+			return new Node[] {((BinaryNode) node).left, ((BinaryNode) node).right};
+		if (node instanceof TernaryNode)
+			return new Node[] {((TernaryNode) node).left, ((TernaryNode) node).center, ((TernaryNode) node).right};
+		if (node instanceof SharedNode)
+			return new Node[] {((SharedNode) node).getChild()};
+		if (node instanceof ScopeNode)
+			return new Node[] {((ScopeNode) node).body};
+		if (node instanceof AdaptiveNode)
+			return ((AdaptiveNode) node).getOperands().toArray(new Node[0]);
+		return new Node[0];
+	}
+}//end of class Optimizer
@@ -0,0 +1,192 @@
+package math;
+
+import java.util.Map;
+
+/**
+ * Partial evaluation: builds the residual tree of an expression for some of its variables fixed to a value, e.g.
+ * k > 5 ? x * k : x / k with k = 2 gives x / 2.0. The fixed variables are replaced by their value, then constant
+ * subexpressions are folded, conditions and and/or operands known from the fixed values are resolved, and the
+ * identities giving the same result for every value are applied: x * 1, x / 1, x - 0, x ^ 1, x ^ 0, --x, !!b,
+ * true and b, b or false... An identity is applied only if its operand is provably a number (a boolean for and, or, !),
+ * and x ^ 0 only if x can't throw, so that the type errors of the original tree are kept. The residual gives the same
+ * results as the original tree evaluated with the fixed values, and is then optimized as by Optimizer.optimize().
+ * The input tree and the fixed variables are not modified.
+ */
+
+final class PartialEvaluator {
+	private final Map<Variable, Double> values;
+
+	private PartialEvaluator(Map<Variable, Double> values) {
+		this.values = values;
+	}
+
+	static Node residual(Node node, Map<Variable, Double> values, boolean polynomialRewriting) {
+		return Optimizer.optimize(new PartialEvaluator(values).visit(node), polynomialRewriting);
+	}
+
+	private Node visit(Node node) {
+		Node p = copy(node);
+		if (p.position < 0)//as Optimizer.fold(): a copy or a constant replacing the node keeps its position and its type
+			p.position = node.position;
+		if (p.resultType == null)
+			p.resultType = node.resultType;
+		return p;
+	}
+
+	private Node copy(Node node) {
+		if (node instanceof NodeVariable) {
+			Variable variable = ((NodeVariable) node).getVariable();
+			Double value = values.get(variable);
+			return value != null ? new NodeDouble(value) : new NodeVariable(variable);
+		} else if (node instanceof NodeDouble) {
+			return new NodeDouble(((NodeDouble) node).num);
+		} else if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier src = (UnaryNodeIdentifier) node;
+			UnaryNodeIdentifier p = UnaryNodeIdentifier.create(src.identifier, visit(src.child), src.fastMath);
+			return Optimizer.isConstant(p.child) ? Optimizer.constant(p) : p;
+		} else if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode src = (LambdaFunctionNode) node;
+			Node[] arguments = new Node[src.arguments.length];
+			boolean constantArguments = true;
+			for (int i = 0; i < arguments.length; i++) {
+				arguments[i] = visit(src.arguments[i]);
+				constantArguments &= Optimizer.isConstant(arguments[i]);
+			}
+			LambdaFunctionNode p = new LambdaFunctionNode(src.identifier, arguments, src.function);
+			return constantArguments && src.function.properties.isFoldable() ? Optimizer.constant(p) : p;
+		} else if (node instanceof NodeIdentifier) {
+			return new NodeIdentifier(((NodeIdentifier) node).identifier);
+		} else if (node instanceof UnaryNode) {
+			Node child = visit(((UnaryNode) node).child);
+			if (child instanceof UnaryNode && child.type == node.type && hasType(((UnaryNode) child).child, node.type == Type.not))
+				return ((UnaryNode) child).child;//--x, !!b: not for operands of the wrong type, whose evaluation throws
+			UnaryNode p = UnaryNode.create(node.type, child);
+			return Optimizer.isConstant(child) ? Optimizer.constant(p) : p;
+		} else if (node instanceof BinaryNode) {
+			return binary(node.type, ((BinaryNode) node).left, ((BinaryNode) node).right);
+		} else if (node instanceof TernaryNode) {
+			TernaryNode src = (TernaryNode) node;
+			Node condition = visit(src.left);
+			if (isLiteral(condition, "true"))
+				return visit(src.center);
+			if (isLiteral(condition, "false"))
+				return visit(src.right);
+			TernaryNode p = new TernaryNode(node.type);
+			p.left = condition;
+			p.center = visit(src.center);
+			p.right = visit(src.right);
+			return p;
+		} else if (node instanceof SharedNode) {
+			return visit(((SharedNode) node).getChild());
+		} else if (node instanceof ScopeNode) {
+			return visit(((ScopeNode) node).body);
+		} else if (node instanceof AdaptiveNode) {
+			return visit(AdaptiveNode.rebuild(node.type, ((AdaptiveNode) node).getOperands()));
+		}
+		throw new IllegalArgumentException("unexpected node: " + node.getClass().getSimpleName());
+	}
+
+	private Node binary(Type type, Node srcLeft, Node srcRight) {
+		Node left = visit(srcLeft);
+		if (type == Type.and || type == Type.or) {
+			boolean neutral = type == Type.and ? isLiteral(left, "true") : isLiteral(left, "false");
+			if (!neutral && (isLiteral(left, "true") || isLiteral(left, "false")))
+				return left;//short circuit, right operand is never evaluated
+			Node right = visit(srcRight);
+			if (neutral && hasType(right, true))
+				return right;
+			if (isLiteral(right, type == Type.and ? "true" : "false") && hasType(left, true))
+				return left;
+			BinaryNode p = BinaryNode.create(type, left, right);
+			return Optimizer.isConstant(left) && Optimizer.isConstant(right) ? Optimizer.constant(p) : p;
+		}
+		Node right = visit(srcRight);
+		if (Optimizer.isConstant(left) && Optimizer.isConstant(right))
+			return Optimizer.constant(BinaryNode.create(type, left, right));
+		if (!hasType(left, false) || !hasType(right, false))//comparisons, or a possible type error left to evaluation
+			return BinaryNode.create(type, left, right);
+		switch (type) {//identities exact for every double, including -0.0, infinities and NaN
+			case multiply:
+				if (isNumber(right, 1))
+					return left;
+				if (isNumber(left, 1))
+					return right;
+				if (isNumber(right, -1))
+					return UnaryNode.create(Type.minus, left);
+				if (isNumber(left, -1))
+					return UnaryNode.create(Type.minus, right);
+				break;
+			case divide:
+				if (isNumber(right, 1))
+					return left;
+				if (isNumber(right, -1))
+					return UnaryNode.create(Type.minus, left);
+				break;
+			case subtract://x - 0.0 is x, x + 0.0 is not: -0.0 + 0.0 is 0.0
+				if (isNumber(right, 0) && Double.doubleToRawLongBits(((NodeDouble) right).num) == 0)
+					return left;
+				break;
+			case power:
+				if (isNumber(right, 1))
+					return left;
+				if (isNumber(right, 0) && !canThrow(left))//x ^ 0 is 1 even for NaN, the calls to user functions are kept
+					return new NodeDouble(1);
+				break;
+		}
+		return BinaryNode.create(type, left, right);
+	}
+
+//true if the value of the node is provably a boolean, or provably a number, whenever its evaluation doesn't throw
+	private static boolean hasType(Node node, boolean bool) {
+		if (node instanceof TernaryNode)//either branch can be taken
+			return hasType(((TernaryNode) node).center, bool) && hasType(((TernaryNode) node).right, bool);
+		if (node.getClass() == NodeIdentifier.class) {//unknown identifiers are neither
+			String identifier = ((NodeIdentifier) node).identifier;
+			return bool ? identifier.equals("true") || identifier.equals("false") : identifier.equals("PI") || identifier.equals("E");
+		}
+		if (node instanceof NodeDouble || node instanceof NodeIdentifier)//variables and functions
+			return !bool;
+		if (node instanceof UnaryNode)
+			return bool == (node.type == Type.not);
+		if (node instanceof BinaryNode)
+			return bool == !isArithmetic(node.type);
+		return false;
+	}
+
+//false if the evaluation of the node provably doesn't throw: no calls to user functions, no unknown identifiers, no type errors
+	private static boolean canThrow(Node node) {
+		if (node instanceof LambdaFunctionNode)
+			return true;
+		if (node.getClass() == NodeIdentifier.class)
+			return !hasType(node, false) && !hasType(node, true);
+		for (Node child : Optimizer.children(node)) {
+			if (canThrow(child))
+				return true;
+		}
+		if (node instanceof UnaryNodeIdentifier)
+			return !hasType(((UnaryNodeIdentifier) node).child, false);
+		if (node instanceof UnaryNode)
+			return !hasType(((UnaryNode) node).child, node.type == Type.not);
+		if (node instanceof BinaryNode) {
+			if (node.type == Type.equal || node.type == Type.unequal)//values of any type are compared
+				return false;
+			boolean bool = node.type == Type.and || node.type == Type.or;
+			return !hasType(((BinaryNode) node).left, bool) || !hasType(((BinaryNode) node).right, bool);
+		}
+		if (node instanceof TernaryNode)
+			return !hasType(((TernaryNode) node).left, true);
+		return !(node instanceof NodeDouble || node instanceof NodeVariable);
+	}
+
+	private static boolean isArithmetic(Type type) {
+		return type == Type.add || type == Type.subtract || type == Type.multiply || type == Type.divide || type == Type.power;
+	}
+
+	private static boolean isNumber(Node node, double value) {
+		return node instanceof NodeDouble && ((NodeDouble) node).num == value;
+	}
+
+	private static boolean isLiteral(Node node, String literal) {
+		return node.getClass() == NodeIdentifier.class && ((NodeIdentifier) node).identifier.equals(literal);
+	}
+}//end of class PartialEvaluator
@@ -0,0 +1,189 @@
+package math;
+
+import java.util.Arrays;
+
+/**
+ * Rewrites the polynomials in one variable into Horner form, e.g. 3 * x^3 - 2 * x^2 + x - 7 into ((3 * x - 2) * x + 1) * x - 7:
+ * a polynomial of degree n is then evaluated with at most n multiplications and n additions.
+ * A polynomial is a maximal subtree made of numbers, PI, E, one variable, +, -, *, unary minus, division by a constant
+ * and powers with a constant non negative integer exponent; runs of zero coefficients become a power of the variable.
+ * A subtree is rewritten only if its degree is at least 2 and the Horner form has fewer nodes. The coefficients are
+ * computed in double arithmetic, so results may differ in the last bits, and for infinite values of the variable where
+ * terms cancel, e.g. x * x - x^2 + x is NaN for x = inf but rewritten as x.
+ * The tree is rewritten in place: it must be a copy, as returned by Optimizer.fold().
+ */
+
+final class PolynomialRewriter {
+	static final int MAX_DEGREE = 32;
+
+	private Variable variable;//variable of the polynomial being expanded, null if none found yet
+
+	private PolynomialRewriter() {
+	}
+
+	static Node rewrite(Node node) {
+		return new PolynomialRewriter().visit(node);
+	}
+
+	private Node visit(Node node) {
+		variable = null;
+		double[] coefficients = expand(node);
+		if (coefficients != null && variable != null && degree(coefficients) >= 2) {
+			Node horner = horner(coefficients, variable, node);
+			if (size(horner) < size(node))
+				return horner;
+		}
+		if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier p = (UnaryNodeIdentifier) node;
+			p.child = visit(p.child);
+		} else if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode p = (LambdaFunctionNode) node;
+			for (int i = 0; i < p.arguments.length; i++)
+				p.arguments[i] = visit(p.arguments[i]);
+		} else if (node instanceof UnaryNode) {
+			UnaryNode p = (UnaryNode) node;
+			p.child = visit(p.child);
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			p.left = visit(p.left);
+			p.right = visit(p.right);
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			p.left = visit(p.left);
+			p.center = visit(p.center);
+			p.right = visit(p.right);
+		}
+		return node;
+	}
+
+//returns the coefficients of the polynomial computed by the tree, lowest degree first, or null if it isn't a polynomial
+	private double[] expand(Node node) {
+		if (Optimizer.isConstant(node)) {
+			Object value = node.evaluate();
+			return value instanceof Double ? new double[] {(Double) value} : null;
+		} else if (node instanceof NodeVariable) {
+			Variable v = ((NodeVariable) node).getVariable();
+			if (variable != null && variable != v)
+				return null;
+			variable = v;
+			return new double[] {0, 1};
+		} else if (node instanceof UnaryNode && node.type == Type.minus) {
+			double[] a = expand(((UnaryNode) node).child);
+			if (a == null)
+				return null;
+			for (int i = 0; i < a.length; i++)
+				a[i] = -a[i];
+			return a;
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			double[] a = expand(p.left);
+			if (a == null)
+				return null;
+			double[] b = expand(p.right);
+			if (b == null)
+				return null;
+			switch (p.type) {
+				case add:
+				case subtract: {
+					double[] c = Arrays.copyOf(a, Math.max(a.length, b.length));
+					for (int i = 0; i < b.length; i++)
+						c[i] = p.type == Type.add ? c[i] + b[i] : c[i] - b[i];
+					return c;
+				}
+				case multiply:
+					return multiply(a, b);
+				case divide://by a non zero constant only
+					if (b.length != 1 || b[0] == 0)
+						return null;
+					for (int i = 0; i < a.length; i++)
+						a[i] = a[i] / b[0];
+					return a;
+				case power: {
+					if (b.length != 1 || b[0] < 0 || b[0] > MAX_DEGREE || (int) b[0] != b[0])
+						return null;
+					double[] c = {1};
+					for (int n = (int) b[0]; n > 0 && c != null; n--)
+						c = multiply(c, a);
+					return c;
+				}
+			}
+		}
+		return null;
+	}
+
+//degree of the polynomial, -1 if a coefficient isn't finite: the rewriting would change the result
+	private static int degree(double[] coefficients) {
+		int degree = 0;
+		for (int i = 0; i < coefficients.length; i++) {
+			if (!Double.isFinite(coefficients[i]))
+				return -1;
+			if (coefficients[i] != 0)
+				degree = i;
+		}
+		return degree;
+	}
+
+	private static double[] multiply(double[] a, double[] b) {
+		if (a.length + b.length - 2 > MAX_DEGREE)
+			return null;
+		double[] c = new double[a.length + b.length - 1];
+		for (int i = 0; i < a.length; i++) {
+			for (int j = 0; j < b.length; j++)
+				c[i + j] += a[i] * b[j];
+		}
+		return c;
+	}
+
+//builds (...(c[n] * x^k + c[i]) * x^k' + ...) * x^k'' + c[0], skipping the zero coefficients
+	private static Node horner(double[] coefficients, Variable variable, Node original) {
+		Node result = null;
+		int gap = 0;//degree of the power of the variable multiplying the result
+		for (int i = degree(coefficients); i >= 0; i--) {
+			double c = coefficients[i];
+			if (result != null && c == 0 && i > 0) {
+				gap++;
+				continue;
+			}
+			if (result == null) {
+				result = number(new NodeDouble(c), original);
+			} else {
+				result = multiply(result, power(variable, gap + 1, original), original);
+				gap = 0;
+				if (c != 0)
+					result = number(BinaryNode.create(c < 0 ? Type.subtract : Type.add, result, number(new NodeDouble(Math.abs(c)), original)), original);
+			}
+		}
+		return result;
+	}
+
+	private static Node power(Variable variable, int n, Node original) {
+		Node x = number(new NodeVariable(variable), original);
+		return n == 1 ? x : number(BinaryNode.create(Type.power, x, number(new NodeDouble(n), original)), original);
+	}
+
+	private static Node multiply(Node left, Node right, Node original) {
+		if (left instanceof NodeDouble) {
+			double c = ((NodeDouble) left).num;
+			if (c == 1)
+				return right;
+			if (c == -1)
+				return number(UnaryNode.create(Type.minus, right), original);
+		}
+		return number(BinaryNode.create(Type.multiply, left, right), original);
+	}
+
+//the nodes of the Horner form are numeric, with the position of the rewritten subtree
+	private static Node number(Node node, Node original) {
+		node.position = original.position;
+		if (original.resultType != null)
+			node.resultType = ResultType.NUMBER;
+		return node;
+	}
+
+	private static int size(Node node) {
+		int size = 1;
+		for (Node child : Optimizer.children(node))
+			size += size(child);
+		return size;
+	}
+}//end of class PolynomialRewriter
@@ -0,0 +1,9 @@
+package math;
+
+/**
+ * Static type of the value of a node, assigned by the type checker
+ */
+
+public enum ResultType {
+	NUMBER, BOOLEAN
+}//end of enum ResultType
@@ -0,0 +1,156 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Set of boolean rules merged into one network: the subexpressions free of impure calls that are equal in different
+ * rules, e.g. predicates like price > 100, become a single SharedNode, so that each distinct subexpression is evaluated
+ * at most once per event. An event is given by the current values of the variables, and match() returns the ids of the
+ * matching rules. Rules can be added and removed at any time: network nodes are reference counted, so only the nodes
+ * of the rule are created or released.
+ * Rules must be parsed by the same parser, as variables and functions are identified by name.
+ * The rule set is not thread safe.
+ */
+
+public final class RuleSet {
+	private static final class Entry {//network node, referenced by rules or by other network nodes
+		final String key;
+		final SharedNode node;
+		final List<Entry> children;
+		int references = 1;
+
+		Entry(String key, SharedNode node, List<Entry> children) {
+			this.key = key;
+			this.node = node;
+			this.children = children;
+		}
+	}
+
+	private final ScopeNode scope = new ScopeNode();
+	private final Map<String, Entry> network = new HashMap<>();
+	private final Map<Integer, Integer> positions = new HashMap<>();//rule id -> index in the arrays below
+	private int[] ids = new int[16];
+	private Node[] roots = new Node[16];
+	private Entry[][] references = new Entry[16][];//network nodes referenced directly by each rule
+	private int size = 0;
+
+//adds a rule, replacing the rule having the same id if any
+	public void addRule(int id, Node rule) {
+		if (id < 0)
+			throw new IllegalArgumentException("rule id must be non negative: " + id);
+		if (!IntervalEvaluator.isBoolean(rule))
+			throw new IllegalArgumentException("rule is not a boolean expression: " + Optimizer.key(rule));
+		removeRule(id);
+		List<Entry> entries = new ArrayList<>();
+		Node root = link(Optimizer.fold(rule), entries);
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, size * 2);
+			roots = Arrays.copyOf(roots, size * 2);
+			references = Arrays.copyOf(references, size * 2);
+		}
+		ids[size] = id;
+		roots[size] = root;
+		references[size] = entries.toArray(new Entry[0]);
+		positions.put(id, size++);
+	}
+
+//removes a rule, returns false if there is no rule with such id
+	public boolean removeRule(int id) {
+		Integer position = positions.remove(id);
+		if (position == null)
+			return false;
+		for (Entry entry : references[position])
+			release(entry);
+		size--;
+		if (position != size) {//moves the last rule in place of the removed one
+			ids[position] = ids[size];
+			roots[position] = roots[size];
+			references[position] = references[size];
+			positions.put(ids[position], position);
+		}
+		roots[size] = null;
+		references[size] = null;
+		return true;
+	}
+
+//evaluates the rules against the current values of the variables, returns the ids of the matching rules
+	public BitSet match() {
+		scope.generation++;//new event: cached values are stale
+		BitSet matches = new BitSet();
+		for (int i = 0; i < size; i++) {
+			if (roots[i].evaluateBoolean())
+				matches.set(ids[i]);
+		}
+		return matches;
+	}
+
+	public boolean contains(int id) {
+		return positions.containsKey(id);
+	}
+
+	public int getRuleCount() {
+		return size;
+	}
+
+//returns the number of distinct subexpressions in the network
+	public int getNetworkSize() {
+		return network.size();
+	}
+
+//replaces, bottom up, the subexpressions free of impure calls with network nodes; the copy of the rule is modified in place
+	private Node link(Node node, List<Entry> entries) {
+		if (Optimizer.children(node).length == 0)
+			return node;//leaves are cheaper to evaluate than to share
+		boolean shareable = Optimizer.isFreeOfImpureCalls(node);
+		String key = null;
+		if (shareable) {
+			key = Optimizer.key(node);
+			Entry entry = network.get(key);
+			if (entry != null) {
+				entry.references++;
+				entries.add(entry);
+				return entry.node;
+			}
+		}
+		List<Entry> children = shareable ? new ArrayList<>() : entries;
+		if (node instanceof UnaryNodeIdentifier) {
+			UnaryNodeIdentifier p = (UnaryNodeIdentifier) node;
+			p.child = link(p.child, children);
+		} else if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode p = (LambdaFunctionNode) node;
+			for (int i = 0; i < p.arguments.length; i++)
+				p.arguments[i] = link(p.arguments[i], children);
+		} else if (node instanceof UnaryNode) {
+			UnaryNode p = (UnaryNode) node;
+			p.child = link(p.child, children);
+		} else if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			p.left = link(p.left, children);
+			p.right = link(p.right, children);
+		} else if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			p.left = link(p.left, children);
+			p.center = link(p.center, children);
+			p.right = link(p.right, children);
+		}
+		if (!shareable)
+			return node;
+		Entry entry = new Entry(key, new SharedNode(node, scope), children);
+		network.put(key, entry);
+		entries.add(entry);
+		return entry.node;
+	}
+
+	private void release(Entry entry) {
+		if (--entry.references > 0)
+			return;
+		network.remove(entry.key);
+		for (Entry child : entry.children)
+			release(child);
+	}
+}//end of class RuleSet
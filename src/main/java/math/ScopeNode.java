@@ -0,0 +1,47 @@
+package math;
+
+/**
+ * Root node created by optimize() when some subexpressions are shared: each evaluation of the scope starts a new
+ * generation, so that every SharedNode of the scope is evaluated at most once per evaluation
+ */
+
+public class ScopeNode extends Node {
+	protected Node body;
+	int generation = 0;
+
+	ScopeNode() {
+		super(Type.scope);
+	}
+
+    @Override
+	public Object evaluate() {
+		generation++;
+		return body.evaluate();
+	}
+
+    @Override
+	public double evaluateDouble() {
+		generation++;
+		return body.evaluateDouble();
+	}
+
+    @Override
+	public boolean evaluateBoolean() {
+		generation++;
+		return body.evaluateBoolean();
+	}
+
+    @Override
+	public void visit(StringBuilder sb) {
+		body.visit(sb);
+	}
+
+	public Node getBody() {
+		return body;
+	}
+
+    @Override
+	public String getNodeAsString() {
+		return body.getNodeAsString();
+	}
+}//end of class ScopeNode
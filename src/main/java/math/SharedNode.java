@@ -0,0 +1,68 @@
+package math;
+
+/**
+ * Node element standing for all the occurrences of a subexpression free of impure calls, e.g. a repeated call to
+ * a pure and deterministic function: the subexpression is evaluated on first use in each evaluation of its scope,
+ * then the cached value is returned
+ */
+
+public class SharedNode extends Node {
+	private final Node child;
+	private final ScopeNode scope;
+	private final boolean bool;//true if the subexpression is boolean
+	private int generation;
+	private double value;
+	private boolean booleanValue;
+
+	SharedNode(Node child, ScopeNode scope) {
+		super(Type.shared);
+		this.child = child;
+		this.scope = scope;
+		this.bool = IntervalEvaluator.isBoolean(child);
+		this.resultType = child.resultType;
+		this.generation = scope.generation - 1;
+	}
+
+    @Override
+	public Object evaluate() {
+		if (bool)
+			return evaluateBoolean();
+		return evaluateDouble();
+	}
+
+    @Override
+	public double evaluateDouble() {
+		if (bool)
+			return (Double) evaluate();
+		if (generation != scope.generation) {
+			value = child.evaluateDouble();
+			generation = scope.generation;
+		}
+		return value;
+	}
+
+    @Override
+	public boolean evaluateBoolean() {
+		if (!bool)
+			return (Boolean) evaluate();
+		if (generation != scope.generation) {
+			booleanValue = child.evaluateBoolean();
+			generation = scope.generation;
+		}
+		return booleanValue;
+	}
+
+    @Override
+	public void visit(StringBuilder sb) {
+		child.visit(sb);
+	}
+
+	public Node getChild() {
+		return child;
+	}
+
+    @Override
+	public String getNodeAsString() {
+		return child.getNodeAsString();
+	}
+}//end of class SharedNode
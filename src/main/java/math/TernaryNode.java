@@ -21,13 +21,23 @@ public class TernaryNode extends Node {
 	public Object evaluate() {
         //will never happen
         if (Objects.requireNonNull(type) == Type.conditional_expression) {
-            if ((Boolean) left.evaluate())
+            if (left.evaluateBoolean())
                 return center.evaluate();
             else return right.evaluate();
         }
         throw new RuntimeException("unexpected type: " + type);
     }
 
+    @Override
+	public double evaluateDouble() {
+		return left.evaluateBoolean() ? center.evaluateDouble() : right.evaluateDouble();
+	}
+
+    @Override
+	public boolean evaluateBoolean() {
+		return left.evaluateBoolean() ? center.evaluateBoolean() : right.evaluateBoolean();
+	}
+
 	public void visit(StringBuilder sb) {
         if (Objects.requireNonNull(type) == Type.conditional_expression) {
 			sb.append('(');
@@ -0,0 +1,323 @@
+package math;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Parsed expression evaluated in tiers, to pay the cost of optimizing and compiling only for the expressions used often:
+ * it starts with the parsed tree, counts the evaluations and, once they reach a threshold, builds the next tier on
+ * the executor: an optimized copy of the tree, then a class generated by JavaSourceGenerator and compiled in memory.
+ * The new tier replaces the current one atomically; evaluations never wait for a tier to be built.
+ * The evaluations are counted without synchronization, so the thresholds are approximate with concurrent callers.
+ * Compilation needs the compiler of a JDK and an expression without user functions: if it fails, the expression stays
+ * in the optimized tier and getCompilationError() returns the cause. Each compiled expression has its own class loader,
+ * so its class is unloaded when the expression is no longer used.
+ */
+
+public final class TieredExpression {
+	public enum Tier {INTERPRETED, OPTIMIZED, COMPILED}
+
+	private static final class State {//implementation of a tier, replaced as a whole
+		final Tier tier;
+		final Node node;//null in the compiled tier
+		final ToDoubleFunction<Variable[]> compiled;
+		final Variable[] parameters;
+
+		State(Tier tier, Node node, ToDoubleFunction<Variable[]> compiled, Variable[] parameters) {
+			this.tier = tier;
+			this.node = node;
+			this.compiled = compiled;
+			this.parameters = parameters;
+		}
+	}
+
+	private static final AtomicLong classes = new AtomicLong();
+	private static volatile ExecutorService defaultExecutor;
+
+	private final Node expression;
+	private final Executor executor;
+	private final EnumMap<Tier, LongAdder> invocations = new EnumMap<>(Tier.class);
+	private final EnumMap<Tier, Long> buildNanos = new EnumMap<>(Tier.class);
+	private final AtomicBoolean promoting = new AtomicBoolean();
+	private volatile State state;
+	private volatile Throwable compilationError;
+	private boolean booleanResult;
+	private int optimizeThreshold = 100;
+	private int compileThreshold = 10_000;
+	private int calls;//evaluations, counted without synchronization
+	private volatile int nextThreshold = optimizeThreshold;
+
+	public TieredExpression(Node expression) {
+		this(expression, null);
+	}
+
+//'executor' builds the tiers, null for a shared daemon thread
+	public TieredExpression(Node expression, Executor executor) {
+		this.expression = expression;
+		this.executor = executor;
+		for (Tier tier : Tier.values())
+			invocations.put(tier, new LongAdder());
+		state = new State(Tier.INTERPRETED, expression, null, null);
+	}
+
+//sets the numbers of evaluations after which the expression is optimized and compiled, Integer.MAX_VALUE to never do it
+	public synchronized void setThresholds(int optimize, int compile) {
+		if (optimize < 0 || compile < optimize)
+			throw new IllegalArgumentException("thresholds must be 0 <= optimize <= compile: " + optimize + ", " + compile);
+		optimizeThreshold = optimize;
+		compileThreshold = compile;
+		nextThreshold = state.tier == Tier.INTERPRETED ? optimize : state.tier == Tier.OPTIMIZED ? compile : Integer.MAX_VALUE;
+	}
+
+	public Object evaluate() {
+		State s = enter();
+		if (s.compiled == null)
+			return s.node.evaluate();
+		double result = s.compiled.applyAsDouble(s.parameters);
+		if (booleanResult)
+			return result != 0;
+		return result;
+	}
+
+	public double evaluateDouble() {
+		State s = enter();
+		if (s.compiled == null)
+			return s.node.evaluateDouble();
+		if (booleanResult)
+			throw new ClassCastException("boolean expression");
+		return s.compiled.applyAsDouble(s.parameters);
+	}
+
+	public boolean evaluateBoolean() {
+		State s = enter();
+		if (s.compiled == null)
+			return s.node.evaluateBoolean();
+		if (!booleanResult)
+			throw new ClassCastException("numeric expression");
+		return s.compiled.applyAsDouble(s.parameters) != 0;
+	}
+
+	public Tier getTier() {
+		return state.tier;
+	}
+
+	public long getInvocations(Tier tier) {//evaluations made in the tier
+		return invocations.get(tier).sum();
+	}
+
+	public synchronized long getBuildNanos(Tier tier) {//time spent building the tier, 0 if not built
+		return buildNanos.getOrDefault(tier, 0L);
+	}
+
+	public Throwable getCompilationError() {//cause of the failed compilation, null if not failed
+		return compilationError;
+	}
+
+	public Node getExpression() {
+		return expression;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(state.tier.name());
+		for (Tier tier : Tier.values())
+			sb.append(", ").append(tier.name().toLowerCase()).append(' ').append(getInvocations(tier));
+		return sb.toString();
+	}
+
+//returns true if the compiled tier can be used in this runtime
+	public static boolean isCompilerAvailable() {
+		return ToolProvider.getSystemJavaCompiler() != null;
+	}
+
+	private State enter() {
+		State s = state;
+		invocations.get(s.tier).increment();
+		if (++calls >= nextThreshold && promoting.compareAndSet(false, true)) {
+			try {
+				(executor != null ? executor : defaultExecutor()).execute(this::promote);
+			} catch (RejectedExecutionException ex) {
+				promoting.set(false);
+			}
+		}
+		return s;
+	}
+
+	private void promote() {
+		try {
+			State s = state;
+			if (s.tier == Tier.INTERPRETED) {
+				long start = System.nanoTime();
+				State optimized = new State(Tier.OPTIMIZED, Optimizer.optimize(expression), null, null);
+				built(Tier.OPTIMIZED, System.nanoTime() - start);
+				state = s = optimized;
+			}
+			if (s.tier == Tier.OPTIMIZED && calls >= compileThreshold) {
+				long start = System.nanoTime();
+				try {
+					State compiled = compile();
+					built(Tier.COMPILED, System.nanoTime() - start);
+					state = compiled;
+				} catch (Exception | LinkageError ex) {
+					compilationError = ex;
+				}
+			}
+			synchronized (this) {
+				Tier tier = state.tier;
+				nextThreshold = tier == Tier.OPTIMIZED && compilationError == null ? compileThreshold : tier == Tier.INTERPRETED ? optimizeThreshold : Integer.MAX_VALUE;
+			}
+		} finally {
+			promoting.set(false);
+		}
+	}
+
+	private synchronized void built(Tier tier, long nanos) {
+		buildNanos.put(tier, nanos);
+	}
+
+	private State compile() throws Exception {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null)
+			throw new IllegalStateException("no Java compiler in this runtime");
+		Set<Variable> variables = new LinkedHashSet<>();
+		collectVariables(expression, variables);
+		String className = "Expression" + classes.incrementAndGet();
+		JavaSourceGenerator generator = new JavaSourceGenerator("tiered", className, variables.toArray(new Variable[0]));
+		Node tree = Optimizer.fold(expression);//a copy, so that the type checker doesn't change the evaluated tree
+		generator.add("evaluate", tree);
+		booleanResult = tree.resultType == ResultType.BOOLEAN;
+		List<Variable> parameters = generator.getParameters("evaluate");
+		StringBuilder adapter = new StringBuilder();
+		adapter.append("package tiered;\n\npublic final class ").append(className).append("Adapter implements java.util.function.ToDoubleFunction<math.Variable[]> {\n");
+		adapter.append("    public double applyAsDouble(math.Variable[] v) {\n        return ").append(booleanResult ? "(" : "").append(className).append(".evaluate(");
+		for (int i = 0; i < parameters.size(); i++)
+			adapter.append(i > 0 ? ", " : "").append("v[").append(i).append("].get()");
+		adapter.append(booleanResult ? ") ? 1 : 0);\n" : ");\n").append("    }\n}\n");
+
+		Map<String, ByteArrayOutputStream> bytecode = new HashMap<>();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		try (StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, null)) {
+			JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(standard) {
+				@Override
+				public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind, FileObject sibling) {
+					return new SimpleJavaFileObject(URI.create("memory:///" + name.replace('.', '/') + kind.extension), kind) {
+						@Override
+						public OutputStream openOutputStream() {
+							ByteArrayOutputStream stream = new ByteArrayOutputStream();
+							bytecode.put(name, stream);
+							return stream;
+						}
+					};
+				}
+			};
+			List<JavaFileObject> sources = List.of(source(generator.getClassName(), generator.generate()), source("tiered." + className + "Adapter", adapter.toString()));
+			List<String> options = List.of("-classpath", classPath(), "-g:none");
+			if (!compiler.getTask(null, files, diagnostics, options, null, sources).call()) {
+				StringBuilder message = new StringBuilder("compilation failed");
+				for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+					message.append("\n").append(diagnostic.getMessage(null));
+				throw new IllegalStateException(message.toString());
+			}
+		}
+		ClassLoader loader = new ClassLoader(TieredExpression.class.getClassLoader()) {
+			@Override
+			protected Class<?> findClass(String name) throws ClassNotFoundException {
+				ByteArrayOutputStream stream = bytecode.get(name);
+				if (stream == null)
+					throw new ClassNotFoundException(name);
+				byte[] bytes = stream.toByteArray();
+				return defineClass(name, bytes, 0, bytes.length);
+			}
+		};
+		@SuppressWarnings("unchecked")
+		ToDoubleFunction<Variable[]> compiled = (ToDoubleFunction<Variable[]>) loader.loadClass("tiered." + className + "Adapter").getDeclaredConstructor().newInstance();
+		return new State(Tier.COMPILED, null, compiled, parameters.toArray(new Variable[0]));
+	}
+
+	private static JavaFileObject source(String className, String code) {
+		return new SimpleJavaFileObject(URI.create("memory:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return code;
+			}
+		};
+	}
+
+	private static String classPath() {//location of the library, for math.Variable, and the class path of the application
+		List<String> paths = new ArrayList<>();
+		try {
+			paths.add(new File(Variable.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+		} catch (Exception ex) {//no code source, e.g. a custom class loader: only the class path
+		}
+		paths.add(System.getProperty("java.class.path"));
+		return String.join(File.pathSeparator, paths);
+	}
+
+	private static void collectVariables(Node node, Set<Variable> variables) {
+		if (node instanceof NodeVariable) {
+			variables.add(((NodeVariable) node).getVariable());
+		} else if (node instanceof UnaryNodeIdentifier) {
+			collectVariables(((UnaryNodeIdentifier) node).child, variables);
+		} else if (node instanceof LambdaFunctionNode) {
+			for (Node argument : ((LambdaFunctionNode) node).arguments)
+				collectVariables(argument, variables);
+		} else if (node instanceof UnaryNode) {
+			collectVariables(((UnaryNode) node).child, variables);
+		} else if (node instanceof BinaryNode) {
+			collectVariables(((BinaryNode) node).left, variables);
+			collectVariables(((BinaryNode) node).right, variables);
+		} else if (node instanceof TernaryNode) {
+			collectVariables(((TernaryNode) node).left, variables);
+			collectVariables(((TernaryNode) node).center, variables);
+			collectVariables(((TernaryNode) node).right, variables);
+		} else if (node instanceof SharedNode) {
+			collectVariables(((SharedNode) node).getChild(), variables);
+		} else if (node instanceof ScopeNode) {
+			collectVariables(((ScopeNode) node).body, variables);
+		} else if (node instanceof AdaptiveNode) {
+			for (Node operand : ((AdaptiveNode) node).getOperands())
+				collectVariables(operand, variables);
+		}
+	}
+
+	private static Executor defaultExecutor() {
+		if (defaultExecutor == null) {
+			synchronized (TieredExpression.class) {
+				if (defaultExecutor == null)
+					defaultExecutor = Executors.newSingleThreadExecutor(task -> {
+						Thread thread = new Thread(task, "tiered-expression");
+						thread.setDaemon(true);
+						return thread;
+					});
+			}
+		}
+		return defaultExecutor;
+	}
+}//end of class TieredExpression
@@ -39,7 +39,7 @@ public class Tokenizer {
             else if (Character.isLetter(ch)) {
                 tokens.add(readIdentifierOrKeyword());
             } 
-            // Handle Operators and Structural Symbols (?, :, (, ), ==, !=, etc.)
+            // Handle Operators and Structural Symbols (?, :, ,, (, ), ==, !=, etc.)
             else {
                 tokens.add(readOperatorOrSymbol());
             }
@@ -92,10 +92,12 @@ public class Tokenizer {
             case '-': return new Token(Type.subtract, "-", start);
             case '*': return new Token(Type.multiply, "*", start);
             case '/': return new Token(Type.divide, "/", start);
+            case '^': return new Token(Type.power, "^", start);
             case '(': return new Token(Type.lparen, "(", start);
             case ')': return new Token(Type.rparen, ")", start);
             case '?': return new Token(Type.question, "?", start);
             case ':': return new Token(Type.colon, ":", start);
+            case ',': return new Token(Type.comma, ",", start);
             case '!':
                 if (match('=')) return new Token(Type.unequal, "!=", start);
                 return new Token(Type.not, "!", start);
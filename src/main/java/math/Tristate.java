@@ -0,0 +1,33 @@
+package math;
+
+/**
+ * Result of a boolean expression evaluated over ranges of values: definitely true, definitely false, or unknown
+ */
+
+public enum Tristate {
+	TRUE, FALSE, UNKNOWN;
+
+	public static Tristate of(boolean value) {
+		return value ? TRUE : FALSE;
+	}
+
+	public Tristate not() {
+		return this == TRUE ? FALSE : this == FALSE ? TRUE : UNKNOWN;
+	}
+
+	public Tristate and(Tristate other) {
+		if (this == FALSE || other == FALSE)
+			return FALSE;
+		return this == TRUE && other == TRUE ? TRUE : UNKNOWN;
+	}
+
+	public Tristate or(Tristate other) {
+		if (this == TRUE || other == TRUE)
+			return TRUE;
+		return this == FALSE && other == FALSE ? FALSE : UNKNOWN;
+	}
+
+	Tristate merge(Tristate other) {//either of the two values
+		return this == other ? this : UNKNOWN;
+	}
+}//end of enum Tristate
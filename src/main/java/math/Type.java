@@ -11,6 +11,7 @@ public enum Type {
     subtract,           // -
     multiply,           // *
     divide,             // /
+    power,              // ^
     minus,              // Unary minus
 
     // Logical Operators
@@ -31,8 +32,11 @@ public enum Type {
     rparen,             // )
     question,           // ?
     colon,              // :
+    comma,              // , (argument separator)
     eof,                // End of file marker
 
     // Complex Nodes
-    conditional_expression // Ternary ?:
+    conditional_expression, // Ternary ?:
+    scope,              // Evaluation scope of shared subexpressions
+    shared              // Subexpression evaluated once per scope
 }
\ No newline at end of file
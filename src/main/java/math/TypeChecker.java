@@ -0,0 +1,115 @@
+package math;
+
+import java.text.ParseException;
+
+/**
+ * Assigns each node of a tree its static result type, number or boolean, and reports type errors, such as true + 1,
+ * as ParseException at the offset of the wrong operand. Rules:
+ * - arithmetic operators, relational operators and functions take numbers
+ * - and, or, ! take booleans; == and != take two operands of the same type
+ * - the condition of ?: is boolean, and both branches have the same type
+ * - identifiers must be constants or declared variables
+ * Nodes of checked trees evaluate without boxing where the untyped path needs it, e.g. == and != of numbers.
+ */
+
+final class TypeChecker {
+	private TypeChecker() {
+	}
+
+	static ResultType check(Node node) throws ParseException {
+		node.resultType = infer(node);
+		return node.resultType;
+	}
+
+	private static ResultType infer(Node node) throws ParseException {
+		if (node instanceof NodeDouble || node instanceof NodeVariable)
+			return ResultType.NUMBER;
+		if (node instanceof UnaryNodeIdentifier) {
+			expect(((UnaryNodeIdentifier) node).child, ResultType.NUMBER, "Function '" + ((UnaryNodeIdentifier) node).identifier + "'");
+			return ResultType.NUMBER;
+		}
+		if (node instanceof LambdaFunctionNode) {
+			LambdaFunctionNode call = (LambdaFunctionNode) node;
+			for (int i = 0; i < call.arguments.length; i++) {
+				if (check(call.arguments[i]) != ResultType.NUMBER)
+					throw new ParseException("Function '" + call.identifier + "' expects numeric arguments, but argument " + (i + 1) + " is not numeric", offset(call.arguments[i]));
+			}
+			return ResultType.NUMBER;
+		}
+		if (node instanceof NodeIdentifier) {
+			switch (((NodeIdentifier) node).identifier) {
+				case "PI":
+				case "E":
+					return ResultType.NUMBER;
+				case "true":
+				case "false":
+					return ResultType.BOOLEAN;
+				default:
+					throw new ParseException("Unknown identifier: " + ((NodeIdentifier) node).identifier, offset(node));
+			}
+		}
+		if (node instanceof UnaryNode) {
+			ResultType type = node.type == Type.not ? ResultType.BOOLEAN : ResultType.NUMBER;
+			expect(((UnaryNode) node).child, type, "Operator '" + node.getNodeAsString() + "'");
+			return type;
+		}
+		if (node instanceof BinaryNode) {
+			BinaryNode p = (BinaryNode) node;
+			String operator = "Operator '" + p.getNodeAsString() + "'";
+			switch (p.type) {
+				case add:
+				case subtract:
+				case multiply:
+				case divide:
+				case power:
+					expect(p.left, ResultType.NUMBER, operator);
+					expect(p.right, ResultType.NUMBER, operator);
+					return ResultType.NUMBER;
+				case and:
+				case or:
+					expect(p.left, ResultType.BOOLEAN, operator);
+					expect(p.right, ResultType.BOOLEAN, operator);
+					return ResultType.BOOLEAN;
+				case equal:
+				case unequal:
+					expect(p.right, check(p.left), operator + " with a " + name(p.left.resultType) + " operand");
+					return ResultType.BOOLEAN;
+				default:
+					expect(p.left, ResultType.NUMBER, operator);
+					expect(p.right, ResultType.NUMBER, operator);
+					return ResultType.BOOLEAN;
+			}
+		}
+		if (node instanceof TernaryNode) {
+			TernaryNode p = (TernaryNode) node;
+			expect(p.left, ResultType.BOOLEAN, "Condition of '?'");
+			ResultType type = check(p.center);
+			expect(p.right, type, "Conditional expression with a " + name(type) + " branch");
+			return type;
+		}
+		if (node instanceof SharedNode)
+			return check(((SharedNode) node).getChild());
+		if (node instanceof ScopeNode)
+			return check(((ScopeNode) node).body);
+		if (node instanceof AdaptiveNode) {
+			for (Node operand : ((AdaptiveNode) node).getOperands())
+				expect(operand, ResultType.BOOLEAN, "Operator '" + node.getNodeAsString() + "'");
+			return ResultType.BOOLEAN;
+		}
+		throw new IllegalArgumentException("unexpected node: " + node.getClass().getSimpleName());
+	}
+
+	private static void expect(Node node, ResultType expected, String context) throws ParseException {
+		ResultType type = check(node);
+		if (type != expected)
+			throw new ParseException(context + " expects a " + name(expected) + ", but got a " + name(type), offset(node));
+	}
+
+	private static String name(ResultType type) {
+		return type == ResultType.NUMBER ? "number" : "boolean";
+	}
+
+	private static int offset(Node node) {
+		return Math.max(node.position, 0);
+	}
+}//end of class TypeChecker
@@ -16,14 +16,28 @@ public class UnaryNode extends Node {
 	public Object evaluate() {
 		switch(type) {
 			case minus:
-				return -(Double)child.evaluate();
+				return evaluateDouble();
 			case not:
-				return !(Boolean)child.evaluate();
+				return evaluateBoolean();
 			default://will never happen
 				throw new RuntimeException("unexpected type: " + type);
 		}
 	}
 
+    @Override
+	public double evaluateDouble() {
+		if (type == Type.minus)
+			return -child.evaluateDouble();
+		return (Double) evaluate();
+	}
+
+    @Override
+	public boolean evaluateBoolean() {
+		if (type == Type.not)
+			return !child.evaluateBoolean();
+		return (Boolean) evaluate();
+	}
+
     @Override
 	public void visit(StringBuilder sb) {
 		switch(type) {
@@ -40,6 +54,55 @@ public class UnaryNode extends Node {
 		}
 	}
 
+//returns the node of the operator specialized for it, with the given child
+	static UnaryNode create(Type type, Node child) {
+		UnaryNode p;
+		switch (type) {
+			case minus:
+				p = new Minus();
+				break;
+			case not:
+				p = new Not();
+				break;
+			default:
+				throw new IllegalArgumentException("not a unary operator: " + type);
+		}
+		p.child = child;
+		return p;
+	}
+
+	private static final class Minus extends UnaryNode {
+		Minus() {
+			super(Type.minus);
+		}
+
+		@Override
+		public Object evaluate() {
+			return evaluateDouble();
+		}
+
+		@Override
+		public double evaluateDouble() {
+			return -child.evaluateDouble();
+		}
+	}
+
+	private static final class Not extends UnaryNode {
+		Not() {
+			super(Type.not);
+		}
+
+		@Override
+		public Object evaluate() {
+			return evaluateBoolean();
+		}
+
+		@Override
+		public boolean evaluateBoolean() {
+			return !child.evaluateBoolean();
+		}
+	}
+
 	public Node getChild() {
 		return child;
 	}
@@ -10,6 +10,9 @@ public class UnaryNodeIdentifier extends NodeIdentifier {
     public final static Set<String> functionSet = Set.of("sin", "cos", "tan", "sqrt", "log", "exp");
 
 	protected Node child;
+	boolean fastMath;//true to evaluate with the approximations of FastMath
+	boolean generic;//set() changed the function of a specialized node: it is evaluated by the switch of this class
+	boolean pooled;//shared by the expressions of a NodePool: set() is not allowed
 
 	UnaryNodeIdentifier(String identifier) {
 		super(identifier);
@@ -19,19 +22,24 @@ public class UnaryNodeIdentifier extends NodeIdentifier {
 
     @Override
 	public Object evaluate() {
+		return evaluateDouble();
+	}
+
+    @Override
+	public double evaluateDouble() {
         switch (identifier) {
             case "sin":
-                return Math.sin((Double) child.evaluate());
+                return fastMath ? FastMath.sin(child.evaluateDouble()) : Math.sin(child.evaluateDouble());
             case "cos":
-                return Math.cos((Double) child.evaluate());
+                return fastMath ? FastMath.cos(child.evaluateDouble()) : Math.cos(child.evaluateDouble());
             case "tan":
-                return Math.tan((Double) child.evaluate());
+                return fastMath ? FastMath.tan(child.evaluateDouble()) : Math.tan(child.evaluateDouble());
             case "log":
-                return Math.log((Double) child.evaluate());
+                return fastMath ? FastMath.log(child.evaluateDouble()) : Math.log(child.evaluateDouble());
             case "exp":
-                return Math.exp((Double) child.evaluate());
+                return fastMath ? FastMath.exp(child.evaluateDouble()) : Math.exp(child.evaluateDouble());
             case "sqrt":
-                return Math.sqrt((Double) child.evaluate());
+                return Math.sqrt(child.evaluateDouble());//a hardware instruction, also in fast math mode
             default:
                 throw new RuntimeException("unknown identifier: " + identifier);
         }
@@ -45,13 +53,130 @@ public class UnaryNodeIdentifier extends NodeIdentifier {
 		sb.append(')');
 	}
 
+//changes the function of the node, also of a node specialized for a function by create()
 	public void set(String identifier) {
 		if (!functionSet.contains(identifier))
 			throw new IllegalArgumentException("unknown identifier: " + identifier);
+		if (pooled)
+			throw new IllegalStateException("the function is shared by the expressions of a node pool");
+		if (!identifier.equals(this.identifier))
+			generic = getClass() != UnaryNodeIdentifier.class;
 		this.identifier = identifier;
 	}
 
+//returns the node specialized for the built-in function, with the given argument
+	static UnaryNodeIdentifier create(String identifier, Node child, boolean fastMath) {
+		UnaryNodeIdentifier p;
+		switch (identifier) {
+			case "sin":
+				p = new Sin();
+				break;
+			case "cos":
+				p = new Cos();
+				break;
+			case "tan":
+				p = new Tan();
+				break;
+			case "log":
+				p = new Log();
+				break;
+			case "exp":
+				p = new Exp();
+				break;
+			case "sqrt":
+				p = new Sqrt();
+				break;
+			default:
+				throw new IllegalArgumentException("unknown identifier: " + identifier);
+		}
+		p.child = child;
+		p.fastMath = fastMath;
+		return p;
+	}
+
+	private static final class Sin extends UnaryNodeIdentifier {
+		Sin() {
+			super("sin");
+		}
+
+		@Override
+		public double evaluateDouble() {
+			if (generic)
+				return super.evaluateDouble();
+			return fastMath ? FastMath.sin(child.evaluateDouble()) : Math.sin(child.evaluateDouble());
+		}
+	}
+
+	private static final class Cos extends UnaryNodeIdentifier {
+		Cos() {
+			super("cos");
+		}
+
+		@Override
+		public double evaluateDouble() {
+			if (generic)
+				return super.evaluateDouble();
+			return fastMath ? FastMath.cos(child.evaluateDouble()) : Math.cos(child.evaluateDouble());
+		}
+	}
+
+	private static final class Tan extends UnaryNodeIdentifier {
+		Tan() {
+			super("tan");
+		}
+
+		@Override
+		public double evaluateDouble() {
+			if (generic)
+				return super.evaluateDouble();
+			return fastMath ? FastMath.tan(child.evaluateDouble()) : Math.tan(child.evaluateDouble());
+		}
+	}
+
+	private static final class Log extends UnaryNodeIdentifier {
+		Log() {
+			super("log");
+		}
+
+		@Override
+		public double evaluateDouble() {
+			if (generic)
+				return super.evaluateDouble();
+			return fastMath ? FastMath.log(child.evaluateDouble()) : Math.log(child.evaluateDouble());
+		}
+	}
+
+	private static final class Exp extends UnaryNodeIdentifier {
+		Exp() {
+			super("exp");
+		}
+
+		@Override
+		public double evaluateDouble() {
+			if (generic)
+				return super.evaluateDouble();
+			return fastMath ? FastMath.exp(child.evaluateDouble()) : Math.exp(child.evaluateDouble());
+		}
+	}
+
+	private static final class Sqrt extends UnaryNodeIdentifier {
+		Sqrt() {
+			super("sqrt");
+		}
+
+		@Override
+		public double evaluateDouble() {
+			if (generic)
+				return super.evaluateDouble();
+			return Math.sqrt(child.evaluateDouble());
+		}
+	}
+
 	public Node getChild() {
 		return child;
 	}
+
+	public boolean isFastMath() {
+		return fastMath;
+	}
 }//end of class NodeIdentifier
@@ -0,0 +1,51 @@
+package math;
+
+import java.util.Objects;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Registered user function: its arity, its properties and the primitive lambda implementing it
+ */
+
+final class UserFunction {
+	final String name;
+	final int arity;
+	final DoubleUnaryOperator unary;//not null only for functions registered with one argument
+	final DoubleBinaryOperator binary;//not null only for functions registered with two arguments
+	final DoubleNaryOperator nary;//not null only for functions registered with an explicit arity
+	final FunctionProperties properties;
+	UserFunction[] partials;//partial derivatives with respect to each argument, null if not registered
+	FunctionCache cache;//memoized results of a function with one argument, null if not memoized
+
+	UserFunction(String name, DoubleUnaryOperator unary, FunctionProperties properties) {
+		this(name, 1, unary, null, null, properties);
+	}
+
+	UserFunction(String name, DoubleBinaryOperator binary, FunctionProperties properties) {
+		this(name, 2, null, binary, null, properties);
+	}
+
+	UserFunction(String name, int arity, DoubleNaryOperator nary, FunctionProperties properties) {
+		this(name, arity, null, null, nary, properties);
+		if (arity < 0)
+			throw new IllegalArgumentException("negative arity for function: " + name);
+	}
+
+	private UserFunction(String name, int arity, DoubleUnaryOperator unary, DoubleBinaryOperator binary, DoubleNaryOperator nary, FunctionProperties properties) {
+		this.name = name;
+		this.arity = arity;
+		this.unary = unary;
+		this.binary = binary;
+		this.nary = nary;
+		this.properties = Objects.requireNonNull(properties);
+	}
+
+	double apply(double[] args) {//generic call path, used when the arguments are already collected in an array
+		if (unary != null)
+			return cache != null ? cache.apply(args[0]) : unary.applyAsDouble(args[0]);
+		if (binary != null)
+			return binary.applyAsDouble(args[0], args[1]);
+		return nary.applyAsDouble(args);
+	}
+}//end of class UserFunction
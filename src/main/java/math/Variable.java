@@ -0,0 +1,32 @@
+package math;
+
+/**
+ * Named numeric variable, shared by all nodes of the parsed expressions that refer to it
+ */
+
+public final class Variable {
+	private final String name;
+	private double value;
+
+	Variable(String name, double value) {
+		this.name = name;
+		this.value = value;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public double get() {
+		return value;
+	}
+
+	public void set(double value) {
+		this.value = value;
+	}
+
+    @Override
+	public String toString() {
+		return name + " = " + value;
+	}
+}//end of class Variable
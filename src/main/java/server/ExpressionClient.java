@@ -0,0 +1,173 @@
+package server;
+/*
+Blocking client of the expression server. Evaluations of many rows are pipelined: all the requests are sent before
+reading the responses, so that the server can evaluate them as one batch. The server stops reading a connection with
+too many unsent responses, so very large pipelines should be split in windows of some thousands of rows, as LoadGenerator does.
+An instance must not be shared between threads.
+*/
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import math.ExpressionCodec;
+import math.Node;
+
+public class ExpressionClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private int nextRequestId = 0;
+
+    public ExpressionClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+//registers an expression with the names of its variables, returns its handle; throws IllegalArgumentException for syntax errors
+    public int register(String expression, String... variables) throws IOException {
+        return register(Protocol.REGISTER, expression.getBytes(StandardCharsets.UTF_8), variables);
+    }
+
+//registers a parsed expression, sent in the binary form of ExpressionCodec: the server must have the same user functions
+    public int register(Node expression, String... variables) throws IOException {
+        return register(Protocol.LOAD, ExpressionCodec.encode(expression), variables);
+    }
+
+    private int register(byte opcode, byte[] expression, String[] variables) throws IOException {
+        byte[][] names = new byte[variables.length][];
+        int length = 1 + 4 + 2 + 4 + expression.length;
+        for (int i = 0; i < variables.length; i++) {
+            names[i] = variables[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + names[i].length;
+        }
+        int requestId = nextRequestId++;
+        out.writeInt(length);
+        out.writeByte(opcode);
+        out.writeInt(requestId);
+        out.writeShort(variables.length);
+        for (byte[] name : names)
+            writeBytes(name);
+        writeBytes(expression);
+        out.flush();
+        Object[] results = new Object[1];
+        readResponses(requestId, results);
+        if (results[0] instanceof RuntimeException)
+            throw new IllegalArgumentException(((RuntimeException) results[0]).getMessage());
+        return (Integer) results[0];
+    }
+
+//evaluates a registered expression, returns Double or Boolean; throws RuntimeException for evaluation errors
+    public Object evaluate(int handle, double... values) throws IOException {
+        return evaluate(handle, new double[][] {values})[0];
+    }
+
+//evaluates a registered expression for each row of values, returns Double or Boolean values; throws RuntimeException for evaluation errors
+    public Object[] evaluate(int handle, double[][] rows) throws IOException {
+        Object[] results = evaluateAll(handle, rows);
+        for (Object result : results) {
+            if (result instanceof RuntimeException)
+                throw (RuntimeException) result;
+        }
+        return results;
+    }
+
+//as evaluate(handle, rows), but the errors are returned as RuntimeException instances in place of the values
+    public Object[] evaluateAll(int handle, double[][] rows) throws IOException {
+        int first = nextRequestId;
+        for (double[] row : rows) {
+            out.writeInt(1 + 4 + 4 + 2 + 8 * row.length);
+            out.writeByte(Protocol.EVALUATE);
+            out.writeInt(nextRequestId++);
+            out.writeInt(handle);
+            out.writeShort(row.length);
+            for (double value : row)
+                out.writeDouble(value);
+        }
+        out.flush();
+        Object[] results = new Object[rows.length];
+        readResponses(first, results);
+        return results;
+    }
+
+/*evaluates the rows in [from, to) as one request, returns Double or Boolean values and the errors as RuntimeException instances;
+  the request must not be longer than Protocol.MAX_FRAME*/
+    public Object[] evaluatePartition(int handle, double[][] rows, int from, int to) throws IOException {
+        int count = to > from ? rows[from].length : 0;
+        for (int r = from; r < to; r++) {
+            if (rows[r].length != count)
+                throw new IllegalArgumentException("row " + r + " has " + rows[r].length + " value(s), expected " + count);
+        }
+        int requestId = nextRequestId++;
+        out.writeInt(1 + 4 + 4 + 4 + 2 + 8 * count * (to - from));
+        out.writeByte(Protocol.PARTITION);
+        out.writeInt(requestId);
+        out.writeInt(handle);
+        out.writeInt(to - from);
+        out.writeShort(count);
+        for (int r = from; r < to; r++) {
+            for (double value : rows[r])
+                out.writeDouble(value);
+        }
+        out.flush();
+        Object[] results = new Object[1];
+        readResponses(requestId, results);
+        if (results[0] instanceof RuntimeException)
+            throw (RuntimeException) results[0];
+        return (Object[]) results[0];
+    }
+
+//sets the time to wait for a response before throwing SocketTimeoutException, 0 to wait forever
+    public void setTimeout(int millis) throws IOException {
+        socket.setSoTimeout(millis);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+//reads the responses of the requests with ids in [first, first + results.length), in any order
+    private void readResponses(int first, Object[] results) throws IOException {
+        for (int n = 0; n < results.length; n++) {
+            int length = in.readInt();
+            int index = in.readInt() - first;
+            if (index < 0 || index >= results.length)
+                throw new IOException("unexpected response, length " + length);
+            byte status = in.readByte();
+            if (status == Protocol.ROWS) {
+                Object[] values = new Object[in.readInt()];
+                for (int r = 0; r < values.length; r++)
+                    values[r] = readValue(in.readByte());
+                results[index] = values;
+            } else results[index] = readValue(status);
+        }
+    }
+
+    private Object readValue(byte status) throws IOException {
+        switch (status) {
+            case Protocol.DOUBLE:
+                return in.readDouble();
+            case Protocol.BOOLEAN:
+                return in.readByte() != 0;
+            case Protocol.HANDLE:
+                return in.readInt();
+            case Protocol.ERROR:
+                byte[] message = new byte[in.readInt()];
+                in.readFully(message);
+                return new RuntimeException(new String(message, StandardCharsets.UTF_8));
+            default:
+                throw new IOException("unknown response status: " + status);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
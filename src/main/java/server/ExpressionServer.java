@@ -0,0 +1,493 @@
+package server;
+/*
+Expression evaluation server: a single thread serves all the connections with a NIO selector, see Protocol for the
+format of the requests. An expression is registered once, with the names of its variables, and gets a handle shared
+by all the connections; registering again the same expression returns the same handle.
+Evaluate requests are not answered one by one: the requests read in a round of the selector are grouped by handle,
+and each group is evaluated in one pass over its tree before the responses are written back.
+The server is also a worker of PartitionCoordinator: a parsed tree is loaded in its binary form, and a partition of
+rows is evaluated as one request, answered with the values of all its rows. Partitions are evaluated by an executor
+thread, so that a large partition doesn't stop the selector: the responses are handed back to the selector thread.
+Usage: java server.ExpressionServer [port]
+*/
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import math.*;
+
+public class ExpressionServer implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_OUTPUT = 4 << 20;//a connection is not read while it has more unsent bytes than this
+
+    private static final class Expression {//registered expression, with the requests waiting for the next batch; locked while evaluated
+        final Node node;
+        final Variable[] variables;
+        final List<Connection> connections = new ArrayList<>();
+        final List<Integer> requestIds = new ArrayList<>();
+        final List<double[]> rows = new ArrayList<>();
+
+        Expression(Node node, Variable[] variables) {
+            this.node = node;
+            this.variables = variables;
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);//responses not sent yet, always ready to be filled
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final Supplier<ExpressionParser> parsers;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final List<Expression> expressions = new ArrayList<>();//indexed by handle
+    private final Map<String, Integer> handles = new HashMap<>();
+    private final Set<Expression> pending = new LinkedHashSet<>();//expressions with requests waiting for evaluation
+    private final Set<Connection> writers = new LinkedHashSet<>();//connections with responses to write
+    private final Queue<Runnable> completed = new ConcurrentLinkedQueue<>();//responses of the executor, written by the selector thread
+    private ExecutorService executor;//evaluates the partitions
+    private Thread thread;
+    private volatile boolean running;
+    private volatile IOException failure;//stopped the server thread, null if none
+    private long batches, evaluations;
+
+/*creates a server listening on the given address (port 0 for any free port); expressions are parsed with a new parser
+  from 'parsers' for each registration, so that user functions can be registered by the supplier*/
+    public ExpressionServer(InetSocketAddress address, Supplier<ExpressionParser> parsers) throws IOException {
+        this.parsers = parsers;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public synchronized void start() {
+        if (thread != null)
+            throw new IllegalStateException("server already started");
+        running = true;
+        executor = Executors.newSingleThreadExecutor(task -> {
+            Thread evaluator = new Thread(task, "expression-evaluator-" + getPort());
+            evaluator.setDaemon(true);
+            return evaluator;
+        });
+        thread = new Thread(this::run, "expression-server-" + getPort());
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            executor.shutdownNow();
+        }
+        for (SelectionKey key : selector.keys())
+            key.channel().close();
+        selector.close();
+    }
+
+//returns true from start() until close() or a failure of the server thread
+    public boolean isRunning() {
+        return running;
+    }
+
+//returns the exception that stopped the server thread, null if none
+    public IOException getFailure() {
+        return failure;
+    }
+
+//returns the number of batches and of evaluated requests, updated by the server thread
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getEvaluations() {
+        return evaluations;
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isAcceptable()) {
+                        try {
+                            accept();
+                        } catch (IOException ex) {//e.g. too many open files: the server goes on accepting
+                            System.err.println("expression server: accept failed: " + ex.getMessage());
+                        }
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable())
+                            read(key);
+                        if (key.isValid() && key.isWritable())
+                            write(key);
+                    } catch (IOException | RuntimeException ex) {//the connection is closed, the server goes on
+                        closeConnection(key);
+                    }
+                }
+                for (Runnable response; (response = completed.poll()) != null; )
+                    response.run();
+                evaluatePending();
+                flushWriters();
+            }
+        } catch (IOException ex) {//the selector failed: the connections are closed, see getFailure()
+            failure = ex;
+            running = false;
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        Object attachment = key.attachment();
+        if (!(attachment instanceof Connection))//the key of the server channel stays registered
+            return;
+        writers.remove(attachment);
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        if (connection.channel.read(connection.in) < 0) {
+            closeConnection(key);
+            return;
+        }
+        ByteBuffer in = connection.in;
+        in.flip();
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 5 || length > Protocol.MAX_FRAME)
+                throw new IOException("invalid frame length: " + length);
+            if (in.remaining() < 4 + length)
+                break;
+            int end = in.position() + 4 + length;
+            ByteBuffer frame = in.duplicate();
+            frame.position(in.position() + 4).limit(end);
+            in.position(end);
+            request(connection, frame);
+        }
+        in.compact();
+        if (!in.hasRemaining()) {//a frame longer than the buffer: grows the buffer
+            ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            larger.put(in);
+            connection.in = larger;
+        }
+    }
+
+    private void request(Connection connection, ByteBuffer frame) {
+        byte opcode = frame.get();
+        int requestId = frame.getInt();
+        try {
+            switch (opcode) {
+                case Protocol.REGISTER: {
+                    int count = frame.getShort();
+                    String[] names = new String[count];
+                    for (int i = 0; i < count; i++)
+                        names[i] = Protocol.getString(frame);
+                    respondHandle(connection, requestId, register(names, Protocol.getString(frame)));
+                    break;
+                }
+                case Protocol.EVALUATE: {
+                    Expression expression = expression(frame.getInt(), frame.getShort());
+                    int count = expression.variables.length;
+                    double[] row = new double[count];
+                    for (int i = 0; i < count; i++)
+                        row[i] = frame.getDouble();
+                    expression.connections.add(connection);
+                    expression.requestIds.add(requestId);
+                    expression.rows.add(row);
+                    pending.add(expression);
+                    break;
+                }
+                case Protocol.LOAD: {
+                    int count = frame.getShort();
+                    String[] names = new String[count];
+                    for (int i = 0; i < count; i++)
+                        names[i] = Protocol.getString(frame);
+                    int length = frame.getInt();
+                    if (length < 0 || length > frame.remaining())
+                        throw new IllegalArgumentException("invalid expression length: " + length);
+                    byte[] bytes = new byte[length];
+                    frame.get(bytes);
+                    respondHandle(connection, requestId, load(names, bytes));
+                    break;
+                }
+                case Protocol.PARTITION: {
+                    int handle = frame.getInt();
+                    int rows = frame.getInt();
+                    Expression expression = expression(handle, frame.getShort());
+                    if (rows < 0 || (long) rows * expression.variables.length * 8 != frame.remaining())
+                        throw new IllegalArgumentException("invalid partition of " + rows + " row(s)");
+                    double[] values = new double[frame.remaining() / 8];//the frame is in the input buffer of the connection
+                    frame.asDoubleBuffer().get(values);
+                    executor.execute(() -> {
+                        Object[] results = evaluatePartition(expression, values, rows);
+                        completed.add(() -> respondRows(connection, requestId, results));
+                        selector.wakeup();
+                    });
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("unknown opcode: " + opcode);
+            }
+        } catch (ParseException ex) {
+            respondError(connection, requestId, ex.getMessage() + " at position " + ex.getErrorOffset());
+        } catch (RuntimeException ex) {//BufferUnderflowException for truncated frames included
+            respondError(connection, requestId, ex.getMessage() == null ? ex.toString() : ex.getMessage());
+        }
+    }
+
+    private int register(String[] names, String text) throws ParseException {
+        String key = String.join(",", names) + ":" + text;
+        Integer handle = handles.get(key);
+        if (handle != null)
+            return handle;
+        ExpressionParser parser = parsers.get();
+        Variable[] variables = new Variable[names.length];
+        for (int i = 0; i < names.length; i++)
+            variables[i] = parser.setVariable(names[i], 0);
+        Node node = parser.optimize(parser.parseExpression(text));
+        expressions.add(new Expression(node, variables));
+        handles.put(key, expressions.size() - 1);
+        return expressions.size() - 1;
+    }
+
+//registers a tree sent in the binary form of ExpressionCodec, with the user functions of a new parser
+    private int load(String[] names, byte[] bytes) {
+        String key = String.join(",", names) + "#" + Base64.getEncoder().encodeToString(bytes);
+        Integer handle = handles.get(key);
+        if (handle != null)
+            return handle;
+        ExpressionParser parser = parsers.get();
+        Variable[] variables = new Variable[names.length];
+        for (int i = 0; i < names.length; i++)
+            variables[i] = parser.setVariable(names[i], 0);
+        Node node = parser.optimize(ExpressionCodec.decode(bytes, parser));
+        expressions.add(new Expression(node, variables));
+        handles.put(key, expressions.size() - 1);
+        return expressions.size() - 1;
+    }
+
+//returns the expression with the given handle, checking the number of values of its rows
+    private Expression expression(int handle, int count) {
+        if (handle < 0 || handle >= expressions.size())
+            throw new IllegalArgumentException("unknown handle: " + handle);
+        Expression expression = expressions.get(handle);
+        if (count != expression.variables.length)
+            throw new IllegalArgumentException("expression " + handle + " expects " + expression.variables.length + " value(s), but got " + count);
+        return expression;
+    }
+
+//evaluates the rows of a partition in the executor thread, returns Double or Boolean values and error messages as String
+    private Object[] evaluatePartition(Expression expression, double[] values, int rows) {
+        Object[] results = new Object[rows];
+        synchronized (expression) {//the variables are shared with the evaluate requests
+            for (int r = 0, i = 0; r < rows; r++) {
+                for (Variable variable : expression.variables)
+                    variable.set(values[i++]);
+                try {
+                    results[r] = expression.node.evaluate();
+                } catch (RuntimeException ex) {
+                    results[r] = ex.getMessage() == null ? ex.toString() : ex.getMessage();
+                }
+            }
+        }
+        synchronized (this) {
+            batches++;
+            evaluations += rows;
+        }
+        return results;
+    }
+
+    private void evaluatePending() {
+        int count = 0;
+        for (Expression expression : pending) {
+            synchronized (expression) {
+                evaluateBatch(expression);
+            }
+            count += expression.rows.size();
+            expression.connections.clear();
+            expression.requestIds.clear();
+            expression.rows.clear();
+        }
+        if (!pending.isEmpty()) {
+            synchronized (this) {
+                batches += pending.size();
+                evaluations += count;
+            }
+            pending.clear();
+        }
+    }
+
+    private void evaluateBatch(Expression expression) {
+        for (int r = 0; r < expression.rows.size(); r++) {
+            Connection connection = expression.connections.get(r);
+            int requestId = expression.requestIds.get(r);
+            double[] row = expression.rows.get(r);
+            for (int i = 0; i < row.length; i++)
+                expression.variables[i].set(row[i]);
+            try {
+                Object value = expression.node.evaluate();
+                if (value instanceof Boolean)
+                    respondBoolean(connection, requestId, (Boolean) value);
+                else respondDouble(connection, requestId, (Double) value);
+            } catch (RuntimeException ex) {
+                respondError(connection, requestId, ex.getMessage() == null ? ex.toString() : ex.getMessage());
+            }
+        }
+    }
+
+    private void respondDouble(Connection connection, int requestId, double value) {
+        ByteBuffer buffer = response(connection, requestId, Protocol.DOUBLE, 8);
+        buffer.putDouble(value);
+    }
+
+    private void respondBoolean(Connection connection, int requestId, boolean value) {
+        ByteBuffer buffer = response(connection, requestId, Protocol.BOOLEAN, 1);
+        buffer.put((byte) (value ? 1 : 0));
+    }
+
+    private void respondHandle(Connection connection, int requestId, int handle) {
+        ByteBuffer buffer = response(connection, requestId, Protocol.HANDLE, 4);
+        buffer.putInt(handle);
+    }
+
+    private void respondError(Connection connection, int requestId, String message) {
+        ByteBuffer buffer = response(connection, requestId, Protocol.ERROR, Protocol.sizeOf(message));
+        Protocol.putString(buffer, message);
+    }
+
+    private void respondRows(Connection connection, int requestId, Object[] results) {
+        int payload = 4;
+        for (Object result : results)
+            payload += 1 + (result instanceof Double ? 8 : result instanceof Boolean ? 1 : Protocol.sizeOf((String) result));
+        ByteBuffer buffer = response(connection, requestId, Protocol.ROWS, payload);
+        buffer.putInt(results.length);
+        for (Object result : results) {
+            if (result instanceof Double) {
+                buffer.put(Protocol.DOUBLE);
+                buffer.putDouble((Double) result);
+            } else if (result instanceof Boolean) {
+                buffer.put(Protocol.BOOLEAN);
+                buffer.put((byte) ((Boolean) result ? 1 : 0));
+            } else {
+                buffer.put(Protocol.ERROR);
+                Protocol.putString(buffer, (String) result);
+            }
+        }
+    }
+
+//returns the output buffer of the connection, with the header of the response and room for the payload
+    private ByteBuffer response(Connection connection, int requestId, byte status, int payload) {
+        int size = 4 + 4 + 1 + payload;
+        ByteBuffer buffer = connection.out;
+        if (buffer.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            larger.put(buffer);
+            connection.out = buffer = larger;
+        }
+        buffer.putInt(size - 4);
+        buffer.putInt(requestId);
+        buffer.put(status);
+        writers.add(connection);
+        return buffer;
+    }
+
+    private void flushWriters() {
+        List<Connection> connections = new ArrayList<>(writers);//a failed write closes its connection, removing it from writers
+        writers.clear();
+        for (Connection connection : connections) {
+            SelectionKey key = connection.channel.keyFor(selector);
+            if (key == null || !key.isValid())
+                continue;
+            try {
+                write(key);
+            } catch (IOException | RuntimeException ex) {//e.g. a connection reset by the client: the server goes on
+                closeConnection(key);
+            }
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer out = connection.out;
+        out.flip();
+        connection.channel.write(out);
+        out.compact();
+        if (out.position() == 0)
+            key.interestOps(SelectionKey.OP_READ);
+        else if (out.position() < MAX_OUTPUT)//the socket is full: waits until it is writable again
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        else key.interestOps(SelectionKey.OP_WRITE);//the client is not reading its responses: stops reading its requests
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        ExpressionServer server = new ExpressionServer(new InetSocketAddress(port), ExpressionParser::new);
+        server.start();
+        System.out.println("expression server listening on port " + server.getPort());
+    }
+}
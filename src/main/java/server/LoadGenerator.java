@@ -0,0 +1,71 @@
+package server;
+/*
+Load generator for the expression server: a number of connections, each on its own thread, send pipelined evaluate
+requests in windows of a given size, for the given duration. Throughput and the latency of the windows are printed.
+Usage: java server.LoadGenerator [host] [port] [connections] [window] [seconds]
+*/
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LoadGenerator {
+    private static final String EXPRESSION = "sqrt(a * a + b * b) < r ? a * r : b / (r + 1)";
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int window = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+        AtomicLong requests = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<long[]> latencies = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            long[] windowLatencies = new long[1 << 20];
+            latencies.add(windowLatencies);
+            int seed = c;
+            Thread thread = new Thread(() -> {
+                try {
+                    run(host, port, window, deadline, new Random(seed), requests, windowLatencies);
+                } catch (IOException ex) {
+                    System.err.println("connection failed: " + ex.getMessage());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        long total = requests.get();
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).filter(l -> l > 0).sorted().toArray();
+        System.out.printf("%d requests in %d s: %.0f requests/s%n", total, seconds, total / (double) seconds);
+        if (all.length > 0)
+            System.out.printf("window of %d requests: median %.3f ms, p99 %.3f ms%n", window,
+                    all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6);
+    }
+
+    private static void run(String host, int port, int window, long deadline, Random random, AtomicLong requests, long[] latencies) throws IOException {
+        try (ExpressionClient client = new ExpressionClient(host, port)) {
+            int handle = client.register(EXPRESSION, "a", "b", "r");
+            double[][] rows = new double[window][3];
+            for (int n = 0; System.nanoTime() < deadline; n++) {
+                for (double[] row : rows) {
+                    row[0] = random.nextDouble() * 10;
+                    row[1] = random.nextDouble() * 10;
+                    row[2] = random.nextDouble() * 10;
+                }
+                long start = System.nanoTime();
+                client.evaluate(handle, rows);
+                if (n < latencies.length)
+                    latencies[n] = System.nanoTime() - start;
+                requests.addAndGet(window);
+            }
+        }
+    }
+}
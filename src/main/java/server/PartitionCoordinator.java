@@ -0,0 +1,234 @@
+package server;
+/*
+Coordinator of jobs evaluated by several worker JVMs, each one running an ExpressionServer: the rows of a job are split
+in partitions, the parsed expression is shipped once to each worker in the binary form of ExpressionCodec, and each
+worker evaluates one partition at a time, taking the next one as soon as it answers. A worker that closes the
+connection, can't be reached or doesn't answer within the timeout is dropped for the rest of the job and its partition
+is given to another worker. A job fails only when no worker is left, or when a worker rejects the expression, e.g.
+because it doesn't register one of its user functions.
+Usage: java server.PartitionCoordinator [host:port,host:port,...] [rows] [partition size]
+*/
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import math.*;
+
+public class PartitionCoordinator {
+    private final List<InetSocketAddress> workers;
+    private int partitionSize = 10_000;
+    private int timeoutMillis = 60_000;
+    private final AtomicLong reassignments = new AtomicLong();
+
+    private static final class Job {//state shared by the threads of the workers, guarded by the instance
+        final Node expression;
+        final String[] names;
+        final double[][] rows;
+        final int partitionRows;
+        final Object[] results;
+        final BlockingDeque<Integer> partitions = new LinkedBlockingDeque<>();//first row of the partitions to evaluate
+        final List<ExpressionClient> clients = new ArrayList<>();
+        final List<IOException> errors = new ArrayList<>();
+        int remaining;//partitions not evaluated yet
+        int live;//workers not dropped
+        RuntimeException failure;
+        boolean finished;
+
+        Job(Node expression, String[] names, double[][] rows, int partitionRows) {
+            this.expression = expression;
+            this.names = names;
+            this.rows = rows;
+            this.partitionRows = partitionRows;
+            this.results = new Object[rows.length];
+        }
+
+//returns the first row of the next partition, or null when the job is finished
+        Integer next() throws InterruptedException {
+            while (true) {
+                synchronized (this) {
+                    if (finished || remaining == 0 || failure != null)
+                        return null;
+                }
+                Integer from = partitions.poll(20, TimeUnit.MILLISECONDS);//a partition may come back from a dropped worker
+                if (from != null)
+                    return from;
+            }
+        }
+
+        synchronized boolean opened(ExpressionClient client) {
+            clients.add(client);
+            return !finished;
+        }
+
+        synchronized void completed(int from, Object[] values) {
+            System.arraycopy(values, 0, results, from, values.length);
+            if (--remaining == 0)
+                notifyAll();
+        }
+
+        synchronized void dropped(InetSocketAddress address, IOException ex) {
+            errors.add(new IOException("worker " + address.getHostString() + ":" + address.getPort() + ": " + ex, ex));
+            if (--live == 0)
+                notifyAll();
+        }
+
+        synchronized void rejected(RuntimeException ex) {
+            if (failure == null)
+                failure = ex;
+            notifyAll();
+        }
+
+        void finish() {
+            List<ExpressionClient> open;
+            synchronized (this) {
+                finished = true;
+                open = new ArrayList<>(clients);
+            }
+            for (ExpressionClient client : open) {//unblocks the workers still waiting for a response
+                try {
+                    client.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    public PartitionCoordinator(List<InetSocketAddress> workers) {
+        if (workers.isEmpty())
+            throw new IllegalArgumentException("no workers");
+        this.workers = List.copyOf(workers);
+    }
+
+//sets the number of rows of a partition, reduced if needed so that a partition fits in a frame of the protocol
+    public void setPartitionSize(int rows) {
+        if (rows <= 0)
+            throw new IllegalArgumentException("partition size must be positive: " + rows);
+        this.partitionSize = rows;
+    }
+
+//sets the time to wait for the answer of a worker before dropping it, 0 to wait forever
+    public void setTimeout(int millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("negative timeout: " + millis);
+        this.timeoutMillis = millis;
+    }
+
+//returns the number of partitions given to another worker after their worker was dropped, over all the jobs
+    public long getReassignments() {
+        return reassignments.get();
+    }
+
+/*evaluates the expression for each row of values, in the order of the variables, returns Double or Boolean values and
+  the errors of evaluation as RuntimeException instances; throws IllegalArgumentException if a worker rejects the
+  expression and IOException if all the workers are dropped before the end of the job*/
+    public Object[] evaluate(Node expression, double[][] rows, Variable... variables) throws IOException {
+        String[] names = new String[variables.length];
+        for (int i = 0; i < variables.length; i++)
+            names[i] = variables[i].getName();
+        for (int r = 0; r < rows.length; r++) {
+            if (rows[r].length != variables.length)
+                throw new IllegalArgumentException("row " + r + " has " + rows[r].length + " value(s), expected " + variables.length);
+        }
+        int partitionRows = Math.min(partitionSize, (Protocol.MAX_FRAME - 64) / (8 * Math.max(1, variables.length)));
+        Job job = new Job(expression, names, rows, partitionRows);
+        for (int from = 0; from < rows.length; from += partitionRows)
+            job.partitions.add(from);
+        job.remaining = job.partitions.size();
+        job.live = workers.size();
+        if (job.remaining == 0)
+            return job.results;
+        for (InetSocketAddress address : workers) {
+            Thread thread = new Thread(() -> work(job, address), "partition-worker-" + address.getHostString() + ":" + address.getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try {
+            synchronized (job) {
+                while (job.remaining > 0 && job.failure == null && job.live > 0)
+                    job.wait();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("job interrupted");
+        } finally {
+            job.finish();
+        }
+        synchronized (job) {
+            if (job.failure != null)
+                throw job.failure;
+            if (job.remaining > 0) {
+                IOException ex = new IOException("all workers failed, " + job.remaining + " partition(s) not evaluated");
+                for (IOException error : job.errors)
+                    ex.addSuppressed(error);
+                throw ex;
+            }
+        }
+        return job.results;
+    }
+
+    private void work(Job job, InetSocketAddress address) {
+        Integer from = null;
+        try (ExpressionClient client = new ExpressionClient(address.getHostString(), address.getPort())) {
+            if (!job.opened(client))
+                return;
+            client.setTimeout(timeoutMillis);
+            int handle = client.register(job.expression, job.names);
+            while ((from = job.next()) != null) {
+                int to = Math.min(from + job.partitionRows, job.rows.length);
+                Object[] values = client.evaluatePartition(handle, job.rows, from, to);
+                if (values.length != to - from)
+                    throw new IOException("expected " + (to - from) + " results, but got " + values.length);
+                job.completed(from, values);
+                from = null;
+            }
+        } catch (IOException ex) {//the worker is dropped, its partition goes back to the others
+            if (from != null) {
+                job.partitions.addFirst(from);
+                reassignments.incrementAndGet();
+            }
+            job.dropped(address, ex);
+        } catch (InterruptedException ex) {
+            job.dropped(address, new InterruptedIOException("interrupted"));
+        } catch (RuntimeException ex) {//expression rejected by the worker
+            job.rejected(ex);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<InetSocketAddress> workers = new ArrayList<>();
+        for (String worker : (args.length > 0 ? args[0] : "localhost:7070").split(",")) {
+            int colon = worker.lastIndexOf(':');
+            workers.add(new InetSocketAddress(worker.substring(0, colon), Integer.parseInt(worker.substring(colon + 1))));
+        }
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        PartitionCoordinator coordinator = new PartitionCoordinator(workers);
+        if (args.length > 2)
+            coordinator.setPartitionSize(Integer.parseInt(args[2]));
+
+        ExpressionParser parser = new ExpressionParser();
+        Variable a = parser.setVariable("a", 0), b = parser.setVariable("b", 0), r = parser.setVariable("r", 0);
+        Node expression;
+        try {
+            expression = parser.parseExpression("sqrt(a * a + b * b) < r ? a * r : b / (r + 1)");
+        } catch (java.text.ParseException ex) {
+            throw new IllegalStateException(ex);
+        }
+        Random random = new Random(48);
+        double[][] values = new double[rows][3];
+        for (double[] row : values) {
+            row[0] = random.nextDouble() * 10;
+            row[1] = random.nextDouble() * 10;
+            row[2] = random.nextDouble() * 10;
+        }
+        long start = System.nanoTime();
+        coordinator.evaluate(expression, values, a, b, r);
+        System.out.printf("%d rows in %.1f ms on %d worker(s), %d partition(s) reassigned%n", rows,
+                (System.nanoTime() - start) / 1e6, workers.size(), coordinator.getReassignments());
+    }
+}
@@ -0,0 +1,55 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary protocol of the expression server, all numbers are big endian.
+ * Request:  int length, byte opcode, int requestId, payload     (length counts the bytes after the length field)
+ *   REGISTER payload: short count, count variable names, expression         -> handle of the expression
+ *   EVALUATE payload: int handle, short count, count doubles (variable values, in the order of registration)
+ *   LOAD payload: short count, count variable names, int length, length bytes of a parsed tree (see math.ExpressionCodec) -> handle
+ *   PARTITION payload: int handle, int rows, short count, rows * count doubles (the values of each row, one row after the other)
+ * Response: int length, int requestId, byte status, payload
+ *   DOUBLE: double value, BOOLEAN: byte value, HANDLE: int handle, ERROR: message
+ *   ROWS: int rows, then for each row a byte status (DOUBLE, BOOLEAN or ERROR) followed by its payload
+ * Strings are sent as int length followed by the UTF-8 bytes.
+ * Requests can be pipelined: responses carry the id of their request and may come in a different order.
+ */
+
+public final class Protocol {
+	public static final byte REGISTER = 1;
+	public static final byte EVALUATE = 2;
+	public static final byte LOAD = 3;
+	public static final byte PARTITION = 4;
+
+	public static final byte DOUBLE = 0;
+	public static final byte BOOLEAN = 1;
+	public static final byte HANDLE = 2;
+	public static final byte ERROR = 3;
+	public static final byte ROWS = 4;
+
+	public static final int MAX_FRAME = 1 << 20;//longer frames are rejected and the connection is closed
+
+	private Protocol() {
+	}
+
+	static void putString(ByteBuffer buffer, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+	static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining())
+			throw new IllegalArgumentException("invalid string length: " + length);
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static int sizeOf(String s) {
+		return 4 + s.getBytes(StandardCharsets.UTF_8).length;
+	}
+}//end of class Protocol
@@ -0,0 +1,111 @@
+package test;
+
+import math.AdaptiveNode;
+import math.ExpressionParser;
+import math.FunctionProperties;
+import math.Node;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of adaptive and/or chains: the results must match the original tree, and the operands that decide cheaply
+ * must move to the front of the chain.
+ */
+public class AdaptiveTests {
+    private ExpressionParser parser;
+    private Variable x, y;
+    private int expensiveCalls;
+    private final Random random = new Random(7);
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+        expensiveCalls = 0;
+        parser.registerFunction("expensive", v -> {
+            expensiveCalls++;
+            double sum = 0;
+            for (int i = 0; i < 200; i++)
+                sum += Math.sin(v + i);
+            return sum;
+        }, FunctionProperties.PURE.withCost(1000));
+        parser.registerFunction("impure", v -> {
+            expensiveCalls++;
+            return v;
+        });
+    }
+
+    @Test
+    void sameResults() throws ParseException {
+        String[] expressions = {
+            "x > 0.5 and y < 0.2 or x < 0.1", "(x > 0.3 or y > 0.9) and !(x == y) and expensive(x) > -300",
+            "x > 0.5 ? y > 0.5 and x > 0.9 : y < 0.1 or x < 0.05", "(x > 0.5 and y > 0.5) == (x > 0.8 or y < 0.2)"
+        };
+        for (String expression : expressions) {
+            Node original = parser.parseExpression(expression);
+            Node adaptive = parser.adaptive(original);
+            for (int i = 0; i < 5000; i++) {
+                x.set(random.nextDouble());
+                y.set(random.nextDouble());
+                assertEquals(original.evaluateBoolean(), adaptive.evaluateBoolean(), expression);
+                assertEquals(original.evaluate(), adaptive.evaluate(), expression);
+            }
+            assertEquals(parser.visit(parser.optimize(original)), parser.visit(parser.optimize(adaptive)));
+        }
+    }
+
+    @Test
+    void selectiveOperandMovesFirst() throws ParseException {
+        Node node = parser.adaptive(parser.parseExpression("expensive(x) > -1000 and x > 0.9"));
+        AdaptiveNode chain = assertInstanceOf(AdaptiveNode.class, node);
+        for (int i = 0; i < 4096; i++) {
+            x.set(random.nextDouble());
+            chain.evaluateBoolean();
+        }
+        assertTrue(chain.getReorderings() > 0);
+        assertEquals("(x > 0.9)", parser.visit(chain.getEvaluationOrder().get(0)));
+        expensiveCalls = 0;
+        for (int i = 0; i < 1000; i++) {
+            x.set(random.nextDouble());
+            assertEquals(x.get() > 0.9, chain.evaluateBoolean());
+        }
+        assertTrue(expensiveCalls < 200, "calls: " + expensiveCalls);
+    }
+
+    @Test
+    void followsDataDrift() throws ParseException {
+        AdaptiveNode chain = (AdaptiveNode) parser.adaptive(parser.parseExpression("x > 0.5 or y > 0.5"));
+        for (int i = 0; i < 8192; i++) {
+            x.set(0);
+            y.set(1);
+            assertTrue(chain.evaluateBoolean());
+        }
+        assertEquals("(y > 0.5)", parser.visit(chain.getEvaluationOrder().get(0)));
+        for (int i = 0; i < 16384; i++) {
+            x.set(1);
+            y.set(0);
+            assertTrue(chain.evaluateBoolean());
+        }
+        assertEquals("(x > 0.5)", parser.visit(chain.getEvaluationOrder().get(0)));
+    }
+
+    @Test
+    void unsafeChainsAreNotReordered() throws ParseException {
+        assertFalse(parser.adaptive(parser.parseExpression("impure(x) > 0 and x > 0.9")) instanceof AdaptiveNode);
+        assertFalse(parser.adaptive(parser.parseExpression("x > 0.9 and unknown > 1")) instanceof AdaptiveNode);
+        assertFalse(parser.adaptive(parser.parseExpression("x > 0.9 and x + true > 1")) instanceof AdaptiveNode);
+        Node node = parser.adaptive(parser.parseExpression("impure(x) > 0.5 and x > 0.9"));
+        for (int i = 0; i < 5000; i++) {
+            x.set(random.nextDouble());
+            node.evaluateBoolean();
+        }
+        assertEquals(5000, expensiveCalls);
+    }
+}
@@ -0,0 +1,69 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Utility class measuring the bytes allocated by the current thread, with the allocation counters of the JVM
+ * (com.sun.management.ThreadMXBean). The code measured is run first without measuring, so that the measure is made
+ * on the compiled code, and the bytes allocated by the measure itself are subtracted.
+ */
+public class AllocationMeter {
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final long overhead;
+
+    public AllocationMeter() {
+        if (!isSupported())
+            throw new IllegalStateException("allocation counters not supported by this JVM");
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++)
+            min = Math.min(min, allocated() - allocated());
+        overhead = -min;
+    }
+
+    /**
+     * Returns true if the JVM counts the bytes allocated by each thread.
+     */
+    public static boolean isSupported() {
+        return THREADS != null && THREADS.isThreadAllocatedMemorySupported() && THREADS.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Runs the task 'warmup' times, then returns the bytes allocated per run over 'runs' runs.
+     *
+     * @param task code to measure, it must not start other threads
+     * @param warmup runs before measuring
+     * @param runs runs measured
+     * @return average bytes allocated by a run
+     */
+    public double bytesPerRun(Runnable task, int warmup, int runs) {
+        for (int i = 0; i < warmup; i++)
+            task.run();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {//the least of three rounds, in case of a deoptimization or a class loaded in a round
+            long start = allocated();
+            for (int i = 0; i < runs; i++)
+                task.run();
+            best = Math.min(best, allocated() - start - overhead);
+        }
+        return Math.max(best, 0) / (double) runs;
+    }
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        try {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean))
+                return null;
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+            if (bean.isThreadAllocatedMemorySupported() && !bean.isThreadAllocatedMemoryEnabled())
+                bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        } catch (LinkageError | UnsupportedOperationException | SecurityException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package test;
+
+import math.ExpressionParser;
+import math.FloatBatchEvaluator;
+import math.FunctionProperties;
+import math.Node;
+import math.OffHeapStore;
+import math.TieredExpression;
+import math.Variable;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Allocation budgets of the evaluation and parsing paths, measured on a corpus of ExpressionGenerator: a change
+ * adding allocations to a path, e.g. boxing in BinaryNode or an array in LambdaFunctionNode, fails the build.
+ * Budgets are in bytes per evaluation (per row for batches, per character for parsing), for a 64-bit JVM with
+ * compressed references; a budget of 0 means the path must not allocate.
+ */
+public class AllocationTests {
+    private static final int CORPUS = 200;
+    private static final int WARMUP = 20_000;
+    private static final int RUNS = 20_000;
+
+    private static AllocationMeter meter;
+    private static ExpressionParser parser;
+    private static Variable x, y;
+    private static List<String> numeric;//valid expressions of ExpressionGenerator
+    private static List<String> comparisons;//boolean expressions made of the numeric ones
+    private static double sink;
+
+    @BeforeAll
+    static void setUp() {
+        assumeTrue(AllocationMeter.isSupported(), "allocation counters not supported");
+        meter = new AllocationMeter();
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0.5);
+        y = parser.setVariable("y", 2);
+        parser.registerFunction("cube", v -> v * v * v, FunctionProperties.PURE);
+        parser.registerFunction("max", Math::max, FunctionProperties.PURE);
+        parser.registerFunction("clamp", 3, args -> Math.max(args[1], Math.min(args[2], args[0])), FunctionProperties.PURE);
+        ExpressionGenerator generator = new ExpressionGenerator(46);
+        numeric = new ArrayList<>();
+        comparisons = new ArrayList<>();
+        for (int i = 0; i < CORPUS; i++) {
+            String a = generator.generateValidExpression(3, 4, 2, 5), b = generator.generateValidExpression(3, 4, 2, 5);
+            numeric.add(a + " * x - " + b + " / y");
+            comparisons.add(a + " < x * " + b + " and " + a + " == y or !(" + b + " != x)");
+        }
+    }
+
+    private static Node[] parse(List<String> expressions, boolean typeChecking) throws ParseException {
+        parser.setTypeChecking(typeChecking);
+        Node[] nodes = new Node[expressions.size()];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = parser.parseExpression(expressions.get(i));
+        parser.setTypeChecking(false);
+        return nodes;
+    }
+
+    private static void assertBudget(String path, double budget, double measured) {
+        assertTrue(measured <= budget, path + " allocates " + measured + " bytes, budget " + budget);
+    }
+
+    private static Runnable evaluateDouble(Node[] nodes) {
+        return () -> {
+            double sum = 0;
+            for (Node node : nodes)
+                sum += node.evaluateDouble();
+            sink += sum;
+        };
+    }
+
+    @Test
+    void treeEvaluation() throws ParseException {
+        Node[] nodes = parse(numeric, false);
+        assertBudget("evaluateDouble", 0, meter.bytesPerRun(evaluateDouble(nodes), WARMUP / CORPUS, RUNS / CORPUS) / CORPUS);
+        assertBudget("evaluate", 24, meter.bytesPerRun(() -> {//the Double of the result
+            for (Node node : nodes)
+                sink += node.evaluate().hashCode();
+        }, WARMUP / CORPUS, RUNS / CORPUS) / CORPUS);
+        Node[] optimized = new Node[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+            optimized[i] = parser.optimize(nodes[i]);
+        assertBudget("optimized evaluateDouble", 0, meter.bytesPerRun(evaluateDouble(optimized), WARMUP / CORPUS, RUNS / CORPUS) / CORPUS);
+    }
+
+    @Test
+    void comparisons() throws ParseException {
+        Node[] typed = parse(comparisons, true);
+        assertBudget("typed evaluateBoolean", 0, meter.bytesPerRun(() -> {
+            for (Node node : typed)
+                sink += node.evaluateBoolean() ? 1 : 0;
+        }, WARMUP / CORPUS, RUNS / CORPUS) / CORPUS);
+        Node[] untyped = parse(comparisons, false);
+        assertBudget("untyped evaluateBoolean", 96, meter.bytesPerRun(() -> {//at most the 4 boxed operands of == and !=
+            for (Node node : untyped)
+                sink += node.evaluateBoolean() ? 1 : 0;
+        }, WARMUP / CORPUS, RUNS / CORPUS) / CORPUS);
+    }
+
+    @Test
+    void userFunctions() throws ParseException {
+        Node unary = parser.parseExpression("cube(x) + cube(y)");
+        Node binary = parser.parseExpression("max(x, y) * max(y, 1)");
+        Node nary = parser.parseExpression("clamp(x, 0, 1)");
+        assertBudget("unary function", 0, meter.bytesPerRun(() -> sink += unary.evaluateDouble(), WARMUP, RUNS));
+        assertBudget("binary function", 0, meter.bytesPerRun(() -> sink += binary.evaluateDouble(), WARMUP, RUNS));
+        assertBudget("function with 3 arguments", 40, meter.bytesPerRun(() -> sink += nary.evaluateDouble(), WARMUP, RUNS));//the array of the arguments
+    }
+
+    @Test
+    void parsing() {
+        long characters = 0;
+        for (String expression : numeric)
+            characters += expression.length();
+        double perCharacter = meter.bytesPerRun(() -> {
+            try {
+                for (String expression : numeric)
+                    sink += parser.parseExpression(expression).hashCode();
+            } catch (ParseException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }, 20, 20) / characters;
+        assertBudget("parseExpression per character", 50, perCharacter);//tokens, substrings and nodes
+    }
+
+    @Test
+    void offHeapStore() throws ParseException {
+        Node[] nodes = parse(numeric, false);
+        OffHeapStore store = new OffHeapStore(1 << 16, x, y);
+        long[] handles = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+            handles[i] = store.add(nodes[i]);
+        double[] values = {0.5, 2};
+        assertBudget("off-heap evaluateDouble", 0, meter.bytesPerRun(() -> {
+            for (long handle : handles)
+                sink += store.evaluateDouble(handle, values);
+        }, WARMUP / CORPUS, RUNS / CORPUS) / CORPUS);
+    }
+
+    @Test
+    void floatBatch() throws ParseException {
+        FloatBatchEvaluator evaluator = new FloatBatchEvaluator(parser.parseExpression(numeric.get(0)), x, y);
+        int rows = 1024;
+        float[][] columns = new float[2][rows];
+        for (int i = 0; i < rows; i++) {
+            columns[0][i] = i * 0.01f;
+            columns[1][i] = 1 + i * 0.02f;
+        }
+        float[] results = new float[rows];
+        assertBudget("float batch per row", 0, meter.bytesPerRun(() -> evaluator.evaluate(columns, 0, rows, results), 200, 200) / rows);
+    }
+
+    @Test
+    void compiledTier() throws ParseException {
+        assumeTrue(TieredExpression.isCompilerAvailable(), "no Java compiler");
+        TieredExpression tiered = new TieredExpression(parser.parseExpression(numeric.get(0)), Runnable::run);
+        tiered.setThresholds(0, 0);
+        tiered.evaluateDouble();
+        assertEquals(TieredExpression.Tier.COMPILED, tiered.getTier());
+        assertBudget("compiled evaluateDouble", 0, meter.bytesPerRun(() -> sink += tiered.evaluateDouble(), WARMUP, RUNS));
+    }
+}
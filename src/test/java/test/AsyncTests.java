@@ -0,0 +1,119 @@
+package test;
+
+import math.AsyncEvaluator;
+import math.ExpressionParser;
+import math.Variable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of asynchronous evaluation: concurrent evaluations must not interfere, and the number of evaluations in flight
+ * must never exceed the limit.
+ */
+public class AsyncTests {
+    private ExpressionParser parser;
+    private Variable x, y;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+        parser.registerFunction("slow", v -> {//blocking call, as an I/O bound function
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return v;
+        });
+        executor = AsyncEvaluator.virtualThreadExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void concurrentEvaluations() throws ParseException {
+        AsyncEvaluator evaluator = new AsyncEvaluator(parser.parseExpression("slow(x) * 10 + y"), executor, 8, x, y);
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            futures.add(evaluator.evaluate(i, 0.5));
+        for (int i = 0; i < futures.size(); i++)
+            assertEquals(i * 10 + 0.5, futures.get(i).join());
+        assertTrue(maxRunning.get() <= 8, "max running: " + maxRunning.get());
+        assertTrue(maxRunning.get() > 1, "max running: " + maxRunning.get());
+        assertEquals(0, x.get());//the variables of the parser are not modified
+    }
+
+    @Test
+    void batches() throws ParseException {
+        AsyncEvaluator evaluator = new AsyncEvaluator(parser.parseExpression("slow(x) > y"), executor, 4, x, y);
+        List<CompletableFuture<Object[]>> futures = new ArrayList<>();
+        for (int b = 0; b < 10; b++) {
+            double[][] rows = new double[10][];
+            for (int i = 0; i < rows.length; i++)
+                rows[i] = new double[] {i, b};
+            futures.add(evaluator.evaluateBatch(rows));
+        }
+        for (int b = 0; b < futures.size(); b++) {
+            Object[] results = futures.get(b).join();
+            for (int i = 0; i < results.length; i++)
+                assertEquals(i > b, results[i]);
+        }
+        assertEquals(0, evaluator.getInFlight());
+    }
+
+    @Test
+    void backpressure() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            AsyncEvaluator evaluator = new AsyncEvaluator(parser.parseExpression("slow(x)"), pool, 3, x);
+            for (int i = 0; i < 30; i++) {
+                evaluator.evaluate(i);
+                assertTrue(evaluator.getInFlight() <= 3);
+            }
+            assertTrue(maxRunning.get() <= 3, "max running: " + maxRunning.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void errors() throws ParseException {
+        AsyncEvaluator evaluator = new AsyncEvaluator(parser.parseExpression("x > 0 ? x : x > 1"), executor, 2, x);
+        assertEquals(1.0, evaluator.evaluate(1).join());
+        assertEquals(false, evaluator.evaluate(-1).join());
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> new AsyncEvaluator(parser.parseExpression("unknown + x"), executor, 2, x).evaluate(1).get());
+        assertInstanceOf(RuntimeException.class, ex.getCause());
+        assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(1, 2));
+        assertThrows(IllegalArgumentException.class, () -> new AsyncEvaluator(parser.parseExpression("x"), executor, 0, x));
+
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        AsyncEvaluator rejected = new AsyncEvaluator(parser.parseExpression("x"), stopped, 1, x);
+        ex = assertThrows(ExecutionException.class, () -> rejected.evaluate(1).get());
+        assertInstanceOf(RejectedExecutionException.class, ex.getCause());
+        assertEquals(0, rejected.getInFlight());
+    }
+}
@@ -0,0 +1,66 @@
+package test;
+
+import math.BulkLoader;
+import math.ExpressionParser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Writes a temporary file of definitions and loads it with an increasing number of threads, reporting the time and the
+ * speedup over one thread.
+ * Not a unit test, run it with:
+ * mvn test-compile exec:java -Dexec.mainClass=test.BulkLoaderBenchmark -Dexec.classpathScope=test -Dexec.args="[definitions]"
+ */
+public class BulkLoaderBenchmark {
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        ExpressionParser parser = new ExpressionParser();
+        for (String name : new String[] {"price", "volume", "age", "score"})
+            parser.setVariable(name, 0);
+        Path file = Files.createTempFile("definitions", ".txt");
+        try {
+            Random random = new Random(7);
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (int i = 0; i < count; i++) {
+                    writer.write("f" + i + " = " + randomExpression(random));
+                    writer.newLine();
+                }
+            }
+            System.out.printf("%d definitions, %.1f MB%n", count, Files.size(file) / 1e6);
+            BulkLoader loader = new BulkLoader(parser);
+            loader.setThreads(1);
+            loader.load(file);//warm up
+            long single = 0;
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                loader.setThreads(threads);
+                long best = Long.MAX_VALUE;
+                BulkLoader.Result result = null;
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    result = loader.load(file);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                if (threads == 1)
+                    single = best;
+                System.out.printf("%d thread(s): %d expressions, %d errors in %d ms, speedup %.2f%n",
+                    threads, result.getExpressions().size(), result.getErrors().size(), best / 1_000_000, (double) single / best);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static String randomExpression(Random random) {
+        String[] factors = {"(price / 100)", "(volume / 1000)", "(age / 365)", "(score * 0.01)"};
+        String[] variables = {"price", "volume", "age", "score"};
+        int threshold = random.nextInt(20) * 5;
+        return factors[random.nextInt(4)] + " * " + random.nextInt(1000) + " + " + factors[random.nextInt(4)]
+            + " > " + threshold + " and " + variables[random.nextInt(4)] + " < " + (threshold + 10);
+    }
+}
@@ -0,0 +1,148 @@
+package test;
+
+import math.BulkLoader;
+import math.ExpressionParser;
+import math.FunctionProperties;
+import math.Node;
+import math.NodePool;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the bulk loader: parallel loading must give the expressions of a sequential parse in the order of the file,
+ * and every wrong line must be reported with its line, column and byte offset.
+ */
+public class BulkLoaderTests {
+    @TempDir
+    Path directory;
+    private ExpressionParser parser;
+    private Variable x, y;
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+        parser.registerFunction("cube", v -> v * v * v, FunctionProperties.PURE);
+    }
+
+    private Path write(String content) throws IOException {
+        Path file = directory.resolve("definitions.txt");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    void definitions() throws IOException {
+        Path file = write("# comment\r\na = x * 2 + 1\r\n\r\n  b=cube(y) > x\r\nc = x > 0 ? 1 : 2");
+        BulkLoader.Result result = new BulkLoader(parser).load(file);
+        assertEquals(5, result.getLines());
+        assertTrue(result.getErrors().isEmpty(), result.getErrors().toString());
+        Map<String, Node> expressions = result.getExpressions();
+        assertEquals(List.of("a", "b", "c"), new ArrayList<>(expressions.keySet()));
+        x.set(2);
+        y.set(3);
+        assertEquals(5.0, expressions.get("a").evaluate());
+        assertEquals(true, expressions.get("b").evaluate());
+        assertEquals(1.0, expressions.get("c").evaluate());
+    }
+
+    @Test
+    void errors() throws IOException {
+        Path file = write("a = x +\nb x + 1\n1b = 2\n\u00e9 = 1\nc = \u00e9 + (x 1\nd = cube(1, 2)\n\u00e9 = 3\ne = y\n");
+        BulkLoader.Result result = new BulkLoader(parser).load(file);
+        assertEquals(List.of("\u00e9", "e"), new ArrayList<>(result.getExpressions().keySet()));
+        List<BulkLoader.LineError> errors = result.getErrors();
+        assertEquals(6, errors.size(), errors.toString());
+        long[] lines = {1, 2, 3, 5, 6, 7};
+        int[] columns = {7, 2, 0, 11, 4, -1};
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(lines[i], errors.get(i).getLine(), errors.get(i).toString());
+            assertEquals(columns[i], errors.get(i).getColumn(), errors.get(i).toString());
+        }
+        assertEquals(8 + 2, errors.get(1).getFileOffset());
+        assertEquals(8 + 8 + 7 + 7 + 12, errors.get(3).getFileOffset());//the accented e takes two bytes
+        assertEquals("\u00e9", errors.get(5).getName());
+        assertTrue(errors.get(5).getException().getMessage().contains("line 4"));
+    }
+
+    @Test
+    void parallelAsSequential() throws IOException, ParseException {
+        StringBuilder content = new StringBuilder();
+        int n = 5000;
+        for (int i = 0; i < n; i++) {
+            if (i % 97 == 0)
+                content.append("bad").append(i).append(" = x * (").append(i).append('\n');
+            else content.append("f").append(i).append(" = x * ").append(i).append(" + cube(y) > ").append(i % 50).append('\n');
+        }
+        Path file = write(content.toString());
+        BulkLoader loader = new BulkLoader(parser);
+        loader.setThreads(4);
+        loader.setChunkSize(1000);//many chunks, split in the middle of lines
+        BulkLoader.Result parallel = loader.load(file);
+        loader.setThreads(1);
+        loader.setChunkSize(1 << 20);
+        BulkLoader.Result sequential = loader.load(file);
+
+        assertEquals(n, parallel.getLines());
+        assertEquals(sequential.getExpressions().keySet().toString(), parallel.getExpressions().keySet().toString());
+        assertEquals(sequential.getErrors().toString(), parallel.getErrors().toString());
+        assertEquals((n + 96) / 97, parallel.getErrors().size());
+        for (int i = 0; i < parallel.getErrors().size(); i++)
+            assertEquals(i * 97 + 1, parallel.getErrors().get(i).getLine());
+        x.set(3);
+        y.set(2);
+        for (Map.Entry<String, Node> entry : parallel.getExpressions().entrySet()) {
+            int i = Integer.parseInt(entry.getKey().substring(1));
+            assertEquals(parser.parseExpression("x * " + i + " + cube(y) > " + (i % 50)).evaluate(), entry.getValue().evaluate(), entry.getKey());
+        }
+    }
+
+    @Test
+    void sharedPool() throws IOException {
+        NodePool pool = new NodePool();
+        parser.setNodePool(pool);
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            content.append("f").append(i).append(" = x * 2 + y\n");
+        BulkLoader loader = new BulkLoader(parser);
+        loader.setThreads(4);
+        loader.setChunkSize(100);
+        Map<String, Node> expressions = loader.load(write(content.toString())).getExpressions();
+        assertEquals(200, expressions.size());
+        assertSame(expressions.get("f0"), expressions.get("f199"));
+    }
+
+    @Test
+    void parserChangedBetweenLoads() throws IOException {
+        BulkLoader loader = new BulkLoader(parser);
+        assertTrue(loader.load(write("a = x + 1")).getErrors().isEmpty());
+        parser.setVariable("z", 41);
+        parser.registerFunction("twice", v -> 2 * v);
+        BulkLoader.Result result = loader.load(write("b = z + 1\nc = twice(z)"));
+        assertTrue(result.getErrors().isEmpty(), result.getErrors().toString());
+        assertEquals(42.0, result.getExpressions().get("b").evaluate());
+        assertEquals(82.0, result.getExpressions().get("c").evaluate());
+    }
+
+    @Test
+    void emptyFile() throws IOException {
+        BulkLoader.Result result = new BulkLoader(parser).load(write(""));
+        assertEquals(0, result.getLines());
+        assertTrue(result.getExpressions().isEmpty());
+        assertTrue(result.getErrors().isEmpty());
+    }
+}
@@ -0,0 +1,142 @@
+package test;
+
+import math.ExpressionParser;
+import math.FunctionProperties;
+import math.GradientEvaluator;
+import math.Node;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of forward mode gradients and symbolic derivatives, checked against central finite differences.
+ */
+public class DifferentiationTests {
+    private static final double EPSILON = 1e-6;
+    private static final double H = 1e-6;
+
+    private ExpressionParser parser;
+    private Variable x, y;
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0.7);
+        y = parser.setVariable("y", 1.3);
+        parser.registerFunction("cube", v -> v * v * v);
+        parser.registerFunction("dcube", v -> 3 * v * v);
+        parser.registerDerivative("cube", "dcube");
+        parser.registerFunction("hypot", Math::hypot);
+        parser.registerFunction("dhypotx", (a, b) -> a / Math.hypot(a, b));
+        parser.registerFunction("dhypoty", (a, b) -> b / Math.hypot(a, b));
+        parser.registerDerivative("hypot", "dhypotx", "dhypoty");
+        parser.registerFunction("noderivative", v -> v);
+    }
+
+    private double finiteDifference(Node node, Variable v) {
+        double saved = v.get();
+        v.set(saved + H);
+        double plus = node.evaluateDouble();
+        v.set(saved - H);
+        double minus = node.evaluateDouble();
+        v.set(saved);
+        return (plus - minus) / (2 * H);
+    }
+
+    private void checkGradient(String expression) throws ParseException {
+        Node node = parser.parseExpression(expression);
+        double[] gradient = new double[2];
+        double value = parser.gradient(node, gradient, x, y);
+        assertEquals(node.evaluateDouble(), value, EPSILON, expression);
+        assertEquals(finiteDifference(node, x), gradient[0], EPSILON, "d/dx " + expression);
+        assertEquals(finiteDifference(node, y), gradient[1], EPSILON, "d/dy " + expression);
+
+        assertEquals(gradient[0], parser.differentiate(node, x).evaluateDouble(), EPSILON, "symbolic d/dx " + expression);
+        assertEquals(gradient[1], parser.optimize(parser.differentiate(node, y)).evaluateDouble(), EPSILON, "symbolic d/dy " + expression);
+    }
+
+    @Test
+    void arithmetic() throws ParseException {
+        checkGradient("x + y");
+        checkGradient("x - 2 * y");
+        checkGradient("x * y * x");
+        checkGradient("x / y - y / (x + 1)");
+        checkGradient("-x * -(y + PI)");
+    }
+
+    @Test
+    void power() throws ParseException {
+        checkGradient("x ^ 3 - y ^ 2");
+        checkGradient("x ^ -2 * y ^ 0.5");
+        checkGradient("2 ^ (x * y)");
+        checkGradient("x ^ y");
+        checkGradient("(x - 3) ^ 4");//negative base, constant exponent: no logarithm needed
+        assertEquals("(3.0 * (x ^ 2.0))", parser.visit(parser.differentiate(parser.parseExpression("x ^ 3"), x)));
+        assertEquals("(2.0 * x)", parser.visit(parser.differentiate(parser.parseExpression("x ^ 2"), x)));
+    }
+
+    @Test
+    void builtInFunctions() throws ParseException {
+        checkGradient("sin(x * y) + cos(x)");
+        checkGradient("tan(x) * log(y)");
+        checkGradient("exp(x / y) - sqrt(x * x + y)");
+    }
+
+    @Test
+    void userFunctions() throws ParseException {
+        checkGradient("cube(x + y)");
+        checkGradient("hypot(x, y * y)");
+        checkGradient("hypot(cube(x), 2)");
+    }
+
+    @Test
+    void conditional() throws ParseException {
+        checkGradient("x > y ? x * x : y * x");
+        y.set(0.1);
+        checkGradient("x > y ? x * x : y * x");
+    }
+
+    @Test
+    void optimizedTree() throws ParseException {
+        parser.registerFunction("pcube", v -> v * v * v, FunctionProperties.PURE);
+        parser.registerDerivative("pcube", "dcube");
+        Node node = parser.optimize(parser.parseExpression("pcube(x) + pcube(x) * y"));
+        double[] gradient = new double[2];
+        parser.gradient(node, gradient, x, y);
+        assertEquals(3 * x.get() * x.get() * (1 + y.get()), gradient[0], EPSILON);
+        assertEquals(Math.pow(x.get(), 3), gradient[1], EPSILON);
+    }
+
+    @Test
+    void symbolicTreeIsSimplified() throws ParseException {
+        assertEquals("1.0", parser.visit(parser.differentiate(parser.parseExpression("x + 3"), x)));
+        assertEquals("y", parser.visit(parser.differentiate(parser.parseExpression("x * y"), x)));
+        assertEquals("(cos(x) * 2.0)", parser.visit(parser.differentiate(parser.parseExpression("sin(x) * 2"), x)));
+        assertEquals("0.0", parser.visit(parser.differentiate(parser.parseExpression("sin(y)"), x)));
+    }
+
+    @Test
+    void reusableEvaluator() throws ParseException {
+        GradientEvaluator evaluator = new GradientEvaluator(parser.parseExpression("x * x + y"), x);
+        double[] gradient = new double[1];
+        for (int i = 0; i < 10; i++) {
+            x.set(i);
+            assertEquals(i * i + y.get(), evaluator.evaluate(gradient), EPSILON);
+            assertEquals(2.0 * i, gradient[0], EPSILON);
+        }
+    }
+
+    @Test
+    void errors() throws ParseException {
+        Node node = parser.parseExpression("noderivative(x)");
+        assertThrows(IllegalStateException.class, () -> parser.gradient(node, new double[1], x));
+        assertThrows(IllegalStateException.class, () -> parser.differentiate(node, x));
+        assertThrows(IllegalArgumentException.class, () -> parser.differentiate(parser.parseExpression("x > 1"), x));
+        assertThrows(IllegalArgumentException.class, () -> parser.registerDerivative("hypot", "dcube", "dcube"));
+        assertThrows(IllegalArgumentException.class, () -> parser.registerDerivative("cube"));
+    }
+}
@@ -0,0 +1,263 @@
+package test;
+
+import math.EvaluationProcessor;
+import math.EvaluationProcessor.Result;
+import math.ExpressionParser;
+import math.Node;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the Flow processor: results must be emitted in the order of the records and only on demand, the records
+ * requested upstream must stay bounded, partial batches must be flushed after the delay, and errors of the evaluation
+ * must not stop the stream.
+ */
+public class EvaluationProcessorTests {
+    private ExpressionParser parser;
+    private Variable x, y;
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+        parser.registerFunction("checked", v -> {
+            if (v < 0)
+                throw new IllegalArgumentException("negative value: " + v);
+            return Math.sqrt(v);
+        });
+    }
+
+    private static class Collector implements Flow.Subscriber<Result> {
+        final List<Result> results = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+        private final long initialRequest;
+
+        Collector(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0)
+                subscription.request(initialRequest);
+        }
+
+        @Override
+        public synchronized void onNext(Result item) {
+            results.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+
+        synchronized int size() {
+            return results.size();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(30, TimeUnit.SECONDS), "stream not terminated");
+        }
+    }
+
+    private static class Upstream implements Flow.Subscription {//records pushed by the test, counting the requests
+        long requested;
+        boolean cancelled;
+
+        @Override
+        public void request(long n) {
+            requested += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    @Test
+    void orderAndValues() throws ParseException, InterruptedException {
+        Node node = parser.parseExpression("x * 2 + sin(y) > 1 ? sqrt(x * x + y * y) : -x / (y - 1)");
+        EvaluationProcessor processor = new EvaluationProcessor(node, x, y);
+        processor.setBatchSize(64);
+        Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        List<double[]> rows = new ArrayList<>();
+        try (SubmissionPublisher<double[]> publisher = new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (int i = 0; i < 1000; i++) {
+                double[] row = {i * 0.37 - 100, 1 + (i % 17) * 0.5};
+                rows.add(row);
+                publisher.submit(row);
+            }
+        }
+        collector.await();
+        assertTrue(collector.completed);
+        assertEquals(rows.size(), collector.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Result result = collector.results.get(i);
+            assertSame(rows.get(i), result.getValues());
+            x.set(rows.get(i)[0]);
+            y.set(rows.get(i)[1]);
+            assertFalse(result.isError());
+            assertEquals(node.evaluate(), result.getValue(), "record " + i);
+        }
+    }
+
+    @Test
+    void booleanExpression() throws ParseException, InterruptedException {
+        EvaluationProcessor processor = new EvaluationProcessor(parser.parseExpression("x > y or x == 0"), x, y);
+        Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        Upstream upstream = new Upstream();
+        processor.onSubscribe(upstream);
+        processor.onNext(new double[]{2, 1});
+        processor.onNext(new double[]{1, 2});
+        processor.onNext(new double[]{0, 2});
+        processor.onComplete();
+        collector.await();
+        assertEquals(List.of(true, false, true), List.of(collector.results.get(0).getValue(), collector.results.get(1).getValue(), collector.results.get(2).getValue()));
+    }
+
+    @Test
+    void backpressure() throws ParseException, InterruptedException {
+        EvaluationProcessor processor = new EvaluationProcessor(parser.parseExpression("x + y"), x, y);
+        processor.setBatchSize(10);
+        Collector collector = new Collector(0);
+        processor.subscribe(collector);
+        Upstream upstream = new Upstream();
+        processor.onSubscribe(upstream);
+        assertEquals(20, upstream.requested);//two batches
+        for (int i = 0; i < 20; i++)
+            processor.onNext(new double[]{i, 1});
+        assertEquals(0, collector.size());//no demand
+        assertEquals(20, upstream.requested);
+        collector.subscription.request(5);
+        assertEquals(5, collector.size());
+        assertEquals(25, upstream.requested);//the emitted records are requested again
+        collector.subscription.request(100);
+        assertEquals(20, collector.size());
+        assertEquals(40, upstream.requested);
+        for (int i = 20; i < 40; i++)
+            processor.onNext(new double[]{i, 1});
+        processor.onComplete();
+        collector.await();
+        assertTrue(collector.completed);
+        assertEquals(40, collector.size());
+        for (int i = 0; i < 40; i++)
+            assertEquals(i + 1.0, collector.results.get(i).getValue());
+    }
+
+    @Test
+    void flushByTime() throws ParseException, InterruptedException {
+        EvaluationProcessor processor = new EvaluationProcessor(parser.parseExpression("x * y"), x, y);
+        processor.setBatchSize(1000);
+        processor.setMaxDelay(20, TimeUnit.MILLISECONDS);
+        Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        processor.onSubscribe(new Upstream());
+        processor.onNext(new double[]{2, 3});
+        processor.onNext(new double[]{4, 5});
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (collector.size() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(2, collector.size());//the partial batch, without completing the stream
+        assertEquals(6.0, collector.results.get(0).getValue());
+        assertEquals(20.0, collector.results.get(1).getValue());
+        assertFalse(collector.completed);
+    }
+
+    @Test
+    void evaluationErrors() throws ParseException, InterruptedException {
+        EvaluationProcessor processor = new EvaluationProcessor(parser.parseExpression("checked(x) + y"), x, y);
+        processor.setBatchSize(4);
+        Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        processor.onSubscribe(new Upstream());
+        processor.onNext(new double[]{4, 1});
+        processor.onNext(new double[]{-1, 1});
+        processor.onNext(new double[]{9});
+        processor.onNext(new double[]{16, 0});
+        processor.onNext(new double[]{25, 0});
+        processor.onComplete();
+        collector.await();
+        assertTrue(collector.completed);
+        assertEquals(5, collector.size());
+        assertEquals(3.0, collector.results.get(0).getValue());
+        assertTrue(collector.results.get(1).getError() instanceof IllegalArgumentException);
+        assertNull(collector.results.get(1).getValue());
+        assertEquals("expected 2 value(s), but got 1", collector.results.get(2).getError().getMessage());
+        assertEquals(4.0, collector.results.get(3).getValue());
+        assertEquals(5.0, collector.results.get(4).getValue());
+    }
+
+    @Test
+    void upstreamError() throws ParseException, InterruptedException {
+        EvaluationProcessor processor = new EvaluationProcessor(parser.parseExpression("x - y"), x, y);
+        Collector collector = new Collector(Long.MAX_VALUE);
+        processor.subscribe(collector);
+        processor.onSubscribe(new Upstream());
+        processor.onNext(new double[]{3, 1});
+        IllegalStateException failure = new IllegalStateException("source closed");
+        processor.onError(failure);
+        collector.await();
+        assertEquals(1, collector.size());//pending results first
+        assertEquals(2.0, collector.results.get(0).getValue());
+        assertSame(failure, collector.error);
+    }
+
+    @Test
+    void protocol() throws ParseException, InterruptedException {
+        EvaluationProcessor processor = new EvaluationProcessor(parser.parseExpression("x"), x);
+        Collector first = new Collector(0);
+        processor.subscribe(first);
+        Collector second = new Collector(1);
+        processor.subscribe(second);
+        second.await();
+        assertTrue(second.error instanceof IllegalStateException);
+
+        Upstream upstream = new Upstream();
+        processor.onSubscribe(upstream);
+        Upstream other = new Upstream();
+        processor.onSubscribe(other);
+        assertTrue(other.cancelled);
+        first.subscription.request(0);
+        first.await();
+        assertTrue(first.error instanceof IllegalArgumentException);
+        assertTrue(upstream.cancelled);
+
+        EvaluationProcessor cancelled = new EvaluationProcessor(parser.parseExpression("x"), x);
+        Collector collector = new Collector(1);
+        cancelled.subscribe(collector);
+        Upstream source = new Upstream();
+        cancelled.onSubscribe(source);
+        collector.subscription.cancel();
+        assertTrue(source.cancelled);
+        cancelled.onNext(new double[]{1});
+        assertEquals(0, collector.size());
+    }
+}
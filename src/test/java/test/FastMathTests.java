@@ -0,0 +1,139 @@
+package test;
+
+import math.BatchEvaluator;
+import math.ExpressionParser;
+import math.FastMath;
+import math.Interval;
+import math.IntervalEvaluator;
+import math.Node;
+import math.UnaryNodeIdentifier;
+import math.Variable;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the error bounds of FastMath over the whole domain of each function, sampling every binary exponent,
+ * and of the evaluation of expressions parsed in fast math mode.
+ */
+public class FastMathTests {
+    private static final int SAMPLES = 1_000_000;
+    private static final double[] SPECIAL = {
+        0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MIN_VALUE,
+        Double.MIN_NORMAL, Double.MAX_VALUE, -Double.MAX_VALUE, 1, -1, Math.PI, Math.PI / 2, -Math.PI / 4
+    };
+
+    private final Random random = new Random(3);
+
+    private double randomDouble(int minExponent, int maxExponent) {//random sign, uniform binary exponent and mantissa
+        double mantissa = 1 + random.nextDouble();
+        double value = Math.scalb(mantissa, minExponent + random.nextInt(maxExponent - minExponent + 1));
+        return random.nextBoolean() ? value : -value;
+    }
+
+    private static void assertClose(double expected, double actual, double delta, String message) {//also for infinities and NaN
+        if (Double.compare(expected, actual) != 0)
+            assertEquals(expected, actual, delta, message);
+    }
+
+    @Test
+    void exp() {
+        for (int i = 0; i < SAMPLES; i++) {
+            double x = i % 2 == 0 ? randomDouble(-1074, 9) : (random.nextDouble() * 2 - 1) * 750;
+            double exact = Math.exp(x);
+            assertClose(exact, FastMath.exp(x), FastMath.EXP_ERROR * exact, "exp(" + x + ")");
+        }
+    }
+
+    @Test
+    void log() {
+        for (int i = 0; i < SAMPLES; i++) {
+            double x = Math.abs(randomDouble(-1074, 1023));
+            double exact = Math.log(x);
+            assertClose(exact, FastMath.log(x), FastMath.LOG_ERROR, "log(" + x + ")");
+            double y = 1 + randomDouble(-60, -2);//near 1 the error is relative
+            exact = Math.log(y);
+            assertClose(exact, FastMath.log(y), Math.abs(exact) * FastMath.LOG_ERROR, "log(" + y + ")");
+        }
+    }
+
+    @Test
+    void trigonometric() {
+        for (int i = 0; i < SAMPLES; i++) {
+            double x = i % 4 == 0 ? randomDouble(-1074, 30) : randomDouble(-20, 21);
+            assertEquals(Math.sin(x), FastMath.sin(x), FastMath.TRIG_ERROR, "sin(" + x + ")");
+            assertEquals(Math.cos(x), FastMath.cos(x), FastMath.TRIG_ERROR, "cos(" + x + ")");
+            double tan = Math.tan(x);
+            assertClose(tan, FastMath.tan(x), Math.abs(tan) * FastMath.TAN_ERROR, "tan(" + x + ")");
+        }
+        for (int k = -1000; k <= 1000; k++) {//near the zeros and the poles
+            double x = k * Math.PI / 2;
+            assertEquals(Math.sin(x), FastMath.sin(x), FastMath.TRIG_ERROR);
+            assertEquals(Math.cos(x), FastMath.cos(x), FastMath.TRIG_ERROR);
+            assertClose(Math.tan(x), FastMath.tan(x), Math.abs(Math.tan(x)) * FastMath.TAN_ERROR, "tan(" + x + ")");
+        }
+    }
+
+    @Test
+    void specialValues() {
+        for (double x : SPECIAL) {
+            assertClose(Math.exp(x), FastMath.exp(x), FastMath.EXP_ERROR * Math.exp(x), "exp(" + x + ")");
+            assertClose(Math.log(x), FastMath.log(x), FastMath.LOG_ERROR, "log(" + x + ")");
+            assertClose(Math.sin(x), FastMath.sin(x), FastMath.TRIG_ERROR, "sin(" + x + ")");
+            assertClose(Math.cos(x), FastMath.cos(x), FastMath.TRIG_ERROR, "cos(" + x + ")");
+            assertEquals(Math.sqrt(x), FastMath.sqrt(x), "sqrt(" + x + ")");
+        }
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(FastMath.sin(-0.0)));
+        assertEquals(Double.POSITIVE_INFINITY, FastMath.exp(710));
+        assertEquals(0.0, FastMath.exp(-746));
+        assertEquals(Double.NEGATIVE_INFINITY, FastMath.log(0));
+        assertTrue(Double.isNaN(FastMath.log(-1)));
+    }
+
+    @Test
+    void fastMathMode() throws ParseException {
+        ExpressionParser parser = new ExpressionParser();
+        Variable x = parser.setVariable("x", 0);
+        Node exact = parser.parseExpression("exp(sin(x)) * log(x + 2) - cos(x) / 3");
+        parser.setFastMath(true);
+        Node fast = parser.parseExpression("exp(sin(x)) * log(x + 2) - cos(x) / 3");
+        assertTrue(((UnaryNodeIdentifier) parser.parseExpression("tan(x)")).isFastMath());
+        assertTrue(((UnaryNodeIdentifier) parser.optimize(parser.parseExpression("tan(x)"))).isFastMath());
+
+        double[][] columns = new double[1][1000];
+        for (int i = 0; i < 1000; i++)
+            columns[0][i] = random.nextDouble() * 20 - 1.9;
+        double[] expected = new double[1000], results = new double[1000];
+        new BatchEvaluator(exact, x).evaluate(columns, 0, 1000, expected);
+        new BatchEvaluator(fast, x).evaluate(columns, 0, 1000, results);
+        assertArrayEquals(expected, results, 1e-8);
+
+        double[] gradient = new double[1];
+        x.set(0.3);
+        assertEquals(exact.evaluateDouble(), parser.gradient(fast, gradient, x), 1e-8);
+        assertEquals(parser.differentiate(exact, x).evaluateDouble(), gradient[0], 1e-8);
+    }
+
+    @Test
+    void intervalsCoverFastValues() throws ParseException {
+        ExpressionParser parser = new ExpressionParser();
+        Variable x = parser.setVariable("x", 0);
+        parser.setFastMath(true);
+        for (String expression : new String[] {"sin(x)", "cos(x)", "exp(x)", "log(x)", "tan(x)"}) {
+            Node node = parser.parseExpression(expression);
+            IntervalEvaluator evaluator = new IntervalEvaluator(node);
+            for (int i = 0; i < 1000; i++) {
+                double lo = random.nextDouble() * 3, hi = lo + random.nextDouble() * 0.1;
+                Interval range = evaluator.evaluateRange(Map.of(x, Interval.of(lo, hi)));
+                for (double v : new double[] {lo, hi, (lo + hi) / 2}) {
+                    x.set(v);
+                    assertTrue(range.contains(node.evaluateDouble()), expression + " at " + v + " outside " + range);
+                }
+            }
+        }
+    }
+}
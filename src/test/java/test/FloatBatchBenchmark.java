@@ -0,0 +1,62 @@
+package test;
+
+import math.ExpressionParser;
+import math.FloatBatchEvaluator;
+import math.Node;
+import math.Variable;
+
+import java.text.ParseException;
+import java.util.Random;
+
+/**
+ * Compares the evaluation of the same values in double and in float columns by the same compiled FloatBatchEvaluator,
+ * for columns much larger than the caches: only the bytes read differ. Not a unit test, run it with:
+ * mvn test-compile exec:java -Dexec.mainClass=test.FloatBatchBenchmark -Dexec.classpathScope=test -Dexec.args="[rows] [rounds]"
+ */
+public class FloatBatchBenchmark {
+    private static final String NUMERIC = "a * b + c * 0.5 - a / (b + 2)";
+    private static final String FILTER = "a * b > c and c < 0.75";
+
+    public static void main(String[] args) throws ParseException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 8_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        ExpressionParser parser = new ExpressionParser();
+        Variable a = parser.setVariable("a", 0), b = parser.setVariable("b", 0), c = parser.setVariable("c", 0);
+        Random random = new Random(1);
+        double[][] wide = new double[3][rows];
+        float[][] narrow = new float[3][rows];
+        for (int i = 0; i < 3; i++) {
+            for (int row = 0; row < rows; row++) {
+                narrow[i][row] = random.nextFloat();
+                wide[i][row] = narrow[i][row];
+            }
+        }
+        System.out.printf("%d rows, 3 columns: %d MB as double, %d MB as float%n", rows, 24L * rows >> 20, 12L * rows >> 20);
+
+        Node numeric = parser.parseExpression(NUMERIC), filter = parser.parseExpression(FILTER);
+        FloatBatchEvaluator evaluator = new FloatBatchEvaluator(numeric, a, b, c), filterEvaluator = new FloatBatchEvaluator(filter, a, b, c);
+        float[] doubleResults = new float[rows], floatResults = new float[rows];
+        boolean[] matches = new boolean[rows];
+        for (int round = 0; round < rounds; round++) {//the first rounds warm up the JIT
+            long t0 = System.nanoTime();
+            evaluator.evaluate(wide, 0, rows, doubleResults);
+            long t1 = System.nanoTime();
+            evaluator.evaluate(narrow, 0, rows, floatResults);
+            long t2 = System.nanoTime();
+            filterEvaluator.filter(wide, 0, rows, matches);
+            long t3 = System.nanoTime();
+            filterEvaluator.filter(narrow, 0, rows, matches);
+            long t4 = System.nanoTime();
+            System.out.printf("round %d: evaluate double %s, float %s; filter double %s, float %s%n", round,
+                rate(rows, t1 - t0), rate(rows, t2 - t1), rate(rows, t3 - t2), rate(rows, t4 - t3));
+        }
+        for (int row = 0; row < rows; row++) {//the values of the double columns are floats: same results
+            if (Float.floatToIntBits(doubleResults[row]) != Float.floatToIntBits(floatResults[row]))
+                throw new AssertionError("row " + row + ": " + doubleResults[row] + " != " + floatResults[row]);
+        }
+    }
+
+    private static String rate(int rows, long nanos) {
+        return String.format("%.1f Mrows/s", rows * 1e3 / nanos);
+    }
+}
@@ -0,0 +1,172 @@
+package test;
+
+import math.BatchEvaluator;
+import math.ExpressionParser;
+import math.FloatBatchEvaluator;
+import math.Node;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.text.ParseException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of single precision batch evaluation: the results must be close to the double precision results for the same
+ * values, and the subtrees marked as precise must be evaluated in double.
+ */
+public class FloatBatchTests {
+    private static final int ROWS = 10_000;
+    private static final String[] NUMERIC = {
+        "x + y * 2", "x * y - x / (y + 10)", "-x * x + PI", "exp(x / 4) - log(y)", "sqrt(y) + sin(x) * cos(y)",
+        "x > y ? x - y : y - x", "hypot(x, y) / (1 + y)", "tan(x / 8) * E"
+    };
+    private static final String[] BOOLEAN = {
+        "x > 2.5", "x <= y and y < 3.5", "!(x >= 1.5) or y > x * x", "x == 2", "x != y", "(x > 0) == (y > 1)",
+        "x > 0 ? y > 1.5 : y < 0.5", "true and x < 0.5"
+    };
+
+    private ExpressionParser parser;
+    private Variable x, y;
+    private final Random random = new Random(11);
+    private final float[][] columns = new float[2][ROWS];
+    private final double[][] wide = new double[2][ROWS];
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+        parser.registerFunction("hypot", Math::hypot);
+        for (int i = 0; i < ROWS; i++) {
+            columns[0][i] = i % 10 == 0 ? random.nextInt(5) - 1 : (float) (random.nextDouble() * 8 - 2);//also exact integers
+            columns[1][i] = i % 10 == 1 ? random.nextInt(4) : (float) (random.nextDouble() * 5 + 0.1);
+            wide[0][i] = columns[0][i];
+            wide[1][i] = columns[1][i];
+        }
+    }
+
+    @Test
+    void numericExpressions() throws ParseException {
+        for (String expression : NUMERIC) {
+            Node node = parser.parseExpression(expression);
+            double[] expected = new double[ROWS];
+            new BatchEvaluator(node, x, y).evaluate(wide, 0, ROWS, expected);
+            float[] results = new float[ROWS];
+            FloatBatchEvaluator evaluator = new FloatBatchEvaluator(node, x, y);
+            evaluator.evaluate(columns, 0, ROWS, results);
+            assertEquals(0, evaluator.getWidenedSubtrees(), expression);
+            for (int i = 0; i < ROWS; i++)
+                assertEquals(expected[i], results[i], 1e-5 * Math.max(1, Math.abs(expected[i])), expression + " at row " + i);
+        }
+    }
+
+    @Test
+    void booleanExpressions() throws ParseException {
+        for (String expression : BOOLEAN) {
+            Node node = parser.parseExpression(expression);
+            boolean[] expected = new boolean[ROWS];
+            new BatchEvaluator(node, x, y).filter(wide, 0, ROWS, expected);
+            boolean[] results = new boolean[ROWS];
+            new FloatBatchEvaluator(node, x, y).filter(columns, 0, ROWS, results);
+            assertArrayEquals(expected, results, expression);//the values are floats and the constants are exact in float
+        }
+    }
+
+    @Test
+    void bufferColumns() throws ParseException {
+        FloatBuffer[] buffers = new FloatBuffer[2];
+        for (int c = 0; c < 2; c++) {
+            buffers[c] = ByteBuffer.allocateDirect(ROWS * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            buffers[c].put(columns[c]).flip();
+        }
+        Node node = parser.parseExpression("x * y - sqrt(y)");
+        float[] expected = new float[ROWS], results = new float[ROWS];
+        FloatBatchEvaluator evaluator = new FloatBatchEvaluator(node, x, y);
+        evaluator.evaluate(columns, 0, ROWS, expected);
+        evaluator.evaluate(buffers, 0, ROWS, results);
+        assertArrayEquals(expected, results);
+
+        Node filter = parser.parseExpression("x * y > 3");
+        boolean[] matches = new boolean[ROWS], bufferMatches = new boolean[ROWS];
+        evaluator = new FloatBatchEvaluator(filter, x, y);
+        evaluator.filter(columns, 0, ROWS, matches);
+        evaluator.filter(buffers, 0, ROWS, bufferMatches);
+        assertArrayEquals(matches, bufferMatches);
+    }
+
+    @Test
+    void doubleColumns() throws ParseException {
+        Node node = parser.parseExpression("x * y - sqrt(y)");
+        float[] expected = new float[ROWS], results = new float[ROWS];
+        FloatBatchEvaluator evaluator = new FloatBatchEvaluator(node, x, y);
+        evaluator.evaluate(columns, 0, ROWS, expected);
+        evaluator.evaluate(wide, 0, ROWS, results);
+        assertArrayEquals(expected, results);
+        double[][] rounded = {{0.1, 1e300}, {0.2, 1}};//rounded to float when read
+        evaluator.evaluate(rounded, 0, 2, results);
+        assertEquals(0.1f * 0.2f - (float) Math.sqrt(0.2f), results[0]);
+        assertEquals(Float.POSITIVE_INFINITY, results[1]);
+
+        Node filter = parser.parseExpression("x * y > 3");
+        boolean[] matches = new boolean[ROWS], wideMatches = new boolean[ROWS];
+        evaluator = new FloatBatchEvaluator(filter, x, y);
+        evaluator.filter(columns, 0, ROWS, matches);
+        evaluator.filter(wide, 0, ROWS, wideMatches);
+        assertArrayEquals(matches, wideMatches);
+        assertThrows(IllegalArgumentException.class, () -> new FloatBatchEvaluator(filter, x).filter(wide, 0, ROWS, wideMatches));
+    }
+
+    @Test
+    void preciseSubtrees() throws ParseException {
+        parser.registerFunction("shift", v -> v + 1e8 - 1e8);
+        float[][] values = {{1.5f}};
+        float[] result = new float[1];
+
+        Node cancellation = parser.parseExpression("(x + 100000000) - 100000000");
+        new FloatBatchEvaluator(cancellation, x).evaluate(values, 0, 1, result);
+        assertEquals(0f, result[0]);//x is lost in the float sum
+        FloatBatchEvaluator precise = new FloatBatchEvaluator(cancellation, node -> node == cancellation, x);
+        precise.evaluate(values, 0, 1, result);
+        assertEquals(1.5f, result[0]);
+        assertEquals(1, precise.getWidenedSubtrees());
+
+        Node call = parser.parseExpression("shift(x) * 2 + exp(x)");
+        FloatBatchEvaluator functions = new FloatBatchEvaluator(call, FloatBatchEvaluator.functions("shift", "exp"), x);
+        functions.evaluate(values, 0, 1, result);
+        assertEquals((float) (3 + Math.exp(1.5)), result[0], 1e-6);
+        assertEquals(2, functions.getWidenedSubtrees());
+        assertEquals(1.5, x.get());//precise subtrees read the variables
+    }
+
+    @Test
+    void variablesOutsideColumns() throws ParseException {
+        Variable scale = parser.setVariable("scale", 10);
+        Node node = parser.parseExpression("x * scale");
+        FloatBatchEvaluator evaluator = new FloatBatchEvaluator(node, x);
+        float[] results = new float[2];
+        evaluator.evaluate(new float[][] {{1, 2}}, 0, 2, results);
+        assertArrayEquals(new float[] {10, 20}, results);
+        scale.set(-1);
+        evaluator.evaluate(new float[][] {{1, 2}}, 0, 2, results);
+        assertArrayEquals(new float[] {-1, -2}, results);
+    }
+
+    @Test
+    void errors() throws ParseException {
+        float[] results = new float[1];
+        boolean[] matches = new boolean[1];
+        FloatBatchEvaluator filter = new FloatBatchEvaluator(parser.parseExpression("x > 1"), x);
+        assertThrows(ClassCastException.class, () -> filter.evaluate(new float[][] {{2}}, 0, 1, results));
+        FloatBatchEvaluator numeric = new FloatBatchEvaluator(parser.parseExpression("x + 1"), x);
+        assertThrows(ClassCastException.class, () -> numeric.filter(new float[][] {{2}}, 0, 1, matches));
+        assertThrows(IllegalArgumentException.class, () -> numeric.evaluate(new float[][] {{2}, {3}}, 0, 1, results));
+        FloatBatchEvaluator unknown = new FloatBatchEvaluator(parser.parseExpression("unknown * x"), x);
+        assertThrows(RuntimeException.class, () -> unknown.evaluate(new float[][] {{2}}, 0, 1, results));
+    }
+}
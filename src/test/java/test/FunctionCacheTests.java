@@ -0,0 +1,128 @@
+package test;
+
+import math.ExpressionParser;
+import math.FunctionCache;
+import math.FunctionProperties;
+import math.Node;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of memoized user functions: results must be the same as without the cache, for thread local and shared caches.
+ */
+public class FunctionCacheTests {
+    private ExpressionParser parser;
+    private Variable x;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        parser.registerFunction("heavy", v -> {
+            calls.incrementAndGet();
+            return Math.sin(v) * 3 + v;
+        }, FunctionProperties.PURE);
+    }
+
+    @Test
+    void repeatedArgumentsHitTheCache() throws ParseException {
+        for (FunctionCache.Sharing sharing : FunctionCache.Sharing.values())
+            repeatedArgumentsHitTheCache(sharing);
+    }
+
+    private void repeatedArgumentsHitTheCache(FunctionCache.Sharing sharing) throws ParseException {
+        calls.set(0);
+        FunctionCache cache = parser.memoize("heavy", 64, sharing);
+        Node node = parser.parseExpression("heavy(x) + 1");
+        for (int i = 0; i < 1000; i++) {
+            x.set(i % 10);
+            assertEquals(Math.sin(i % 10) * 3 + i % 10 + 1, node.evaluateDouble());
+        }
+        assertEquals(10, calls.get());
+        assertEquals(10, cache.getMisses());
+        assertEquals(990, cache.getHits());
+        assertEquals(0.99, cache.getHitRate(), 1e-12);
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    void boundedSize() throws ParseException {
+        for (FunctionCache.Sharing sharing : FunctionCache.Sharing.values())
+            boundedSize(sharing);
+    }
+
+    private void boundedSize(FunctionCache.Sharing sharing) throws ParseException {
+        FunctionCache cache = parser.memoize("heavy", 16, sharing);
+        Node node = parser.parseExpression("heavy(x)");
+        for (int i = 0; i < 10_000; i++) {
+            x.set(i % 1000 / 7.0);
+            assertEquals(Math.sin(x.get()) * 3 + x.get(), node.evaluateDouble());
+        }
+        assertTrue(cache.getEvictions() > 0);
+        assertEquals(10_000, cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    void specialKeys() throws ParseException {
+        parser.registerFunction("sign", v -> 1 / v, FunctionProperties.PURE);
+        parser.memoize("sign", 8, FunctionCache.Sharing.THREAD_LOCAL);
+        Node node = parser.parseExpression("sign(x)");
+        x.set(0.0);
+        assertEquals(Double.POSITIVE_INFINITY, node.evaluateDouble());
+        x.set(-0.0);
+        assertEquals(Double.NEGATIVE_INFINITY, node.evaluateDouble());
+        x.set(Double.NaN);
+        assertTrue(Double.isNaN(node.evaluateDouble()));
+        assertTrue(Double.isNaN(node.evaluateDouble()));
+    }
+
+    @Test
+    void concurrentCalls() throws Exception {
+        for (FunctionCache.Sharing sharing : FunctionCache.Sharing.values())
+            concurrentCalls(sharing);
+    }
+
+    private void concurrentCalls(FunctionCache.Sharing sharing) throws Exception {
+        FunctionCache cache = parser.memoize("heavy", 256, sharing);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Node node = parser.parseExpression("heavy(" + t + " + 0) + heavy(7)");//constant arguments, a tree per thread
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++)
+                        assertEquals((Math.sin(thread) * 3 + thread) + (Math.sin(7) * 3 + 7), node.evaluateDouble());
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(80_000, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getHitRate() > 0.99);
+    }
+
+    @Test
+    void errors() {
+        parser.registerFunction("impure", v -> v);
+        parser.registerFunction("binary", Math::max, FunctionProperties.PURE);
+        assertThrows(IllegalArgumentException.class, () -> parser.memoize("unknown", 16, FunctionCache.Sharing.SHARED));
+        assertThrows(IllegalArgumentException.class, () -> parser.memoize("impure", 16, FunctionCache.Sharing.SHARED));
+        assertThrows(IllegalArgumentException.class, () -> parser.memoize("binary", 16, FunctionCache.Sharing.SHARED));
+        assertThrows(IllegalArgumentException.class, () -> parser.memoize("heavy", 0, FunctionCache.Sharing.SHARED));
+    }
+}
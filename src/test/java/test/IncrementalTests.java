@@ -0,0 +1,112 @@
+package test;
+
+import math.ExpressionParser;
+import math.IncrementalEvaluator;
+import math.Node;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of incremental evaluation: values are checked against the evaluation of the full trees after random updates,
+ * and the number of recomputed subexpressions is checked to be limited to the dirty paths.
+ */
+public class IncrementalTests {
+    private static final String[] FORMULAS = {
+        "base * (1 + tax) - discount", "base > 100 ? base * 0.9 : base", "sqrt(base * base + fee * fee) / (1 + tax)",
+        "base * (1 + tax) > 50 and fee < 3", "max(base, fee) * (1 + tax)", "noise(fee) + base"
+    };
+
+    private ExpressionParser parser;
+    private Variable base, tax, discount, fee;
+    private final Random random = new Random(11);
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        base = parser.setVariable("base", 10);
+        tax = parser.setVariable("tax", 0.2);
+        discount = parser.setVariable("discount", 1);
+        fee = parser.setVariable("fee", 2);
+        parser.registerFunction("max", Math::max);
+        parser.registerFunction("noise", v -> v);//impure by default
+    }
+
+    @Test
+    void valuesAgreeWithFullEvaluation() throws ParseException {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        Node[] nodes = new Node[FORMULAS.length];
+        for (int i = 0; i < FORMULAS.length; i++) {
+            nodes[i] = parser.parseExpression(FORMULAS[i]);
+            assertEquals(i, evaluator.add(nodes[i]));
+        }
+        Variable[] variables = {base, tax, discount, fee};
+        for (int n = 0; n < 1000; n++) {
+            for (int k = random.nextInt(3); k >= 0; k--)
+                evaluator.set(variables[random.nextInt(variables.length)], random.nextInt(200) / 2.0);
+            for (int i = 0; i < nodes.length; i++)
+                assertEquals(nodes[i].evaluate(), evaluator.evaluate(i), FORMULAS[i]);
+        }
+    }
+
+    @Test
+    void onlyDirtyPathsAreRecomputed() throws ParseException {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        int price = evaluator.add(parser.parseExpression("(base * (1 + tax) - discount) * (fee + 1)"));
+        assertEquals((10 * 1.2 - 1) * 3, evaluator.evaluateDouble(price), 1e-12);
+        long computations = evaluator.getComputations();
+        assertEquals(5, computations);
+
+        evaluator.set(fee, 3);
+        assertEquals((10 * 1.2 - 1) * 4, evaluator.evaluateDouble(price), 1e-12);
+        assertEquals(computations + 2, evaluator.getComputations());//fee + 1 and the root
+
+        evaluator.set(tax, 0.2);//same value
+        evaluator.evaluateDouble(price);
+        assertEquals(computations + 2, evaluator.getComputations());
+    }
+
+    @Test
+    void sharedInputsPropagateOnce() throws ParseException {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        for (int i = 0; i < 100; i++)
+            evaluator.add(parser.parseExpression("base * (1 + tax) + " + i));
+        for (int i = 0; i < 100; i++)
+            evaluator.evaluateDouble(i);
+        long computations = evaluator.getComputations();
+        assertEquals(102, computations);//1 + tax, base * (1 + tax) and the roots
+
+        evaluator.set(base, 20);
+        evaluator.set(tax, 0.5);
+        for (int i = 0; i < 100; i++)
+            assertEquals(30.0 + i, evaluator.evaluateDouble(i), 1e-12);
+        assertEquals(computations + 102, evaluator.getComputations());
+    }
+
+    @Test
+    void impureCallsAreNotCached() throws ParseException {
+        int[] calls = {0};
+        parser.registerFunction("counter", v -> ++calls[0]);
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        int expression = evaluator.add(parser.parseExpression("counter(base) + base"));
+        assertEquals(11, evaluator.evaluateDouble(expression), 1e-12);
+        assertEquals(12, evaluator.evaluateDouble(expression), 1e-12);
+    }
+
+    @Test
+    void leavesAndErrors() throws ParseException {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        int leaf = evaluator.add(parser.parseExpression("base"));
+        int constant = evaluator.add(parser.parseExpression("2 * PI > 6"));
+        assertEquals(10, evaluator.evaluateDouble(leaf), 1e-12);
+        evaluator.set(base, 5);
+        assertEquals(5.0, evaluator.evaluate(leaf));
+        assertTrue(evaluator.evaluateBoolean(constant));
+        assertThrows(ClassCastException.class, () -> evaluator.evaluateBoolean(leaf));
+    }
+}
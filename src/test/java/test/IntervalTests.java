@@ -0,0 +1,149 @@
+package test;
+
+import math.BatchEvaluator;
+import math.ExpressionParser;
+import math.Interval;
+import math.IntervalEvaluator;
+import math.Node;
+import math.Tristate;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of interval evaluation: results are checked to be conservative by sampling values inside random boxes,
+ * and block skipping is checked to give the same results as row by row evaluation.
+ */
+public class IntervalTests {
+    private static final String[] NUMERIC = {
+        "x + y * 2", "x * y - x / (y + 10)", "-x * x", "exp(x / 4) - log(y)", "sqrt(x) + sqrt(y)",
+        "sin(x) * cos(y)", "tan(x / 3)", "x > y ? x - y : y - x", "1 / x",
+        "x ^ 2 - y ^ 3", "x ^ -2", "-x ^ 4 + y ^ -3", "y ^ 0.5 + x ^ 1.5", "x ^ y"
+    };
+    private static final String[] BOOLEAN = {
+        "x > 2", "x <= y and y < 3", "!(x >= 1) or y > x * x", "sin(x) < 0.5", "x == 2", "x != y",
+        "(x > 0) == (y > 0)", "x > 0 ? y > 1 : y < -1", "sqrt(x) > 1"
+    };
+
+    private ExpressionParser parser;
+    private Variable x, y;
+    private final Random random = new Random(42);
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+    }
+
+    private Map<Variable, Interval> randomBox() {
+        Map<Variable, Interval> box = new HashMap<>();
+        for (Variable v : new Variable[] {x, y}) {
+            double a = random.nextInt(3) == 0 ? random.nextInt(5) - 2 : (random.nextDouble() - 0.5) * 10;
+            double b = random.nextInt(4) == 0 ? a : a + random.nextDouble() * 4;
+            box.put(v, Interval.of(a, b));
+        }
+        return box;
+    }
+
+    private void setRandomValues(Map<Variable, Interval> box) {
+        for (Map.Entry<Variable, Interval> entry : box.entrySet()) {
+            Interval range = entry.getValue();
+            double t = random.nextInt(4) == 0 ? random.nextInt(2) : random.nextDouble();
+            entry.getKey().set(Math.min(range.hi, range.lo + t * (range.hi - range.lo)));
+        }
+    }
+
+    @Test
+    void numericRangesAreConservative() throws ParseException {
+        for (String expression : NUMERIC) {
+            Node node = parser.parseExpression(expression);
+            IntervalEvaluator evaluator = new IntervalEvaluator(node);
+            for (int i = 0; i < 200; i++) {
+                Map<Variable, Interval> box = randomBox();
+                Interval range = evaluator.evaluateRange(box);
+                for (int j = 0; j < 50; j++) {
+                    setRandomValues(box);
+                    double value = node.evaluateDouble();
+                    assertTrue(range.contains(value), expression + " = " + value + " outside " + range + " for " + box);
+                }
+            }
+        }
+    }
+
+    @Test
+    void booleanResultsAreConservative() throws ParseException {
+        for (String expression : BOOLEAN) {
+            Node node = parser.parseExpression(expression);
+            IntervalEvaluator evaluator = new IntervalEvaluator(node);
+            for (int i = 0; i < 200; i++) {
+                Map<Variable, Interval> box = randomBox();
+                Tristate result = evaluator.evaluate(box);
+                for (int j = 0; j < 50 && result != Tristate.UNKNOWN; j++) {
+                    setRandomValues(box);
+                    assertEquals(result == Tristate.TRUE, node.evaluateBoolean(), expression + " for " + box);
+                }
+            }
+        }
+    }
+
+    @Test
+    void definiteResults() throws ParseException {
+        Map<Variable, Interval> box = new HashMap<>();
+        box.put(x, Interval.of(0, 1));
+        box.put(y, Interval.of(2, 3));
+        assertEquals(Tristate.TRUE, new IntervalEvaluator(parser.parseExpression("x < y and exp(x) < 3")).evaluate(box));
+        assertEquals(Tristate.FALSE, new IntervalEvaluator(parser.parseExpression("x * y > 3 or !(x <= 1)")).evaluate(box));
+        assertEquals(Tristate.UNKNOWN, new IntervalEvaluator(parser.parseExpression("x + y > 3")).evaluate(box));
+        assertEquals(Tristate.TRUE, new IntervalEvaluator(parser.parseExpression("sin(x * PI) >= 0")).evaluate(box));
+        Interval range = new IntervalEvaluator(parser.parseExpression("cos(x * PI)")).evaluateRange(box);
+        assertEquals(-1, range.lo, 1e-12);
+        assertEquals(1, range.hi, 1e-12);
+    }
+
+    @Test
+    void unknownValues() throws ParseException {
+        Map<Variable, Interval> box = new HashMap<>();
+        box.put(x, Interval.of(-1, 1));
+        assertEquals(Tristate.UNKNOWN, new IntervalEvaluator(parser.parseExpression("y > 0")).evaluate(box));
+        assertEquals(Tristate.UNKNOWN, new IntervalEvaluator(parser.parseExpression("log(x) < 0")).evaluate(box));
+        assertEquals(Tristate.UNKNOWN, new IntervalEvaluator(parser.parseExpression("1 / x > -1")).evaluate(box));
+        parser.registerFunction("f", v -> 0);
+        assertEquals(Tristate.UNKNOWN, new IntervalEvaluator(parser.parseExpression("f(x) == 0")).evaluate(box));
+    }
+
+    @Test
+    void blockSkipping() throws ParseException {
+        int rows = 10_000, blockSize = 100;
+        double[][] columns = new double[2][rows];
+        for (int row = 0; row < rows; row++) {
+            columns[0][row] = row / 100.0 + random.nextDouble();//sorted by blocks, as a time column
+            columns[1][row] = random.nextDouble() * 10;
+        }
+        Node node = parser.parseExpression("x > 50 and x < 52 and y < 5");
+        BatchEvaluator evaluator = new BatchEvaluator(node, x, y);
+        boolean[] expected = new boolean[rows];
+        evaluator.filter(columns, 0, rows, expected);
+
+        boolean[] results = new boolean[rows];
+        evaluator.filter(columns, rows, blockSize, BatchEvaluator.statistics(columns, rows, blockSize), results);
+        assertArrayEquals(expected, results);
+        assertTrue(evaluator.getSkippedBlocks() >= 95, "skipped " + evaluator.getSkippedBlocks());
+        assertEquals(rows / blockSize, evaluator.getSkippedBlocks() + evaluator.getEvaluatedBlocks());
+    }
+
+    @Test
+    void batchEvaluation() throws ParseException {
+        double[][] columns = {{1, 2, 3}, {4, 5, 6}};
+        double[] results = new double[3];
+        new BatchEvaluator(parser.parseExpression("x * y"), x, y).evaluate(columns, 0, 3, results);
+        assertArrayEquals(new double[] {4, 10, 18}, results, 1e-12);
+    }
+}
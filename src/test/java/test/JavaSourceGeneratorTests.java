@@ -0,0 +1,157 @@
+package test;
+
+import math.ExpressionParser;
+import math.JavaSourceGenerator;
+import math.Node;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the Java source generator: the generated class is compiled and its methods must give the same results
+ * as the evaluation of the trees, for any value of the variables; invalid expressions must be rejected.
+ */
+public class JavaSourceGeneratorTests {
+    @TempDir
+    Path directory;
+    private ExpressionParser parser;
+    private Variable x, y, z;
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+        z = parser.setVariable("z", 0);
+        parser.registerFunction("cube", v -> v * v * v);
+    }
+
+    private Class<?> compile(JavaSourceGenerator generator) throws Exception {
+        Path source = directory.resolve(generator.getClassName().replace('.', '/') + ".java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, generator.generate().getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        int status = compiler.run(null, null, errors, "-parameters", "-d", directory.toString(), "-classpath", System.getProperty("java.class.path"), source.toString());
+        assertEquals(0, status, errors.toString() + "\n" + generator.generate());
+        URLClassLoader loader = new URLClassLoader(new URL[] {directory.toUri().toURL()}, getClass().getClassLoader());
+        return loader.loadClass(generator.getClassName());
+    }
+
+    @Test
+    void sameResults() throws Exception {
+        String[] expressions = {
+            "x * 2 + sin(y)", "-x / (y - 1)", "x > y ? x - y : y - x", "x == y", "(x > 0) != !(y > 0)",
+            "x > 0 and y > 0 or x == -y", "sqrt(x * x + y * y) + log(E) * PI", "x > 1 ? (y > 1 ? 1 : 2) : exp(-x)",
+            "cos(x) <= tan(y / 8) and true", "1 + 2 * 3 >= x", "x - -z", "x * 0 == 0", "y", "2.5",
+            "x ^ 3 - y ^ 0.5 + 2 ^ -z", "x ^ y ^ z"
+        };
+        JavaSourceGenerator generator = new JavaSourceGenerator("generated.formulas", "Formulas", x, y, z);
+        for (int i = 0; i < expressions.length; i++)
+            generator.add("f" + i, parser.parseExpression(expressions[i]));
+        generator.add("optimized", parser.optimize(parser.parseExpression("(x + y) * (x + y) > 1 / 0 or sin(z) == sin(z)")));
+        Class<?> formulas = compile(generator);
+
+        double[] values = {0.0, -0.0, 1, -1, 2.5, -3.75, Double.NaN, Double.POSITIVE_INFINITY};
+        Random random = new Random(3);
+        for (int i = 0; i <= expressions.length; i++) {
+            String name = i < expressions.length ? "f" + i : "optimized";
+            Node node = i < expressions.length ? parser.parseExpression(expressions[i]) : parser.parseExpression("(x + y) * (x + y) > 1 / 0 or sin(z) == sin(z)");
+            Method method = null;
+            for (Method m : formulas.getMethods())
+                if (m.getName().equals(name))
+                    method = m;
+            assertNotNull(method, name);
+            for (int k = 0; k < 100; k++) {
+                double a = values[random.nextInt(values.length)], b = values[random.nextInt(values.length)], c = values[random.nextInt(values.length)];
+                x.set(a);
+                y.set(b);
+                z.set(c);
+                Object[] arguments = new Object[method.getParameterCount()];
+                for (int p = 0; p < arguments.length; p++) {
+                    String parameter = method.getParameters()[p].getName();
+                    arguments[p] = parameter.equals("x") ? a : parameter.equals("y") ? b : c;
+                }
+                assertEquals(node.evaluate(), method.invoke(null, arguments), expressions.length > i ? expressions[i] : name);
+            }
+        }
+    }
+
+    @Test
+    void signatures() throws Exception {
+        JavaSourceGenerator generator = new JavaSourceGenerator("", "Limits", z, x, y);
+        generator.add("limit", parser.parseExpression("y > x * 2"));
+        generator.add("constant", parser.parseExpression("PI / 2"));
+        Class<?> limits = compile(generator);
+        Method limit = limits.getMethod("limit", double.class, double.class);//x then y, as given to the generator
+        assertEquals(boolean.class, limit.getReturnType());
+        assertEquals(true, limit.invoke(null, 1.0, 3.0));
+        assertEquals(false, limit.invoke(null, 2.0, 3.0));
+        assertEquals(Math.PI / 2, limits.getMethod("constant").invoke(null));
+        assertTrue(generator.generate().contains("/** limit = (y > (x * 2.0)) */"), generator.generate());
+    }
+
+    @Test
+    void powerLimits() throws Exception {//the generated pow computes x ^ -n as BinaryNode
+        JavaSourceGenerator generator = new JavaSourceGenerator("generated.formulas", "Powers", x, y);
+        generator.add("power", parser.parseExpression("x ^ y"));
+        Method power = compile(generator).getMethod("power", double.class, double.class);
+        double[][] cases = {{1e160, -2}, {1e-154, -2}, {1e-160, -2}, {1e-100, -3}, {-1e160, -3}, {1e-5, -61}, {0.1, -64}, {2.5, 7}};
+        Node node = parser.parseExpression("x ^ y");
+        for (double[] c : cases) {
+            x.set(c[0]);
+            y.set(c[1]);
+            assertEquals(node.evaluate(), power.invoke(null, c[0], c[1]), c[0] + " ^ " + c[1]);
+        }
+        assertEquals(1e-320, power.invoke(null, 1e160, -2.0));
+        assertEquals(0.01, power.invoke(null, 10.0, -2.0));
+        assertEquals(0.001, power.invoke(null, 10.0, -3.0));
+        assertEquals(0.125, power.invoke(null, 2.0, -3.0));
+    }
+
+    @Test
+    void fastMath() throws Exception {
+        parser.setFastMath(true);
+        JavaSourceGenerator generator = new JavaSourceGenerator("generated", "Fast", x);
+        Node node = parser.parseExpression("sin(x) + exp(x) + sqrt(x)");
+        generator.add("f", node);
+        assertTrue(generator.generate().contains("math.FastMath.sin(x)"));
+        Method f = compile(generator).getMethod("f", double.class);
+        for (double value = 0; value < 5; value += 0.25) {
+            x.set(value);
+            assertEquals(node.evaluate(), f.invoke(null, value));
+        }
+    }
+
+    @Test
+    void rejected() throws ParseException {
+        JavaSourceGenerator generator = new JavaSourceGenerator("generated", "Rejected", x);
+        assertThrows(ParseException.class, () -> generator.add("typed", parser.parseExpression("x + true")));
+        assertThrows(ParseException.class, () -> generator.add("unknown", parser.parseExpression("x + w")));
+        assertThrows(IllegalArgumentException.class, () -> generator.add("function", parser.parseExpression("cube(x)")));
+        assertThrows(IllegalArgumentException.class, () -> generator.add("undeclared", parser.parseExpression("x + y")));
+        assertThrows(IllegalArgumentException.class, () -> generator.add("double", parser.parseExpression("x")));
+        assertThrows(IllegalArgumentException.class, () -> generator.add("1x", parser.parseExpression("x")));
+        generator.add("ok", parser.parseExpression("x"));
+        assertThrows(IllegalArgumentException.class, () -> generator.add("ok", parser.parseExpression("x")));
+        assertEquals(1, generator.size());
+        assertThrows(IllegalArgumentException.class, () -> new JavaSourceGenerator("generated", "class"));
+        assertThrows(IllegalArgumentException.class, () -> new JavaSourceGenerator("a..b", "Valid"));
+        assertThrows(IllegalArgumentException.class, () -> new JavaSourceGenerator("generated", "Valid", parser.setVariable("Math", 0)));
+    }
+}
@@ -0,0 +1,62 @@
+package test;
+
+import math.ExpressionParser;
+import math.Node;
+import math.Variable;
+
+import java.text.ParseException;
+
+/**
+ * Compares the evaluation of trees of specialized nodes with trees of generic nodes, for a few typical expressions.
+ * Not a unit test, run it with:
+ * mvn test-compile exec:java -Dexec.mainClass=test.NodeBenchmark -Dexec.classpathScope=test -Dexec.args="[evaluations] [rounds]"
+ */
+public class NodeBenchmark {
+    private static final String[] EXPRESSIONS = {
+        "x * 2 + y * 3 - 1",
+        "(x - 0.5) * (x - 0.5) + (y - 0.25) * (y - 0.25) < 0.04",
+        "x > 0.5 and y < 0.75 or x * y >= 0.1",
+        "sqrt(x * x + y * y) / (1 + exp(-x)) - PI",
+        "x > y ? sin(x) * 2 : cos(y) / 2"
+    };
+
+    public static void main(String[] args) throws ParseException {
+        int evaluations = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        ExpressionParser specialized = new ExpressionParser(), generic = new ExpressionParser();
+        generic.setSpecializedNodes(false);
+        Variable sx = specialized.setVariable("x", 0), sy = specialized.setVariable("y", 0);
+        Variable gx = generic.setVariable("x", 0), gy = generic.setVariable("y", 0);
+        Node[] fast = new Node[EXPRESSIONS.length], slow = new Node[EXPRESSIONS.length];
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            fast[i] = specialized.parseExpression(EXPRESSIONS[i]);
+            slow[i] = generic.parseExpression(EXPRESSIONS[i]);
+        }
+        for (int round = 0; round < rounds; round++) {//the first rounds warm up the JIT
+            System.out.printf("round %d%n", round);
+            for (int i = 0; i < EXPRESSIONS.length; i++) {
+                long genericTime = run(slow[i], gx, gy, evaluations);
+                long specializedTime = run(fast[i], sx, sy, evaluations);
+                System.out.printf("  %-58s generic %6.2f ns, specialized %6.2f ns, speedup %.2f%n", EXPRESSIONS[i],
+                    (double) genericTime / evaluations, (double) specializedTime / evaluations, (double) genericTime / specializedTime);
+            }
+        }
+    }
+
+    private static long run(Node node, Variable x, Variable y, int evaluations) {
+        boolean bool = node.evaluate() instanceof Boolean;
+        double sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < evaluations; i++) {
+            x.set((i & 1023) / 1024.0);
+            y.set((i >>> 10 & 1023) / 1024.0);
+            if (bool)
+                sum += node.evaluateBoolean() ? 1 : 0;
+            else sum += node.evaluateDouble();
+        }
+        long time = System.nanoTime() - start;
+        if (sum == 42)//keeps the results alive
+            System.out.print("");
+        return time;
+    }
+}
@@ -0,0 +1,57 @@
+package test;
+
+import math.ExpressionParser;
+import math.Node;
+import math.NodePool;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Parses a corpus of expressions sharing their normalization factors and thresholds, with and without a node pool,
+ * and reports the deduplication ratio, the heap estimated by the pool and the heap measured after a full GC.
+ * Not a unit test, run it with:
+ * mvn test-compile exec:java -Dexec.mainClass=test.NodePoolBenchmark -Dexec.classpathScope=test -Dexec.args="[expressions]"
+ */
+public class NodePoolBenchmark {
+    public static void main(String[] args) throws ParseException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        for (boolean pooled : new boolean[] {false, true}) {
+            ExpressionParser parser = new ExpressionParser();
+            for (String name : new String[] {"price", "volume", "age", "score"})
+                parser.setVariable(name, 0);
+            NodePool pool = pooled ? new NodePool() : null;
+            parser.setNodePool(pool);
+            long before = usedHeap();
+            long start = System.nanoTime();
+            List<Node> corpus = new ArrayList<>(count);
+            Random random = new Random(7);
+            for (int i = 0; i < count; i++)
+                corpus.add(parser.parseExpression(randomExpression(random)));
+            long time = System.nanoTime() - start;
+            long heap = usedHeap() - before;
+            System.out.printf("%s: %d expressions parsed in %d ms, heap %.1f MB", pooled ? "pool" : "no pool", corpus.size(), time / 1_000_000, heap / 1e6);
+            if (pool != null)
+                System.out.printf(", %d pooled nodes, deduplication ratio %.2f, retained %.1f MB, saved %.1f MB",
+                    pool.size(), pool.getDeduplicationRatio(), pool.getRetainedBytes() / 1e6, pool.getSavedBytes() / 1e6);
+            System.out.println();
+        }
+    }
+
+    private static String randomExpression(Random random) {//a few shared factors and thresholds, one specific weight
+        String[] variables = {"price", "volume", "age", "score"};
+        String[] factors = {"(price / 100)", "(volume / 1000)", "(age / 365)", "(score * 0.01)"};
+        int threshold = random.nextInt(20) * 5;
+        return factors[random.nextInt(4)] + " * " + random.nextInt(1000) + " + " + factors[random.nextInt(4)]
+            + " > " + threshold + " and " + variables[random.nextInt(4)] + " < " + (threshold + 10);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
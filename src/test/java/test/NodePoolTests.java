@@ -0,0 +1,119 @@
+package test;
+
+import math.BinaryNode;
+import math.ExpressionParser;
+import math.FunctionProperties;
+import math.Node;
+import math.NodeDouble;
+import math.NodePool;
+import math.UnaryNodeIdentifier;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the node pool: identical subtrees of different expressions must be the same objects, pooled trees must
+ * evaluate as before, and subtrees no longer used must leave the pool.
+ */
+public class NodePoolTests {
+    private ExpressionParser parser;
+    private NodePool pool;
+    private Variable x, y;
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+        pool = new NodePool();
+        parser.setNodePool(pool);
+    }
+
+    @Test
+    void sharedSubtrees() throws ParseException {
+        BinaryNode a = (BinaryNode) parser.parseExpression("x * 2 + 1 > y");
+        BinaryNode b = (BinaryNode) parser.parseExpression("(x * 2 + 1) * 3");
+        assertSame(a.getLeft(), b.getLeft());
+        assertSame(a, parser.parseExpression("x * 2 + 1 > y"));
+        assertNotSame(parser.parseExpression("x * 2 - 1"), b.getLeft());
+        assertEquals(26, pool.getRequestedNodes());
+        assertEquals(10, pool.size());//x 2 * 1 + y > 3 * and the new -
+        assertTrue(pool.getDeduplicationRatio() > 1.5, "ratio " + pool.getDeduplicationRatio());
+        assertTrue(pool.getSavedBytes() > 0);
+        assertTrue(pool.getRetainedBytes() > 0);
+
+        x.set(2);
+        y.set(4);
+        assertEquals(true, a.evaluate());
+        assertEquals(15.0, b.evaluate());
+    }
+
+    @Test
+    void distinctContents() throws ParseException {
+        ExpressionParser other = new ExpressionParser();
+        other.setVariable("x", 0);
+        other.setNodePool(pool);
+        Node mine = parser.parseExpression("x + 1"), theirs = other.parseExpression("x + 1");
+        assertNotSame(mine, theirs);//different variables
+        assertSame(((BinaryNode) mine).getRight(), ((BinaryNode) theirs).getRight());//same constant
+        assertNotSame(((BinaryNode) parser.parseExpression("x * 0")).getRight(), ((BinaryNode) parser.parseExpression("x * -0.0")).getRight());
+        parser.setFastMath(true);
+        assertNotSame(parser.parseExpression("sin(x)"), other.parseExpression("sin(x)"));
+        assertNotSame(parser.parseExpression("sin(x)"), parser.parseExpression("cos(x)"));
+    }
+
+    @Test
+    void unusedSubtreesAreCollected() throws ParseException, InterruptedException {
+        List<Node> kept = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Node node = parser.parseExpression("(x - " + i + ") / 10 > y * 2");
+            if (i < 10)
+                kept.add(node);
+        }
+        int before = pool.size();
+        long retained = pool.getRetainedBytes();
+        for (int attempt = 0; attempt < 50 && pool.size() > 100; attempt++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertTrue(pool.size() < before && pool.size() <= 100, "pool size " + before + " -> " + pool.size());
+        assertTrue(pool.getRetainedBytes() < retained);
+        y.set(-1);
+        for (Node node : kept)
+            assertEquals(true, node.evaluate());
+    }
+
+    @Test
+    void pooledNodesAreReadOnly() throws ParseException {//an edit would change the other expressions sharing the node
+        BinaryNode a = (BinaryNode) parser.parseExpression("x * 2 + 1 > y");
+        BinaryNode b = (BinaryNode) parser.parseExpression("(x * 2 + 1) * 3");
+        NodeDouble two = (NodeDouble) ((BinaryNode) ((BinaryNode) a.getLeft()).getLeft()).getRight();
+        assertThrows(IllegalStateException.class, () -> two.set(10.0));
+        UnaryNodeIdentifier sin = (UnaryNodeIdentifier) parser.parseExpression("sin(x)");
+        assertThrows(IllegalStateException.class, () -> sin.set("cos"));
+        x.set(2);
+        assertEquals(15.0, b.evaluate());
+        assertEquals(0.0, ((UnaryNodeIdentifier) parser.parseExpression("sin(y)")).evaluate());
+
+        parser.setNodePool(null);//not pooled: editable
+        BinaryNode c = (BinaryNode) parser.parseExpression("x * 2 + 1");
+        ((NodeDouble) ((BinaryNode) c.getLeft()).getRight()).set(10.0);
+        assertEquals(21.0, c.evaluate());
+        assertEquals(15.0, b.evaluate());
+    }
+
+    @Test
+    void statefulNodesAreNotPooled() throws ParseException {
+        parser.registerFunction("f", v -> v + 1, FunctionProperties.PURE);
+        Node optimized = parser.optimize(parser.parseExpression("f(x) * f(x)"));//a scope with a shared call
+        assertSame(optimized, pool.intern(optimized));
+        x.set(1);
+        assertEquals(4.0, optimized.evaluate());
+    }
+}
@@ -0,0 +1,82 @@
+package test;
+
+import math.ExpressionParser;
+import math.OffHeapStore;
+import math.Variable;
+
+import java.text.ParseException;
+import java.util.Random;
+
+/**
+ * Stores a corpus of per-customer formulas in an off-heap store, replaces and removes part of them, and reports the
+ * heap measured after a full GC, the off-heap bytes and the evaluation throughput: the heap must not grow with the
+ * number of stored expressions.
+ * Not a unit test, run it with:
+ * mvn test-compile exec:java -Dexec.mainClass=test.OffHeapStoreBenchmark -Dexec.classpathScope=test -Dexec.args="[expressions]"
+ */
+public class OffHeapStoreBenchmark {
+    public static void main(String[] args) throws ParseException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        ExpressionParser parser = new ExpressionParser();
+        Variable[] variables = new Variable[4];
+        String[] names = {"price", "volume", "age", "score"};
+        for (int i = 0; i < names.length; i++)
+            variables[i] = parser.setVariable(names[i], 0);
+        long before = usedHeap();
+        OffHeapStore store = new OffHeapStore(1 << 20, variables);
+        long[] handles = new long[count];//kept by the caller, 8 bytes per expression
+        Random random = new Random(7);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            handles[i] = store.add(parser.parseExpression(randomExpression(random)));
+        long time = System.nanoTime() - start;
+        report("added", count, time, before, handles, store);
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i += 3)
+            store.replace(handles[i], parser.parseExpression(randomExpression(random)));
+        for (int i = 1; i < count; i += 3)
+            store.remove(handles[i]);
+        time = System.nanoTime() - start;
+        report("replaced and removed", count / 3 * 2, time, before, handles, store);
+
+        start = System.nanoTime();
+        store.compact();
+        time = System.nanoTime() - start;
+        report("compacted", store.size(), time, before, handles, store);
+
+        double[] values = {120, 4000, 30, 70};
+        int evaluations = 0;
+        start = System.nanoTime();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < count; i++) {
+                if (store.contains(handles[i])) {
+                    store.evaluate(handles[i], values);
+                    evaluations++;
+                }
+            }
+        }
+        time = System.nanoTime() - start;
+        System.out.printf("%d evaluations in %d ms, %.1f M/s%n", evaluations, time / 1_000_000, evaluations * 1e3 / time);
+    }
+
+    private static void report(String operation, int count, long time, long before, long[] handles, OffHeapStore store) {
+        long heap = usedHeap() - before - 8L * handles.length;
+        System.out.printf("%s %d expressions in %d ms: %d stored, heap %.1f MB, off-heap %.1f MB used, %.1f MB dead, %.1f MB allocated%n",
+            operation, count, time / 1_000_000, store.size(), heap / 1e6, store.getUsedBytes() / 1e6, store.getDeadBytes() / 1e6, store.getCapacityBytes() / 1e6);
+    }
+
+    private static String randomExpression(Random random) {
+        String[] factors = {"(price / 100)", "(volume / 1000)", "(age / 365)", "(score * 0.01)"};
+        int threshold = random.nextInt(20) * 5;
+        return factors[random.nextInt(4)] + " * " + random.nextInt(1000) + " + " + factors[random.nextInt(4)]
+            + " > " + threshold + " ? sqrt(price * " + random.nextInt(100) + ") : -age";
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
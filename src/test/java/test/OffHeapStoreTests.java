@@ -0,0 +1,152 @@
+package test;
+
+import math.ExpressionParser;
+import math.FunctionProperties;
+import math.Node;
+import math.OffHeapStore;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the off-heap store: stored expressions must evaluate as their trees, handles must survive replacement and
+ * compaction, and handles of removed expressions must be rejected.
+ */
+public class OffHeapStoreTests {
+    private ExpressionParser parser;
+    private Variable x, y;
+    private OffHeapStore store;
+    private int calls;
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+        parser.registerFunction("cube", v -> v * v * v, FunctionProperties.PURE);
+        parser.registerFunction("max", Math::max);
+        parser.registerFunction("clamp", 3, args -> Math.max(args[1], Math.min(args[2], args[0])));
+        parser.registerFunction("count", v -> {
+            calls++;
+            return v;
+        });
+        store = new OffHeapStore(64, x, y);
+    }
+
+    @Test
+    void sameResults() throws ParseException {
+        String[] expressions = {
+            "x * 2 + sin(y)", "-x / (y - 1)", "x > y ? x - y : y - x", "x == y", "(x > 0) != !(y > 0)",
+            "x > 0 and y > 0 or x == -y", "max(x, cube(y)) - clamp(x, -1, 1)", "sqrt(x * x + y * y) + log(E) * PI",
+            "x > 1 ? (y > 1 ? 1 : 2) : exp(-x)", "cos(x) <= tan(y / 8) and true", "1 + 2 * 3 >= x",
+            "x ^ 3 - y ^ 0.5 * 2 ^ x"
+        };
+        double[] values = {0.0, -0.0, 1, -1, 2.5, -3.75, Double.NaN, Double.POSITIVE_INFINITY};
+        Random random = new Random(7);
+        for (String expression : expressions) {
+            Node node = parser.parseExpression(expression);
+            long handle = store.add(node);
+            for (int i = 0; i < 100; i++) {
+                double a = values[random.nextInt(values.length)], b = values[random.nextInt(values.length)];
+                x.set(a);
+                y.set(b);
+                assertEquals(node.evaluate(), store.evaluate(handle, a, b), expression + " at " + a + ", " + b);
+            }
+        }
+        assertEquals(expressions.length, store.size());
+    }
+
+    @Test
+    void typedEvaluation() throws ParseException {
+        long number = store.add(parser.parseExpression("x + y"));
+        long condition = store.add(parser.parseExpression("x < y"));
+        assertEquals(5.0, store.evaluateDouble(number, 2, 3));
+        assertTrue(store.evaluateBoolean(condition, 2, 3));
+        assertThrows(ClassCastException.class, () -> store.evaluateBoolean(number, 2, 3));
+        assertThrows(ClassCastException.class, () -> store.evaluateDouble(condition, 2, 3));
+        assertThrows(IllegalArgumentException.class, () -> store.evaluateDouble(number, 2));
+    }
+
+    @Test
+    void shortCircuit() throws ParseException {
+        long handle = store.add(parser.parseExpression("x > 0 and count(y) > 0 or count(x) > 5"));
+        assertFalse(store.evaluateBoolean(handle, -1, 1));
+        assertEquals(1, calls);
+        assertTrue(store.evaluateBoolean(handle, 1, 1));
+        assertEquals(2, calls);
+        long ternary = store.add(parser.parseExpression("x > 0 ? count(x) : -count(y)"));
+        assertEquals(-3.0, store.evaluateDouble(ternary, -2, 3));
+        assertEquals(3, calls);
+    }
+
+    @Test
+    void rejectedExpressions() throws ParseException {
+        assertThrows(IllegalArgumentException.class, () -> store.add(parser.parseExpression("true + 1")));
+        assertThrows(IllegalArgumentException.class, () -> store.add(parser.parseExpression("x + unknown")));
+        Variable z = parser.setVariable("z", 0);
+        assertThrows(IllegalArgumentException.class, () -> store.add(parser.parseExpression("x + z")));
+        assertEquals(0, store.size());
+        assertEquals(0, store.getUsedBytes());
+        assertNotNull(z);
+    }
+
+    @Test
+    void replaceAndRemove() throws ParseException {
+        long a = store.add(parser.parseExpression("x + 1"));
+        long b = store.add(parser.parseExpression("y * 2"));
+        store.replace(a, parser.parseExpression("x > y"));
+        assertEquals(true, store.evaluate(a, 2, 1));
+        assertTrue(store.getDeadBytes() > 0);
+
+        assertTrue(store.remove(b));
+        assertFalse(store.remove(b));
+        assertFalse(store.contains(b));
+        assertThrows(IllegalArgumentException.class, () -> store.evaluate(b, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> store.replace(b, parser.parseExpression("x")));
+
+        long c = store.add(parser.parseExpression("x - y"));//reuses the slot of b with a new handle
+        assertNotEquals(b, c);
+        assertFalse(store.contains(b));
+        assertEquals(1.0, store.evaluate(c, 3, 2));
+        assertEquals(2, store.size());
+        assertThrows(IllegalArgumentException.class, () -> store.evaluate(-1, 1, 1));
+    }
+
+    @Test
+    void compaction() throws ParseException {
+        int n = 2000;
+        long[] handles = new long[n];
+        for (int i = 0; i < n; i++)
+            handles[i] = store.add(parser.parseExpression("x * " + i + " + y"));
+        for (int i = 0; i < n; i += 2)
+            store.remove(handles[i]);
+        for (int i = 1; i < n; i += 4)
+            store.replace(handles[i], parser.parseExpression("x > " + i));
+        long used = store.getUsedBytes();
+        assertTrue(store.getDeadBytes() > 0);
+        store.compact();
+        assertEquals(0, store.getDeadBytes());
+        assertEquals(used, store.getUsedBytes());
+        assertEquals(n / 2, store.size());
+        for (int i = 1; i < n; i += 2) {
+            Object expected = (i - 1) % 4 == 0 ? (Object) false : (Object) (i + 2.0);//x > i or x * i + y at 1, 2
+            assertEquals(expected, store.evaluate(handles[i], 1, 2), "expression " + i);
+        }
+    }
+
+    @Test
+    void automaticCompaction() throws ParseException {
+        Node node = parser.parseExpression("x * 2 + y");
+        long handle = store.add(node);
+        for (int i = 0; i < 10000; i++)
+            store.replace(handle, node);
+        assertEquals(1, store.size());
+        assertTrue(store.getCapacityBytes() < 4096, "capacity " + store.getCapacityBytes());
+        assertEquals(4.0, store.evaluate(handle, 1, 2));
+    }
+}
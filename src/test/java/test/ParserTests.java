@@ -1,7 +1,10 @@
 package test;
 
 import math.ExpressionParser;
+import math.FunctionProperties;
+import math.LambdaFunctionNode;
 import math.Node;
+import math.Variable;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -23,6 +26,10 @@ public class ParserTests {
         parser = new ExpressionParser();
         parser.registerFunction("cube", x -> x * x * x);
         parser.registerFunction("atan", Math::atan);
+        parser.registerFunction("max", Math::max);
+        parser.registerFunction("pow", Math::pow);
+        parser.registerFunction("clamp", 3, args -> Math.max(args[1], Math.min(args[2], args[0])));
+        parser.registerFunction("answer", 0, args -> 42);
     }
 
     private double evalDouble(String expression) throws ParseException {
@@ -374,6 +381,170 @@ public class ParserTests {
         void userFunctionInExpression() throws ParseException {
             assertEquals(1.0, evalDouble("cube(2)*atan(tan(PI/8))/PI"), EPSILON);
         }
+
+        @Test
+        void binaryFunctions() throws ParseException {
+            assertEquals(5.0, evalDouble("max(2, 5)"), EPSILON);
+            assertEquals(1024.0, evalDouble("pow(2, 5 * 2)"), EPSILON);
+            assertEquals(9.0, evalDouble("max(pow(3, 2), cube(2))"), EPSILON);
+        }
+
+        @Test
+        void naryFunctions() throws ParseException {
+            assertEquals(1.0, evalDouble("clamp(7, 0, 1)"), EPSILON);
+            assertEquals(0.5, evalDouble("clamp(0.5, 0, 1)"), EPSILON);
+            assertEquals(42.0, evalDouble("answer()"), EPSILON);
+        }
+
+        @Test
+        void visitArguments() throws ParseException {
+            assertEquals("clamp(1.0, 0.0, (1.0 + 2.0))", visit("clamp(1,0,1+2)"));
+        }
+
+        @Test
+        void wrongArityIsParseError() {
+            ParseException ex = assertThrows(ParseException.class, () -> parser.parseExpression("1 + max(1)"));
+            assertEquals(4, ex.getErrorOffset());
+            assertThrows(ParseException.class, () -> parser.parseExpression("cube(1, 2)"));
+            assertThrows(ParseException.class, () -> parser.parseExpression("answer(1)"));
+            assertThrows(ParseException.class, () -> parser.parseExpression("max(1,)"));
+        }
+
+        @Test
+        void booleanArgument() throws ParseException {
+            Node node = parser.parseExpression("cube(true)");
+            assertThrows(RuntimeException.class, () -> parser.evaluate(node));
+        }
+
+        @Test
+        @SuppressWarnings("deprecation")
+        void singleArgumentApi() throws ParseException {//kept for the callers written before functions had several arguments
+            LambdaFunctionNode cube = (LambdaFunctionNode) parser.parseExpression("cube(2)");
+            assertEquals("2.0", parser.visit(cube.getChild()));
+            assertNull(((LambdaFunctionNode) parser.parseExpression("answer()")).getChild());
+            LambdaFunctionNode half = new LambdaFunctionNode("half", cube, x -> x / 2);
+            assertEquals(4.0, half.evaluate());
+            assertEquals("half(cube(2.0))", parser.visit(half));
+            assertSame(cube, half.getChild());
+        }
+    }
+
+    @Nested
+    class Variables {
+        @Test
+        void variableValue() throws ParseException {
+            parser.setVariable("x", 3);
+            assertEquals(10.0, evalDouble("x * x + 1"), EPSILON);
+        }
+
+        @Test
+        void valueChangeAfterParse() throws ParseException {
+            Variable x = parser.setVariable("x", 1);
+            Node node = parser.parseExpression("cube(x) > 7");
+            assertFalse((Boolean) parser.evaluate(node));
+            x.set(2);
+            assertTrue((Boolean) parser.evaluate(node));
+            parser.setVariable("x", 1);
+            assertFalse((Boolean) parser.evaluate(node));
+        }
+
+        @Test
+        void invalidNames() {
+            assertThrows(IllegalArgumentException.class, () -> parser.setVariable("PI", 1));
+            assertThrows(IllegalArgumentException.class, () -> parser.setVariable("sin", 1));
+            assertThrows(IllegalArgumentException.class, () -> parser.setVariable("and", 1));
+            assertThrows(IllegalArgumentException.class, () -> parser.setVariable("2x", 1));
+        }
+
+        @Test
+        void undeclaredVariable() throws ParseException {
+            Node node = parser.parseExpression("y + 1");
+            assertThrows(RuntimeException.class, () -> parser.evaluate(node));
+        }
+    }
+
+    @Nested
+    class Optimization {
+        private int calls;
+
+        @BeforeEach
+        void registerCountingFunctions() {
+            calls = 0;
+            parser.registerFunction("pcube", x -> { calls++; return x * x * x; }, FunctionProperties.PURE);
+            parser.registerFunction("patan", x -> { calls++; return Math.atan(x); }, FunctionProperties.PURE.withCost(40));
+            parser.registerFunction("icube", x -> { calls++; return x * x * x; });
+            parser.registerFunction("pmax", (a, b) -> { calls++; return Math.max(a, b); }, FunctionProperties.PURE);
+        }
+
+        private Node optimize(String expression) throws ParseException {
+            return parser.optimize(parser.parseExpression(expression));
+        }
+
+        @Test
+        void foldsConstantArithmetic() throws ParseException {
+            assertEquals("7.0", parser.visit(optimize("1 + 2 * 3")));
+            assertEquals("true", parser.visit(optimize("1 < 2 and !false")));
+            assertEquals("2.0", parser.visit(optimize("5 > 3 ? 2 : 1 / 0")));
+        }
+
+        @Test
+        void foldsPureCalls() throws ParseException {
+            Node node = optimize("pcube(3) + pmax(1, 2)");
+            assertEquals(2, calls);
+            assertEquals("29.0", parser.visit(node));
+            assertEquals(29.0, node.evaluateDouble(), EPSILON);
+            assertEquals(2, calls);
+        }
+
+        @Test
+        void keepsImpureCalls() throws ParseException {
+            Node node = optimize("icube(3) + icube(3)");
+            assertEquals(0, calls);
+            assertEquals(54.0, node.evaluateDouble(), EPSILON);
+            assertEquals(2, calls);
+            assertEquals("(icube(3.0) + icube(3.0))", parser.visit(node));
+        }
+
+        @Test
+        void sharesRepeatedPureCalls() throws ParseException {
+            Variable x = parser.setVariable("x", 1);
+            Node node = optimize("patan(x) * 2 + patan(x) / patan(x)");
+            assertEquals("((patan(x) * 2.0) + (patan(x) / patan(x)))", parser.visit(node));
+            assertEquals(Math.atan(1) * 2 + 1, node.evaluateDouble(), EPSILON);
+            assertEquals(1, calls);
+            x.set(2);
+            assertEquals(Math.atan(2) * 2 + 1, (Double) parser.evaluate(node), EPSILON);
+            assertEquals(2, calls);
+        }
+
+        @Test
+        void doesNotShareCallsOverImpureArguments() throws ParseException {
+            parser.setVariable("x", 1);
+            Node node = optimize("patan(icube(x)) + patan(icube(x))");
+            assertEquals(2 * Math.atan(1), node.evaluateDouble(), EPSILON);
+            assertEquals(4, calls);
+        }
+
+        @Test
+        void sharedCallInUntakenBranchIsNotEvaluated() throws ParseException {
+            parser.setVariable("x", 1);
+            Node node = optimize("x > 5 ? patan(x) + patan(x) : 0");
+            assertEquals(0.0, node.evaluateDouble(), EPSILON);
+            assertEquals(0, calls);
+        }
+
+        @Test
+        void evaluationErrorsAreKept() throws ParseException {
+            Node node = optimize("true + 1");
+            assertThrows(ClassCastException.class, () -> parser.evaluate(node));
+        }
+
+        @Test
+        void inputTreeIsNotModified() throws ParseException {
+            Node node = parser.parseExpression("pcube(2) + 1");
+            parser.optimize(node);
+            assertEquals("(pcube(2.0) + 1.0)", parser.visit(node));
+        }
     }
 
     @Nested
@@ -0,0 +1,140 @@
+package test;
+
+import math.ExpressionParser;
+import math.FunctionProperties;
+import math.Node;
+import math.ResultType;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of partial evaluation: the residual tree must give the results of the original tree evaluated with the fixed
+ * values, for any value of the other variables, and must be simplified.
+ */
+public class PartialEvaluationTests {
+    private static final String[] EXPRESSIONS = {
+        "a * x + b * y - c", "k > 5 ? x * k : x / k", "sin(a) * x ^ 2 + cos(b) * y", "a > 0 and x > b or y < c",
+        "scale(a, b) * x - scale(x, k)", "-(-(x * a)) / (b - 1)", "x ^ (k - 2) + y ^ a", "!(!(x > a)) == (k < 3)",
+        "c == 0 ? -x : (x - c) * 1", "count(a) + x", "a ^ 0 * x"
+    };
+    private static final double[] VALUES = {0.0, -0.0, 1, -1, 2, 2.5, 7, Double.NaN, Double.POSITIVE_INFINITY};
+
+    private ExpressionParser parser;
+    private Variable a, b, c, k, x, y;
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        a = parser.setVariable("a", 0);
+        b = parser.setVariable("b", 0);
+        c = parser.setVariable("c", 0);
+        k = parser.setVariable("k", 0);
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+        parser.registerFunction("scale", (u, v) -> u * 10 + v, FunctionProperties.PURE);
+        parser.registerFunction("count", u -> u);//impure: registered without properties
+    }
+
+    @Test
+    void sameResults() throws ParseException {
+        Random random = new Random(50);
+        for (String expression : EXPRESSIONS) {
+            Node node = parser.parseExpression(expression);
+            for (int i = 0; i < 40; i++) {
+                double va = VALUES[random.nextInt(VALUES.length)], vb = VALUES[random.nextInt(VALUES.length)];
+                double vc = VALUES[random.nextInt(VALUES.length)], vk = VALUES[random.nextInt(VALUES.length)];
+                Node residual = parser.bind(node, Map.of(a, va, b, vb, c, vc, k, vk));
+                a.set(Double.NaN);//the residual doesn't read the fixed variables
+                b.set(Double.NaN);
+                c.set(Double.NaN);
+                k.set(Double.NaN);
+                for (int j = 0; j < 20; j++) {
+                    double vx = VALUES[random.nextInt(VALUES.length)], vy = VALUES[random.nextInt(VALUES.length)];
+                    x.set(vx);
+                    y.set(vy);
+                    Object actual = residual.evaluate();
+                    a.set(va);
+                    b.set(vb);
+                    c.set(vc);
+                    k.set(vk);
+                    assertEquals(node.evaluate(), actual, expression + " at a=" + va + " b=" + vb + " c=" + vc + " k=" + vk + " x=" + vx + " y=" + vy);
+                    a.set(Double.NaN);
+                    b.set(Double.NaN);
+                    c.set(Double.NaN);
+                    k.set(Double.NaN);
+                }
+            }
+        }
+    }
+
+    @Test
+    void simplified() throws ParseException {
+        assertEquals("(x / 2.0)", bind("k > 5 ? x * k : x / k", Map.of(k, 2.0)));
+        assertEquals("x", bind("a * x - b", Map.of(a, 1.0, b, 0.0)));
+        assertEquals("((x + 0.0) - y)", bind("(x + b) - y * a", Map.of(a, 1.0, b, 0.0)));//x + 0.0 is -0.0 + 0.0 = 0.0 for x = -0.0
+        assertEquals("(x > 1.0)", bind("a > 0 and x > 1", Map.of(a, 1.0)));
+        assertEquals("false", bind("a > 0 and x > 1", Map.of(a, -1.0)));
+        assertEquals("(x > 1.0)", bind("x > 1 or a < 0", Map.of(a, 1.0)));
+        assertEquals("(21.0 * x)", bind("scale(a, b) * x", Map.of(a, 2.0, b, 1.0)));//pure function folded
+        assertEquals("(count(2.0) + x)", bind("count(a) + x", Map.of(a, 2.0)));//impure function kept
+        assertEquals("-x", bind("x * a", Map.of(a, -1.0)));
+        assertEquals("x", bind("x * a ^ 0", Map.of(a, Double.NaN)));
+        assertEquals("((x ^ 2.0) + y)", bind("x ^ k + y ^ a", Map.of(k, 2.0, a, 1.0)));
+        assertEquals("(count(x) ^ 0.0)", bind("count(x) ^ k", Map.of(k, 0.0)));
+        assertEquals("(x > 3.0)", bind("!(!(x > a))", Map.of(a, 3.0)));
+        assertEquals("x", bind("-(-x)", Map.of()));
+        assertEquals("(x * y)", bind("(x * y) / c", Map.of(c, 1.0)));
+    }
+
+    private String bind(String expression, Map<Variable, Double> values) throws ParseException {
+        return parser.visit(parser.bind(parser.parseExpression(expression), values));
+    }
+
+    @Test
+    void originalTreeUnchanged() throws ParseException {
+        Node node = parser.parseExpression("k > 5 ? x * k : x / k");
+        k.set(10);
+        Node residual = parser.bind(node, Map.of(k, 2.0));
+        assertEquals(10.0, k.get());
+        x.set(3);
+        assertEquals(30.0, node.evaluate());
+        assertEquals(1.5, residual.evaluate());
+        assertEquals("((k > 5.0) ? (x * k) : (x / k))", parser.visit(node));
+    }
+
+    @Test
+    void typeCheckedTree() throws ParseException {
+        parser.setTypeChecking(true);
+        Node node = parser.parseExpression("a > 1 ? x * a : x - a");
+        Node residual = parser.bind(node, Map.of(a, 3.0));
+        assertEquals(ResultType.NUMBER, residual.getResultType());
+        assertEquals(ResultType.NUMBER, parser.typeCheck(residual));
+        parser.setTypeChecking(false);
+        Node illTyped = parser.parseExpression("!(!x) * a");//type errors are left to evaluation
+        Node illTypedResidual = parser.bind(illTyped, Map.of(a, 1.0));
+        assertThrows(RuntimeException.class, illTypedResidual::evaluate);
+    }
+
+    @Test
+    void typeErrorsKept() throws ParseException {
+        x.set(-1);
+        for (String expression : new String[] {"(x > 0 ? 1 : true) * 1", "(x > 0 ? 1 : true) ^ 1", "-(-(x > 0 ? 1 : true))",
+                "1 * (x > 0 ? 1 : true)", "!(!(x > 0 ? true : 1))", "k > 0 and (x > 0 ? true : 1)", "unknown ^ 0",
+                "(x > 0 ? 1 : unknown) ^ k", "(x > 0 ? 1 : true) ^ k", "sin(x > 0) ^ k", "unknown * k"}) {
+            Node node = parser.parseExpression(expression);
+            k.set(1);
+            assertThrows(RuntimeException.class, node::evaluate, expression);
+            Node residual = parser.bind(node, Map.of(k, expression.contains("^ k") ? 0.0 : 1.0));
+            assertThrows(RuntimeException.class, residual::evaluate, expression);
+        }
+        assertEquals("1.0", bind("(x > 0 ? y : PI) ^ k", Map.of(k, 0.0)));
+        assertEquals("((x > 0.0) ? true : (y < 1.0))", bind("k > 0 and (x > 0 ? true : y < 1)", Map.of(k, 1.0)));
+    }
+}
@@ -0,0 +1,311 @@
+package test;
+
+import math.ExpressionCodec;
+import math.ExpressionParser;
+import math.FunctionProperties;
+import math.Node;
+import math.Variable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.ExpressionClient;
+import server.ExpressionServer;
+import server.PartitionCoordinator;
+import server.Protocol;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the partitioned evaluation on localhost: the binary form of the trees, then jobs split between expression
+ * servers, with workers dying during the job, unreachable or rejecting the expression, and workers in other JVMs.
+ */
+public class PartitionTests {
+    private static final String EXPRESSION = "hypot(a, b) < r ? a * r : (b > 5 and a != b) ? b / (r - 5) : -sin(a) + PI";
+
+    private final List<ExpressionServer> servers = new ArrayList<>();
+    private ExpressionParser parser;
+    private Variable a, b, r;
+
+    @BeforeEach
+    void setUp() {
+        parser = newParser();
+        a = parser.setVariable("a", 0);
+        b = parser.setVariable("b", 0);
+        r = parser.setVariable("r", 0);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (ExpressionServer server : servers)
+            server.close();
+    }
+
+    private static ExpressionParser newParser() {
+        ExpressionParser parser = new ExpressionParser();
+        parser.registerFunction("hypot", Math::hypot, FunctionProperties.PURE);
+        return parser;
+    }
+
+    private InetSocketAddress startWorker() throws IOException {
+        ExpressionServer server = new ExpressionServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), PartitionTests::newParser);
+        server.start();
+        servers.add(server);
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    private static double[][] rows(int count) {
+        Random random = new Random(48);
+        double[][] rows = new double[count][];
+        for (int i = 0; i < count; i++)
+            rows[i] = new double[]{random.nextInt(20) - 5, random.nextInt(10), random.nextInt(12)};
+        return rows;
+    }
+
+    private void assertResults(Node node, double[][] rows, Object[] results) {
+        assertEquals(rows.length, results.length);
+        for (int i = 0; i < rows.length; i++) {
+            a.set(rows[i][0]);
+            b.set(rows[i][1]);
+            r.set(rows[i][2]);
+            Object expected;
+            try {
+                expected = node.evaluate();
+            } catch (RuntimeException ex) {
+                expected = ex;
+            }
+            if (expected instanceof RuntimeException)
+                assertEquals(((RuntimeException) expected).getMessage(), ((RuntimeException) results[i]).getMessage(), "row " + i);
+            else assertEquals(expected, results[i], "row " + i);
+        }
+    }
+
+    @Test
+    void codec() throws ParseException {
+        parser.setVariable("k", 2.5);
+        parser.setFastMath(true);
+        String[] expressions = {EXPRESSION, "k * a - cos(b)", "!(a > b) or a == PI", "-(a + 1) / 4 - exp(b) * 2"};
+        Random random = new Random(7);
+        for (String expression : expressions) {
+            Node node = parser.parseExpression(expression);
+            for (Node tree : new Node[]{node, parser.optimize(node)}) {
+                ExpressionParser reader = newParser();
+                Variable ra = reader.setVariable("a", 0), rb = reader.setVariable("b", 0);
+                Node decoded = ExpressionCodec.decode(ExpressionCodec.encode(tree), reader);
+                if (expression.startsWith("k"))
+                    assertEquals(2.5, reader.getVariable("k").get());//declared with the value it had
+                for (int i = 0; i < 50; i++) {
+                    double x = random.nextInt(10) - 3, y = random.nextInt(10);
+                    a.set(x);
+                    b.set(y);
+                    r.set(4);
+                    ra.set(x);
+                    rb.set(y);
+                    reader.setVariable("r", 4);
+                    assertEquals(tree.evaluate(), decoded.evaluate(), expression);
+                }
+            }
+        }
+        byte[] bytes = ExpressionCodec.encode(parser.parseExpression(EXPRESSION));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(bytes, new ExpressionParser()));//no hypot
+        byte[] truncated = java.util.Arrays.copyOf(bytes, bytes.length - 3);
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(truncated, newParser()));
+        assertThrows(IllegalArgumentException.class, () -> ExpressionCodec.decode(nested(100_000), newParser()));//not a StackOverflowError
+        assertEquals(-1.0, ExpressionCodec.decode(nested(501), newParser()).evaluate());
+    }
+
+//binary form of - - ... - 1 with the given number of unary minus
+    private static byte[] nested(int depth) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(1);//version
+            for (int i = 0; i < depth; i++) {
+                out.writeByte(6);//unary
+                out.writeUTF("minus");
+            }
+            out.writeByte(1);//number
+            out.writeDouble(1);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void partitionedJob() throws IOException, ParseException {
+        List<InetSocketAddress> workers = List.of(startWorker(), startWorker(), startWorker());
+        PartitionCoordinator coordinator = new PartitionCoordinator(workers);
+        coordinator.setPartitionSize(97);
+        Node node = parser.parseExpression(EXPRESSION);
+        double[][] rows = rows(5000);
+        assertResults(node, rows, coordinator.evaluate(node, rows, a, b, r));
+        assertEquals(0, coordinator.getReassignments());
+        long evaluations = 0;
+        for (ExpressionServer server : servers)
+            evaluations += server.getEvaluations();
+        assertEquals(rows.length, evaluations);
+
+        Node failing = parser.parseExpression("a > 0 ? a : unknown");//errors of some rows are returned in place of their values
+        Object[] results = coordinator.evaluate(failing, rows, a, b, r);
+        assertResults(failing, rows, results);
+        assertTrue(List.of(results).stream().anyMatch(result -> result instanceof RuntimeException));
+        assertEquals(0, coordinator.evaluate(node, new double[0][], a, b, r).length);
+    }
+
+    @Test
+    void deadWorkers() throws IOException, ParseException, InterruptedException {
+        int refused;
+        try (ServerSocket unused = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            refused = unused.getLocalPort();
+        }
+        try (ServerSocket crashing = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread crash = new Thread(() -> {//answers the load of the coordinator, then dies reading its first partition
+                try (Socket socket = crashing.accept()) {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    in.readFully(new byte[in.readInt()]);
+                    out.writeInt(9);
+                    out.writeInt(0);
+                    out.writeByte(Protocol.HANDLE);
+                    out.writeInt(0);
+                    out.flush();
+                    in.readInt();
+                    in.readFully(new byte[10]);
+                } catch (IOException ignored) {
+                }
+            });
+            crash.start();
+            PartitionCoordinator coordinator = new PartitionCoordinator(List.of(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), crashing.getLocalPort()),
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), refused),
+                    startWorker()));
+            coordinator.setPartitionSize(50);
+            Node node = parser.parseExpression(EXPRESSION);
+            double[][] rows = rows(2000);
+            assertResults(node, rows, coordinator.evaluate(node, rows, a, b, r));
+            crash.join();
+            assertEquals(1, coordinator.getReassignments());
+        }
+    }
+
+    @Test
+    void partitionOffSelector() throws Exception {//a partition being evaluated doesn't stop the other requests
+        CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        ExpressionServer server = new ExpressionServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), () -> {
+            ExpressionParser workerParser = new ExpressionParser();
+            workerParser.registerFunction("gate", x -> {
+                started.countDown();
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return x;
+            });
+            return workerParser;
+        });
+        server.start();
+        servers.add(server);
+        String host = InetAddress.getLoopbackAddress().getHostAddress();
+        ExpressionParser gated = new ExpressionParser();
+        gated.registerFunction("gate", x -> x);
+        gated.setVariable("a", 0);
+        try (ExpressionClient slow = new ExpressionClient(host, server.getPort()); ExpressionClient fast = new ExpressionClient(host, server.getPort())) {
+            int handle = slow.register(gated.parseExpression("gate(a) * 2"), "a");
+            FutureTask<Object[]> partition = new FutureTask<>(() -> slow.evaluatePartition(handle, new double[][]{{1}, {2}, {3}}, 0, 3));
+            new Thread(partition).start();
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            fast.setTimeout(10_000);
+            assertEquals(4.0, fast.evaluate(fast.register("a + 1", "a"), 3));
+            release.countDown();
+            assertArrayEquals(new Object[]{2.0, 4.0, 6.0}, partition.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void hungWorker() throws IOException, ParseException {
+        try (ServerSocket hung = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {//accepts but never answers
+            PartitionCoordinator coordinator = new PartitionCoordinator(List.of(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), hung.getLocalPort()), startWorker()));
+            coordinator.setTimeout(300);
+            coordinator.setPartitionSize(10);
+            Node node = parser.parseExpression(EXPRESSION);
+            double[][] rows = rows(100);
+            assertResults(node, rows, coordinator.evaluate(node, rows, a, b, r));
+        }
+    }
+
+    @Test
+    void failures() throws IOException, ParseException {
+        ExpressionServer plain = new ExpressionServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), ExpressionParser::new);
+        plain.start();
+        servers.add(plain);
+        PartitionCoordinator rejecting = new PartitionCoordinator(List.of(new InetSocketAddress(InetAddress.getLoopbackAddress(), plain.getPort())));
+        Node node = parser.parseExpression(EXPRESSION);
+        IllegalArgumentException rejected = assertThrows(IllegalArgumentException.class, () -> rejecting.evaluate(node, rows(10), a, b, r));
+        assertTrue(rejected.getMessage().contains("hypot"), rejected.getMessage());
+
+        int port;
+        try (ServerSocket unused = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            port = unused.getLocalPort();
+        }
+        PartitionCoordinator unreachable = new PartitionCoordinator(List.of(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+        IOException failed = assertThrows(IOException.class, () -> unreachable.evaluate(node, rows(10), a, b, r));
+        assertEquals(1, failed.getSuppressed().length);
+        assertThrows(IllegalArgumentException.class, () -> unreachable.evaluate(node, new double[][]{{1, 2}}, a, b, r));
+        assertThrows(IllegalArgumentException.class, () -> new PartitionCoordinator(List.of()));
+    }
+
+    @Test
+    void workerProcesses() throws IOException, ParseException, InterruptedException {
+        List<Process> processes = new ArrayList<>();
+        List<InetSocketAddress> workers = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                Process process = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                        "-cp", System.getProperty("java.class.path"), "server.ExpressionServer", "0").redirectErrorStream(true).start();
+                processes.add(process);
+                String line = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)).readLine();
+                assertNotNull(line, "worker process not started");
+                workers.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1))));
+            }
+            PartitionCoordinator coordinator = new PartitionCoordinator(workers);
+            coordinator.setPartitionSize(100);
+            Node node = parser.parseExpression("a * a + b > r ? sqrt(a * a + b * b) : r - b");
+            double[][] rows = rows(20_000);
+            assertResults(node, rows, coordinator.evaluate(node, rows, a, b, r));
+
+            Thread killer = new Thread(() -> processes.get(0).destroyForcibly());//the first worker dies during the job
+            killer.start();
+            assertResults(node, rows, coordinator.evaluate(node, rows, a, b, r));
+            killer.join();
+            processes.get(0).waitFor();
+            assertResults(node, rows, coordinator.evaluate(node, rows, a, b, r));//only the second worker is left
+        } finally {
+            for (Process process : processes)
+                process.destroyForcibly();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package test;
+
+import math.ExpressionCodec;
+import math.ExpressionParser;
+import math.Node;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the power operator: precedence and associativity, results of the repeated squaring against Math.pow,
+ * type errors, and the rewriting of polynomials into Horner form by optimize().
+ */
+public class PowerTests {
+    private ExpressionParser parser;
+    private Variable x, y;
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+    }
+
+    private double eval(String expression) throws ParseException {
+        return parser.parseExpression(expression).evaluateDouble();
+    }
+
+    @Test
+    void precedence() throws ParseException {
+        assertEquals(512.0, eval("2 ^ 3 ^ 2"));//right associative
+        assertEquals(64.0, eval("(2 ^ 3) ^ 2"));
+        assertEquals(-4.0, eval("-2 ^ 2"));
+        assertEquals(4.0, eval("(-2) ^ 2"));
+        assertEquals(18.0, eval("2 * 3 ^ 2"));
+        assertEquals(0.25, eval("2 ^ -2"));
+        assertEquals(-0.25, eval("-2 ^ -2"));
+        assertEquals(10.0, eval("1 + 3 ^ 2"));
+        assertEquals(1.0 / 8, eval("2 ^ -3 ^ 1"));
+        assertTrue(parser.parseExpression("2 ^ 3 > 7 and 3 ^ 2 == 9").evaluateBoolean());
+        assertEquals("(2.0 ^ (3.0 ^ x))", parser.visit(parser.parseExpression("2 ^ 3 ^ x")));
+        assertThrows(ParseException.class, () -> parser.parseExpression("2 ^"));
+        assertThrows(ParseException.class, () -> parser.parseExpression("^ 2"));
+    }
+
+    @Test
+    void repeatedSquaring() throws ParseException {
+        Node power = parser.parseExpression("x ^ y");
+        Random random = new Random(49);
+        for (int i = 0; i < 2000; i++) {
+            double base = (random.nextDouble() - 0.5) * 8, exponent = random.nextInt(129) - 64;
+            x.set(base);
+            y.set(exponent);
+            double expected = Math.pow(base, exponent);
+            assertEquals(expected, power.evaluateDouble(), Math.abs(expected) * 1e-13, base + " ^ " + exponent);
+        }
+        for (double exponent : new double[] {0.5, -1.5, 65, 1e10, Double.NaN, Double.POSITIVE_INFINITY}) {
+            x.set(1.7);
+            y.set(exponent);
+            assertEquals(Math.pow(1.7, exponent), power.evaluateDouble(), "1.7 ^ " + exponent);
+        }
+        x.set(Double.NaN);
+        y.set(0);
+        assertEquals(1.0, power.evaluateDouble());
+        x.set(0);
+        y.set(-1);
+        assertEquals(Double.POSITIVE_INFINITY, power.evaluateDouble());
+        x.set(-8);
+        y.set(1.0 / 3);
+        assertTrue(Double.isNaN(power.evaluateDouble()));
+    }
+
+    @Test
+    void negativeExponentLimits() throws ParseException {//x ^ -n must not overflow or underflow where Math.pow doesn't
+        Node power = parser.parseExpression("x ^ y"), square = parser.parseExpression("x ^ -2");
+        double[][] cases = {{1e160, -2}, {1e-154, -2}, {1e-160, -2}, {1e300, -1}, {1e100, -3}, {1e-100, -3}, {-1e160, -3}, {1e-5, -61}, {Double.MIN_VALUE, -1}};
+        for (double[] c : cases) {
+            x.set(c[0]);
+            y.set(c[1]);
+            double expected = Math.pow(c[0], c[1]);
+            assertEquals(expected, power.evaluateDouble(), Math.abs(expected) * 1e-13, c[0] + " ^ " + c[1]);
+            if (expected == 0 || Double.isInfinite(expected))
+                assertEquals(expected, power.evaluateDouble(), c[0] + " ^ " + c[1]);
+        }
+        x.set(1e160);
+        assertEquals(1e-320, square.evaluateDouble());//not 1 / Infinity
+        assertEquals(0.01, eval("10 ^ -2"));//exact in the common cases, as by Math.pow
+        assertEquals(0.001, eval("10 ^ -3"));
+        assertEquals(0.125, eval("2 ^ -3"));
+        x.set(10);
+        y.set(-2);
+        assertEquals(0.01, power.evaluateDouble());
+        assertEquals(0.01, square.evaluateDouble());
+        x.set(1e-154);
+        assertEquals(1e308, square.evaluateDouble());
+    }
+
+    @Test
+    void typeErrors() throws ParseException {
+        parser.setTypeChecking(true);
+        ParseException error = assertThrows(ParseException.class, () -> parser.parseExpression("x ^ (y > 1)"));
+        assertEquals(4, error.getErrorOffset());
+        assertThrows(ParseException.class, () -> parser.parseExpression("true ^ 2"));
+        x.set(3);
+        assertEquals(8.0, parser.parseExpression("2 ^ x").evaluate());
+    }
+
+    @Test
+    void codec() throws ParseException {
+        Node node = parser.parseExpression("x ^ 3 - 2 ^ y ^ 0.5");
+        ExpressionParser reader = new ExpressionParser();
+        Variable rx = reader.setVariable("x", 0), ry = reader.setVariable("y", 0);
+        Node decoded = ExpressionCodec.decode(ExpressionCodec.encode(node), reader);
+        for (int i = -5; i < 5; i++) {
+            x.set(i * 0.75);
+            y.set(i + 5);
+            rx.set(i * 0.75);
+            ry.set(i + 5);
+            assertEquals(node.evaluate(), decoded.evaluate());
+        }
+    }
+
+    @Test
+    void hornerForm() throws ParseException {
+        String[] polynomials = {
+            "3 * x ^ 3 - 2 * x ^ 2 + x - 7", "(x + 1) ^ 5", "x * x * x + x * x", "x ^ 8 + x", "-(x - 2) * (x + 3) / 4",
+            "sin(x * x + 2 * x + 1) + y", "x ^ 2 + y ^ 2", "(x - 1) * (x - 2) * (x - 3) > y ? x ^ 4 - 1 : y"
+        };
+        parser.setPolynomialRewriting(true);
+        Random random = new Random(11);
+        for (String polynomial : polynomials) {
+            Node node = parser.parseExpression(polynomial), horner = parser.optimize(node);
+            for (int i = 0; i < 200; i++) {
+                x.set((random.nextDouble() - 0.5) * 20);
+                y.set((random.nextDouble() - 0.5) * 20);
+                Object expected = node.evaluate();
+                if (expected instanceof Boolean) {
+                    if (Math.abs((x.get() - 1) * (x.get() - 2) * (x.get() - 3) - y.get()) > 1e-6)//far from the boundary
+                        assertEquals(expected, horner.evaluate(), polynomial);
+                } else assertEquals((Double) expected, horner.evaluateDouble(), Math.abs((Double) expected) * 1e-12 + 1e-9, polynomial);
+            }
+        }
+        assertEquals("((((((3.0 * x) - 2.0) * x) + 1.0) * x) - 7.0)", parser.visit(parser.optimize(parser.parseExpression(polynomials[0]))));
+        assertEquals("(((x ^ 8.0) + x) + 1.0)", parser.visit(parser.optimize(parser.parseExpression("x ^ 8 + x + 1"))));//not smaller
+        assertEquals("sin((((x + 2.0) * x) + 1.0))", parser.visit(parser.optimize(parser.parseExpression("sin(x * x + 2 * x + 1)"))));
+        assertEquals("((x ^ 2.0) + (y ^ 2.0))", parser.visit(parser.optimize(parser.parseExpression("x ^ 2 + y ^ 2"))));//two variables
+        assertEquals("((x * 2.0) + 1.0)", parser.visit(parser.optimize(parser.parseExpression("x * 2 + 1"))));//degree 1
+
+        parser.setPolynomialRewriting(false);
+        assertEquals("((x * x) + (2.0 * x))", parser.visit(parser.optimize(parser.parseExpression("x * x + 2 * x"))));
+    }
+}
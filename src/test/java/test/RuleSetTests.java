@@ -0,0 +1,159 @@
+package test;
+
+import math.ExpressionParser;
+import math.FunctionProperties;
+import math.Node;
+import math.RuleSet;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of rule sets: matches are checked against the evaluation of each rule on its own, and shared predicates are
+ * checked to be evaluated once per event.
+ */
+public class RuleSetTests {
+    private static final String[] PREDICATES = {
+        "price > 100", "price <= 50", "sqrt(a * a + b * b) < r", "a > b", "counted(a) > 0", "!(b == 2)", "r >= a + b"
+    };
+
+    private ExpressionParser parser;
+    private Variable price, a, b, r;
+    private int calls;
+    private final Random random = new Random(7);
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        price = parser.setVariable("price", 0);
+        a = parser.setVariable("a", 0);
+        b = parser.setVariable("b", 0);
+        r = parser.setVariable("r", 0);
+        calls = 0;
+        parser.registerFunction("counted", v -> {
+            calls++;
+            return v;
+        }, FunctionProperties.PURE);
+        parser.registerFunction("impure", v -> {
+            calls++;
+            return v;
+        });
+    }
+
+    private String randomRule() {
+        StringBuilder sb = new StringBuilder(PREDICATES[random.nextInt(PREDICATES.length)]);
+        for (int n = random.nextInt(3); n > 0; n--)
+            sb.append(random.nextBoolean() ? " and " : " or ").append(PREDICATES[random.nextInt(PREDICATES.length)]);
+        return sb.toString();
+    }
+
+    private void randomEvent() {
+        price.set(random.nextInt(200));
+        a.set(random.nextInt(5));
+        b.set(random.nextInt(5));
+        r.set(random.nextInt(8));
+    }
+
+    private BitSet expected(Node[] rules) {
+        BitSet matches = new BitSet();
+        for (int id = 0; id < rules.length; id++) {
+            if (rules[id] != null && rules[id].evaluateBoolean())
+                matches.set(id);
+        }
+        return matches;
+    }
+
+    @Test
+    void matchesAgreeWithRules() throws ParseException {
+        Node[] rules = new Node[500];
+        RuleSet ruleSet = new RuleSet();
+        for (int id = 0; id < rules.length; id++) {
+            rules[id] = parser.parseExpression(randomRule());
+            ruleSet.addRule(id, rules[id]);
+        }
+        for (int i = 0; i < 100; i++) {
+            randomEvent();
+            assertEquals(expected(rules), ruleSet.match());
+        }
+    }
+
+    @Test
+    void sharedPredicatesAreEvaluatedOnce() throws ParseException {
+        RuleSet ruleSet = new RuleSet();
+        for (int id = 0; id < 100; id++)
+            ruleSet.addRule(id, parser.parseExpression("counted(a) > 0 and price > " + id));
+        a.set(1);
+        price.set(50);
+        BitSet matches = ruleSet.match();
+        assertEquals(1, calls);
+        assertEquals(50, matches.cardinality());
+        assertEquals(0, matches.nextSetBit(0));
+        assertEquals(202, ruleSet.getNetworkSize());//counted(a), counted(a) > 0, then 100 comparisons of price and 100 rules
+        ruleSet.match();
+        assertEquals(2, calls);
+    }
+
+    @Test
+    void impureCallsAreNotShared() throws ParseException {
+        RuleSet ruleSet = new RuleSet();
+        ruleSet.addRule(1, parser.parseExpression("impure(a) > 0 and price > 1"));
+        ruleSet.addRule(2, parser.parseExpression("impure(a) > 0 or price > 1"));
+        a.set(1);
+        ruleSet.match();
+        assertEquals(2, calls);
+        assertEquals(1, ruleSet.getNetworkSize());//price > 1
+    }
+
+    @Test
+    void addAndRemoveRules() throws ParseException {
+        Node[] rules = new Node[200];
+        RuleSet ruleSet = new RuleSet();
+        for (int i = 0; i < 2000; i++) {
+            int id = random.nextInt(rules.length);
+            if (random.nextInt(3) == 0) {
+                assertEquals(rules[id] != null, ruleSet.removeRule(id));
+                rules[id] = null;
+            } else {
+                rules[id] = parser.parseExpression(randomRule());
+                ruleSet.addRule(id, rules[id]);
+            }
+            if (i % 10 == 0) {
+                randomEvent();
+                assertEquals(expected(rules), ruleSet.match());
+            }
+        }
+        for (int id = 0; id < rules.length; id++)
+            ruleSet.removeRule(id);
+        assertEquals(0, ruleSet.getRuleCount());
+        assertEquals(0, ruleSet.getNetworkSize());
+        assertTrue(ruleSet.match().isEmpty());
+    }
+
+    @Test
+    void optimizedRules() throws ParseException {
+        RuleSet ruleSet = new RuleSet();
+        ruleSet.addRule(3, parser.optimize(parser.parseExpression("counted(a) + counted(a) > 2")));
+        ruleSet.addRule(4, parser.adaptive(parser.parseExpression("a > 1 and b > 1 and counted(a) + counted(a) > 2")));
+        ruleSet.addRule(5, parser.parseExpression("1 < 2"));
+        a.set(2);
+        b.set(2);
+        BitSet matches = ruleSet.match();
+        assertEquals(1, calls);
+        assertEquals(3, matches.cardinality());
+        assertTrue(ruleSet.contains(5));
+    }
+
+    @Test
+    void errors() throws ParseException {
+        RuleSet ruleSet = new RuleSet();
+        assertThrows(IllegalArgumentException.class, () -> ruleSet.addRule(1, parser.parseExpression("price + 1")));
+        assertThrows(IllegalArgumentException.class, () -> ruleSet.addRule(-1, parser.parseExpression("price > 1")));
+        assertFalse(ruleSet.removeRule(1));
+    }
+}
@@ -0,0 +1,181 @@
+package test;
+
+import math.ExpressionParser;
+import math.FunctionProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.ExpressionClient;
+import server.ExpressionServer;
+import server.Protocol;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the expression server on localhost.
+ */
+public class ServerTests {
+    private ExpressionServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new ExpressionServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), () -> {
+            ExpressionParser parser = new ExpressionParser();
+            parser.registerFunction("hypot", Math::hypot, FunctionProperties.PURE);
+            return parser;
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    private ExpressionClient client() throws IOException {
+        return new ExpressionClient(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort());
+    }
+
+    @Test
+    void registerAndEvaluate() throws IOException {
+        try (ExpressionClient client = client()) {
+            int handle = client.register("hypot(x, y) * k", "x", "y", "k");
+            assertEquals(10.0, client.evaluate(handle, 3, 4, 2));
+            int predicate = client.register("x > 1 and y < 2", "x", "y");
+            assertEquals(true, client.evaluate(predicate, 2, 1));
+            assertEquals(false, client.evaluate(predicate, 0, 1));
+            assertEquals(handle, client.register("hypot(x, y) * k", "x", "y", "k"));
+            assertEquals(Math.PI, client.evaluate(client.register("PI")));
+        }
+    }
+
+    @Test
+    void pipelinedRequestsAreBatched() throws IOException {
+        try (ExpressionClient client = client()) {
+            int handle = client.register("x * x + y", "x", "y");
+            double[][] rows = new double[5000][];
+            for (int i = 0; i < rows.length; i++)
+                rows[i] = new double[] {i, 0.5};
+            Object[] results = client.evaluate(handle, rows);
+            for (int i = 0; i < rows.length; i++)
+                assertEquals(i * (double) i + 0.5, results[i]);
+        }
+        assertEquals(5000, server.getEvaluations());
+        assertTrue(server.getBatches() < 5000, "batches: " + server.getBatches());
+    }
+
+    @Test
+    void concurrentConnections() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < 8; c++) {
+                int connection = c;
+                futures.add(executor.submit(() -> {
+                    try (ExpressionClient client = client()) {
+                        int handle = client.register("a * 1000 + b", "a", "b");
+                        for (int n = 0; n < 20; n++) {
+                            double[][] rows = new double[100][];
+                            for (int i = 0; i < rows.length; i++)
+                                rows[i] = new double[] {connection, i};
+                            Object[] results = client.evaluate(handle, rows);
+                            for (int i = 0; i < rows.length; i++)
+                                assertEquals(connection * 1000.0 + i, results[i]);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(16_000, server.getEvaluations());
+    }
+
+    @Test
+    void errors() throws IOException {
+        try (ExpressionClient client = client()) {
+            IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> client.register("x +", "x"));
+            assertTrue(ex.getMessage().contains("position"), ex.getMessage());
+            int handle = client.register("x > 1 ? x : x > 0", "x");
+            assertEquals(2.0, client.evaluate(handle, 2));
+            assertEquals(true, client.evaluate(handle, 0.5));
+            assertThrows(RuntimeException.class, () -> client.evaluate(handle, 1, 2));
+            assertThrows(RuntimeException.class, () -> client.evaluate(12345, 1));
+            Object[] results = client.evaluateAll(client.register("x + y", "x"), new double[][] {{1}});//y is not declared
+            assertInstanceOf(RuntimeException.class, results[0]);
+            assertEquals(3.0, client.evaluate(client.register("x + 1", "x"), 2));//the connection is still usable
+        }
+    }
+
+    @Test
+    void resetWithPendingResponses() throws Exception {
+        try (ExpressionClient client = client()) {
+            int handle = client.register("x * 2", "x");
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<?> busy = executor.submit(() -> {//keeps responses pending for another connection in every round
+                    double[][] rows = new double[200][];
+                    for (int i = 0; i < rows.length; i++)
+                        rows[i] = new double[] {i};
+                    for (int i = 0; i < 100; i++)
+                        client.evaluate(handle, rows);
+                    return null;
+                });
+                for (int i = 0; i < 100; i++) {
+                    try (Socket socket = new Socket()) {
+                        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()), 5000);
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                        for (int r = 0; r < 2000; r++) {//pipelined requests, never read
+                            out.writeInt(19);
+                            out.writeByte(Protocol.EVALUATE);
+                            out.writeInt(r);
+                            out.writeInt(handle);
+                            out.writeShort(1);
+                            out.writeDouble(r);
+                        }
+                        out.flush();
+                        socket.setSoLinger(true, 0);//closed with a reset, the responses can't be written
+                    }
+                }
+                busy.get(60, TimeUnit.SECONDS);
+            } finally {
+                executor.shutdown();
+            }
+        }
+        try (ExpressionClient client = client()) {//the server is still running
+            assertEquals(4.0, client.evaluate(client.register("2 * 2")));
+        }
+        assertTrue(server.isRunning());
+        assertNull(server.getFailure());
+    }
+
+    @Test
+    void invalidFrameClosesTheConnection() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(-1);
+            out.flush();
+            assertEquals(-1, new DataInputStream(socket.getInputStream()).read());
+        }
+        try (ExpressionClient client = client()) {
+            assertEquals(4.0, client.evaluate(client.register("2 * 2")));
+        }
+    }
+}
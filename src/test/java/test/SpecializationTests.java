@@ -0,0 +1,115 @@
+package test;
+
+import math.BinaryNode;
+import math.ExpressionParser;
+import math.Node;
+import math.NodeDouble;
+import math.UnaryNodeIdentifier;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the specialized nodes: they must evaluate as the generic nodes, for every operator and built-in function,
+ * with and without constant operands.
+ */
+public class SpecializationTests {
+    private static final String[] EXPRESSIONS = {
+        "x + y", "x + 2", "2 + x", "x - y", "x - 2", "2 - x", "x * y", "x * 3", "3 * x", "x / y", "x / 4", "4 / x", "-x",
+        "x < y", "x < 1", "1 < x", "x <= y", "x <= 1", "x > y", "x > 1", "x >= y", "x >= 1", "x == y", "x == 1",
+        "x != y", "x != 1", "(x > 0) == (y > 0)", "(x > 0) != (y > 0)", "x > 0 and y > 0", "x > 0 or y > 0", "!(x > y)",
+        "sin(x)", "cos(x)", "tan(x)", "log(y)", "exp(x)", "sqrt(y)", "PI * x + E", "true and x > 0", "false or x > 0",
+        "x > 0 ? x * 2 - 1 : -y / 3", "x ^ y", "x ^ 2", "x ^ 3", "x ^ -5", "x ^ 0.5", "2 ^ x", "-x ^ 2 ^ y"
+    };
+    private static final double[] VALUES = {0.0, -0.0, 1, -1, 2.5, 1e300, Double.NaN, Double.POSITIVE_INFINITY};
+
+    private ExpressionParser specialized, generic;
+    private Variable sx, sy, gx, gy;
+
+    @BeforeEach
+    void setUp() {
+        specialized = new ExpressionParser();
+        sx = specialized.setVariable("x", 0);
+        sy = specialized.setVariable("y", 0);
+        generic = new ExpressionParser();
+        generic.setSpecializedNodes(false);
+        gx = generic.setVariable("x", 0);
+        gy = generic.setVariable("y", 0);
+    }
+
+    @Test
+    void sameResults() throws ParseException {
+        for (String expression : EXPRESSIONS) {
+            Node a = specialized.parseExpression(expression), b = generic.parseExpression(expression);
+            Node optimized = specialized.optimize(b);
+            assertEquals(specialized.visit(a), generic.visit(b));
+            for (double x : VALUES) {
+                for (double y : VALUES) {
+                    sx.set(x);
+                    sy.set(y);
+                    gx.set(x);
+                    gy.set(y);
+                    Object expected = b.evaluate();
+                    assertEquals(expected, a.evaluate(), expression + " at " + x + ", " + y);
+                    assertEquals(expected, optimized.evaluate(), expression + " at " + x + ", " + y);
+                    if (expected instanceof Double)
+                        assertEquals(expected, a.evaluateDouble());
+                    else assertEquals(expected, a.evaluateBoolean());
+                }
+            }
+        }
+    }
+
+    @Test
+    void typeErrors() throws ParseException {
+        for (String expression : new String[] {"true + 1", "-(x > 1)", "!x", "x and true", "sin(x > 1)", "(x > 1) < 2"}) {
+            Node node = specialized.parseExpression(expression);
+            assertThrows(ClassCastException.class, node::evaluate, expression);
+        }
+        assertThrows(RuntimeException.class, specialized.parseExpression("unknown * 2")::evaluate);
+        assertThrows(ClassCastException.class, specialized.parseExpression("x + 1")::evaluateBoolean);
+        assertThrows(ClassCastException.class, specialized.parseExpression("x > 1")::evaluateDouble);
+    }
+
+    @Test
+    void specializedFunctions() throws ParseException {
+        UnaryNodeIdentifier sin = (UnaryNodeIdentifier) specialized.parseExpression("sin(x)");
+        sin.set("sin");
+        assertEquals(0.0, sin.evaluate());
+        sin.set("cos");//as the visualizer does
+        assertEquals(1.0, sin.evaluate());
+        assertEquals("cos(x)", specialized.visit(sin));
+        sin.set("sin");
+        assertEquals(0.0, sin.evaluate());
+        UnaryNodeIdentifier plain = (UnaryNodeIdentifier) generic.parseExpression("sin(x)");
+        plain.set("cos");
+        assertEquals(1.0, plain.evaluate());
+        assertThrows(IllegalArgumentException.class, () -> sin.set("cosh"));
+    }
+
+    @Test
+    void editedConstants() throws ParseException {
+        sx.set(3);
+        String[] expressions = {"x + 2", "2 + x", "x - 2", "x * 2", "2 * x", "x / 2", "x < 2", "x <= 2", "x > 2", "x >= 2", "x ^ 2", "x ^ 3"};
+        double[] edited = {13, 13, -7, 30, 30, 0.3, 1, 1, 0, 0, 59049, 59049};//1 for true
+        for (int i = 0; i < expressions.length; i++) {
+            BinaryNode node = (BinaryNode) specialized.parseExpression(expressions[i]);
+            NodeDouble constant = (NodeDouble) (node.getRight() instanceof NodeDouble ? node.getRight() : node.getLeft());
+            constant.set(10.0);//as the visualizer does
+            Object actual = node.evaluate();
+            if (actual instanceof Boolean)
+                assertEquals(edited[i] != 0, actual, expressions[i]);
+            else assertEquals(edited[i], (Double) actual, 1e-12, expressions[i]);
+        }
+        BinaryNode square = (BinaryNode) specialized.parseExpression("x ^ 2");
+        ((NodeDouble) square.getRight()).set(0.5);
+        assertEquals(Math.sqrt(3), square.evaluate());
+        BinaryNode cube = (BinaryNode) specialized.parseExpression("x ^ 3");
+        ((NodeDouble) cube.getRight()).set(2.0);
+        assertEquals(9.0, cube.evaluate());
+    }
+}
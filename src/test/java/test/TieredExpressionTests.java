@@ -0,0 +1,119 @@
+package test;
+
+import math.ExpressionParser;
+import math.Node;
+import math.TieredExpression;
+import math.TieredExpression.Tier;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of tiered expressions: the tiers must be reached at their thresholds, give the same results as the parsed
+ * tree, and never make the callers wait; expressions that can't be compiled must stay in the optimized tier.
+ */
+public class TieredExpressionTests {
+    private ExpressionParser parser;
+    private Variable x, y;
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+        parser.registerFunction("cube", v -> v * v * v);
+    }
+
+    @Test
+    void promotions() throws ParseException {
+        Node node = parser.parseExpression("x * 2 + sin(y) > 1 ? sqrt(x * x + y * y) : -x / (y - 1)");
+        TieredExpression tiered = new TieredExpression(node, Runnable::run);//tiers built by the caller
+        tiered.setThresholds(10, 50);
+        double[] values = {0.0, -0.0, 1, -1, 2.5, -3.75, Double.NaN, Double.POSITIVE_INFINITY};
+        Random random = new Random(11);
+        for (int i = 1; i <= 300; i++) {
+            x.set(values[random.nextInt(values.length)]);
+            y.set(values[random.nextInt(values.length)]);
+            assertEquals(node.evaluate(), tiered.evaluate(), "evaluation " + i + " in tier " + tiered.getTier());
+            if (i < 10)
+                assertEquals(Tier.INTERPRETED, tiered.getTier());
+            else if (i < 50)
+                assertEquals(Tier.OPTIMIZED, tiered.getTier());
+            else assertEquals(Tier.COMPILED, tiered.getTier(), String.valueOf(tiered.getCompilationError()));
+        }
+        assertEquals(10, tiered.getInvocations(Tier.INTERPRETED));
+        assertEquals(40, tiered.getInvocations(Tier.OPTIMIZED));
+        assertEquals(250, tiered.getInvocations(Tier.COMPILED));
+        assertTrue(tiered.getBuildNanos(Tier.COMPILED) > 0);
+        assertNull(tiered.getCompilationError());
+    }
+
+    @Test
+    void booleanExpression() throws ParseException {
+        Node node = parser.parseExpression("x == y or !(x > 0) and y != 2");
+        TieredExpression tiered = new TieredExpression(node, Runnable::run);
+        tiered.setThresholds(0, 0);
+        for (double a = -1; a <= 2; a++) {
+            for (double b = -1; b <= 2; b++) {
+                x.set(a);
+                y.set(b);
+                assertEquals(node.evaluate(), tiered.evaluate());
+                assertEquals(node.evaluateBoolean(), tiered.evaluateBoolean());
+            }
+        }
+        assertEquals(Tier.COMPILED, tiered.getTier());
+        assertThrows(ClassCastException.class, tiered::evaluateDouble);
+    }
+
+    @Test
+    void userFunctionsStayOptimized() throws ParseException {
+        Node node = parser.parseExpression("cube(x) + y");
+        TieredExpression tiered = new TieredExpression(node, Runnable::run);
+        tiered.setThresholds(1, 2);
+        for (int i = 0; i < 10; i++) {
+            x.set(i);
+            assertEquals(i * i * i + 0.0, tiered.evaluateDouble());
+        }
+        assertEquals(Tier.OPTIMIZED, tiered.getTier());
+        assertTrue(tiered.getCompilationError() instanceof IllegalArgumentException);
+        assertEquals(9, tiered.getInvocations(Tier.OPTIMIZED));
+    }
+
+    @Test
+    void callersDontWait() throws ParseException {
+        List<Runnable> pending = new ArrayList<>();
+        TieredExpression tiered = new TieredExpression(parser.parseExpression("x + y"), pending::add);//tiers built later
+        tiered.setThresholds(5, 5);
+        x.set(1);
+        for (int i = 0; i < 100; i++)
+            assertEquals(1.0, tiered.evaluate());
+        assertEquals(Tier.INTERPRETED, tiered.getTier());
+        assertEquals(1, pending.size());//a single promotion at a time
+        pending.get(0).run();
+        assertEquals(Tier.COMPILED, tiered.getTier());
+        y.set(2);
+        assertEquals(3.0, tiered.evaluate());
+    }
+
+    @Test
+    void backgroundCompilation() throws ParseException, InterruptedException {
+        TieredExpression tiered = new TieredExpression(parser.parseExpression("x * x - y"));
+        tiered.setThresholds(10, 100);
+        x.set(3);
+        y.set(1);
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (tiered.getTier() != Tier.COMPILED && System.currentTimeMillis() < deadline) {
+            assertEquals(8.0, tiered.evaluate());
+            Thread.sleep(1);
+        }
+        assertEquals(Tier.COMPILED, tiered.getTier(), String.valueOf(tiered.getCompilationError()));
+        assertEquals(8.0, tiered.evaluateDouble());
+    }
+}
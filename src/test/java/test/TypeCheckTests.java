@@ -0,0 +1,121 @@
+package test;
+
+import math.BinaryNode;
+import math.ExpressionParser;
+import math.FunctionProperties;
+import math.Node;
+import math.ResultType;
+import math.TernaryNode;
+import math.Variable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the type checker: every node of a checked tree has a result type, type errors are reported with the offset
+ * of the wrong operand, and checked trees evaluate as the unchecked ones.
+ */
+public class TypeCheckTests {
+    private ExpressionParser parser;
+    private Variable x, y;
+
+    @BeforeEach
+    void setUp() {
+        parser = new ExpressionParser();
+        x = parser.setVariable("x", 0);
+        y = parser.setVariable("y", 0);
+        parser.registerFunction("cube", v -> v * v * v, FunctionProperties.PURE);
+        parser.registerFunction("max", Math::max);
+        parser.setTypeChecking(true);
+    }
+
+    private void assertTypeError(String expression, int offset) {
+        ParseException ex = assertThrows(ParseException.class, () -> parser.parseExpression(expression), expression);
+        assertEquals(offset, ex.getErrorOffset(), expression + ": " + ex.getMessage());
+    }
+
+    @Test
+    void resultTypes() throws ParseException {
+        assertEquals(ResultType.NUMBER, parser.parseExpression("x * 2 + sin(y)").getResultType());
+        assertEquals(ResultType.BOOLEAN, parser.parseExpression("x > 2 and !(y == 1)").getResultType());
+        assertEquals(ResultType.NUMBER, parser.parseExpression("x > 0 ? max(x, y) : -PI").getResultType());
+        assertEquals(ResultType.BOOLEAN, parser.parseExpression("(x > 0) == (y > 0)").getResultType());
+
+        Node node = parser.parseExpression("x > 1 ? true : false");
+        TernaryNode ternary = (TernaryNode) node;
+        assertEquals(ResultType.BOOLEAN, ternary.getLeft().getResultType());
+        assertEquals(ResultType.NUMBER, ((BinaryNode) ternary.getLeft()).getLeft().getResultType());
+        assertEquals(ResultType.BOOLEAN, ternary.getRight().getResultType());
+    }
+
+    @Test
+    void typeErrors() {
+        assertTypeError("true + 1", 0);
+        assertTypeError("1 + (2 > 1)", 4);
+        assertTypeError("x * 2 > 1 and y", 14);
+        assertTypeError("!x", 1);
+        assertTypeError("-(x > 1)", 1);
+        assertTypeError("cube(true)", 5);
+        assertTypeError("max(1, x < 2)", 7);
+        assertTypeError("sin(x == 1)", 4);
+        assertTypeError("x == true", 5);
+        assertTypeError("x ? 1 : 2", 0);
+        assertTypeError("x > 0 ? x : x > 1", 12);
+        assertTypeError("x + unknown", 4);
+    }
+
+    @Test
+    void positions() throws ParseException {
+        BinaryNode node = (BinaryNode) parser.parseExpression("x + (y * 2)");
+        assertEquals(0, node.getPosition());
+        assertEquals(4, node.getRight().getPosition());
+        assertEquals(2, parser.parseExpression("  x").getPosition());
+    }
+
+    @Test
+    void uncheckedParsing() throws ParseException {
+        parser.setTypeChecking(false);
+        Node node = parser.parseExpression("true + 1");
+        assertNull(node.getResultType());
+        assertThrows(ClassCastException.class, node::evaluate);
+        assertThrows(ParseException.class, () -> parser.typeCheck(node));
+        assertEquals(ResultType.BOOLEAN, parser.typeCheck(parser.parseExpression("x < 1")));
+    }
+
+    @Test
+    void optimizedTreesKeepTypes() throws ParseException {
+        Node node = parser.optimize(parser.parseExpression("cube(x) + cube(x) == 2 * x"));
+        assertEquals(ResultType.BOOLEAN, node.getResultType());
+        Node constant = parser.optimize(parser.parseExpression("1 + 2 > 2"));
+        assertEquals(ResultType.BOOLEAN, constant.getResultType());
+        assertEquals(true, constant.evaluate());
+    }
+
+    @Test
+    void sameResults() throws ParseException {
+        String[] expressions = {
+            "x == y", "x != y", "(x > 0) == (y > 0)", "(x > 0) != !(y > 0)", "x == 0 ? y : -y", "x * y == 0",
+            "cube(x) > y or x == y", "x > y ? x - y : y - x"
+        };
+        ExpressionParser unchecked = new ExpressionParser();
+        Variable ux = unchecked.setVariable("x", 0), uy = unchecked.setVariable("y", 0);
+        unchecked.registerFunction("cube", v -> v * v * v, FunctionProperties.PURE);
+        double[] values = {0.0, -0.0, 1, -1, 2.5, Double.NaN, Double.POSITIVE_INFINITY};
+        Random random = new Random(5);
+        for (String expression : expressions) {
+            Node checked = parser.parseExpression(expression), plain = unchecked.parseExpression(expression);
+            for (int i = 0; i < 200; i++) {
+                double a = values[random.nextInt(values.length)], b = values[random.nextInt(values.length)];
+                x.set(a);
+                y.set(b);
+                ux.set(a);
+                uy.set(b);
+                assertEquals(plain.evaluate(), checked.evaluate(), expression + " at " + a + ", " + b);
+            }
+        }
+    }
+}